@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.search;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import org.apache.solr.bench.BaseBenchState;
+import org.apache.solr.search.CaffeineCache;
+import org.apache.solr.search.SolrCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Benchmark for lookups in a {@link CaffeineCache} by many threads, without a searcher: the hit
+ * ratio is controlled by the number of distinct keys looked up relative to the cache size. Each
+ * operation is benchmarked with 1, 4 and 16 threads; other thread counts can be run with JMH's
+ * <code>-t</code> argument.
+ */
+@Fork(value = 1)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(time = 1, iterations = 3)
+@Measurement(time = 2, iterations = 5)
+public class CaffeineCacheContention {
+
+  @State(Scope.Benchmark)
+  public static class CacheState {
+
+    @Param({"1024", "65536"})
+    int size;
+
+    /** Distinct keys looked up, per entry of the cache; above 1, some lookups miss. */
+    @Param({"0.5", "2"})
+    double keysPerEntry;
+
+    @Param({"true", "false"})
+    boolean async;
+
+    CaffeineCache<Integer, Object> cache;
+    int numKeys;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+      cache = new CaffeineCache<>();
+      Map<String, String> args = new HashMap<>();
+      args.put(SolrCache.SIZE_PARAM, Integer.toString(size));
+      args.put(SolrCache.INITIAL_SIZE_PARAM, Integer.toString(size));
+      args.put(SolrCache.ASYNC_PARAM, Boolean.toString(async));
+      cache.init(args, null, null);
+      cache.setState(SolrCache.State.LIVE);
+      numKeys = (int) Math.max(1, size * keysPerEntry);
+      for (int key = 0; key < Math.min(numKeys, size); key++) {
+        cache.put(key, Integer.toString(key));
+      }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+      cache.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup(ThreadParams threadParams) {
+      // by thread index rather than id, so that runs with the same seed look up the same keys
+      random = new SplittableRandom(BaseBenchState.getRandomSeed() + threadParams.getThreadIndex());
+    }
+  }
+
+  private static Object get(CacheState cacheState, ThreadState threadState) {
+    return cacheState.cache.get(threadState.random.nextInt(cacheState.numKeys));
+  }
+
+  private static Object computeIfAbsent(CacheState cacheState, ThreadState threadState)
+      throws IOException {
+    return cacheState.cache.computeIfAbsent(
+        threadState.random.nextInt(cacheState.numKeys), Object::toString);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object get1(CacheState cacheState, ThreadState threadState) {
+    return get(cacheState, threadState);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object get4(CacheState cacheState, ThreadState threadState) {
+    return get(cacheState, threadState);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Object get16(CacheState cacheState, ThreadState threadState) {
+    return get(cacheState, threadState);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object computeIfAbsent1(CacheState cacheState, ThreadState threadState)
+      throws IOException {
+    return computeIfAbsent(cacheState, threadState);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object computeIfAbsent4(CacheState cacheState, ThreadState threadState)
+      throws IOException {
+    return computeIfAbsent(cacheState, threadState);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public Object computeIfAbsent16(CacheState cacheState, ThreadState threadState)
+      throws IOException {
+    return computeIfAbsent(cacheState, threadState);
+  }
+}
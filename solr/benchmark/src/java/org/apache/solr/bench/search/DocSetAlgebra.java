@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.search;
+
+import java.util.SplittableRandom;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.bench.BaseBenchState;
+import org.apache.solr.search.BitDocSet;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.RoaringDocSet;
+import org.apache.solr.search.SortedIntDocSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for the set operations of {@link DocSet}s, in isolation from any index or searcher:
+ * {@link BitDocSet}, {@link SortedIntDocSet} and {@link RoaringDocSet} operands of various sizes
+ * and densities, as the filterCache and the query result computation combine them.
+ */
+@Fork(value = 1)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(time = 1, iterations = 3)
+@Measurement(time = 2, iterations = 5)
+@Threads(value = 1)
+public class DocSetAlgebra {
+
+  @State(Scope.Benchmark)
+  public static class BenchState {
+
+    @Param({"100000", "10000000"})
+    int maxDoc;
+
+    /** Fraction of the documents in the left operand (the one the operation is called on). */
+    @Param({"0.001", "0.05", "0.5"})
+    double leftDensity;
+
+    /** Fraction of the documents in the right operand. */
+    @Param({"0.001", "0.05", "0.5"})
+    double rightDensity;
+
+    /**
+     * Implementations of the left and right operands: <code>bit</code> for {@link BitDocSet},
+     * <code>sorted</code> for {@link SortedIntDocSet}, <code>roaring</code> for {@link
+     * RoaringDocSet}.
+     */
+    @Param({
+      "bit:bit",
+      "bit:sorted",
+      "sorted:bit",
+      "sorted:sorted",
+      "roaring:roaring",
+      "roaring:bit",
+      "bit:roaring",
+      "roaring:sorted"
+    })
+    String types;
+
+    DocSet left;
+    DocSet right;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      SplittableRandom random = new SplittableRandom(BaseBenchState.getRandomSeed());
+      String[] leftAndRight = types.split(":");
+      left = docSet(leftAndRight[0], maxDoc, leftDensity, random);
+      right = docSet(leftAndRight[1], maxDoc, rightDensity, random);
+    }
+
+    private static DocSet docSet(String type, int maxDoc, double density, SplittableRandom random) {
+      int[] docs = new int[16];
+      int size = 0;
+      for (int doc = 0; doc < maxDoc; doc++) {
+        if (random.nextDouble() < density) {
+          docs = ArrayUtil.grow(docs, size + 1);
+          docs[size++] = doc;
+        }
+      }
+      switch (type) {
+        case "bit":
+          return new BitDocSet(bits(docs, size, maxDoc), size);
+        case "roaring":
+          return RoaringDocSet.fromBitSet(bits(docs, size, maxDoc));
+        case "sorted":
+          return new SortedIntDocSet(docs, size);
+        default:
+          throw new IllegalArgumentException("Unknown DocSet type: " + type);
+      }
+    }
+
+    private static FixedBitSet bits(int[] docs, int size, int maxDoc) {
+      FixedBitSet bits = new FixedBitSet(maxDoc);
+      for (int i = 0; i < size; i++) {
+        bits.set(docs[i]);
+      }
+      return bits;
+    }
+  }
+
+  @Benchmark
+  public DocSet intersection(BenchState state) {
+    return state.left.intersection(state.right);
+  }
+
+  @Benchmark
+  public int intersectionSize(BenchState state) {
+    return state.left.intersectionSize(state.right);
+  }
+
+  @Benchmark
+  public boolean intersects(BenchState state) {
+    return state.left.intersects(state.right);
+  }
+
+  @Benchmark
+  public DocSet andNot(BenchState state) {
+    return state.left.andNot(state.right);
+  }
+
+  @Benchmark
+  public int andNotSize(BenchState state) {
+    return state.left.andNotSize(state.right);
+  }
+
+  @Benchmark
+  public DocSet union(BenchState state) {
+    return state.left.union(state.right);
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.bench.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.search.QueryResultKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for building, hashing and comparing {@link QueryResultKey}s, as every request using the
+ * queryResultCache does. Keys are compared with equal keys built from distinct (but equal) queries,
+ * with their filters in reverse order, so that equality checks do the full comparison.
+ */
+@Fork(value = 1)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(time = 1, iterations = 3)
+@Measurement(time = 2, iterations = 5)
+@Threads(value = 1)
+public class QueryResultKeys {
+
+  @State(Scope.Benchmark)
+  public static class BenchState {
+
+    /** Number of term clauses of the main query. */
+    @Param({"1", "16"})
+    int queryClauses;
+
+    @Param({"0", "2", "8"})
+    int numFilters;
+
+    @Param({"true", "false"})
+    boolean sorted;
+
+    /** Number of other keys in the map the key is looked up in. */
+    @Param({"1000"})
+    int mapSize;
+
+    Query query;
+    List<Query> filters;
+    Sort sort;
+    QueryResultKey key;
+    QueryResultKey equalKey;
+    Map<QueryResultKey, Object> map;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      query = query("q", 0);
+      filters = filters(0);
+      sort = sort();
+      key = new QueryResultKey(query, filters, sort, 0);
+
+      List<Query> reversedFilters = new ArrayList<>(filters(0));
+      Collections.reverse(reversedFilters);
+      equalKey = new QueryResultKey(query("q", 0), reversedFilters, sort(), 0);
+
+      map = new HashMap<>();
+      for (int i = 1; i < mapSize; i++) {
+        map.put(new QueryResultKey(query("q", i), filters(i), sort(), 0), i);
+      }
+      map.put(key, 0);
+    }
+
+    private Query query(String field, int variant) {
+      if (queryClauses == 1) {
+        return new TermQuery(new Term(field, "term" + variant));
+      }
+      BooleanQuery.Builder builder = new BooleanQuery.Builder();
+      for (int i = 0; i < queryClauses; i++) {
+        builder.add(
+            new TermQuery(new Term(field, "term" + variant + "_" + i)), BooleanClause.Occur.SHOULD);
+      }
+      return builder.build();
+    }
+
+    private List<Query> filters(int variant) {
+      List<Query> filters = new ArrayList<>(numFilters);
+      for (int i = 0; i < numFilters; i++) {
+        filters.add(new TermQuery(new Term("fq" + i, "value" + variant)));
+      }
+      return filters;
+    }
+
+    private Sort sort() {
+      return sorted
+          ? new Sort(new SortField("price", SortField.Type.LONG, true), SortField.FIELD_SCORE)
+          : null;
+    }
+  }
+
+  @Benchmark
+  public QueryResultKey newKey(BenchState state) {
+    return new QueryResultKey(state.query, state.filters, state.sort, 0);
+  }
+
+  @Benchmark
+  public boolean equalKeys(BenchState state) {
+    return state.key.equals(state.equalKey);
+  }
+
+  @Benchmark
+  public Object mapLookup(BenchState state) {
+    return state.map.get(state.equalKey);
+  }
+}
@@ -74,8 +74,8 @@ import org.apache.solr.rest.RestManager;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.IndexSchemaFactory;
 import org.apache.solr.search.CacheConfig;
-import org.apache.solr.search.CaffeineCache;
 import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SegmentFieldValueCache;
 import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.ValueSourceParser;
@@ -307,6 +307,8 @@ public class SolrConfig implements MapWriter {
       featureVectorCacheConfig =
           CacheConfig.getConfig(
               this, get("query").get("featureVectorCache"), "query/featureVectorCache");
+      facetCacheConfig =
+          CacheConfig.getConfig(this, get("query").get("facetCache"), "query/facetCache");
       documentCacheConfig =
           CacheConfig.getConfig(this, get("query").get("documentCache"), "query/documentCache");
       CacheConfig conf =
@@ -316,7 +318,7 @@ public class SolrConfig implements MapWriter {
         args.put(NAME, "fieldValueCache");
         args.put("size", "10000");
         args.put("initialSize", "10");
-        conf = new CacheConfig(CaffeineCache.class, args, null);
+        conf = new CacheConfig(SegmentFieldValueCache.class, args, null);
       }
       fieldValueCacheConfig = conf;
       useColdSearcher = get("query").get("useColdSearcher").boolVal(false);
@@ -333,6 +335,16 @@ public class SolrConfig implements MapWriter {
       httpCachingConfig = new HttpCachingConfig(this);
 
       maxWarmingSearchers = get("query").get("maxWarmingSearchers").intVal(1);
+      autowarmTimeBudgetMs = get("query").get("autowarmTimeBudgetMs").intVal(-1);
+      autowarmThreads = Math.max(1, get("query").get("autowarmThreads").intVal(1));
+      final String warming = get("query").get("ordinalMapWarming").txt("none");
+      try {
+        ordinalMapWarming =
+            SolrIndexSearcher.OrdinalMapWarming.valueOf(warming.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new SolrException(
+            ErrorCode.SERVER_ERROR, "Unknown ordinalMapWarming in solrconfig.xml: " + warming);
+      }
       slowQueryThresholdMillis = get("query").get("slowQueryThresholdMillis").intVal(-1);
       for (SolrPluginInfo plugin : plugins) loadPluginInfo(plugin);
 
@@ -661,6 +673,7 @@ public class SolrConfig implements MapWriter {
   public final CacheConfig documentCacheConfig;
   public final CacheConfig fieldValueCacheConfig;
   public final CacheConfig featureVectorCacheConfig;
+  public final CacheConfig facetCacheConfig;
   public final Map<String, CacheConfig> userCacheConfigs;
   // SolrIndexSearcher - more...
   public final boolean useFilterForSortedQuery;
@@ -676,6 +689,9 @@ public class SolrConfig implements MapWriter {
   private Map<String, List<PluginInfo>> pluginStore = new LinkedHashMap<>();
 
   public final int maxWarmingSearchers;
+  public final int autowarmTimeBudgetMs; // no more cache entries are autowarmed after this
+  public final int autowarmThreads;
+  public final SolrIndexSearcher.OrdinalMapWarming ordinalMapWarming;
   public final boolean useColdSearcher;
   public final Version luceneMatchVersion;
   protected String dataDir;
@@ -964,6 +980,9 @@ public class SolrConfig implements MapWriter {
               m.put("queryResultWindowSize", queryResultWindowSize);
               m.put("queryResultMaxDocsCached", queryResultMaxDocsCached);
               m.put("enableLazyFieldLoading", enableLazyFieldLoading);
+              m.put("autowarmTimeBudgetMs", autowarmTimeBudgetMs);
+              m.put("autowarmThreads", autowarmThreads);
+              m.put("ordinalMapWarming", ordinalMapWarming.toString().toLowerCase(Locale.ROOT));
               m.put("maxBooleanClauses", booleanQueryMaxClauseCount);
               m.put(MIN_PREFIX_QUERY_TERM_LENGTH, prefixQueryMinPrefixLength);
 
@@ -973,7 +992,8 @@ public class SolrConfig implements MapWriter {
                   queryResultCacheConfig,
                   documentCacheConfig,
                   fieldValueCacheConfig,
-                  featureVectorCacheConfig);
+                  featureVectorCacheConfig,
+                  facetCacheConfig);
             });
     for (SolrPluginInfo plugin : plugins) {
       List<PluginInfo> infos = getPluginInfos(plugin.clazz.getName());
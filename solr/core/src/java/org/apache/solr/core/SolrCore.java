@@ -1084,6 +1084,13 @@ public class SolrCore implements SolrInfoBean, Closeable {
       this.coreProvider = new Provider(coreContainer, getName(), uniqueId);
 
       this.solrConfig = configSet.getSolrConfig();
+      this.autowarmExecutor =
+          solrConfig.autowarmThreads > 1
+              ? ExecutorUtil.newMDCAwareCachedThreadPool(
+                  solrConfig.autowarmThreads,
+                  Integer.MAX_VALUE,
+                  new SolrNamedThreadFactory("autowarmExecutor"))
+              : null;
       this.resourceLoader = configSet.getSolrConfig().getResourceLoader();
       this.resourceLoader.setSolrCore(this);
       IndexSchema schema = configSet.getIndexSchema();
@@ -1777,6 +1784,9 @@ public class SolrCore implements SolrInfoBean, Closeable {
     log.info("CLOSING SolrCore {}", this);
 
     ExecutorUtil.shutdownAndAwaitTermination(coreAsyncTaskExecutor);
+    if (autowarmExecutor != null) {
+      ExecutorUtil.shutdownAndAwaitTermination(autowarmExecutor);
+    }
 
     // Close circuit breakers that may have background threads, before metrics because some circuit
     // breakers use metrics
@@ -2103,6 +2113,8 @@ public class SolrCore implements SolrInfoBean, Closeable {
   final ExecutorService searcherExecutor =
       ExecutorUtil.newMDCAwareSingleLazyThreadExecutor(
           new SolrNamedThreadFactory("searcherExecutor"), 60L, TimeUnit.SECONDS);
+  // Regenerates the cache entries of new searchers concurrently; null if autowarmThreads is 1
+  private final ExecutorService autowarmExecutor;
   private int onDeckSearchers; // number of searchers preparing
   // Lock ordering: one can acquire the openSearcherLock and then the searcherLock, but not
   // vice-versa.
@@ -3620,6 +3632,16 @@ public class SolrCore implements SolrInfoBean, Closeable {
     coreAsyncTaskExecutor.execute(r);
   }
 
+  /**
+   * The executor that cache entries of new searchers are regenerated on, with up to <code>
+   * autowarmThreads</code> threads; null if they are regenerated on the searcher's warming thread.
+   *
+   * @see org.apache.solr.search.CacheWarmer
+   */
+  public ExecutorService getAutowarmExecutor() {
+    return autowarmExecutor;
+  }
+
   /**
    * Provides the core instance if the core instance is still alive. This helps to not hold on to a
    * live {@link SolrCore} instance even after it's unloaded
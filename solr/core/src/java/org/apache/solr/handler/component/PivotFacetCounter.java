@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.cursors.LongIntCursor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.LongValues;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Computes the complete tree of a pivot over string fields with docValues in a single pass over
+ * the documents, instead of faceting on the subset of documents of every value of every level.
+ *
+ * <p>Each document is counted once in each level, under the tuple of the global ordinals of its
+ * values in the fields of the level and of the levels above it (the cross product of the values
+ * of multi-valued fields). The tuples are packed in a <code>long</code>, the ordinals of the first
+ * field in the highest bits, so that once sorted the tuples of a level are grouped by their parent
+ * tuple and ordered by the value of their last field. The values of each level are then selected
+ * from the counts of their tuples, as {@link PivotFacetProcessor} selects them from the counts of
+ * their subsets.
+ */
+class PivotFacetCounter {
+  private final SolrIndexSearcher searcher;
+  private final SchemaField[] fields;
+  private final SortedSetDocValues[] topValues;
+  private final OrdinalMap[] ordinalMaps;
+  // the bits of the ordinals of each field in the tuples, and their shift
+  private final int[] bits;
+  private final int[] shifts;
+
+  // the selection of the values of each field
+  private final int[] mincounts;
+  private final int[] offsets;
+  private final int[] limits;
+  private final boolean[] sortByCount;
+  private final boolean[] missing;
+
+  // the counted tuples of each level, sorted
+  private long[][] tuples;
+  private int[][] counts;
+
+  /**
+   * Whether the fields and the parameters of a pivot can be counted: the fields must be string
+   * fields with docValues whose ordinals fit together in a <code>long</code>, and their values must
+   * be selected by count or index order, with a positive mincount, without term filters or
+   * grouping.
+   */
+  static boolean canCount(SolrIndexSearcher searcher, List<SchemaField> fields, SolrParams params)
+      throws IOException {
+    int totalBits = 0;
+    for (SchemaField sf : fields) {
+      final String field = sf.getName();
+      if (!(sf.getType() instanceof StrField)
+          || !sf.hasDocValues()
+          || params.getFieldInt(field, FacetParams.FACET_PIVOT_MINCOUNT, 1) < 1
+          || params.getFieldParam(field, FacetParams.FACET_PREFIX) != null
+          || params.getFieldParam(field, FacetParams.FACET_CONTAINS) != null
+          || params.getFieldParam(field, FacetParams.FACET_MATCHES) != null
+          || params.getFieldParam(field, FacetParams.FACET_EXCLUDETERMS) != null
+          || params.getFieldBool(field, FacetParams.FACET_EXISTS, false)
+          || params.getFieldBool(field, GroupParams.GROUP_FACET, false)) {
+        return false;
+      }
+      final String sort = params.getFieldParam(field, FacetParams.FACET_SORT);
+      if (sort != null
+          && !FacetParams.FACET_SORT_COUNT.equals(sort)
+          && !FacetParams.FACET_SORT_COUNT_LEGACY.equals(sort)
+          && !FacetParams.FACET_SORT_INDEX.equals(sort)
+          && !FacetParams.FACET_SORT_INDEX_LEGACY.equals(sort)) {
+        return false;
+      }
+      totalBits += bitsFor(DocValues.getSortedSet(searcher.getSlowAtomicReader(), field));
+    }
+    return totalBits < Long.SIZE;
+  }
+
+  /** The bits holding the ordinals of the values, plus one for the missing value */
+  private static int bitsFor(SortedSetDocValues values) {
+    return Long.SIZE - Long.numberOfLeadingZeros(values.getValueCount());
+  }
+
+  PivotFacetCounter(SolrIndexSearcher searcher, List<SchemaField> fields, SolrParams params)
+      throws IOException {
+    this.searcher = searcher;
+    this.fields = fields.toArray(new SchemaField[0]);
+    final int numLevels = this.fields.length;
+    topValues = new SortedSetDocValues[numLevels];
+    ordinalMaps = new OrdinalMap[numLevels];
+    bits = new int[numLevels];
+    shifts = new int[numLevels];
+    mincounts = new int[numLevels];
+    offsets = new int[numLevels];
+    limits = new int[numLevels];
+    sortByCount = new boolean[numLevels];
+    missing = new boolean[numLevels];
+
+    int shift = Long.SIZE - 1;
+    for (int level = 0; level < numLevels; level++) {
+      final String field = this.fields[level].getName();
+      topValues[level] = DocValues.getSortedSet(searcher.getSlowAtomicReader(), field);
+      ordinalMaps[level] = ordinalMap(topValues[level]);
+      bits[level] = bitsFor(topValues[level]);
+      shift -= bits[level];
+      shifts[level] = shift;
+
+      // as SimpleFacets#getTermCountsForPivots
+      mincounts[level] = params.getFieldInt(field, FacetParams.FACET_PIVOT_MINCOUNT, 1);
+      offsets[level] = params.getFieldInt(field, FacetParams.FACET_OFFSET, 0);
+      limits[level] = params.getFieldInt(field, FacetParams.FACET_LIMIT, 100);
+      missing[level] = params.getFieldBool(field, FacetParams.FACET_MISSING, false);
+      final String sort =
+          params.getFieldParam(
+              field,
+              FacetParams.FACET_SORT,
+              limits[level] > 0 ? FacetParams.FACET_SORT_COUNT : FacetParams.FACET_SORT_INDEX);
+      sortByCount[level] =
+          FacetParams.FACET_SORT_COUNT.equals(sort)
+              || FacetParams.FACET_SORT_COUNT_LEGACY.equals(sort);
+    }
+  }
+
+  /** The map of the segment ordinals to the global ones, or null if there is a single segment */
+  private static OrdinalMap ordinalMap(SortedSetDocValues values) {
+    if (values instanceof MultiDocValues.MultiSortedSetDocValues) {
+      return ((MultiDocValues.MultiSortedSetDocValues) values).mapping;
+    }
+    final SortedDocValues single = DocValues.unwrapSingleton(values);
+    if (single instanceof MultiDocValues.MultiSortedDocValues) {
+      return ((MultiDocValues.MultiSortedDocValues) single).mapping;
+    }
+    return null;
+  }
+
+  /** Counts the tuples of every level over the documents of the set, in a single pass */
+  void count(DocSet docs) throws IOException {
+    final int numLevels = fields.length;
+    final LongIntHashMap[] tables = new LongIntHashMap[numLevels];
+    for (int level = 0; level < numLevels; level++) {
+      tables[level] = new LongIntHashMap();
+    }
+    final SortedSetDocValues[] values = new SortedSetDocValues[numLevels];
+    final LongValues[] toGlobal = new LongValues[numLevels];
+    long[] prefixes = new long[16];
+    long[] next = new long[16];
+    long[] docValues = new long[16];
+
+    for (LeafReaderContext ctx : searcher.getTopReaderContext().leaves()) {
+      final DocIdSetIterator disi = docs.iterator(ctx);
+      if (disi == null) {
+        continue;
+      }
+      for (int level = 0; level < numLevels; level++) {
+        values[level] = DocValues.getSortedSet(ctx.reader(), fields[level].getName());
+        toGlobal[level] =
+            ordinalMaps[level] == null ? null : ordinalMaps[level].getGlobalOrds(ctx.ord);
+      }
+      for (int doc = disi.nextDoc();
+          doc != DocIdSetIterator.NO_MORE_DOCS;
+          doc = disi.nextDoc()) {
+        int numPrefixes = 1;
+        prefixes[0] = 0;
+        for (int level = 0; level < numLevels; level++) {
+          // the ordinals of the values of the document, plus one: 0 stands for the missing value
+          int numValues;
+          if (values[level].advanceExact(doc)) {
+            numValues = values[level].docValueCount();
+            docValues = ArrayUtil.grow(docValues, numValues);
+            for (int i = 0; i < numValues; i++) {
+              final long ord = values[level].nextOrd();
+              docValues[i] = 1 + (toGlobal[level] == null ? ord : toGlobal[level].get(ord));
+            }
+          } else if (missing[level]) {
+            numValues = 1;
+            docValues[0] = 0;
+          } else {
+            break; // the values below a missing value are only wanted with facet.missing
+          }
+
+          next = ArrayUtil.grow(next, numPrefixes * numValues);
+          int numNext = 0;
+          for (int p = 0; p < numPrefixes; p++) {
+            for (int v = 0; v < numValues; v++) {
+              final long tuple = prefixes[p] | (docValues[v] << shifts[level]);
+              tables[level].addTo(tuple, 1);
+              next[numNext++] = tuple;
+            }
+          }
+          final long[] swap = prefixes;
+          prefixes = next;
+          next = swap;
+          numPrefixes = numNext;
+        }
+      }
+    }
+
+    tuples = new long[numLevels][];
+    counts = new int[numLevels][];
+    for (int level = 0; level < numLevels; level++) {
+      sortTuples(level, tables[level]);
+    }
+  }
+
+  private void sortTuples(int level, LongIntHashMap table) {
+    final long[] keys = new long[table.size()];
+    int i = 0;
+    for (LongIntCursor cursor : table) {
+      keys[i++] = cursor.key;
+    }
+    Arrays.sort(keys);
+    final int[] values = new int[keys.length];
+    for (i = 0; i < keys.length; i++) {
+      values[i] = table.get(keys[i]);
+    }
+    tuples[level] = keys;
+    counts[level] = values;
+  }
+
+  /** The pivot tree, in the format of {@link PivotFacetProcessor} */
+  List<NamedList<Object>> getPivots() throws IOException {
+    return getPivots(0, 0L);
+  }
+
+  private List<NamedList<Object>> getPivots(int level, long parent) throws IOException {
+    final long[] keys = tuples[level];
+    final int[] values = counts[level];
+
+    // the tuples under the parent, in index order, starting with the missing value if counted
+    final long lastTuple = parent | (((1L << bits[level]) - 1) << shifts[level]);
+    final int from = lowerBound(keys, parent);
+    final int to = lowerBound(keys, lastTuple + 1);
+    final boolean hasMissing = from < to && keys[from] == parent;
+    final int firstValue = hasMissing ? from + 1 : from;
+
+    Integer[] selected = new Integer[0];
+    if (limits[level] != 0) {
+      final List<Integer> candidates = new ArrayList<>(to - firstValue);
+      for (int i = firstValue; i < to; i++) {
+        if (values[i] >= mincounts[level]) {
+          candidates.add(i);
+        }
+      }
+      selected = candidates.toArray(selected);
+      if (sortByCount[level]) {
+        // a stable sort: ties stay in index order
+        Arrays.sort(selected, (a, b) -> Integer.compare(values[b], values[a]));
+      }
+    }
+    final int start = Math.min(offsets[level], selected.length);
+    final int end =
+        limits[level] < 0
+            ? selected.length
+            : (int) Math.min(selected.length, (long) start + limits[level]);
+
+    final List<NamedList<Object>> pivots = new ArrayList<>(end - start + 1);
+    for (int i = start; i < end; i++) {
+      pivots.add(pivot(level, keys[selected[i]], values[selected[i]]));
+    }
+    if (missing[level]) {
+      final int missingCount = hasMissing ? values[from] : 0;
+      if (missingCount >= mincounts[level]) {
+        pivots.add(pivot(level, parent, missingCount));
+      }
+    }
+    return pivots;
+  }
+
+  private NamedList<Object> pivot(int level, long tuple, int count) throws IOException {
+    final SchemaField sf = fields[level];
+    final long ord = ((tuple >>> shifts[level]) & ((1L << bits[level]) - 1)) - 1;
+    final SimpleOrderedMap<Object> pivot = new SimpleOrderedMap<>();
+    pivot.add("field", sf.getName());
+    pivot.add(
+        "value", ord < 0 ? null : sf.getType().toObject(sf, topValues[level].lookupOrd(ord)));
+    pivot.add("count", count);
+    final int subLevel = level + 1;
+    // the faceting of a subset lists the missing count of the sub-field even when it's zero
+    if (subLevel < fields.length) {
+      final List<NamedList<Object>> subPivots = getPivots(subLevel, tuple);
+      if (!subPivots.isEmpty() || missing[subLevel]) {
+        pivot.add("pivot", subPivots);
+      }
+    }
+    return pivot;
+  }
+
+  /** The index of the first key greater or equal to the target */
+  private static int lowerBound(long[] keys, long target) {
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (keys[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -162,6 +162,14 @@ public class PivotFacetProcessor extends SimpleFacets {
         }
       }
 
+      // stats, queries and ranges need the subset of each value
+      final PivotFacetCounter counter =
+          null == refineKey
+                  && statsFields.isEmpty()
+                  && facetQueries.isEmpty()
+                  && facetRanges.isEmpty()
+              ? getPivotCounter(pivotFields, parsed)
+              : null;
       if (null != refineKey) {
         String[] refinementValuesByField = params.getParams(PivotFacet.REFINE_PARAM + refineKey);
 
@@ -171,6 +179,10 @@ public class PivotFacetProcessor extends SimpleFacets {
                   processSingle(
                       pivotFields, refinements, statsFields, parsed, facetQueries, facetRanges));
         }
+      } else if (null != counter) {
+        // all the levels at once, instead of faceting on the subset of each value
+        counter.count(parsed.docs);
+        pivotResponse.add(parsed.key, counter.getPivots());
       } else {
         pivotResponse.addAll(
             (Map<String, List<NamedList<Object>>>)
@@ -180,6 +192,27 @@ public class PivotFacetProcessor extends SimpleFacets {
     return pivotResponse;
   }
 
+  /**
+   * Returns a {@link PivotFacetCounter} computing the pivot in a single pass if its fields and
+   * params allow it, and {@link FacetParams#FACET_PIVOT_METHOD} doesn't ask for subsets, or null
+   */
+  private PivotFacetCounter getPivotCounter(List<String> pivotFields, ParsedParams parsed)
+      throws IOException {
+    if (FacetParams.FACET_PIVOT_METHOD_subset.equals(
+        parsed.params.get(FacetParams.FACET_PIVOT_METHOD))) {
+      return null;
+    }
+    SolrIndexSearcher searcher = rb.req.getSearcher();
+    List<SchemaField> schemaFields = new ArrayList<>(pivotFields.size());
+    for (String fieldName : pivotFields) {
+      schemaFields.add(searcher.getSchema().getField(fieldName));
+    }
+    if (!PivotFacetCounter.canCount(searcher, schemaFields, parsed.params)) {
+      return null;
+    }
+    return new PivotFacetCounter(searcher, schemaFields, parsed.params);
+  }
+
   /**
    * Process a single branch of refinement values for a specific pivot
    *
@@ -92,6 +92,7 @@ import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.QueryCommand;
 import org.apache.solr.search.QueryLimits;
 import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.QueryPlanner;
 import org.apache.solr.search.QueryResult;
 import org.apache.solr.search.QueryUtils;
 import org.apache.solr.search.RankQuery;
@@ -122,6 +123,7 @@ import org.apache.solr.search.grouping.endresulttransformer.MainEndResultTransfo
 import org.apache.solr.search.grouping.endresulttransformer.SimpleEndResultTransformer;
 import org.apache.solr.search.stats.LocalStatsCache;
 import org.apache.solr.search.stats.StatsCache;
+import org.apache.solr.util.RTimerTree;
 import org.apache.solr.util.SolrPluginUtils;
 import org.apache.solr.util.SolrResponseUtil;
 import org.slf4j.Logger;
@@ -380,6 +382,7 @@ public class QueryComponent extends SearchComponent {
 
     QueryCommand cmd = rb.createQueryCommand();
     cmd.setMultiThreaded(multiThreaded);
+    cmd.setMaxThreads(params.getInt(CommonParams.MULTI_THREADED_MAX_THREADS, -1));
     cmd.setMinExactCount(getMinExactCount(params));
     cmd.setDistribStatsDisabled(rb.isDistribStatsDisabled());
 
@@ -419,6 +422,10 @@ public class QueryComponent extends SearchComponent {
       cmd.setMaxHitsAllowed(maxHits);
     }
 
+    if (params.getBool(CommonParams.QUERY_PLANNER, CommonParams.QUERY_PLANNER_DEFAULT)) {
+      doPlanQuery(rb, cmd);
+    }
+
     //
     // grouping / field collapsing
     //
@@ -444,6 +451,25 @@ public class QueryComponent extends SearchComponent {
     doProcessUngroupedSearch(rb, cmd);
   }
 
+  /**
+   * Chooses how the filters are executed and whether to terminate early, see {@link QueryPlanner}.
+   * The plan is added to the debug info with debug=timing.
+   */
+  protected void doPlanQuery(ResponseBuilder rb, QueryCommand cmd) throws IOException {
+    final RTimerTree timer =
+        rb.isDebugTimings() && rb.getTimer() instanceof RTimerTree componentTimer
+            ? componentTimer.sub("plan")
+            : null;
+    final boolean allowEarlyTermination =
+        rb.getGroupingSpec() == null && rb.getCursorMark() == null && rb.getRankQuery() == null;
+    final NamedList<Object> plan =
+        rb.req.getSearcher().getQueryPlanner().plan(cmd, allowEarlyTermination);
+    if (timer != null) {
+      timer.stop();
+      rb.addDebug(plan, "queryPlan");
+    }
+  }
+
   private int getMinExactCount(SolrParams params) {
     long minExactCount = params.getLong(CommonParams.MIN_EXACT_COUNT, Integer.MAX_VALUE);
     if (minExactCount < 0 || minExactCount > Integer.MAX_VALUE) {
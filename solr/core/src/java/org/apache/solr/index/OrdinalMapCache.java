@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.index;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.util.Accountable;
+
+/**
+ * The {@link OrdinalMap}s of the sorted and sorted-set doc values fields of a top-level reader, by
+ * field. Each map is built once, by the first consumer that needs it or by warming, and is then
+ * shared by all of the consumers of the global ordinals of the reader: faceting, collapsing,
+ * export...
+ *
+ * @see SlowCompositeReaderWrapper#getOrdinalMapCache()
+ */
+public final class OrdinalMapCache implements Accountable {
+  private final Map<String, OrdinalMap> maps = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the map of the field, building it with the producer if it was not yet. Concurrent
+   * callers for the same field wait for the map to be built once.
+   */
+  OrdinalMap computeIfAbsent(String field, Function<String, OrdinalMap> producer) {
+    return maps.computeIfAbsent(field, producer);
+  }
+
+  /** Returns the map of the field if it was already built, or null. */
+  public OrdinalMap get(String field) {
+    return maps.get(field);
+  }
+
+  /** The fields whose map is built. */
+  public Set<String> fields() {
+    return maps.keySet();
+  }
+
+  public int size() {
+    return maps.size();
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    long bytes = 0;
+    for (OrdinalMap map : maps.values()) {
+      bytes += map.ramBytesUsed();
+    }
+    return bytes;
+  }
+}
@@ -18,8 +18,6 @@ package org.apache.solr.index;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.ByteVectorValues;
@@ -76,9 +74,7 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
   // also have a cached FieldInfos instance so this is consistent. SOLR-12878
   private final FieldInfos fieldInfos;
 
-  // TODO: this could really be a weak map somewhere else on the coreCacheKey,
-  // but do we really need to optimize slow-wrapper any more?
-  final Map<String, OrdinalMap> cachedOrdMaps = new ConcurrentHashMap<>();
+  final OrdinalMapCache cachedOrdMaps = new OrdinalMapCache();
 
   /**
    * This method is sugar for getting an {@link LeafReader} from an {@link IndexReader} of any kind.
@@ -126,6 +122,11 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
     return null;
   }
 
+  /** The ordinal maps of the sorted and sorted-set doc values of this reader, built so far */
+  public OrdinalMapCache getOrdinalMapCache() {
+    return cachedOrdMaps;
+  }
+
   @Override
   public String toString() {
     return "SlowCompositeReaderWrapper(" + in + ")";
@@ -217,7 +218,7 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
     OrdinalMap map = null;
     CacheHelper cacheHelper = getReaderCacheHelper();
 
-    Function<? super String, ? extends OrdinalMap> producer =
+    Function<String, OrdinalMap> producer =
         (notUsed) -> {
           try {
             OrdinalMap mapping =
@@ -232,7 +233,7 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
     // either we use a cached result that gets produced eventually during caching,
     // or we produce directly without caching
     if (cacheHelper != null) {
-      map = cachedOrdMaps.computeIfAbsent(field + cacheHelper.getKey(), producer);
+      map = cachedOrdMaps.computeIfAbsent(field, producer);
     } else {
       map = producer.apply("notUsed");
     }
@@ -289,7 +290,7 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
     OrdinalMap map = null;
     CacheHelper cacheHelper = getReaderCacheHelper();
 
-    Function<? super String, ? extends OrdinalMap> producer =
+    Function<String, OrdinalMap> producer =
         (notUsed) -> {
           try {
             OrdinalMap mapping =
@@ -304,7 +305,7 @@ public final class SlowCompositeReaderWrapper extends LeafReader {
     // either we use a cached result that gets produced eventually during caching,
     // or we produce directly without caching
     if (cacheHelper != null) {
-      map = cachedOrdMaps.computeIfAbsent(field + cacheHelper.getKey(), producer);
+      map = cachedOrdMaps.computeIfAbsent(field, producer);
     } else {
       map = producer.apply("notUsed");
     }
@@ -38,6 +38,7 @@ import org.apache.solr.common.util.NamedList;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocSet;
+import org.apache.solr.search.MultiThreadedSearcher;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.facet.FacetDebugInfo;
 import org.apache.solr.util.LongPriorityQueue;
@@ -100,6 +101,40 @@ public class DocValuesFacets {
       Predicate<BytesRef> termFilter,
       FacetDebugInfo fdebug)
       throws IOException {
+    return getCounts(
+        searcher,
+        docs,
+        fieldName,
+        offset,
+        limit,
+        mincount,
+        missing,
+        sort,
+        prefix,
+        termFilter,
+        fdebug,
+        1);
+  }
+
+  /**
+   * @param maxThreads the most slices of segments that are counted in parallel on the searcher's
+   *     executor, see {@link MultiThreadedSearcher#getMaxThreads}; 1 counts on the current thread,
+   *     as do fields with more than {@link MultiThreadedSearcher#MAX_SLICE_COUNT_ORDS} terms
+   */
+  public static NamedList<Integer> getCounts(
+      SolrIndexSearcher searcher,
+      DocSet docs,
+      String fieldName,
+      int offset,
+      int limit,
+      int mincount,
+      boolean missing,
+      String sort,
+      String prefix,
+      Predicate<BytesRef> termFilter,
+      FacetDebugInfo fdebug,
+      int maxThreads)
+      throws IOException {
     SchemaField schemaField = searcher.getSchema().getField(fieldName);
     FieldType ft = schemaField.getType();
     NamedList<Integer> res = new NamedList<>();
@@ -165,30 +200,32 @@ public class DocValuesFacets {
         fdebug.putInfoItem("numBuckets", nTerms);
       }
 
-      List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
-      for (int subIndex = 0; subIndex < leaves.size(); subIndex++) {
-        LeafReaderContext leaf = leaves.get(subIndex);
-        // solr docsets already exclude any deleted docs
-        final DocIdSetIterator disi = docs.iterator(leaf);
-        if (disi != null) {
-          if (multiValued) {
-            SortedSetDocValues sub = leaf.reader().getSortedSetDocValues(fieldName);
-            if (sub == null) {
-              sub = DocValues.emptySortedSet();
-            }
-            final SortedDocValues singleton = DocValues.unwrapSingleton(sub);
-            if (singleton != null) {
-              // some codecs may optimize SORTED_SET storage for single-valued fields
-              accumSingle(counts, startTermIndex, singleton, disi, subIndex, ordinalMap);
-            } else {
-              accumMulti(counts, startTermIndex, sub, disi, subIndex, ordinalMap);
-            }
-          } else {
-            SortedDocValues sub = leaf.reader().getSortedDocValues(fieldName);
-            if (sub == null) {
-              sub = DocValues.emptySorted();
-            }
-            accumSingle(counts, startTermIndex, sub, disi, subIndex, ordinalMap);
+      final int startIdx = startTermIndex;
+      final OrdinalMap map = ordinalMap;
+      final List<int[]> sliceCounts =
+          maxThreads != 1 && nTerms <= MultiThreadedSearcher.MAX_SLICE_COUNT_ORDS
+              ? MultiThreadedSearcher.searchPerSlice(
+                  searcher,
+                  maxThreads,
+                  leaves -> {
+                    final int[] sliceCount = new int[nTerms];
+                    accumLeaves(sliceCount, startIdx, docs, leaves, fieldName, multiValued, map);
+                    return sliceCount;
+                  })
+              : null;
+      if (sliceCounts == null) {
+        accumLeaves(
+            counts,
+            startTermIndex,
+            docs,
+            searcher.getTopReaderContext().leaves(),
+            fieldName,
+            multiValued,
+            ordinalMap);
+      } else {
+        for (int[] sliceCount : sliceCounts) {
+          for (int i = 0; i < nTerms; i++) {
+            counts[i] += sliceCount[i];
           }
         }
       }
@@ -288,6 +325,44 @@ public class DocValuesFacets {
     return finalize(res, searcher, schemaField, docs, missingCount, missing);
   }
 
+  /** accumulates the facet counts of the given leaves */
+  private static void accumLeaves(
+      int[] counts,
+      int startTermIndex,
+      DocSet docs,
+      List<LeafReaderContext> leaves,
+      String fieldName,
+      boolean multiValued,
+      OrdinalMap ordinalMap)
+      throws IOException {
+    for (LeafReaderContext leaf : leaves) {
+      final int subIndex = leaf.ord;
+      // solr docsets already exclude any deleted docs
+      final DocIdSetIterator disi = docs.iterator(leaf);
+      if (disi != null) {
+        if (multiValued) {
+          SortedSetDocValues sub = leaf.reader().getSortedSetDocValues(fieldName);
+          if (sub == null) {
+            sub = DocValues.emptySortedSet();
+          }
+          final SortedDocValues singleton = DocValues.unwrapSingleton(sub);
+          if (singleton != null) {
+            // some codecs may optimize SORTED_SET storage for single-valued fields
+            accumSingle(counts, startTermIndex, singleton, disi, subIndex, ordinalMap);
+          } else {
+            accumMulti(counts, startTermIndex, sub, disi, subIndex, ordinalMap);
+          }
+        } else {
+          SortedDocValues sub = leaf.reader().getSortedDocValues(fieldName);
+          if (sub == null) {
+            sub = DocValues.emptySorted();
+          }
+          accumSingle(counts, startTermIndex, sub, disi, subIndex, ordinalMap);
+        }
+      }
+    }
+  }
+
   /** finalizes result: computes missing count if applicable */
   static NamedList<Integer> finalize(
       NamedList<Integer> res,
@@ -25,7 +25,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import org.apache.lucene.index.DocValues;
-import org.apache.lucene.index.FilterNumericDocValues;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SortedDocValues;
@@ -47,6 +46,7 @@ import org.apache.solr.search.DocSet;
 import org.apache.solr.search.QueryParsing;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.SyntaxError;
+import org.apache.solr.search.facet.NumericRangeCounter;
 
 /**
  * Computes interval facets for docvalues field (single or multivalued).
@@ -199,62 +199,29 @@ public class IntervalFacets implements Iterable<FacetInterval> {
   }
 
   private void getCountNumeric() throws IOException {
-    final FieldType ft = schemaField.getType();
-    final String fieldName = schemaField.getName();
-    final NumberType numericType = ft.getNumberType();
+    final NumberType numericType = schemaField.getType().getNumberType();
     if (numericType == null) {
       throw new IllegalStateException();
     }
-    final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
-
-    final Iterator<LeafReaderContext> ctxIt = leaves.iterator();
-    LeafReaderContext ctx = null;
-    NumericDocValues longs = null;
-    for (DocIterator docsIt = docs.iterator(); docsIt.hasNext(); ) {
-      final int doc = docsIt.nextDoc();
-      if (ctx == null || doc >= ctx.docBase + ctx.reader().maxDoc()) {
-        do {
-          ctx = ctxIt.next();
-        } while (ctx == null || doc >= ctx.docBase + ctx.reader().maxDoc());
-        assert doc >= ctx.docBase;
-        switch (numericType) {
-          case LONG:
-          case DATE:
-          case INTEGER:
-            longs = DocValues.getNumeric(ctx.reader(), fieldName);
-            break;
-          case FLOAT:
-            // TODO: this bit flipping should probably be moved to tie-break in the PQ comparator
-            longs =
-                new FilterNumericDocValues(DocValues.getNumeric(ctx.reader(), fieldName)) {
-                  @Override
-                  public long longValue() throws IOException {
-                    return NumericUtils.sortableFloatBits((int) super.longValue());
-                  }
-                };
-            break;
-          case DOUBLE:
-            // TODO: this bit flipping should probably be moved to tie-break in the PQ comparator
-            longs =
-                new FilterNumericDocValues(DocValues.getNumeric(ctx.reader(), fieldName)) {
-                  @Override
-                  public long longValue() throws IOException {
-                    return NumericUtils.sortableDoubleBits(super.longValue());
-                  }
-                };
-            break;
-          default:
-            throw new AssertionError();
-        }
-      }
-      int valuesDocID = longs.docID();
-      if (valuesDocID < doc - ctx.docBase) {
-        valuesDocID = longs.advance(doc - ctx.docBase);
-      }
-      if (valuesDocID == doc - ctx.docBase) {
-        accumIntervalWithValue(longs.longValue());
+    // single valued, so each document counts once per interval: counted in one pass over the
+    // doc values, by the elementary intervals between the limits
+    final long[] lows = new long[intervals.length];
+    final long[] highs = new long[intervals.length];
+    for (int i = 0; i < intervals.length; i++) {
+      if (intervals[i].includeNoDocs) {
+        lows[i] = 1;
+        highs[i] = 0;
+      } else {
+        lows[i] = intervals[i].startLimit;
+        highs[i] = intervals[i].endLimit;
       }
     }
+    final long[] counts =
+        new NumericRangeCounter(lows, highs)
+            .count(searcher, docs, schemaField.getName(), numericType, null);
+    for (int i = 0; i < intervals.length; i++) {
+      intervals[i].count = (int) counts[i];
+    }
   }
 
   private void getCountMultiValuedNumeric() throws IOException {
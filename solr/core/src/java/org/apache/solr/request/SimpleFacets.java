@@ -84,6 +84,7 @@ import org.apache.solr.schema.TrieField;
 import org.apache.solr.search.BitDocSet;
 import org.apache.solr.search.DocSet;
 import org.apache.solr.search.Grouping;
+import org.apache.solr.search.MultiThreadedSearcher;
 import org.apache.solr.search.NumericHidingLeafReader;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QueryParsing;
@@ -658,7 +659,8 @@ public class SimpleFacets {
                   sort,
                   prefix,
                   termFilter,
-                  fdebug);
+                  fdebug,
+                  MultiThreadedSearcher.getMaxThreads(global));
           break;
         default:
           throw new AssertionError();
@@ -83,6 +83,14 @@ public class DocsStreamer implements Iterator<SolrDocument> {
 
   private final SolrReturnFields solrReturnFields;
 
+  /** The max number of documents fetched together, see {@link SolrDocumentFetcher#solrDocs}. */
+  static final int FETCH_BATCH_SIZE = 1000;
+
+  // walks the DocList ahead of docIterator, which transformers may use
+  private final DocIterator fetchIterator;
+  private SolrDocument[] fetched = new SolrDocument[0];
+  private int fetchedStart = 0; // the index of fetched[0]
+
   private int idx = -1;
 
   public DocsStreamer(ResultContext rctx) {
@@ -90,6 +98,7 @@ public class DocsStreamer implements Iterator<SolrDocument> {
     this.docs = rctx.getDocList();
     transformer = rctx.getReturnFields().getTransformer();
     docIterator = this.docs.iterator();
+    fetchIterator = this.docs.iterator();
     docFetcher = rctx.getDocFetcher();
     solrReturnFields = (SolrReturnFields) rctx.getReturnFields();
 
@@ -111,7 +120,11 @@ public class DocsStreamer implements Iterator<SolrDocument> {
   public SolrDocument next() {
     int id = docIterator.nextDoc();
     idx++;
-    SolrDocument sdoc = docFetcher.solrDoc(id, solrReturnFields);
+    if (idx - fetchedStart >= fetched.length) {
+      fetchNextBatch();
+    }
+    SolrDocument sdoc = fetched[idx - fetchedStart];
+    fetched[idx - fetchedStart] = null; // don't hold on to it
 
     if (transformer != null) {
       try {
@@ -124,6 +137,15 @@ public class DocsStreamer implements Iterator<SolrDocument> {
     return sdoc;
   }
 
+  private void fetchNextBatch() {
+    final int[] ids = new int[Math.min(FETCH_BATCH_SIZE, docs.size() - idx)];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = fetchIterator.nextDoc();
+    }
+    fetched = docFetcher.solrDocs(ids, solrReturnFields);
+    fetchedStart = idx;
+  }
+
   /**
    * This method is less efficient then the 3 arg version because it may convert some fields that
    * are not needed
@@ -211,6 +211,8 @@ public class BitDocSet extends DocSet {
   protected static void andNot(FixedBitSet bits, DocSet other) {
     if (other instanceof BitDocSet) {
       bits.andNot(((BitDocSet) other).bits);
+    } else if (other instanceof RoaringDocSet roaringDocSet) {
+      roaringDocSet.removeAllFrom(bits);
     } else {
       DocIterator iter = other.iterator();
       while (iter.hasNext()) {
@@ -228,6 +230,9 @@ public class BitDocSet extends DocSet {
     if (other instanceof BitDocSet otherDocSet) {
       newbits = FixedBitSet.ensureCapacity(newbits, otherDocSet.bits.length());
       newbits.or(otherDocSet.bits);
+    } else if (other instanceof RoaringDocSet) {
+      // the result is a BitDocSet anyway, let the RoaringDocSet OR its blocks into it
+      return other.union(this);
     } else {
       DocIterator iter = other.iterator();
       while (iter.hasNext()) {
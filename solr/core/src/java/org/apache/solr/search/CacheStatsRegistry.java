@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.BitSet;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Hit statistics of all the caches of a node, kept in primitive arrays.
+ *
+ * <p>Each cache registers a slot holding its counters ({@link #HITS}, {@link #LOOKUPS}, {@link
+ * #INSERTS} and {@link #EVICTIONS}). Every slot is striped over a few cache lines, which threads
+ * update with atomic adds on the stripe of their own, so that concurrent lookups neither lock nor
+ * contend on the same line. Reading sums the stripes and doesn't allocate.
+ *
+ * <p>This makes the counters of each cache cheaper to update and to read; it doesn't change how
+ * they are exported. They are still exported by the metrics callback of each cache (see {@link
+ * CaffeineCache}), which reads its own slot, so a scrape still runs one callback per cache.
+ *
+ * <p>A slot belongs to one cache, from {@link #register()} until {@link #release(int)} when the
+ * cache is closed. A cache warmed from another one adds the totals of the other cache to its own
+ * slot, rather than sharing the slot.
+ *
+ * <p>Slots are independent, so several nodes sharing a JVM (as in tests) may share the registry.
+ */
+public final class CacheStatsRegistry {
+
+  public static final int HITS = 0;
+  public static final int LOOKUPS = 1;
+  public static final int INSERTS = 2;
+  public static final int EVICTIONS = 3;
+
+  /** Number of counters of a slot. */
+  public static final int NUM_COUNTERS = 4;
+
+  /** Longs per stripe of a slot: a cache line, so that stripes don't share lines. */
+  private static final int STRIPE_STRIDE = 8;
+
+  private static final int PAGE_SHIFT = 6;
+  private static final int PAGE_SLOTS = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SLOTS - 1;
+
+  private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private static final CacheStatsRegistry INSTANCE =
+      new CacheStatsRegistry(Runtime.getRuntime().availableProcessors());
+
+  /** The registry of the caches of this node. */
+  public static CacheStatsRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  private final int stripeMask;
+  private final int slotStride;
+  private final BitSet used = new BitSet();
+
+  /** Pages of {@link #PAGE_SLOTS} slots; replaced (never modified) when a page is added. */
+  private volatile long[][] pages = new long[0][];
+
+  /**
+   * @param concurrency the expected number of threads updating the same slot concurrently
+   */
+  CacheStatsRegistry(int concurrency) {
+    int stripes = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 16)) * 2 - 1);
+    this.stripeMask = stripes - 1;
+    this.slotStride = stripes * STRIPE_STRIDE;
+  }
+
+  /** Registers a new slot, with all its counters at zero. */
+  public synchronized int register() {
+    final int slot = used.nextClearBit(0);
+    long[][] pages = this.pages;
+    final int page = slot >>> PAGE_SHIFT;
+    if (page == pages.length) {
+      pages = ArrayUtil.growExact(pages, page + 1);
+      pages[page] = new long[PAGE_SLOTS * slotStride];
+      this.pages = pages;
+    } else {
+      final int offset = (slot & PAGE_MASK) * slotStride;
+      for (int i = offset; i < offset + slotStride; i++) {
+        LONGS.setVolatile(pages[page], i, 0L);
+      }
+    }
+    used.set(slot);
+    return slot;
+  }
+
+  /**
+   * Releases a slot for reuse by another cache. The slot must not be updated or read afterwards, as
+   * its counters may then be those of the next cache.
+   */
+  public synchronized void release(int slot) {
+    used.clear(slot);
+  }
+
+  /** Adds <code>delta</code> to a counter of the slot. */
+  public void add(int slot, int counter, long delta) {
+    final long[] page = pages[slot >>> PAGE_SHIFT];
+    LONGS.getAndAdd(page, offset(slot, stripe()) + counter, delta);
+  }
+
+  /** Adds one to a counter of the slot. */
+  public void increment(int slot, int counter) {
+    add(slot, counter, 1L);
+  }
+
+  /** Returns the current value of a counter of the slot. */
+  public long get(int slot, int counter) {
+    final long[] page = pages[slot >>> PAGE_SHIFT];
+    final int offset = offset(slot, 0) + counter;
+    long sum = 0;
+    for (int i = offset; i < offset + slotStride; i += STRIPE_STRIDE) {
+      sum += (long) LONGS.getOpaque(page, i);
+    }
+    return sum;
+  }
+
+  private int offset(int slot, int stripe) {
+    return (slot & PAGE_MASK) * slotStride + stripe * STRIPE_STRIDE;
+  }
+
+  private int stripe() {
+    final long id = Thread.currentThread().threadId();
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & stripeMask;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Regenerates cache entries of a new searcher from the caches of the old one, within a wall-clock
+ * budget and on a bounded number of threads (<code>autowarmTimeBudgetMs</code> and <code>
+ * autowarmThreads</code> in the <code>query</code> section of solrconfig.xml). A single instance is
+ * used for all the caches of a searcher, so the budget covers the whole autowarming.
+ *
+ * <p>Entries are regenerated in the order given, which should be most valuable first. Once the
+ * budget is used up the remaining entries are skipped, and the searcher can be registered; skipped
+ * entries get cached on demand by the queries that need them.
+ */
+public class CacheWarmer {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final long deadlineNanos;
+  private final boolean hasDeadline;
+  private final ExecutorService executor; // null if warming on the calling thread
+
+  /**
+   * @param timeBudgetMs the time after which no more entries are regenerated, or a negative value
+   *     for no limit
+   * @param executor the executor regenerating entries concurrently, see {@link
+   *     SolrCore#getAutowarmExecutor()}; if null entries are regenerated on the calling thread
+   */
+  public CacheWarmer(long timeBudgetMs, ExecutorService executor) {
+    this.hasDeadline = timeBudgetMs >= 0;
+    this.deadlineNanos =
+        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeBudgetMs));
+    this.executor = executor;
+  }
+
+  /** Whether the time budget is used up. */
+  public boolean isExpired() {
+    return hasDeadline && System.nanoTime() - deadlineNanos >= 0;
+  }
+
+  /**
+   * Regenerates the given entries of <code>oldCache</code> into <code>newCache</code>, in order,
+   * until the regenerator asks to stop or the time budget is used up. The regenerator must be
+   * thread-safe if this warmer uses an executor; each of its tasks then runs with a request of its
+   * own on <code>searcher</code>, with the parameters and NOW of the calling thread's request.
+   *
+   * @return the number of entries that were regenerated
+   */
+  public <K, V> int warm(
+      SolrIndexSearcher searcher,
+      SolrCache<K, V> newCache,
+      SolrCache<K, V> oldCache,
+      CacheRegenerator regenerator,
+      Map<K, V> entries) {
+    if (executor == null) {
+      int warmed = 0;
+      for (Map.Entry<K, V> entry : entries.entrySet()) {
+        if (isExpired()) {
+          break;
+        }
+        try {
+          boolean continueRegen =
+              regenerator.regenerateItem(
+                  searcher, newCache, oldCache, entry.getKey(), entry.getValue());
+          warmed++;
+          if (!continueRegen) {
+            break;
+          }
+        } catch (Exception e) {
+          log.error("Error during auto-warming of key: {}", entry.getKey(), e);
+        }
+      }
+      return warmed;
+    }
+
+    // tasks are started in order; those started after the budget is used up do nothing
+    final SolrParams params = taskParams(SolrRequestInfo.getRequestInfo());
+    final AtomicBoolean stop = new AtomicBoolean();
+    final List<Future<Boolean>> futures = new ArrayList<>(entries.size());
+    for (Map.Entry<K, V> entry : entries.entrySet()) {
+      futures.add(
+          executor.submit(
+              () -> {
+                if (stop.get() || isExpired()) {
+                  return false;
+                }
+                final SolrQueryRequest req =
+                    searcher == null ? null : SolrQueryRequest.wrapSearcher(searcher, params);
+                if (req != null) {
+                  SolrRequestInfo.setRequestInfo(
+                      new SolrRequestInfo(req, new SolrQueryResponse()));
+                }
+                try {
+                  if (!regenerator.regenerateItem(
+                      searcher, newCache, oldCache, entry.getKey(), entry.getValue())) {
+                    stop.set(true);
+                  }
+                  return true;
+                } catch (Exception e) {
+                  log.error("Error during auto-warming of key: {}", entry.getKey(), e);
+                  return false;
+                } finally {
+                  if (req != null) {
+                    try {
+                      req.close();
+                    } finally {
+                      SolrRequestInfo.clearRequestInfo();
+                    }
+                  }
+                }
+              }));
+    }
+    int warmed = 0;
+    for (Future<Boolean> future : futures) {
+      try {
+        if (future.get()) {
+          warmed++;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        futures.forEach(f -> f.cancel(true));
+        throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+      } catch (ExecutionException e) {
+        log.error("Error during auto-warming", e.getCause());
+      }
+    }
+    return warmed;
+  }
+
+  /** The parameters of the tasks' requests, pinning NOW to the calling request's. */
+  private static SolrParams taskParams(SolrRequestInfo requestInfo) {
+    if (requestInfo == null) {
+      return new ModifiableSolrParams().set("warming", "true");
+    }
+    return new ModifiableSolrParams(requestInfo.getReq().getParams())
+        .set(CommonParams.NOW, Long.toString(requestInfo.getNOW().getTime()));
+  }
+}
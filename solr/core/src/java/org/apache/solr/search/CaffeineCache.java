@@ -22,7 +22,6 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Policy.Eviction;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.RemovalListener;
-import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.metrics.ObservableLongMeasurement;
 import java.io.IOException;
@@ -31,7 +30,6 @@ import java.lang.invoke.MethodHandles;
 import java.time.Duration;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -71,26 +69,25 @@ public class CaffeineCache<K, V> extends SolrCacheBase
 
   private static final long BASE_RAM_BYTES_USED =
       RamUsageEstimator.shallowSizeOfInstance(CaffeineCache.class)
-          + RamUsageEstimator.shallowSizeOfInstance(CacheStats.class)
-          + 2 * RamUsageEstimator.shallowSizeOfInstance(LongAdder.class);
+          + RamUsageEstimator.shallowSizeOfInstance(LongAdder.class);
 
   private static final long RAM_BYTES_PER_FUTURE =
       RamUsageEstimator.shallowSizeOfInstance(CompletableFuture.class);
 
   private Executor executor;
 
-  private CacheStats priorStats;
-  private long priorHits;
-  private long priorInserts;
-  private long priorLookups;
+  // hits, lookups, inserts and evictions of this cache, in a slot of its own that is released on
+  // close; a warmed cache starts from the totals of the cache it was warmed from
+  private final CacheStatsRegistry stats = CacheStatsRegistry.getInstance();
+  private int statsSlot = -1;
+  private volatile boolean statsReleased;
 
   private String description = "Caffeine Cache";
-  private LongAdder hits;
-  private LongAdder inserts;
-  private LongAdder lookups;
   private Cache<K, V> cache;
   private AsyncCache<K, V> asyncCache;
   private long warmupTime;
+  private int warmedCount; // entries regenerated by the most recent warmup
+  private int skippedCount; // entries not regenerated, e.g. because of the time budget
   private int maxSize;
   private long maxRamBytes;
   private int initialSize;
@@ -103,10 +100,6 @@ public class CaffeineCache<K, V> extends SolrCacheBase
   private long initialRamBytes = 0;
   private final LongAdder ramBytes = new LongAdder();
 
-  public CaffeineCache() {
-    this.priorStats = CacheStats.empty();
-  }
-
   @Override
   public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
     super.init(args, regenerator);
@@ -138,9 +131,7 @@ public class CaffeineCache<K, V> extends SolrCacheBase
     description = generateDescription(maxSize, initialSize);
 
     cache = buildCache(null);
-    hits = new LongAdder();
-    inserts = new LongAdder();
-    lookups = new LongAdder();
+    statsSlot = stats.register();
 
     initialRamBytes =
         RamUsageEstimator.shallowSizeOfInstance(cache.getClass())
@@ -152,11 +143,7 @@ public class CaffeineCache<K, V> extends SolrCacheBase
 
   private Cache<K, V> buildCache(Cache<K, V> prev) {
     Caffeine<K, V> builder =
-        Caffeine.newBuilder()
-            .initialCapacity(initialSize)
-            .executor(executor)
-            .removalListener(this)
-            .recordStats();
+        Caffeine.newBuilder().initialCapacity(initialSize).executor(executor).removalListener(this);
     if (maxIdleTimeSec > 0) {
       builder.expireAfterAccess(Duration.ofSeconds(maxIdleTimeSec));
     }
@@ -189,6 +176,9 @@ public class CaffeineCache<K, V> extends SolrCacheBase
     if (async) {
       ramBytes.add(-RAM_BYTES_PER_FUTURE);
     }
+    if (cause.wasEvicted()) {
+      stats.increment(statsSlot, CacheStatsRegistry.EVICTIONS);
+    }
   }
 
   @Override
@@ -198,19 +188,24 @@ public class CaffeineCache<K, V> extends SolrCacheBase
 
   @Override
   public V get(K key) {
-    return cache.getIfPresent(key);
+    stats.increment(statsSlot, CacheStatsRegistry.LOOKUPS);
+    V value = cache.getIfPresent(key);
+    if (value != null) {
+      stats.increment(statsSlot, CacheStatsRegistry.HITS);
+    }
+    return value;
   }
 
   private V computeAsync(K key, IOFunction<? super K, ? extends V> mappingFunction)
       throws IOException {
     CompletableFuture<V> future = new CompletableFuture<>();
     CompletableFuture<V> result = asyncCache.asMap().putIfAbsent(key, future);
-    lookups.increment();
+    stats.increment(statsSlot, CacheStatsRegistry.LOOKUPS);
     if (result != null) {
       try {
         // Another thread is already working on this computation, wait for them to finish
         V value = result.join();
-        hits.increment();
+        stats.increment(statsSlot, CacheStatsRegistry.HITS);
         return value;
       } catch (CompletionException e) {
         Throwable cause = e.getCause();
@@ -232,7 +227,7 @@ public class CaffeineCache<K, V> extends SolrCacheBase
       V value = mappingFunction.apply(key);
       future.complete(value); // This will update the weight and expiration
       recordRamBytes(key, value);
-      inserts.increment();
+      stats.increment(statsSlot, CacheStatsRegistry.INSERTS);
       return value;
     } catch (Error | RuntimeException | IOException e) {
       // TimeExceeded exception is runtime and will bubble up from here
@@ -248,10 +243,14 @@ public class CaffeineCache<K, V> extends SolrCacheBase
       return computeAsync(key, mappingFunction);
     }
 
+    // counted as a hit unless the mapping function is called
+    stats.increment(statsSlot, CacheStatsRegistry.LOOKUPS);
+    stats.increment(statsSlot, CacheStatsRegistry.HITS);
     try {
       return cache.get(
           key,
           k -> {
+            stats.add(statsSlot, CacheStatsRegistry.HITS, -1);
             V value;
             try {
               value = mappingFunction.apply(k);
@@ -262,7 +261,7 @@ public class CaffeineCache<K, V> extends SolrCacheBase
               return null;
             }
             recordRamBytes(key, value);
-            inserts.increment();
+            stats.increment(statsSlot, CacheStatsRegistry.INSERTS);
             return value;
           });
     } catch (UncheckedIOException e) {
@@ -272,7 +271,7 @@ public class CaffeineCache<K, V> extends SolrCacheBase
 
   @Override
   public V put(K key, V val) {
-    inserts.increment();
+    stats.increment(statsSlot, CacheStatsRegistry.INSERTS);
     V old = cache.asMap().put(key, val);
     // ramBytes decrement for `old` happens via #onRemoval
     if (val != old) {
@@ -331,6 +330,10 @@ public class CaffeineCache<K, V> extends SolrCacheBase
       ((ExecutorService) executor).shutdownNow();
     }
     ramBytes.reset();
+    if (statsSlot >= 0 && !statsReleased) {
+      statsReleased = true;
+      stats.release(statsSlot);
+    }
     SolrCache.super.close();
   }
 
@@ -385,9 +388,22 @@ public class CaffeineCache<K, V> extends SolrCacheBase
   }
 
   protected void adjustMetrics(long hitsAdjust, long insertsAdjust, long lookupsAdjust) {
-    hits.add(-hitsAdjust);
-    inserts.add(-insertsAdjust);
-    lookups.add(-lookupsAdjust);
+    stats.add(statsSlot, CacheStatsRegistry.HITS, -hitsAdjust);
+    stats.add(statsSlot, CacheStatsRegistry.INSERTS, -insertsAdjust);
+    stats.add(statsSlot, CacheStatsRegistry.LOOKUPS, -lookupsAdjust);
+  }
+
+  /** Records a lookup that a subclass answered without going through the Caffeine cache. */
+  protected void recordLookup(boolean hit) {
+    stats.add(statsSlot, CacheStatsRegistry.LOOKUPS, 1);
+    if (hit) {
+      stats.add(statsSlot, CacheStatsRegistry.HITS, 1);
+    }
+  }
+
+  /** Records an insert that a subclass made without going through the Caffeine cache. */
+  protected void recordInsert() {
+    stats.add(statsSlot, CacheStatsRegistry.INSERTS, 1);
   }
 
   @Override
@@ -406,26 +422,21 @@ public class CaffeineCache<K, V> extends SolrCacheBase
       hottest = other.cache.policy().eviction().map(p -> p.hottest(size)).orElse(Map.of());
     }
 
-    for (Entry<K, V> entry : hottest.entrySet()) {
-      try {
-        boolean continueRegen =
-            regenerator.regenerateItem(searcher, this, old, entry.getKey(), entry.getValue());
-        if (!continueRegen) {
-          break;
-        }
-      } catch (Exception e) {
-        log.error("Error during auto-warming of key: {}", entry.getKey(), e);
+    // hottest first (by frequency, then recency), within the searcher's warming budget
+    CacheWarmer warmer = searcher == null ? null : searcher.getCacheWarmer();
+    if (warmer == null) {
+      warmer = new CacheWarmer(-1, null);
+    }
+    warmedCount = warmer.warm(searcher, this, old, regenerator, hottest);
+    skippedCount = hottest.size() - warmedCount;
+
+    // continue the statistics of the old cache from its totals so far; what it counts from now on,
+    // while the old searcher still serves requests, stays in its own slot
+    if (!other.statsReleased) {
+      for (int counter = 0; counter < CacheStatsRegistry.NUM_COUNTERS; counter++) {
+        stats.add(statsSlot, counter, stats.get(other.statsSlot, counter));
       }
     }
-
-    hits.reset();
-    inserts.reset();
-    lookups.reset();
-    CacheStats oldStats = other.cache.stats();
-    priorStats = oldStats.plus(other.priorStats);
-    priorHits = oldStats.hitCount() + other.hits.sum() + other.priorHits;
-    priorInserts = other.inserts.sum() + other.priorInserts;
-    priorLookups = oldStats.requestCount() + other.lookups.sum() + other.priorLookups;
     warmupTime =
         TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
   }
@@ -498,40 +509,49 @@ public class CaffeineCache<K, V> extends SolrCacheBase
         solrMetricsContext.longGaugeMeasurement(
             metricName + ".warmup_time", "Cache warmup time (most recent)", OtelUnit.MILLISECONDS);
 
+    ObservableLongMeasurement warmupEntriesMetric =
+        solrMetricsContext.longGaugeMeasurement(
+            metricName + ".warmup_entries",
+            "Number of entries regenerated (warmed) or not (skipped) by the most recent warmup");
+
+    // built once, so that collecting doesn't allocate
+    Attributes warmedAttributes = cacheAttributes.toBuilder().put(RESULT_ATTR, "warmed").build();
+    Attributes skippedAttributes = cacheAttributes.toBuilder().put(RESULT_ATTR, "skipped").build();
+    Attributes hitAttributes = cacheAttributes.toBuilder().put(RESULT_ATTR, "hit").build();
+    Attributes missAttributes = cacheAttributes.toBuilder().put(RESULT_ATTR, "miss").build();
+    Attributes insertsAttributes =
+        cacheAttributes.toBuilder().put(OPERATION_ATTR, "inserts").build();
+    Attributes evictionsAttributes =
+        cacheAttributes.toBuilder().put(OPERATION_ATTR, "evictions").build();
+
     solrMetricsContext.batchCallback(
         () -> {
-          if (cache == null) {
+          if (cache == null || statsReleased) {
             return;
           }
-          CacheStats stats = cache.stats();
-          long hitCount = stats.hitCount() + hits.sum();
-          long lookupCount = stats.requestCount() + lookups.sum();
-          long insertCount = inserts.sum();
+          int slot = statsSlot;
+          long hits = stats.get(slot, CacheStatsRegistry.HITS);
+          long lookups = stats.get(slot, CacheStatsRegistry.LOOKUPS);
 
           sizeMetric.record(cache.asMap().size(), cacheAttributes);
           ramBytesUsedMetric.record(ramBytesUsed(), cacheAttributes);
           warmupTimeMetric.record(warmupTime, cacheAttributes);
+          warmupEntriesMetric.record(warmedCount, warmedAttributes);
+          warmupEntriesMetric.record(skippedCount, skippedAttributes);
 
-          CacheStats cumulativeStats = priorStats.plus(stats);
-          long cumLookups = priorLookups + lookupCount;
-          long cumHits = priorHits + hitCount;
-
-          cacheLookupsMetric.record(
-              cumHits, cacheAttributes.toBuilder().put(RESULT_ATTR, "hit").build());
-          cacheLookupsMetric.record(
-              cumLookups - cumHits, cacheAttributes.toBuilder().put(RESULT_ATTR, "miss").build());
+          cacheLookupsMetric.record(hits, hitAttributes);
+          cacheLookupsMetric.record(lookups - hits, missAttributes);
 
           cacheOperationMetric.record(
-              priorInserts + insertCount,
-              cacheAttributes.toBuilder().put(OPERATION_ATTR, "inserts").build());
+              stats.get(slot, CacheStatsRegistry.INSERTS), insertsAttributes);
           cacheOperationMetric.record(
-              cumulativeStats.evictionCount(),
-              cacheAttributes.toBuilder().put(OPERATION_ATTR, "evictions").build());
+              stats.get(slot, CacheStatsRegistry.EVICTIONS), evictionsAttributes);
         },
         cacheLookupsMetric,
         cacheOperationMetric,
         sizeMetric,
         ramBytesUsedMetric,
-        warmupTimeMetric);
+        warmupTimeMetric,
+        warmupEntriesMetric);
   }
 }
@@ -34,7 +34,10 @@ public abstract class DocSet implements Accountable, Cloneable /* extends Collec
 
   // package accessible; guarantee known implementations
   DocSet() {
-    assert this instanceof BitDocSet || this instanceof SortedIntDocSet;
+    assert this instanceof BitDocSet
+        || this instanceof SortedIntDocSet
+        || this instanceof RoaringDocSet
+        || this instanceof SegmentDocSet;
   }
 
   // can't use a trivial static initializer "EMPTY = new SortedIntDocSet" because it can lead to
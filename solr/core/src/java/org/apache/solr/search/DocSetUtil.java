@@ -263,6 +263,23 @@ public class DocSetUtil {
     return new SortedIntDocSet(docs);
   }
 
+  /**
+   * Returns a {@link RoaringDocSet} with the same docs as the given set if it would use at most
+   * half the memory, otherwise the set itself. Only plain {@link BitDocSet}s are converted; a
+   * {@link SortedIntDocSet} is already compact. Meant for sets that are long-lived, like cache
+   * entries, since building the RoaringDocSet costs a pass over the bits.
+   */
+  public static DocSet toCompactSet(DocSet docs) {
+    if (docs.getClass() != BitDocSet.class) {
+      return docs;
+    }
+    final FixedBitSet bits = ((BitDocSet) docs).getBits();
+    if (RoaringDocSet.estimateRamBytesUsed(bits) * 2 > docs.ramBytesUsed()) {
+      return docs;
+    }
+    return RoaringDocSet.fromBitSet(bits);
+  }
+
   public static void collectSortedDocSet(DocSet docs, IndexReader reader, Collector collector)
       throws IOException {
     // TODO add SortedDocSet sub-interface and take that.
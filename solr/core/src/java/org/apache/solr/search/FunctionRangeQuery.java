@@ -52,6 +52,11 @@ public class FunctionRangeQuery extends ExtendedQueryBase implements PostFilter
     return new FunctionRangeCollector(fcontext);
   }
 
+  @Override
+  public boolean isPartitionableBySegment() {
+    return true;
+  }
+
   class FunctionRangeCollector extends DelegatingCollector {
     final Map<Object, Object> fcontext;
     ValueSourceScorer valueSourceScorer;
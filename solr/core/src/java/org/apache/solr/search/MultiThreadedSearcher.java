@@ -21,17 +21,27 @@ import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher.LeafReaderContextPartition;
+import org.apache.lucene.search.IndexSearcher.LeafSlice;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.TaskExecutor;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.util.IOFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +58,7 @@ public class MultiThreadedSearcher {
       int len,
       QueryCommand cmd,
       Query query,
+      List<PostFilter> postFilters,
       boolean needTopDocs,
       boolean needMaxScore,
       boolean needDocSet,
@@ -92,7 +103,10 @@ public class MultiThreadedSearcher {
     final SolrMultiCollectorManager manager = new SolrMultiCollectorManager(cmd, colls);
     Object[] ret;
     try {
-      ret = searcher.search(query, manager);
+      ret =
+          postFilters == null
+              ? search(query, manager, cmd.getMaxThreads())
+              : search(query, new PostFilterCM(postFilters, manager), cmd.getMaxThreads());
     } catch (EarlyTerminatingCollectorException ex) {
       ret = manager.reduce();
       queryResult.setMaxHitsTerminatedEarly(true);
@@ -117,16 +131,142 @@ public class MultiThreadedSearcher {
     return new SearchResult(scoreMode, ret);
   }
 
-  static boolean allowMT(DelegatingCollector postFilter, QueryCommand cmd, TaskExecutor executor) {
+  /**
+   * Like {@link SolrIndexSearcher#search(Query, CollectorManager)}, but using at most {@code
+   * maxThreads} slices of the searcher's leaves, see {@link #limitSlices(LeafSlice[], int)}.
+   */
+  private <C extends Collector> Object[] search(
+      Query query, CollectorManager<C, Object[]> manager, int maxThreads) throws IOException {
+    final LeafSlice[] slices = limitSlices(searcher.getSlices(), maxThreads);
+    if (slices.length == searcher.getSlices().length) {
+      return searcher.search(query, manager);
+    }
+    final List<C> collectors = new ArrayList<>(slices.length);
+    for (int i = 0; i < slices.length; i++) {
+      collectors.add(manager.newCollector());
+    }
+    final ScoreMode scoreMode = collectors.get(0).scoreMode();
+    for (C collector : collectors) {
+      if (collector.scoreMode() != scoreMode) {
+        throw new IllegalStateException(
+            "CollectorManager does not always produce collectors with the same score mode");
+      }
+    }
+    final Weight weight = searcher.createWeight(searcher.rewrite(query), scoreMode, 1f);
+    final List<Callable<C>> tasks = new ArrayList<>(slices.length);
+    for (int i = 0; i < slices.length; i++) {
+      final LeafSlice slice = slices[i];
+      final C collector = collectors.get(i);
+      tasks.add(
+          () -> {
+            collector.setWeight(weight);
+            for (LeafReaderContextPartition partition : slice.partitions) {
+              searcher.searchLeaf(
+                  partition.ctx, partition.minDocId, partition.maxDocId, weight, collector);
+            }
+            return collector;
+          });
+    }
+    searcher.getTaskExecutor().invokeAll(tasks);
+    return manager.reduce(collectors);
+  }
+
+  /**
+   * The most ordinals for which facets are counted per slice by {@link #searchPerSlice}. Each slice
+   * counts into an array of its own, so the memory used grows with the number of threads times the
+   * number of ordinals; fields with more ordinals are counted on the current thread.
+   */
+  public static final int MAX_SLICE_COUNT_ORDS = 1 << 16;
+
+  /**
+   * The most threads a request may use for work split by {@link #searchPerSlice}: 1 if the request
+   * isn't {@link CommonParams#MULTI_THREADED multi-threaded}, otherwise its {@link
+   * CommonParams#MULTI_THREADED_MAX_THREADS} budget.
+   */
+  public static int getMaxThreads(SolrParams params) {
+    return params.getBool(CommonParams.MULTI_THREADED, false)
+        ? params.getInt(CommonParams.MULTI_THREADED_MAX_THREADS, -1)
+        : 1;
+  }
+
+  static boolean allowMT(
+      SolrIndexSearcher.ProcessedFilter pf, QueryCommand cmd, TaskExecutor executor) {
     // TODO: it's unclear if segmentTerminateEarly is truly incompatible but
     //  since it has to appropriately denote partial results this needs to be
     //  investigated/tested before we can remove this check (perhaps for 9.8).
-    return postFilter == null
+    return (pf.postFilter == null
+            || pf.postFilters.stream().allMatch(PostFilter::isPartitionableBySegment))
         && !cmd.getSegmentTerminateEarly()
         && cmd.getMultiThreaded()
         && executor != null;
   }
 
+  /**
+   * Caps the number of slices, and so the number of threads a single request may use, to {@code
+   * maxSlices} by merging the smallest ones. A non-positive {@code maxSlices} means no limit.
+   */
+  static LeafSlice[] limitSlices(LeafSlice[] slices, int maxSlices) {
+    if (maxSlices <= 0 || slices.length <= maxSlices) {
+      return slices;
+    }
+    // largest first, each one going to the group with the fewest docs so far
+    LeafSlice[] sorted = slices.clone();
+    Arrays.sort(sorted, Comparator.comparingInt(LeafSlice::getMaxDocs).reversed());
+    List<List<LeafReaderContextPartition>> groups = new ArrayList<>(maxSlices);
+    long[] groupDocs = new long[maxSlices];
+    for (int i = 0; i < maxSlices; i++) {
+      groups.add(new ArrayList<>());
+    }
+    for (LeafSlice slice : sorted) {
+      int smallest = 0;
+      for (int i = 1; i < maxSlices; i++) {
+        if (groupDocs[i] < groupDocs[smallest]) smallest = i;
+      }
+      groups.get(smallest).addAll(Arrays.asList(slice.partitions));
+      groupDocs[smallest] += slice.getMaxDocs();
+    }
+    LeafSlice[] limited = new LeafSlice[maxSlices];
+    for (int i = 0; i < maxSlices; i++) {
+      limited[i] = new LeafSlice(groups.get(i));
+    }
+    return limited;
+  }
+
+  /**
+   * Runs the task once for each slice of the searcher's leaves (see {@link
+   * SolrIndexSearcher#getSlices()}), merged into at most {@code maxThreads} slices, on the
+   * searcher's executor, and returns the results in slice order. This is meant for work done after
+   * the main query, like facet counting, where each slice accumulates into structures of its own
+   * that the caller then merges.
+   *
+   * @param maxThreads the request's budget, see {@link #getMaxThreads(SolrParams)}
+   * @return null if the work can't be split, i.e. there is no executor or only one slice, in which
+   *     case the caller should just do the work on the current thread.
+   */
+  public static <T> List<T> searchPerSlice(
+      SolrIndexSearcher searcher, int maxThreads, IOFunction<List<LeafReaderContext>, T> task)
+      throws IOException {
+    if (searcher.getCore().getCoreContainer().getIndexSearcherExecutor() == null) {
+      return null;
+    }
+    LeafSlice[] slices = limitSlices(searcher.getSlices(), maxThreads);
+    if (slices.length < 2) {
+      return null;
+    }
+    List<Callable<T>> tasks = new ArrayList<>(slices.length);
+    for (LeafSlice slice : slices) {
+      List<LeafReaderContext> leaves = new ArrayList<>(slice.partitions.length);
+      for (LeafReaderContextPartition partition : slice.partitions) {
+        if (partition.minDocId != 0 || partition.maxDocId < partition.ctx.reader().maxDoc()) {
+          return null; // a leaf split across slices
+        }
+        leaves.add(partition.ctx);
+      }
+      tasks.add(() -> task.apply(leaves));
+    }
+    return searcher.getTaskExecutor().invokeAll(tasks);
+  }
+
   static class MaxScoreResult {
     final float maxScore;
 
@@ -176,6 +316,35 @@ public class MultiThreadedSearcher {
     }
   }
 
+  /**
+   * Wraps the collectors of each slice with a chain of post filters of its own. Only used for post
+   * filters that are {@link PostFilter#isPartitionableBySegment() partitionable by segment}.
+   */
+  private class PostFilterCM implements CollectorManager<DelegatingCollector, Object[]> {
+    private final List<PostFilter> postFilters;
+    private final SolrMultiCollectorManager manager;
+
+    PostFilterCM(List<PostFilter> postFilters, SolrMultiCollectorManager manager) {
+      this.postFilters = postFilters;
+      this.manager = manager;
+    }
+
+    @Override
+    public DelegatingCollector newCollector() throws IOException {
+      DelegatingCollector postFilter = searcher.buildPostFilterChain(postFilters);
+      postFilter.setLastDelegate(manager.newCollector());
+      return postFilter;
+    }
+
+    @Override
+    public Object[] reduce(Collection<DelegatingCollector> postFilters) throws IOException {
+      for (DelegatingCollector postFilter : postFilters) {
+        postFilter.complete();
+      }
+      return manager.reduce();
+    }
+  }
+
   private static class MaxScoreCM implements CollectorManager<Collector, Object> {
     private final Collector[] firstCollectors;
     private final int firstMaxScoreCollectorIndex;
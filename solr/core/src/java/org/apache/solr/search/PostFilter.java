@@ -43,4 +43,14 @@ public interface PostFilter extends ExtendedQuery {
    * any sorting or grouping collectors
    */
   public DelegatingCollector getFilterCollector(IndexSearcher searcher);
+
+  /**
+   * Returns true if the collector returned by {@link #getFilterCollector(IndexSearcher)} decides on
+   * each document independently of the documents in other segments. The search may then be split
+   * into slices of segments that each get a collector of their own, so such a post filter doesn't
+   * prevent a {@link QueryCommand#getMultiThreaded() multi-threaded} search.
+   */
+  default boolean isPartitionableBySegment() {
+    return false;
+  }
 }
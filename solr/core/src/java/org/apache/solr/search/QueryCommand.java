@@ -40,6 +40,7 @@ public class QueryCommand {
   private int supersetMaxDoc;
   private int flags;
   private boolean multiThreaded = false;
+  private int maxThreads = -1;
   private int minExactCount = Integer.MAX_VALUE;
   private CursorMark cursorMark;
   private boolean distribStatsDisabled;
@@ -174,6 +175,16 @@ public class QueryCommand {
     return this;
   }
 
+  /** The most threads a multi-threaded search may use; non-positive if not limited. */
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public QueryCommand setMaxThreads(int maxThreads) {
+    this.maxThreads = maxThreads;
+    return this;
+  }
+
   public int getMinExactCount() {
     return minExactCount;
   }
@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.ScorerSupplier;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.Weight;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Chooses how the filters of a {@link QueryCommand} are executed, from estimates of the number of
+ * documents the main query and each filter match (see {@link ScorerSupplier#cost()}) and from the
+ * filterCache. Enabled with {@link CommonParams#QUERY_PLANNER}.
+ *
+ * <p>Each filter not hinted with <code>cache=false</code> is either:
+ *
+ * <ul>
+ *   <li>intersected as a cached {@link DocSet} (the default), when it is already in the filterCache
+ *       or no cheaper strategy applies;
+ *   <li>run as a {@link PostFilter}, when it can be one and the query (narrowed by the cached
+ *       filters) matches far fewer documents than the filter would have to look at;
+ *   <li>leapfrogged with the query, when the query matches far fewer documents than the filter, so
+ *       that the filter's set is not built (nor cached) for the few documents that need it.
+ * </ul>
+ *
+ * <p>In addition, when the request accepts an approximate hit count ({@link
+ * CommonParams#MIN_EXACT_COUNT}) and its sort is a prefix of the index sort, each segment is
+ * terminated early once enough documents were collected (see {@link
+ * CommonParams#SEGMENT_TERMINATE_EARLY}).
+ *
+ * <p>The filters of the request are not modified: those that aren't intersected are wrapped, and
+ * the wrappers are ignored by {@link QueryResultKey}, so that the queryResultCache is shared by all
+ * the plans of a request. There is one planner per searcher (see {@link
+ * SolrIndexSearcher#getQueryPlanner()}), which remembers the estimates it made.
+ */
+public class QueryPlanner {
+
+  /**
+   * How many times fewer documents the query must be estimated to match than a filter, for the
+   * filter to be leapfrogged or post filtered instead of being intersected as a set.
+   */
+  static final int SELECTIVITY_RATIO = 8;
+
+  /** The cost of filters chosen to run as post filters. */
+  static final int POST_FILTER_COST = 100;
+
+  /** How many estimates of the number of matches a planner remembers. */
+  static final int MAX_ESTIMATES = 1024;
+
+  /** How a filter is executed. */
+  public enum Strategy {
+    /** Intersected as a (cached) DocSet. */
+    CACHED,
+    /** A non-cached clause of the conjunction with the query. */
+    LEAPFROG,
+    /** Checked for each document matching the query and the other filters. */
+    POST_FILTER,
+    /** As specified by the filter's <code>cache=false</code> and <code>cost</code>. */
+    HINTED;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  private final SolrIndexSearcher searcher;
+  private final Cache<Query, Long> estimates =
+      Caffeine.newBuilder().executor(Runnable::run).maximumSize(MAX_ESTIMATES).build();
+
+  public QueryPlanner(SolrIndexSearcher searcher) {
+    this.searcher = searcher;
+  }
+
+  /**
+   * Plans the execution of <code>cmd</code>, replacing its filter list and setting its early
+   * termination accordingly.
+   *
+   * @param allowEarlyTermination whether the request may be terminated early per segment, which is
+   *     not the case e.g. for grouping or cursors
+   * @return a description of the plan
+   */
+  public SimpleOrderedMap<Object> plan(QueryCommand cmd, boolean allowEarlyTermination)
+      throws IOException {
+    final SimpleOrderedMap<Object> plan = new SimpleOrderedMap<>();
+    final long queryMatches = estimateMatches(cmd.getQuery());
+    plan.add("estimatedMatches", queryMatches);
+
+    final List<Query> filters = cmd.getFilterList();
+    if (filters != null && !filters.isEmpty()) {
+      // the cached filters are intersected first; the smallest one bounds the candidates
+      final DocSet[] cachedSets = new DocSet[filters.size()];
+      long candidates = queryMatches;
+      for (int i = 0; i < filters.size(); i++) {
+        final Query filter = filters.get(i);
+        if (isHinted(filter)) {
+          continue;
+        }
+        cachedSets[i] = getCachedDocSet(QueryUtils.getAbs(filter));
+        if (cachedSets[i] != null && isPositive(filter) && candidates >= 0) {
+          candidates = Math.min(candidates, cachedSets[i].size());
+        }
+      }
+
+      final List<Query> plannedFilters = new ArrayList<>(filters.size());
+      final List<Object> filterPlans = new ArrayList<>(filters.size());
+      for (int i = 0; i < filters.size(); i++) {
+        final SimpleOrderedMap<Object> filterPlan = new SimpleOrderedMap<>();
+        filterPlan.add("filter", filters.get(i).toString());
+        plannedFilters.add(planFilter(filters.get(i), cachedSets[i], candidates, filterPlan));
+        filterPlans.add(filterPlan);
+      }
+      cmd.setFilterList(plannedFilters);
+      plan.add("filters", filterPlans);
+    }
+
+    if (allowEarlyTermination && canTerminateEarly(cmd)) {
+      cmd.setSegmentTerminateEarly(true);
+    }
+    plan.add(CommonParams.SEGMENT_TERMINATE_EARLY, cmd.getSegmentTerminateEarly());
+    return plan;
+  }
+
+  private Query planFilter(
+      Query filter, DocSet cachedSet, long candidates, SimpleOrderedMap<Object> filterPlan)
+      throws IOException {
+    if (isHinted(filter)) {
+      filterPlan.add("strategy", Strategy.HINTED.toString());
+      return filter;
+    }
+    if (cachedSet != null) {
+      filterPlan.add("strategy", Strategy.CACHED.toString());
+      filterPlan.add("cachedSize", cachedSet.size());
+      return filter;
+    }
+
+    final long filterMatches = isPositive(filter) ? estimateMatches(filter) : -1;
+    filterPlan.add("estimatedMatches", filterMatches);
+    if (candidates < 0 || filterMatches < 0 || candidates * SELECTIVITY_RATIO >= filterMatches) {
+      filterPlan.add("strategy", Strategy.CACHED.toString());
+      return filter;
+    }
+
+    if (filter instanceof PostFilter postFilter) {
+      filterPlan.add("strategy", Strategy.POST_FILTER.toString());
+      return new PlannedPostFilter(postFilter);
+    }
+    filterPlan.add("strategy", Strategy.LEAPFROG.toString());
+    return new PlannedFilter(filter, 0);
+  }
+
+  private boolean canTerminateEarly(QueryCommand cmd) throws IOException {
+    final Sort sort = cmd.getSort();
+    if (cmd.getSegmentTerminateEarly()
+        || cmd.getMinExactCount() == Integer.MAX_VALUE
+        || sort == null
+        || cmd.getLen() <= 0) {
+      return false;
+    }
+    final Sort mergeSort = searcher.getCore().getSolrCoreState().getMergePolicySort();
+    return mergeSort != null && EarlyTerminatingSortingCollector.canEarlyTerminate(sort, mergeSort);
+  }
+
+  /**
+   * Whether the execution of this filter was specified with local params. The cost of cached
+   * filters is ignored, so only <code>cache=false</code> counts.
+   */
+  private static boolean isHinted(Query filter) {
+    return filter instanceof ExtendedQuery eq && !eq.getCache();
+  }
+
+  private static boolean isPositive(Query filter) {
+    return Objects.equals(filter, QueryUtils.getAbs(filter));
+  }
+
+  /**
+   * Looks the positive query up in the filterCache, without counting the lookup in the cache's
+   * statistics.
+   */
+  private DocSet getCachedDocSet(Query posQuery) {
+    final SolrCache<Query, DocSet> filterCache = searcher.getFilterCache();
+    if (filterCache == null) {
+      return null;
+    }
+    if (posQuery instanceof WrappedQuery wrapped) {
+      posQuery = wrapped.getWrappedQuery();
+    }
+    final DocSet docSet = filterCache.get(posQuery);
+    if (filterCache instanceof CaffeineCache<Query, DocSet> caffeineCache) {
+      caffeineCache.adjustMetrics(docSet == null ? 0 : 1, 0, 1);
+    }
+    return docSet;
+  }
+
+  /**
+   * Estimates the number of documents matching the query from the cost of its scorers, which
+   * doesn't iterate over any matches. Estimates are remembered for the lifetime of the searcher.
+   *
+   * @return the estimate, or -1 if it can't be estimated cheaply
+   */
+  long estimateMatches(Query query) throws IOException {
+    if (query == null) {
+      return searcher.maxDoc();
+    }
+    if (query instanceof DocSetProducer || query instanceof SolrSearcherRequirer) {
+      // their weights may compute the whole result
+      return -1;
+    }
+    final Long estimate = estimates.getIfPresent(query);
+    if (estimate != null) {
+      return estimate;
+    }
+    final long cost = computeCost(query);
+    estimates.put(query, cost);
+    return cost;
+  }
+
+  private long computeCost(Query query) throws IOException {
+    final Query rewritten = searcher.rewrite(QueryUtils.makeQueryable(query));
+    final Weight weight = searcher.createWeight(rewritten, ScoreMode.COMPLETE_NO_SCORES, 1f);
+    long cost = 0;
+    for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+      final ScorerSupplier scorerSupplier = weight.scorerSupplier(leaf);
+      if (scorerSupplier != null) {
+        cost += Math.min(scorerSupplier.cost(), leaf.reader().maxDoc());
+      }
+    }
+    return cost;
+  }
+
+  /**
+   * Returns the filter a planned filter was created from, or the filter itself if it wasn't
+   * planned.
+   */
+  static Query unplanned(Query filter) {
+    return filter instanceof PlannedFilter planned ? planned.filter : filter;
+  }
+
+  /**
+   * A filter that is not cached, with the cost chosen by the planner. The request's filter isn't
+   * modified, since the same instance may be used elsewhere, e.g. by faceting.
+   */
+  static class PlannedFilter extends ExtendedQueryBase {
+    final Query filter;
+
+    PlannedFilter(Query filter, int cost) {
+      this.filter = filter;
+      setCache(false);
+      setCost(cost);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+        throws IOException {
+      return filter.createWeight(searcher, scoreMode, boost);
+    }
+
+    @Override
+    public Query rewrite(IndexSearcher searcher) throws IOException {
+      // the execution has been decided by then
+      return filter.rewrite(searcher);
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+      filter.visit(visitor);
+    }
+
+    @Override
+    public int hashCode() {
+      return filter.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof PlannedFilter other
+          && getClass() == other.getClass()
+          && filter.equals(other.filter);
+    }
+
+    @Override
+    public String toString(String field) {
+      return getOptions() + filter.toString(field);
+    }
+  }
+
+  /** A post filter, with at least the cost for it to run after the query and other filters. */
+  static final class PlannedPostFilter extends PlannedFilter implements PostFilter {
+
+    PlannedPostFilter(PostFilter filter) {
+      super((Query) filter, Math.max(filter.getCost(), POST_FILTER_COST));
+    }
+
+    @Override
+    public DelegatingCollector getFilterCollector(IndexSearcher searcher) {
+      return ((PostFilter) filter).getFilterCollector(searcher);
+    }
+
+    @Override
+    public boolean isPartitionableBySegment() {
+      return ((PostFilter) filter).isPartitionableBySegment();
+    }
+  }
+}
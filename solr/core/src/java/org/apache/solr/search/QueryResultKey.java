@@ -71,7 +71,12 @@ public final class QueryResultKey implements Accountable {
     if (filters == null) {
       this.filters = null;
     } else {
-      this.filters = filters.stream().filter(Objects::nonNull).collect(Collectors.toList());
+      // the same request gives the same results however its filters are executed
+      this.filters =
+          filters.stream()
+              .filter(Objects::nonNull)
+              .map(QueryPlanner::unplanned)
+              .collect(Collectors.toList());
       for (Query filt : this.filters) {
         // NOTE: simple summation used here so keys with the same filters but in
         // different orders get the same hashCode
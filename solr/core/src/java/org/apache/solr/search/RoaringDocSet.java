@@ -0,0 +1,1046 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * A compressed implementation of a {@link DocSet}, modeled after roaring bitmaps. The doc id space
+ * is split into blocks of 64K docs and each non-empty block is stored in whichever container is
+ * smallest for its contents: a sorted array of the low 16 bits, a 64K bitmap, or a list of runs.
+ * Good for medium-sized sets over large indexes, and for clustered sets, where a {@link BitDocSet}
+ * would mostly hold zeros.
+ *
+ * @see DocSetUtil#toCompactSet(DocSet)
+ */
+public class RoaringDocSet extends DocSet {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(RoaringDocSet.class);
+
+  static final int BLOCK_SHIFT = 16;
+  static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  static final int BLOCK_WORDS = BLOCK_SIZE >>> 6;
+
+  private final char[] keys; // block numbers (doc >>> 16), ascending
+  private final Container[] containers;
+  private final int size;
+
+  private RoaringDocSet(char[] keys, Container[] containers, int size) {
+    this.keys = keys;
+    this.containers = containers;
+    this.size = size;
+  }
+
+  /** Builds a RoaringDocSet with the set bits of the given {@link FixedBitSet}. */
+  public static RoaringDocSet fromBitSet(FixedBitSet bits) {
+    final long[] words = bits.getBits();
+    final int numWords = FixedBitSet.bits2words(bits.length());
+    final long[] scratch = new long[BLOCK_WORDS];
+    final Builder builder = new Builder();
+    for (int from = 0, key = 0; from < numWords; from += BLOCK_WORDS, key++) {
+      final int to = Math.min(from + BLOCK_WORDS, numWords);
+      final int cardinality = cardinality(words, from, to);
+      if (cardinality > 0) {
+        Arrays.fill(scratch, 0L);
+        System.arraycopy(words, from, scratch, 0, to - from);
+        builder.append(key, fromWords(scratch, cardinality));
+      }
+    }
+    return builder.build();
+  }
+
+  /** Builds a RoaringDocSet with the same docs as the given set. */
+  public static RoaringDocSet fromDocSet(DocSet docs) {
+    if (docs instanceof RoaringDocSet roaringDocSet) {
+      return roaringDocSet;
+    } else if (docs instanceof BitDocSet bitDocSet) {
+      return fromBitSet(bitDocSet.getBits());
+    }
+    final Builder builder = new Builder();
+    for (DocIterator iter = docs.iterator(); iter.hasNext(); ) {
+      builder.add(iter.nextDoc());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Estimates {@link #ramBytesUsed()} of the RoaringDocSet {@link #fromBitSet(FixedBitSet)} would
+   * build, without building it.
+   */
+  public static long estimateRamBytesUsed(FixedBitSet bits) {
+    final long[] words = bits.getBits();
+    final int numWords = FixedBitSet.bits2words(bits.length());
+    int numContainers = 0;
+    long bytes = 0;
+    for (int from = 0; from < numWords; from += BLOCK_WORDS) {
+      final int to = Math.min(from + BLOCK_WORDS, numWords);
+      final int cardinality = cardinality(words, from, to);
+      if (cardinality > 0) {
+        numContainers++;
+        bytes +=
+            Math.min(
+                Math.min(
+                    ArrayContainer.ramBytesUsed(cardinality),
+                    RunContainer.ramBytesUsed(numberOfRuns(words, from, to))),
+                BitmapContainer.RAM_BYTES_USED);
+      }
+    }
+    return bytes + ramBytesUsedForContainers(numContainers);
+  }
+
+  private static long ramBytesUsedForContainers(int numContainers) {
+    return BASE_RAM_BYTES_USED
+        + RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Character.BYTES * numContainers)
+        + RamUsageEstimator.alignObjectSize(
+            RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * numContainers);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    final int idx = Arrays.binarySearch(keys, (char) (doc >>> BLOCK_SHIFT));
+    return idx >= 0 && containers[idx].contains(doc & BLOCK_MASK);
+  }
+
+  /** the {@link Bits#length()} or maxdoc (1 greater than largest possible doc number) */
+  private int getLength() {
+    final int last = keys.length - 1;
+    return last < 0 ? 0 : ((keys[last] << BLOCK_SHIFT) | containers[last].last()) + 1;
+  }
+
+  @Override
+  public DocIterator iterator() {
+    return new DocIterator() {
+      private final Cursor cursor = new Cursor();
+      private int next = cursor.advance(0);
+
+      @Override
+      public boolean hasNext() {
+        return next != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      /** The remove operation is not supported by this Iterator. */
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException(
+            "The remove  operation is not supported by this Iterator.");
+      }
+
+      @Override
+      public int nextDoc() {
+        final int doc = next;
+        next = cursor.advance(doc + 1);
+        return doc;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public DocIdSetIterator iterator(LeafReaderContext context) {
+    final int maxDoc = context.reader().maxDoc();
+    if (size == 0 || maxDoc < 1) {
+      // empty docset or entirely empty segment
+      return null;
+    }
+
+    final int base = context.docBase;
+    final int max = base + maxDoc; // one past the max doc in this segment.
+    final Cursor cursor = new Cursor();
+    if (cursor.advance(base) >= max) {
+      return null;
+    }
+
+    // upper bound: the docs of all the blocks overlapping this segment
+    long cost = 0;
+    for (int i = cursor.idx; i < keys.length && keys[i] <= (max - 1) >>> BLOCK_SHIFT; i++) {
+      cost += containers[i].cardinality();
+    }
+    final long maxCost = Math.min(cost, maxDoc);
+
+    return new DocIdSetIterator() {
+      int adjustedDoc = -1;
+
+      @Override
+      public int docID() {
+        return adjustedDoc;
+      }
+
+      @Override
+      public int nextDoc() {
+        return advance(adjustedDoc + 1);
+      }
+
+      @Override
+      public int advance(int target) {
+        if (target >= max - base) {
+          return adjustedDoc = NO_MORE_DOCS;
+        }
+        final int adjusted = target + base;
+        final int doc = cursor.doc >= adjusted ? cursor.doc : cursor.advance(adjusted);
+        return adjustedDoc = doc < max ? doc - base : NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        return maxCost;
+      }
+    };
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof SortedIntDocSet || other instanceof SegmentDocSet) {
+      // SortedIntDocSet probes us with exists(), which is cheaper than anything we can do, and a
+      // SegmentDocSet would have to build its bits anyway
+      return other.intersection(this);
+    }
+    final Scratch scratch = new Scratch();
+    final Builder builder = new Builder();
+    if (other instanceof RoaringDocSet o) {
+      for (int i = 0, j = 0; i < keys.length && j < o.keys.length; ) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          builder.append(keys[i], and(containers[i], o.containers[j], scratch));
+          i++;
+          j++;
+        }
+      }
+    } else {
+      final FixedBitSet bits = ((BitDocSet) other).getBits();
+      for (int i = 0; i < keys.length; i++) {
+        builder.append(keys[i], and(containers[i], scratch.slice(bits, keys[i]), scratch));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof SortedIntDocSet || other instanceof SegmentDocSet) {
+      // they had better not call us back!
+      return other.intersectionSize(this);
+    }
+    final Scratch scratch = new Scratch();
+    int count = 0;
+    if (other instanceof RoaringDocSet o) {
+      for (int i = 0, j = 0; i < keys.length && j < o.keys.length; ) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          count += andCardinality(containers[i], o.containers[j], scratch);
+          i++;
+          j++;
+        }
+      }
+    } else {
+      final FixedBitSet bits = ((BitDocSet) other).getBits();
+      for (int i = 0; i < keys.length; i++) {
+        count += andCardinality(containers[i], scratch.slice(bits, keys[i]), scratch);
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof SortedIntDocSet || other instanceof SegmentDocSet) {
+      // they had better not call us back!
+      return other.intersects(this);
+    }
+    final Scratch scratch = new Scratch();
+    if (other instanceof RoaringDocSet o) {
+      for (int i = 0, j = 0; i < keys.length && j < o.keys.length; ) {
+        if (keys[i] < o.keys[j]) {
+          i++;
+        } else if (keys[i] > o.keys[j]) {
+          j++;
+        } else {
+          if (andCardinality(containers[i], o.containers[j], scratch) > 0) return true;
+          i++;
+          j++;
+        }
+      }
+    } else {
+      final FixedBitSet bits = ((BitDocSet) other).getBits();
+      for (int i = 0; i < keys.length; i++) {
+        if (andCardinality(containers[i], scratch.slice(bits, keys[i]), scratch) > 0) return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    if (other instanceof BitDocSet) {
+      FixedBitSet newbits = other.getFixedBitSetClone();
+      if (size > 0) {
+        newbits = FixedBitSet.ensureCapacity(newbits, getLength() - 1);
+        addAllTo(newbits);
+      }
+      return new BitDocSet(newbits);
+    }
+
+    final RoaringDocSet o = fromDocSet(other);
+    final Scratch scratch = new Scratch();
+    final Builder builder = new Builder();
+    int i = 0, j = 0;
+    while (i < keys.length && j < o.keys.length) {
+      if (keys[i] < o.keys[j]) {
+        builder.append(keys[i], containers[i++]);
+      } else if (keys[i] > o.keys[j]) {
+        builder.append(o.keys[j], o.containers[j++]);
+      } else {
+        builder.append(keys[i], or(containers[i++], o.containers[j++], scratch));
+      }
+    }
+    for (; i < keys.length; i++) builder.append(keys[i], containers[i]);
+    for (; j < o.keys.length; j++) builder.append(o.keys[j], o.containers[j]);
+    return builder.build();
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    if (other.size() == 0) return this;
+
+    final Scratch scratch = new Scratch();
+    final Builder builder = new Builder();
+    if (other instanceof BitDocSet) {
+      final FixedBitSet bits = ((BitDocSet) other).getBits();
+      for (int i = 0; i < keys.length; i++) {
+        builder.append(keys[i], andNot(containers[i], scratch.slice(bits, keys[i]), scratch));
+      }
+    } else {
+      final RoaringDocSet o = fromDocSet(other);
+      for (int i = 0, j = 0; i < keys.length; i++) {
+        while (j < o.keys.length && o.keys[j] < keys[i]) j++;
+        if (j < o.keys.length && o.keys[j] == keys[i]) {
+          builder.append(keys[i], andNot(containers[i], o.containers[j], scratch));
+        } else {
+          builder.append(keys[i], containers[i]);
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public void addAllTo(FixedBitSet target) {
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].addTo(target, keys[i] << BLOCK_SHIFT);
+    }
+  }
+
+  /** Clears all the docs of this set from the target; docs beyond its length are ignored. */
+  void removeAllFrom(FixedBitSet target) {
+    for (int i = 0; i < keys.length; i++) {
+      containers[i].removeFrom(target, keys[i] << BLOCK_SHIFT);
+    }
+  }
+
+  @Override
+  public Query makeQuery() {
+    return new DocSetQuery(this);
+  }
+
+  @Override
+  public RoaringDocSet clone() {
+    // containers are never modified once built, so they can be shared
+    return new RoaringDocSet(keys.clone(), containers.clone(), size);
+  }
+
+  @Override
+  public Bits getBits() {
+    final int length = getLength();
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        return exists(index);
+      }
+
+      @Override
+      public int length() {
+        return length;
+      }
+    };
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSet() {
+    return getFixedBitSetClone();
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSetClone() {
+    FixedBitSet bitSet = new FixedBitSet(getLength());
+    addAllTo(bitSet);
+    return bitSet;
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    long bytes = ramBytesUsedForContainers(containers.length);
+    for (Container container : containers) {
+      bytes += container.ramBytesUsed();
+    }
+    return bytes;
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return List.of();
+  }
+
+  @Override
+  public String toString() {
+    return "RoaringDocSet{"
+        + "size="
+        + size()
+        + ","
+        + "containers="
+        + containers.length
+        + ","
+        + "ramUsed="
+        + RamUsageEstimator.humanReadableUnits(ramBytesUsed())
+        + '}';
+  }
+
+  /**
+   * Builds a {@link RoaringDocSet} from docs added in increasing order.
+   *
+   * @lucene.internal
+   */
+  public static final class Builder {
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int numContainers;
+    private int size;
+
+    private long[] words; // the block currently being added to
+    private int key = -1;
+    private int cardinality;
+
+    /** Adds a doc, which must not be less than any doc previously added. */
+    public Builder add(int doc) {
+      final int docKey = doc >>> BLOCK_SHIFT;
+      if (docKey != key) {
+        assert docKey > key : "docs must be added in order";
+        flush();
+        key = docKey;
+        if (words == null) {
+          words = new long[BLOCK_WORDS];
+        }
+      }
+      final int wordNum = (doc & BLOCK_MASK) >>> 6;
+      final long mask = 1L << doc;
+      if ((words[wordNum] & mask) == 0) {
+        words[wordNum] |= mask;
+        cardinality++;
+      }
+      return this;
+    }
+
+    private void flush() {
+      if (cardinality > 0) {
+        append(key, fromWords(words, cardinality));
+        Arrays.fill(words, 0L);
+        cardinality = 0;
+      }
+    }
+
+    void append(int key, Container container) {
+      if (container == null) {
+        return;
+      }
+      assert numContainers == 0 || keys[numContainers - 1] < key;
+      if (numContainers == keys.length) {
+        keys = Arrays.copyOf(keys, numContainers << 1);
+        containers = Arrays.copyOf(containers, numContainers << 1);
+      }
+      keys[numContainers] = (char) key;
+      containers[numContainers++] = container;
+      size += container.cardinality();
+    }
+
+    public RoaringDocSet build() {
+      flush();
+      key = -1;
+      return new RoaringDocSet(
+          Arrays.copyOf(keys, numContainers), Arrays.copyOf(containers, numContainers), size);
+    }
+  }
+
+  /** Iterates the docs of the set in order; {@link #doc} is the doc it is positioned on. */
+  private final class Cursor {
+    int idx; // container
+    int pos; // position within the container, used by array and run containers
+    int doc = -1;
+
+    /** Positions on the first doc &gt;= target and returns it, or NO_MORE_DOCS. */
+    int advance(int target) {
+      final int targetKey = target >>> BLOCK_SHIFT;
+      if (idx < keys.length && keys[idx] < targetKey) {
+        final int found = Arrays.binarySearch(keys, idx + 1, keys.length, (char) targetKey);
+        idx = found < 0 ? ~found : found;
+        pos = 0;
+      }
+      while (idx < keys.length) {
+        final int low = keys[idx] == targetKey ? target & BLOCK_MASK : 0;
+        final int value = containers[idx].next(this, low);
+        if (value >= 0) {
+          return doc = (keys[idx] << BLOCK_SHIFT) | value;
+        }
+        idx++;
+        pos = 0;
+      }
+      return doc = DocIdSetIterator.NO_MORE_DOCS;
+    }
+  }
+
+  /** Reusable per-operation buffers, each the size of one block's bitmap. */
+  private static final class Scratch {
+    final long[] words1 = new long[BLOCK_WORDS];
+    final long[] words2 = new long[BLOCK_WORDS];
+    final long[] slice = new long[BLOCK_WORDS];
+
+    /** A (temporary) bitmap container view of one block of a {@link FixedBitSet}. */
+    BitmapContainer slice(FixedBitSet bits, int key) {
+      final long[] words = bits.getBits();
+      final int from = key * BLOCK_WORDS;
+      final int len = Math.max(0, Math.min(BLOCK_WORDS, words.length - from));
+      System.arraycopy(words, from, slice, 0, len);
+      Arrays.fill(slice, len, BLOCK_WORDS, 0L);
+      return new BitmapContainer(slice, -1);
+    }
+  }
+
+  // ---- container level operations ----
+
+  /** The words of the container's bitmap; either its own or a copy in the given buffer. */
+  private static long[] words(Container container, long[] buffer) {
+    if (container instanceof BitmapContainer bitmap) {
+      return bitmap.words;
+    }
+    Arrays.fill(buffer, 0L);
+    container.orInto(buffer);
+    return buffer;
+  }
+
+  /** A copy of the container's bitmap in the given buffer. */
+  private static long[] copyOfWords(Container container, long[] buffer) {
+    if (container instanceof BitmapContainer bitmap) {
+      System.arraycopy(bitmap.words, 0, buffer, 0, BLOCK_WORDS);
+    } else {
+      Arrays.fill(buffer, 0L);
+      container.orInto(buffer);
+    }
+    return buffer;
+  }
+
+  /** Returns the values of the array that are (or are not) in the other container. */
+  private static Container filter(ArrayContainer array, Container other, boolean keep) {
+    final char[] values = array.values;
+    final char[] result = new char[values.length];
+    int count = 0;
+    for (char value : values) {
+      if (other.contains(value) == keep) {
+        result[count++] = value;
+      }
+    }
+    if (count == values.length) {
+      return array;
+    }
+    return count == 0 ? null : new ArrayContainer(Arrays.copyOf(result, count));
+  }
+
+  private static Container and(Container a, Container b, Scratch scratch) {
+    if (a instanceof ArrayContainer array) {
+      return filter(array, b, true);
+    } else if (b instanceof ArrayContainer array) {
+      return filter(array, a, true);
+    }
+    final long[] result = copyOfWords(a, scratch.words1);
+    final long[] other = words(b, scratch.words2);
+    int cardinality = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      cardinality += Long.bitCount(result[i] &= other[i]);
+    }
+    return fromWords(result, cardinality);
+  }
+
+  private static int andCardinality(Container a, Container b, Scratch scratch) {
+    if (b instanceof ArrayContainer) {
+      final Container swap = a;
+      a = b;
+      b = swap;
+    }
+    if (a instanceof ArrayContainer array) {
+      int count = 0;
+      for (char value : array.values) {
+        if (b.contains(value)) count++;
+      }
+      return count;
+    }
+    final long[] wordsA = words(a, scratch.words1);
+    final long[] wordsB = words(b, scratch.words2);
+    int cardinality = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      cardinality += Long.bitCount(wordsA[i] & wordsB[i]);
+    }
+    return cardinality;
+  }
+
+  private static Container or(Container a, Container b, Scratch scratch) {
+    final long[] result = copyOfWords(a, scratch.words1);
+    b.orInto(result);
+    return fromWords(result, cardinality(result, 0, BLOCK_WORDS));
+  }
+
+  private static Container andNot(Container a, Container b, Scratch scratch) {
+    if (a instanceof ArrayContainer array) {
+      return filter(array, b, false);
+    }
+    final long[] result = copyOfWords(a, scratch.words1);
+    final long[] other = words(b, scratch.words2);
+    int cardinality = 0;
+    for (int i = 0; i < BLOCK_WORDS; i++) {
+      cardinality += Long.bitCount(result[i] &= ~other[i]);
+    }
+    return fromWords(result, cardinality);
+  }
+
+  /**
+   * Returns the smallest container holding the given bitmap of one block, or null if it is empty.
+   * The words are copied if needed and may be reused by the caller.
+   */
+  static Container fromWords(long[] words, int cardinality) {
+    if (cardinality == 0) {
+      return null;
+    }
+    final int runs = numberOfRuns(words, 0, BLOCK_WORDS);
+    final long runBytes = RunContainer.ramBytesUsed(runs);
+    final long arrayBytes = ArrayContainer.ramBytesUsed(cardinality);
+    if (runBytes < arrayBytes && runBytes < BitmapContainer.RAM_BYTES_USED) {
+      return RunContainer.fromWords(words, runs, cardinality);
+    } else if (arrayBytes <= BitmapContainer.RAM_BYTES_USED) {
+      return ArrayContainer.fromWords(words, cardinality);
+    }
+    return new BitmapContainer(words.clone(), cardinality);
+  }
+
+  private static int cardinality(long[] words, int from, int to) {
+    int cardinality = 0;
+    for (int i = from; i < to; i++) {
+      cardinality += Long.bitCount(words[i]);
+    }
+    return cardinality;
+  }
+
+  /** Counts the runs of consecutive set bits; a run never continues from before {@code from}. */
+  private static int numberOfRuns(long[] words, int from, int to) {
+    int runs = 0;
+    long prev = 0;
+    for (int i = from; i < to; i++) {
+      final long word = words[i];
+      // a run starts on every set bit whose preceding bit is clear
+      runs += Long.bitCount(word & ~((word << 1) | (prev >>> 63)));
+      prev = word;
+    }
+    return runs;
+  }
+
+  private static int nextSetBit(long[] words, int from) {
+    if (from >= BLOCK_SIZE) {
+      return -1;
+    }
+    int i = from >>> 6;
+    long word = words[i] >>> from;
+    if (word != 0) {
+      return from + Long.numberOfTrailingZeros(word);
+    }
+    while (++i < BLOCK_WORDS) {
+      if (words[i] != 0) {
+        return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+      }
+    }
+    return -1;
+  }
+
+  private static int nextClearBit(long[] words, int from) {
+    if (from >= BLOCK_SIZE) {
+      return BLOCK_SIZE;
+    }
+    int i = from >>> 6;
+    long word = ~words[i] >>> from;
+    if (word != 0) {
+      return from + Long.numberOfTrailingZeros(word);
+    }
+    while (++i < BLOCK_WORDS) {
+      if (words[i] != -1L) {
+        return (i << 6) + Long.numberOfTrailingZeros(~words[i]);
+      }
+    }
+    return BLOCK_SIZE;
+  }
+
+  // ---- containers; they hold the low 16 bits of the docs of one block and are immutable ----
+
+  abstract static class Container {
+    abstract int cardinality();
+
+    abstract boolean contains(int value);
+
+    /** The largest value. */
+    abstract int last();
+
+    /**
+     * Returns the first value &gt;= low, or -1. The cursor position is used as a hint and updated.
+     */
+    abstract int next(RoaringDocSet.Cursor cursor, int low);
+
+    /** ORs the container into a bitmap of one block. */
+    abstract void orInto(long[] words);
+
+    abstract void addTo(FixedBitSet target, int base);
+
+    abstract void removeFrom(FixedBitSet target, int base);
+
+    abstract long ramBytesUsed();
+  }
+
+  static final class ArrayContainer extends Container {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(ArrayContainer.class);
+
+    final char[] values; // sorted
+
+    ArrayContainer(char[] values) {
+      this.values = values;
+    }
+
+    static ArrayContainer fromWords(long[] words, int cardinality) {
+      final char[] values = new char[cardinality];
+      int count = 0;
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        long word = words[i];
+        while (word != 0) {
+          values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      return new ArrayContainer(values);
+    }
+
+    static long ramBytesUsed(int cardinality) {
+      return BASE_RAM_BYTES_USED
+          + RamUsageEstimator.alignObjectSize(
+              RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Character.BYTES * cardinality);
+    }
+
+    @Override
+    int cardinality() {
+      return values.length;
+    }
+
+    @Override
+    boolean contains(int value) {
+      return Arrays.binarySearch(values, (char) value) >= 0;
+    }
+
+    @Override
+    int last() {
+      return values[values.length - 1];
+    }
+
+    @Override
+    int next(RoaringDocSet.Cursor cursor, int low) {
+      int pos = cursor.pos;
+      if (pos < values.length && values[pos] < low) {
+        // usually the next value is the one we want, otherwise search for it
+        pos++;
+        if (pos < values.length && values[pos] < low) {
+          final int found = Arrays.binarySearch(values, pos + 1, values.length, (char) low);
+          pos = found < 0 ? ~found : found;
+        }
+      }
+      cursor.pos = pos;
+      return pos < values.length ? values[pos] : -1;
+    }
+
+    @Override
+    void orInto(long[] words) {
+      for (char value : values) {
+        words[value >>> 6] |= 1L << value;
+      }
+    }
+
+    @Override
+    void addTo(FixedBitSet target, int base) {
+      for (char value : values) {
+        target.set(base + value);
+      }
+    }
+
+    @Override
+    void removeFrom(FixedBitSet target, int base) {
+      final int length = target.length();
+      for (char value : values) {
+        if (base + value >= length) break;
+        target.clear(base + value);
+      }
+    }
+
+    @Override
+    long ramBytesUsed() {
+      return ramBytesUsed(values.length);
+    }
+  }
+
+  static final class BitmapContainer extends Container {
+    static final long RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(BitmapContainer.class)
+            + RamUsageEstimator.alignObjectSize(
+                RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Long.BYTES * BLOCK_WORDS);
+
+    final long[] words;
+    private final int cardinality; // -1 for temporary views
+
+    BitmapContainer(long[] words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(int value) {
+      return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    int last() {
+      for (int i = BLOCK_WORDS - 1; ; i--) {
+        if (words[i] != 0) {
+          return (i << 6) + 63 - Long.numberOfLeadingZeros(words[i]);
+        }
+      }
+    }
+
+    @Override
+    int next(RoaringDocSet.Cursor cursor, int low) {
+      return nextSetBit(words, low);
+    }
+
+    @Override
+    void orInto(long[] words) {
+      for (int i = 0; i < BLOCK_WORDS; i++) {
+        words[i] |= this.words[i];
+      }
+    }
+
+    @Override
+    void addTo(FixedBitSet target, int base) {
+      final long[] targetWords = target.getBits();
+      final int offset = base >>> 6;
+      final int len = Math.min(BLOCK_WORDS, targetWords.length - offset);
+      for (int i = 0; i < len; i++) {
+        targetWords[offset + i] |= words[i];
+      }
+    }
+
+    @Override
+    void removeFrom(FixedBitSet target, int base) {
+      final long[] targetWords = target.getBits();
+      final int offset = base >>> 6;
+      final int len = Math.min(BLOCK_WORDS, targetWords.length - offset);
+      for (int i = 0; i < len; i++) {
+        targetWords[offset + i] &= ~words[i];
+      }
+    }
+
+    @Override
+    long ramBytesUsed() {
+      return RAM_BYTES_USED;
+    }
+  }
+
+  static final class RunContainer extends Container {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(RunContainer.class);
+
+    final char[] runs; // pairs of (start, length - 1), ascending
+    private final int cardinality;
+
+    RunContainer(char[] runs, int cardinality) {
+      this.runs = runs;
+      this.cardinality = cardinality;
+    }
+
+    static RunContainer fromWords(long[] words, int numRuns, int cardinality) {
+      final char[] runs = new char[numRuns << 1];
+      int i = 0;
+      for (int start = nextSetBit(words, 0); start >= 0; ) {
+        final int end = nextClearBit(words, start); // exclusive
+        runs[i++] = (char) start;
+        runs[i++] = (char) (end - 1 - start);
+        start = nextSetBit(words, end);
+      }
+      assert i == runs.length;
+      return new RunContainer(runs, cardinality);
+    }
+
+    static long ramBytesUsed(int numRuns) {
+      return BASE_RAM_BYTES_USED
+          + RamUsageEstimator.alignObjectSize(
+              RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Character.BYTES * 2 * numRuns);
+    }
+
+    private int start(int run) {
+      return runs[run << 1];
+    }
+
+    /** Exclusive */
+    private int end(int run) {
+      return runs[run << 1] + runs[(run << 1) + 1] + 1;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(int value) {
+      // find the last run starting at or before the value
+      int low = 0;
+      int high = (runs.length >>> 1) - 1;
+      while (low <= high) {
+        final int mid = (low + high) >>> 1;
+        if (start(mid) <= value) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high >= 0 && value < end(high);
+    }
+
+    @Override
+    int last() {
+      return end((runs.length >>> 1) - 1) - 1;
+    }
+
+    @Override
+    int next(RoaringDocSet.Cursor cursor, int low) {
+      final int numRuns = runs.length >>> 1;
+      int run = cursor.pos;
+      if (run < numRuns && end(run) <= low) {
+        // find the first run ending after low
+        int lo = run + 1;
+        int high = numRuns - 1;
+        while (lo <= high) {
+          final int mid = (lo + high) >>> 1;
+          if (end(mid) <= low) {
+            lo = mid + 1;
+          } else {
+            high = mid - 1;
+          }
+        }
+        run = lo;
+      }
+      cursor.pos = run;
+      return run < numRuns ? Math.max(start(run), low) : -1;
+    }
+
+    @Override
+    void orInto(long[] words) {
+      for (int run = 0, numRuns = runs.length >>> 1; run < numRuns; run++) {
+        final int from = start(run);
+        final int to = end(run);
+        final int startWord = from >>> 6;
+        final int endWord = (to - 1) >>> 6;
+        final long startMask = -1L << from;
+        final long endMask = -1L >>> -to;
+        if (startWord == endWord) {
+          words[startWord] |= startMask & endMask;
+        } else {
+          words[startWord] |= startMask;
+          Arrays.fill(words, startWord + 1, endWord, -1L);
+          words[endWord] |= endMask;
+        }
+      }
+    }
+
+    @Override
+    void addTo(FixedBitSet target, int base) {
+      final int length = target.length();
+      for (int run = 0, numRuns = runs.length >>> 1; run < numRuns; run++) {
+        final int from = base + start(run);
+        if (from >= length) break;
+        target.set(from, Math.min(base + end(run), length));
+      }
+    }
+
+    @Override
+    void removeFrom(FixedBitSet target, int base) {
+      final int length = target.length();
+      for (int run = 0, numRuns = runs.length >>> 1; run < numRuns; run++) {
+        final int from = base + start(run);
+        if (from >= length) break;
+        target.clear(from, Math.min(base + end(run), length));
+      }
+    }
+
+    @Override
+    long ramBytesUsed() {
+      return ramBytesUsed(runs.length >>> 1);
+    }
+  }
+}
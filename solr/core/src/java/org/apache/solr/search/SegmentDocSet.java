@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Collection;
+import java.util.List;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.search.SegmentFilterCache.SegmentBits;
+
+/**
+ * A {@link DocSet} viewing the per-segment bitsets of a {@link SegmentFilterCache}, for the
+ * segments of one searcher. The live docs of each segment are applied on access, so no top-level
+ * bitset is built to hold the set. Operations creating a new set return a {@link BitDocSet}, like
+ * those of the other sets.
+ *
+ * <p>{@link #ramBytesUsed()} does not include the segment bitsets, which are accounted for by the
+ * {@link SegmentStore} holding them.
+ */
+final class SegmentDocSet extends DocSet {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(SegmentDocSet.class);
+
+  private final int maxDoc;
+  private final int[] docBases;
+  private final int[] maxDocs;
+  private final int[] sizes; // live matches of each segment
+  private final SegmentBits[] segments;
+  private final Bits[] liveDocs; // null elements if a segment has no deletions
+  private final int size;
+
+  SegmentDocSet(List<LeafReaderContext> leaves, SegmentBits[] segments) {
+    final int numLeaves = leaves.size();
+    this.docBases = new int[numLeaves];
+    this.maxDocs = new int[numLeaves];
+    this.sizes = new int[numLeaves];
+    this.segments = segments;
+    this.liveDocs = new Bits[numLeaves];
+    int maxDoc = 0;
+    int size = 0;
+    for (LeafReaderContext leaf : leaves) {
+      final int ord = leaf.ord;
+      docBases[ord] = leaf.docBase;
+      maxDocs[ord] = leaf.reader().maxDoc();
+      liveDocs[ord] = leaf.reader().getLiveDocs();
+      sizes[ord] = segments[ord].liveCount(liveDocs[ord]);
+      maxDoc = Math.max(maxDoc, leaf.docBase + maxDocs[ord]);
+      size += sizes[ord];
+    }
+    this.maxDoc = maxDoc;
+    this.size = size;
+  }
+
+  private SegmentDocSet(SegmentDocSet other) {
+    // never modified once built, so the arrays can be shared
+    this.maxDoc = other.maxDoc;
+    this.docBases = other.docBases;
+    this.maxDocs = other.maxDocs;
+    this.sizes = other.sizes;
+    this.segments = other.segments;
+    this.liveDocs = other.liveDocs;
+    this.size = other.size;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean exists(int doc) {
+    if (doc < 0 || doc >= maxDoc) {
+      return false;
+    }
+    final int leaf = ReaderUtil.subIndex(doc, docBases);
+    final int segmentDoc = doc - docBases[leaf];
+    return segmentDoc < maxDocs[leaf]
+        && segments[leaf].get(segmentDoc)
+        && (liveDocs[leaf] == null || liveDocs[leaf].get(segmentDoc));
+  }
+
+  @Override
+  public DocIterator iterator() {
+    final SegmentsIterator iter = new SegmentsIterator(0, segments.length, 0, size);
+    return new DocIterator() {
+      private int pos = iter.nextDoc();
+
+      @Override
+      public boolean hasNext() {
+        return pos != DocIdSetIterator.NO_MORE_DOCS;
+      }
+
+      @Override
+      public Integer next() {
+        return nextDoc();
+      }
+
+      @Override
+      public int nextDoc() {
+        int old = pos;
+        pos = iter.nextDoc();
+        return old;
+      }
+
+      @Override
+      public float score() {
+        return 0.0f;
+      }
+    };
+  }
+
+  @Override
+  public DocIdSetIterator iterator(LeafReaderContext context) {
+    if (context.isTopLevel) {
+      return size == 0 ? null : new SegmentsIterator(0, segments.length, 0, size);
+    }
+    final int leaf = context.ord;
+    assert docBases[leaf] == context.docBase : "not a segment of this set's searcher";
+    if (sizes[leaf] == 0) {
+      return null;
+    }
+    return new SegmentsIterator(leaf, leaf + 1, docBases[leaf], sizes[leaf]);
+  }
+
+  @Override
+  public DocSet intersection(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      // SortedIntDocSet probes us with exists()
+      return other.intersection(this);
+    }
+    if (other instanceof BitDocSet o) {
+      final FixedBitSet bits = new FixedBitSet(maxDoc);
+      addAllTo(bits);
+      bits.and(o.getBits());
+      return new BitDocSet(bits);
+    }
+    return other.intersection(toBitDocSet());
+  }
+
+  @Override
+  public int intersectionSize(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      // they had better not call us back!
+      return other.intersectionSize(this);
+    }
+    int count = 0;
+    for (int leaf = 0; leaf < segments.length; leaf++) {
+      if (sizes[leaf] == 0) {
+        continue;
+      }
+      final int docBase = docBases[leaf];
+      final long[] words = segments[leaf].words();
+      if (other instanceof BitDocSet o && liveDocs[leaf] == null && (docBase & 63) == 0) {
+        // word aligned and no deletions: count whole words
+        final long[] otherWords = o.getBits().getBits();
+        final int wordBase = docBase >> 6;
+        final int numWords = Math.min(words.length, otherWords.length - wordBase);
+        for (int i = 0; i < numWords; i++) {
+          count += Long.bitCount(words[i] & otherWords[wordBase + i]);
+        }
+        continue;
+      }
+      final SegmentsIterator iter = new SegmentsIterator(leaf, leaf + 1, 0, sizes[leaf]);
+      for (int doc = iter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iter.nextDoc()) {
+        if (other.exists(doc)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public boolean intersects(DocSet other) {
+    if (other instanceof SortedIntDocSet) {
+      // they had better not call us back!
+      return other.intersects(this);
+    }
+    final SegmentsIterator iter = new SegmentsIterator(0, segments.length, 0, size);
+    for (int doc = iter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iter.nextDoc()) {
+      if (other.exists(doc)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public DocSet union(DocSet other) {
+    FixedBitSet bits = new FixedBitSet(maxDoc);
+    addAllTo(bits);
+    if (other instanceof BitDocSet o) {
+      bits = FixedBitSet.ensureCapacity(bits, o.getBits().length());
+    }
+    other.addAllTo(bits);
+    return new BitDocSet(bits);
+  }
+
+  @Override
+  public DocSet andNot(DocSet other) {
+    final FixedBitSet bits = new FixedBitSet(maxDoc);
+    addAllTo(bits);
+    BitDocSet.andNot(bits, other);
+    return new BitDocSet(bits);
+  }
+
+  @Override
+  public Query makeQuery() {
+    return new DocSetQuery(this);
+  }
+
+  @Override
+  public void addAllTo(FixedBitSet target) {
+    for (int leaf = 0; leaf < segments.length; leaf++) {
+      segments[leaf].copyTo(target, docBases[leaf], liveDocs[leaf]);
+    }
+  }
+
+  @Override
+  public SegmentDocSet clone() {
+    return new SegmentDocSet(this);
+  }
+
+  /** Random access through {@link #exists(int)}, without building a bitset. */
+  @Override
+  public Bits getBits() {
+    return new Bits() {
+      @Override
+      public boolean get(int index) {
+        return exists(index);
+      }
+
+      @Override
+      public int length() {
+        return maxDoc;
+      }
+    };
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSet() {
+    return getFixedBitSetClone();
+  }
+
+  @Override
+  protected FixedBitSet getFixedBitSetClone() {
+    final FixedBitSet bits = new FixedBitSet(maxDoc);
+    addAllTo(bits);
+    return bits;
+  }
+
+  private BitDocSet toBitDocSet() {
+    return new BitDocSet(getFixedBitSetClone(), size);
+  }
+
+  /** A copy of this set as a {@link SortedIntDocSet}, for small sets. */
+  SortedIntDocSet toSmallSet() {
+    final int[] docs = new int[size];
+    final SegmentsIterator iter = new SegmentsIterator(0, segments.length, 0, size);
+    int i = 0;
+    for (int doc = iter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iter.nextDoc()) {
+      docs[i++] = doc;
+    }
+    return new SortedIntDocSet(docs);
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED
+        + RamUsageEstimator.sizeOf(docBases)
+        + RamUsageEstimator.sizeOf(maxDocs)
+        + RamUsageEstimator.sizeOf(sizes)
+        + RamUsageEstimator.shallowSizeOf(segments)
+        + RamUsageEstimator.shallowSizeOf(liveDocs);
+  }
+
+  @Override
+  public Collection<Accountable> getChildResources() {
+    return List.of();
+  }
+
+  @Override
+  public String toString() {
+    return "SegmentDocSet{"
+        + "size="
+        + size
+        + ",segments="
+        + segments.length
+        + ",ramUsed="
+        + RamUsageEstimator.humanReadableUnits(ramBytesUsed())
+        + '}';
+  }
+
+  /**
+   * Iterates the live matches of the segments from <code>fromLeaf</code> (inclusive) to <code>
+   * toLeaf</code> (exclusive), with doc ids relative to <code>offset</code>.
+   */
+  private final class SegmentsIterator extends DocIdSetIterator {
+    private final int toLeaf;
+    private final int offset;
+    private final long cost;
+    private int leaf;
+    private int doc = -1;
+
+    SegmentsIterator(int fromLeaf, int toLeaf, int offset, long cost) {
+      this.leaf = fromLeaf;
+      this.toLeaf = toLeaf;
+      this.offset = offset;
+      this.cost = cost;
+    }
+
+    @Override
+    public int docID() {
+      return doc;
+    }
+
+    @Override
+    public int nextDoc() {
+      return advance(doc + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+      if (target == NO_MORE_DOCS) {
+        return doc = NO_MORE_DOCS;
+      }
+      for (; leaf < toLeaf; leaf++) {
+        final int base = docBases[leaf] - offset;
+        final SegmentBits bits = segments[leaf];
+        final Bits live = liveDocs[leaf];
+        for (int segmentDoc = bits.nextDoc(Math.max(0, target - base));
+            segmentDoc != NO_MORE_DOCS;
+            segmentDoc = bits.nextDoc(segmentDoc + 1)) {
+          if (live == null || live.get(segmentDoc)) {
+            return doc = base + segmentDoc;
+          }
+        }
+      }
+      return doc = NO_MORE_DOCS;
+    }
+
+    @Override
+    public long cost() {
+      return cost;
+    }
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import io.opentelemetry.api.common.Attributes;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.IOConsumer;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.compress.LZ4;
+import org.apache.solr.metrics.SolrMetricsContext;
+
+/**
+ * A documentCache that keeps the stored fields of each document as a compact binary blob instead of
+ * as a {@link Document} with an object per field. Blobs are LZ4 compressed when that makes them
+ * smaller, and are kept in a {@link SegmentStore} keyed by the segment's core cache key and the
+ * segment-local doc id, so they are shared by all documentCache instances created from the same
+ * configuration and survive commits.
+ *
+ * <p>{@link SolrDocumentFetcher} decodes only the fields it is asked for from a blob; fields that
+ * are not requested are skipped without being materialized (and are made available lazily if <code>
+ * enableLazyFieldLoading</code> is set). Documents are not kept in the regular part of this cache,
+ * but lookups, hits and inserts are counted in its statistics, and {@link #ramBytesUsed()} includes
+ * the store. Values of "large" fields are not kept in the blobs.
+ *
+ * <p>In addition to the {@link CaffeineCache} parameters, the per-segment store is bounded by
+ * <code>segmentMaxRamMB</code> (default 128) of heap.
+ */
+public class SegmentDocumentCache extends CaffeineCache<Integer, Document> {
+
+  public static final String SEGMENT_MAX_RAM_MB_PARAM = SegmentStore.SEGMENT_MAX_RAM_MB_PARAM;
+
+  private static final int DEFAULT_SEGMENT_MAX_RAM_MB = 128;
+
+  private SegmentStore<Integer, StoredDocument> segmentStore;
+
+  @Override
+  public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
+    super.init(args, persistence, regenerator);
+    segmentStore = SegmentStore.fromPersistence(args, persistence, DEFAULT_SEGMENT_MAX_RAM_MB);
+    return segmentStore;
+  }
+
+  /**
+   * Returns the stored fields of the top-level <code>docId</code> of <code>searcher</code> from the
+   * store, reading and storing them with <code>storedFields</code> if they are not stored yet.
+   *
+   * @param largeFields fields whose values are not stored; they are only marked as present
+   * @return the stored document, or null if the document's segment can't be cached
+   */
+  StoredDocument getStoredDocument(
+      SolrIndexSearcher searcher, int docId, StoredFields storedFields, Set<String> largeFields)
+      throws IOException {
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    final IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+    if (cacheHelper == null) {
+      return null;
+    }
+    final boolean[] loaded = new boolean[1];
+    final StoredDocument stored =
+        segmentStore.get(
+            docId - leaf.docBase,
+            cacheHelper,
+            d -> true,
+            () -> {
+              loaded[0] = true;
+              StoredDocument.Encoder encoder =
+                  new StoredDocument.Encoder(leaf.reader().getFieldInfos(), largeFields);
+              storedFields.document(docId, encoder);
+              return encoder.finish();
+            });
+    recordLookup(!loaded[0]);
+    if (loaded[0]) {
+      recordInsert();
+    }
+    return stored;
+  }
+
+  SegmentStore<Integer, StoredDocument> getSegmentStore() {
+    return segmentStore;
+  }
+
+  /** Includes the per-segment store, which is shared with other searchers. */
+  @Override
+  public long ramBytesUsed() {
+    SegmentStore<Integer, StoredDocument> store = segmentStore;
+    return super.ramBytesUsed() + (store == null ? 0 : store.ramBytesUsed());
+  }
+
+  @Override
+  public String getDescription() {
+    return super.getDescription() + " with segment store (" + segmentStore + ")";
+  }
+
+  @Override
+  public void initializeMetrics(
+      SolrMetricsContext solrMetricsContext, Attributes attributes, String metricName) {
+    super.initializeMetrics(solrMetricsContext, attributes, metricName);
+    Attributes cacheAttributes =
+        attributes.toBuilder().put(CATEGORY_ATTR, getCategory().toString()).build();
+    segmentStore.initializeMetrics(
+        solrMetricsContext, cacheAttributes, metricName, "stored document blobs");
+  }
+
+  /**
+   * The stored fields of one document, as a byte array. Each field value is written as a header
+   * (the segment field number and a type) followed by the value, in the order the fields were
+   * stored, so a reader can skip values it does not need.
+   */
+  static final class StoredDocument implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(StoredDocument.class)
+            + RamUsageEstimator.LINKED_HASHTABLE_RAM_BYTES_PER_ENTRY;
+
+    // blobs smaller than this are not worth compressing
+    private static final int MIN_COMPRESS_LENGTH = 128;
+
+    private static final int TYPE_BITS = 3;
+    private static final int STRING = 0;
+    private static final int BINARY = 1;
+    private static final int INT = 2;
+    private static final int LONG = 3;
+    private static final int FLOAT = 4;
+    private static final int DOUBLE = 5;
+    private static final int LARGE = 6; // the value is not stored
+
+    private final FieldInfos fieldInfos;
+    private final byte[] data;
+    private final int length; // uncompressed length
+    private final boolean compressed;
+
+    private StoredDocument(FieldInfos fieldInfos, byte[] data, int length, boolean compressed) {
+      this.fieldInfos = fieldInfos;
+      this.data = data;
+      this.length = length;
+      this.compressed = compressed;
+    }
+
+    /**
+     * Feeds the stored fields to <code>visitor</code>, decoding only the values it needs.
+     *
+     * @param largeFieldReader called with each large field the visitor needs, whose value is not
+     *     stored in this document
+     */
+    void visit(StoredFieldVisitor visitor, IOConsumer<FieldInfo> largeFieldReader)
+        throws IOException {
+      final ByteArrayDataInput in;
+      if (compressed) {
+        final byte[] bytes = new byte[length];
+        LZ4.decompress(new ByteArrayDataInput(data), length, bytes, 0);
+        in = new ByteArrayDataInput(bytes);
+      } else {
+        in = new ByteArrayDataInput(data);
+      }
+      while (in.getPosition() < length) {
+        final int header = in.readVInt();
+        final int type = header & ((1 << TYPE_BITS) - 1);
+        final FieldInfo fieldInfo = fieldInfos.fieldInfo(header >>> TYPE_BITS);
+        final StoredFieldVisitor.Status status = visitor.needsField(fieldInfo);
+        if (status == StoredFieldVisitor.Status.STOP) {
+          return;
+        }
+        if (status == StoredFieldVisitor.Status.NO) {
+          switch (type) {
+            case STRING, BINARY -> in.skipBytes(in.readVInt());
+            case INT, FLOAT -> in.skipBytes(Integer.BYTES);
+            case LONG, DOUBLE -> in.skipBytes(Long.BYTES);
+            default -> {}
+          }
+          continue;
+        }
+        switch (type) {
+          case STRING -> visitor.stringField(fieldInfo, in.readString());
+          case BINARY -> {
+            final byte[] value = new byte[in.readVInt()];
+            in.readBytes(value, 0, value.length);
+            visitor.binaryField(fieldInfo, value);
+          }
+          case INT -> visitor.intField(fieldInfo, in.readInt());
+          case FLOAT -> visitor.floatField(fieldInfo, Float.intBitsToFloat(in.readInt()));
+          case LONG -> visitor.longField(fieldInfo, in.readLong());
+          case DOUBLE -> visitor.doubleField(fieldInfo, Double.longBitsToDouble(in.readLong()));
+          case LARGE -> largeFieldReader.accept(fieldInfo);
+          default -> throw new AssertionError("unknown type " + type);
+        }
+      }
+    }
+
+    boolean isCompressed() {
+      return compressed;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(data);
+    }
+
+    /** Writes all the stored fields of a document, except for the values of large fields. */
+    static final class Encoder extends StoredFieldVisitor {
+      private final FieldInfos fieldInfos;
+      private final Set<String> largeFields;
+      private final ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+
+      Encoder(FieldInfos fieldInfos, Set<String> largeFields) {
+        this.fieldInfos = fieldInfos;
+        this.largeFields = largeFields;
+      }
+
+      @Override
+      public Status needsField(FieldInfo fieldInfo) throws IOException {
+        if (largeFields.contains(fieldInfo.name)) {
+          writeHeader(fieldInfo, LARGE);
+          return Status.NO;
+        }
+        return Status.YES;
+      }
+
+      @Override
+      public void stringField(FieldInfo fieldInfo, String value) throws IOException {
+        writeHeader(fieldInfo, STRING);
+        out.writeString(value);
+      }
+
+      @Override
+      public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
+        writeHeader(fieldInfo, BINARY);
+        out.writeVInt(value.length);
+        out.writeBytes(value, value.length);
+      }
+
+      @Override
+      public void intField(FieldInfo fieldInfo, int value) throws IOException {
+        writeHeader(fieldInfo, INT);
+        out.writeInt(value);
+      }
+
+      @Override
+      public void floatField(FieldInfo fieldInfo, float value) throws IOException {
+        writeHeader(fieldInfo, FLOAT);
+        out.writeInt(Float.floatToIntBits(value));
+      }
+
+      @Override
+      public void longField(FieldInfo fieldInfo, long value) throws IOException {
+        writeHeader(fieldInfo, LONG);
+        out.writeLong(value);
+      }
+
+      @Override
+      public void doubleField(FieldInfo fieldInfo, double value) throws IOException {
+        writeHeader(fieldInfo, DOUBLE);
+        out.writeLong(Double.doubleToLongBits(value));
+      }
+
+      private void writeHeader(FieldInfo fieldInfo, int type) throws IOException {
+        out.writeVInt(fieldInfo.number << TYPE_BITS | type);
+      }
+
+      StoredDocument finish() throws IOException {
+        final byte[] bytes = out.toArrayCopy();
+        byte[] blob = bytes;
+        boolean compressed = false;
+        if (bytes.length >= MIN_COMPRESS_LENGTH) {
+          final ByteBuffersDataOutput compressedOut = new ByteBuffersDataOutput();
+          LZ4.compress(bytes, 0, bytes.length, compressedOut, new LZ4.FastCompressionHashTable());
+          if (compressedOut.size() < bytes.length) {
+            blob = compressedOut.toArrayCopy();
+            compressed = true;
+          }
+        }
+        return new StoredDocument(fieldInfos, blob, bytes.length, compressed);
+      }
+    }
+  }
+}
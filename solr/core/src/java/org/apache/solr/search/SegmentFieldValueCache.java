@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import io.opentelemetry.api.common.Attributes;
+import java.io.IOException;
+import java.util.Map;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.search.facet.UnInvertedField;
+
+/**
+ * A fieldValueCache that additionally keeps the un-inverted segments of the {@link
+ * UnInvertedField}s it holds, keyed by field and by the segment's core cache key. The segments are
+ * held in a {@link SegmentStore} that is shared by all fieldValueCache instances created from the
+ * same configuration, so they survive commits: a new searcher only un-inverts the segments that
+ * were not un-inverted by a previous searcher. This is the default fieldValueCache.
+ *
+ * <p>In addition to the {@link CaffeineCache} parameters, the per-segment store is bounded by
+ * <code>segmentMaxRamMB</code> (default 512) of heap.
+ */
+public class SegmentFieldValueCache extends CaffeineCache<String, UnInvertedField> {
+
+  public static final String SEGMENT_MAX_RAM_MB_PARAM = SegmentStore.SEGMENT_MAX_RAM_MB_PARAM;
+
+  private static final int DEFAULT_SEGMENT_MAX_RAM_MB = 512;
+
+  private SegmentStore<String, Accountable> segmentStore;
+
+  @Override
+  public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
+    super.init(args, persistence, regenerator);
+    segmentStore = SegmentStore.fromPersistence(args, persistence, DEFAULT_SEGMENT_MAX_RAM_MB);
+    return segmentStore;
+  }
+
+  /**
+   * Returns the un-inverted form of <code>key</code> on the segment of <code>cacheHelper</code>,
+   * un-inverting it with <code>loader</code> if it isn't stored yet.
+   */
+  public Accountable getSegment(
+      String key, IndexReader.CacheHelper cacheHelper, IOSupplier<? extends Accountable> loader)
+      throws IOException {
+    return segmentStore.get(key, cacheHelper, s -> true, loader);
+  }
+
+  SegmentStore<String, Accountable> getSegmentStore() {
+    return segmentStore;
+  }
+
+  /** Includes the per-segment store, which is shared with other searchers. */
+  @Override
+  public long ramBytesUsed() {
+    SegmentStore<String, Accountable> store = segmentStore;
+    return super.ramBytesUsed() + (store == null ? 0 : store.ramBytesUsed());
+  }
+
+  @Override
+  public String getDescription() {
+    return super.getDescription() + " with segment store (" + segmentStore + ")";
+  }
+
+  @Override
+  public void initializeMetrics(
+      SolrMetricsContext solrMetricsContext, Attributes attributes, String metricName) {
+    super.initializeMetrics(solrMetricsContext, attributes, metricName);
+    Attributes cacheAttributes =
+        attributes.toBuilder().put(CATEGORY_ATTR, getCategory().toString()).build();
+    segmentStore.initializeMetrics(
+        solrMetricsContext, cacheAttributes, metricName, "un-inverted field segments");
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import io.opentelemetry.api.common.Attributes;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.metrics.SolrMetricsContext;
+
+/**
+ * A filterCache that additionally keeps the matches of each cached query per index segment, keyed
+ * by the segment's core cache key. The per-segment bitsets are held in a {@link SegmentStore} that
+ * is shared by all filterCache instances created from the same configuration, so they survive
+ * commits: when a new searcher computes a filter, only segments that were not seen by a previous
+ * searcher are searched. The filterCache then holds a {@link SegmentDocSet}, a view of the stored
+ * segment bitsets and the current live docs, instead of a top-level bitset, so that the matches are
+ * held on the heap once and a new searcher doesn't allocate a top-level bitset per filter.
+ *
+ * <p>Queries producing their DocSet against the top-level reader ({@link DocSetProducer}), or whose
+ * {@link Weight} is not cacheable on every segment, are computed as with {@link CaffeineCache}.
+ *
+ * <p>In addition to the {@link CaffeineCache} parameters, the per-segment store is bounded by
+ * <code>segmentMaxRamMB</code> (default 256) of heap. A segment bitset evicted from the store stays
+ * on the heap until the filterCache entries viewing it are evicted as well.
+ */
+public class SegmentFilterCache extends CaffeineCache<Query, DocSet> {
+
+  public static final String SEGMENT_MAX_RAM_MB_PARAM = SegmentStore.SEGMENT_MAX_RAM_MB_PARAM;
+
+  private static final int DEFAULT_SEGMENT_MAX_RAM_MB = 256;
+
+  private SegmentStore<Query, SegmentBits> segmentStore;
+
+  @Override
+  public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
+    super.init(args, persistence, regenerator);
+    segmentStore = SegmentStore.fromPersistence(args, persistence, DEFAULT_SEGMENT_MAX_RAM_MB);
+    return segmentStore;
+  }
+
+  /**
+   * Computes the DocSet of a positive query for <code>searcher</code> from the per-segment store,
+   * searching only the segments that are not stored yet. Small sets are copied into a {@link
+   * SortedIntDocSet}; others are a {@link SegmentDocSet} over the stored segments.
+   *
+   * @return the DocSet, or null if the query can't be cached per segment
+   */
+  DocSet getSegmentDocSet(SolrIndexSearcher searcher, Query query) throws IOException {
+    if (query instanceof DocSetProducer) {
+      // computed against the top-level reader
+      return null;
+    }
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final IndexReader.CacheHelper[] cacheHelpers = new IndexReader.CacheHelper[leaves.size()];
+    Weight weight = null;
+    for (LeafReaderContext leaf : leaves) {
+      IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+      if (cacheHelper == null) {
+        return null;
+      }
+      cacheHelpers[leaf.ord] = cacheHelper;
+      if (weight == null) {
+        Query rewritten = searcher.rewrite(QueryUtils.makeQueryable(query));
+        weight = searcher.createWeight(rewritten, ScoreMode.COMPLETE_NO_SCORES, 1f);
+      }
+      if (!weight.isCacheable(leaf)) {
+        return null;
+      }
+    }
+
+    final SegmentBits[] segments = new SegmentBits[leaves.size()];
+    for (LeafReaderContext leaf : leaves) {
+      final Weight leafWeight = weight;
+      segments[leaf.ord] =
+          segmentStore.get(
+              query, cacheHelpers[leaf.ord], b -> true, () -> SegmentBits.build(leafWeight, leaf));
+    }
+
+    final SegmentDocSet segmentDocSet = new SegmentDocSet(leaves, segments);
+    DocSet answer = segmentDocSet;
+    if (segmentDocSet.size() < DocSetUtil.smallSetSize(searcher.maxDoc())) {
+      answer = segmentDocSet.toSmallSet();
+    }
+    return DocSetUtil.getDocSet(answer, searcher);
+  }
+
+  SegmentStore<Query, SegmentBits> getSegmentStore() {
+    return segmentStore;
+  }
+
+  @Override
+  public String getDescription() {
+    return super.getDescription() + " with segment store (" + segmentStore + ")";
+  }
+
+  @Override
+  public void initializeMetrics(
+      SolrMetricsContext solrMetricsContext, Attributes attributes, String metricName) {
+    super.initializeMetrics(solrMetricsContext, attributes, metricName);
+    Attributes cacheAttributes =
+        attributes.toBuilder().put(CATEGORY_ATTR, getCategory().toString()).build();
+    segmentStore.initializeMetrics(
+        solrMetricsContext, cacheAttributes, metricName, "per-segment filter bitsets");
+  }
+
+  /**
+   * The matches of a query on one segment, ignoring deletions. Live docs are applied by the {@link
+   * SegmentDocSet} viewing the segment.
+   */
+  static final class SegmentBits implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(SegmentBits.class);
+
+    private static final SegmentBits EMPTY = new SegmentBits(null, 0);
+
+    // null if there are no matches
+    private final long[] words;
+    private final int cardinality;
+
+    private SegmentBits(long[] words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    static SegmentBits build(Weight weight, LeafReaderContext leaf) throws IOException {
+      final Scorer scorer = weight.scorer(leaf);
+      if (scorer == null) {
+        return EMPTY;
+      }
+      final long[] words = new long[FixedBitSet.bits2words(leaf.reader().maxDoc())];
+      final DocIdSetIterator it = scorer.iterator();
+      int cardinality = 0;
+      for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc()) {
+        words[doc >> 6] |= 1L << doc;
+        cardinality++;
+      }
+      return cardinality == 0 ? EMPTY : new SegmentBits(words, cardinality);
+    }
+
+    /** The number of matches that are live in <code>liveDocs</code>. */
+    int liveCount(Bits liveDocs) {
+      if (liveDocs == null || cardinality == 0) {
+        return cardinality;
+      }
+      int count = 0;
+      for (int doc = nextDoc(0); doc != DocIdSetIterator.NO_MORE_DOCS; doc = nextDoc(doc + 1)) {
+        if (liveDocs.get(doc)) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    /** Whether <code>doc</code> matches, ignoring deletions. */
+    boolean get(int doc) {
+      final int i = doc >> 6;
+      return words != null && i < words.length && (words[i] & (1L << doc)) != 0;
+    }
+
+    /** The first match at or after <code>from</code>, or {@link DocIdSetIterator#NO_MORE_DOCS}. */
+    int nextDoc(int from) {
+      int i = from >> 6;
+      if (words == null || i >= words.length) {
+        return DocIdSetIterator.NO_MORE_DOCS;
+      }
+      // the shift only uses the low 6 bits of from
+      final long word = words[i] >>> from;
+      if (word != 0) {
+        return from + Long.numberOfTrailingZeros(word);
+      }
+      while (++i < words.length) {
+        if (words[i] != 0) {
+          return (i << 6) + Long.numberOfTrailingZeros(words[i]);
+        }
+      }
+      return DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    /** The words of the matches, or null if there are none. Not to be modified. */
+    long[] words() {
+      return words;
+    }
+
+    /**
+     * Sets the live matching docs, shifted by <code>docBase</code>, in <code>dest</code>.
+     *
+     * @return the number of docs set
+     */
+    int copyTo(FixedBitSet dest, int docBase, Bits liveDocs) {
+      if (cardinality == 0) {
+        return 0;
+      }
+      if (liveDocs == null && (docBase & 63) == 0) {
+        // word aligned and no deletions: copy whole words
+        final long[] destWords = dest.getBits();
+        final int destWordBase = docBase >> 6;
+        for (int i = 0; i < words.length; i++) {
+          destWords[destWordBase + i] |= words[i];
+        }
+        return cardinality;
+      }
+      int count = 0;
+      for (int i = 0; i < words.length; i++) {
+        long word = words[i];
+        while (word != 0) {
+          final int doc = (i << 6) + Long.numberOfTrailingZeros(word);
+          word &= word - 1;
+          if (liveDocs == null || liveDocs.get(doc)) {
+            dest.set(docBase + doc);
+            count++;
+          }
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED + (words == null ? 0 : RamUsageEstimator.sizeOf(words));
+    }
+  }
+}
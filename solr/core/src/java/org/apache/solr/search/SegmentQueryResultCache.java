@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import io.opentelemetry.api.common.Attributes;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.SortedNumericSortField;
+import org.apache.lucene.search.SortedSetSortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.metrics.SolrMetricsContext;
+
+/**
+ * A queryResultCache that additionally keeps the top hits of each cached query per index segment,
+ * keyed by the segment reader's cache key. The per-segment hits are shared by all instances created
+ * from the same configuration, so they survive commits: when a new searcher misses a query, only
+ * segments that were not seen by a previous searcher (new or merged segments, or segments with new
+ * deletions) are searched, and the cached hits of the other segments are merged with them. Cache
+ * warming goes through the same path, so autowarming after a commit that only added segments costs
+ * a search over the new segments.
+ *
+ * <p>Only queries sorted on fields, not needing scores, without post filters or cursors, and whose
+ * main query and filters match each segment independently of the others can be answered per
+ * segment; other queries are computed as with {@link CaffeineCache}.
+ *
+ * <p>In addition to the {@link CaffeineCache} parameters, the per-segment store is bounded by
+ * <code>segmentMaxRamMB</code> (default 64) of heap.
+ */
+public class SegmentQueryResultCache extends CaffeineCache<QueryResultKey, DocList> {
+
+  public static final String SEGMENT_MAX_RAM_MB_PARAM = SegmentStore.SEGMENT_MAX_RAM_MB_PARAM;
+
+  private static final int DEFAULT_SEGMENT_MAX_RAM_MB = 64;
+
+  private SegmentStore<QueryResultKey, SegmentHits> segmentStore;
+
+  @Override
+  public Object init(Map<String, String> args, Object persistence, CacheRegenerator regenerator) {
+    super.init(args, persistence, regenerator);
+    segmentStore = SegmentStore.fromPersistence(args, persistence, DEFAULT_SEGMENT_MAX_RAM_MB);
+    return segmentStore;
+  }
+
+  SegmentStore<QueryResultKey, SegmentHits> getSegmentStore() {
+    return segmentStore;
+  }
+
+  @Override
+  public String getDescription() {
+    return super.getDescription() + " with segment store (" + segmentStore + ")";
+  }
+
+  @Override
+  public void initializeMetrics(
+      SolrMetricsContext solrMetricsContext, Attributes attributes, String metricName) {
+    super.initializeMetrics(solrMetricsContext, attributes, metricName);
+    Attributes cacheAttributes =
+        attributes.toBuilder().put(CATEGORY_ATTR, getCategory().toString()).build();
+    segmentStore.initializeMetrics(
+        solrMetricsContext, cacheAttributes, metricName, "per-segment top hits");
+  }
+
+  /**
+   * Computes the top <code>len</code> docs of the command for <code>searcher</code> by merging the
+   * per-segment hits, searching only the segments that are not stored yet.
+   *
+   * @return the DocList, or null if the command can't be answered per segment
+   */
+  DocList getSegmentDocList(
+      SolrIndexSearcher searcher, QueryCommand cmd, QueryResultKey key, int len)
+      throws IOException {
+    if (len <= 0 || !isSegmentLocal(cmd)) {
+      return null;
+    }
+    final Sort sort = searcher.weightSort(cmd.getSort());
+    if (!isSegmentLocal(sort)) {
+      return null;
+    }
+
+    final List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+    final IndexReader.CacheHelper[] cacheHelpers = new IndexReader.CacheHelper[leaves.size()];
+    for (LeafReaderContext leaf : leaves) {
+      IndexReader.CacheHelper cacheHelper = leaf.reader().getReaderCacheHelper();
+      if (cacheHelper == null) {
+        return null;
+      }
+      cacheHelpers[leaf.ord] = cacheHelper;
+    }
+
+    // the original queries rather than the filterCache's DocSets, which hide whether the
+    // matches on a segment depend on the other segments (e.g. joins)
+    Query query = QueryUtils.makeQueryable(cmd.getQuery());
+    if (cmd.getFilterList() != null && !cmd.getFilterList().isEmpty()) {
+      BooleanQuery.Builder builder = new BooleanQuery.Builder().add(query, Occur.MUST);
+      for (Query filter : cmd.getFilterList()) {
+        builder.add(QueryUtils.makeQueryable(filter), Occur.FILTER);
+      }
+      query = builder.build();
+    }
+    final TopFieldCollectorManager manager = newCollectorManager(sort, len);
+    final Weight weight =
+        searcher.createWeight(searcher.rewrite(query), manager.newCollector().scoreMode(), 1f);
+    for (LeafReaderContext leaf : leaves) {
+      if (!weight.isCacheable(leaf)) {
+        return null;
+      }
+    }
+
+    final TopFieldDocs[] shardHits = new TopFieldDocs[leaves.size()];
+    long totalHits = 0;
+    for (LeafReaderContext leaf : leaves) {
+      SegmentHits segmentHits =
+          getSegmentHits(searcher, key, weight, manager, leaf, cacheHelpers[leaf.ord], len);
+      shardHits[leaf.ord] = segmentHits.toTopFieldDocs(leaf.docBase, sort);
+      totalHits += segmentHits.totalHits;
+    }
+
+    final ScoreDoc[] scoreDocs = TopDocs.merge(sort, len, shardHits).scoreDocs;
+    final int[] docs = new int[scoreDocs.length];
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = scoreDocs[i].doc;
+    }
+    return new DocSlice(
+        0,
+        docs.length,
+        docs,
+        null,
+        totalHits,
+        totalHits > 0 ? Float.NaN : 0.0f,
+        TotalHits.Relation.EQUAL_TO);
+  }
+
+  /** Whether the command could be answered by merging independently searched segments. */
+  private static boolean isSegmentLocal(QueryCommand cmd) {
+    if ((cmd.getFlags() & SolrIndexSearcher.GET_SCORES) != 0
+        || cmd.getSort() == null
+        || cmd.getCursorMark() != null
+        || cmd.getSegmentTerminateEarly()
+        || cmd.getQuery() instanceof RankQuery
+        || cmd.getQuery() instanceof DocSetProducer
+        || QueryLimits.getCurrentLimits().isLimitsEnabled()) {
+      return false;
+    }
+    if (cmd.getFilterList() != null) {
+      for (Query filter : cmd.getFilterList()) {
+        if (filter instanceof DocSetProducer) {
+          return false;
+        }
+        // would be a post filter, see SolrIndexSearcher.getProcessedFilter
+        if (filter instanceof ExtendedQuery eq
+            && !eq.getCache()
+            && eq.getCost() >= 100
+            && eq instanceof PostFilter) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Whether the sort values of a segment's hits can be compared with other segments' hits. */
+  private static boolean isSegmentLocal(Sort sort) {
+    for (SortField sortField : sort.getSort()) {
+      if (sortField.needsScores()) {
+        return false;
+      }
+      switch (sortField.getType()) {
+        case STRING, STRING_VAL, INT, LONG, FLOAT, DOUBLE:
+          break;
+        case CUSTOM:
+          if (sortField instanceof SortedNumericSortField
+              || sortField instanceof SortedSetSortField) {
+            break;
+          }
+          return false;
+        default:
+          // SCORE, DOC (the values are top-level doc ids), custom comparators
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private static TopFieldCollectorManager newCollectorManager(Sort sort, int len) {
+    // exact hit counts, since they are summed across segments
+    return new TopFieldCollectorManager(sort, len, null, Integer.MAX_VALUE);
+  }
+
+  private SegmentHits getSegmentHits(
+      SolrIndexSearcher searcher,
+      QueryResultKey queryKey,
+      Weight weight,
+      TopFieldCollectorManager manager,
+      LeafReaderContext leaf,
+      IndexReader.CacheHelper cacheHelper,
+      int len)
+      throws IOException {
+    return segmentStore.get(
+        queryKey,
+        cacheHelper,
+        segmentHits -> segmentHits.covers(len),
+        () -> {
+          final TopFieldCollector collector = manager.newCollector();
+          searcher.searchLeaf(leaf, 0, DocIdSetIterator.NO_MORE_DOCS, weight, collector);
+          return SegmentHits.build(collector.topDocs(), collector.getTotalHits(), leaf, len);
+        });
+  }
+
+  /** The top hits of a query on one segment, with segment-local doc ids and their sort values. */
+  static final class SegmentHits implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(SegmentHits.class);
+
+    private final int numHits; // the number of top hits asked for
+    private final int totalHits;
+    private final int[] docs;
+    private final Object[][] fields;
+    private final long ramBytesUsed;
+
+    private SegmentHits(int numHits, int totalHits, int[] docs, Object[][] fields) {
+      this.numHits = numHits;
+      this.totalHits = totalHits;
+      this.docs = docs;
+      this.fields = fields;
+      long ram = BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(docs);
+      ram += RamUsageEstimator.shallowSizeOf(fields);
+      for (Object[] values : fields) {
+        ram += RamUsageEstimator.shallowSizeOf(values);
+        for (Object value : values) {
+          ram +=
+              value instanceof BytesRef bytes
+                  ? RamUsageEstimator.shallowSizeOf(bytes) + bytes.bytes.length
+                  : RamUsageEstimator.sizeOfObject(value);
+        }
+      }
+      this.ramBytesUsed = ram;
+    }
+
+    static SegmentHits build(TopFieldDocs topDocs, int totalHits, LeafReaderContext leaf, int len) {
+      final ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+      final int[] docs = new int[scoreDocs.length];
+      final Object[][] fields = new Object[scoreDocs.length][];
+      for (int i = 0; i < scoreDocs.length; i++) {
+        docs[i] = scoreDocs[i].doc - leaf.docBase;
+        fields[i] = ((FieldDoc) scoreDocs[i]).fields;
+      }
+      return new SegmentHits(len, totalHits, docs, fields);
+    }
+
+    /** Whether these are the top <code>len</code> hits, or more. */
+    boolean covers(int len) {
+      return len <= numHits || docs.length == totalHits;
+    }
+
+    TopFieldDocs toTopFieldDocs(int docBase, Sort sort) {
+      final FieldDoc[] fieldDocs = new FieldDoc[docs.length];
+      for (int i = 0; i < docs.length; i++) {
+        fieldDocs[i] = new FieldDoc(docBase + docs[i], Float.NaN, fields[i]);
+      }
+      return new TopFieldDocs(
+          new TotalHits(totalHits, TotalHits.Relation.EQUAL_TO), fieldDocs, sort.getSort());
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return ramBytesUsed;
+    }
+  }
+}
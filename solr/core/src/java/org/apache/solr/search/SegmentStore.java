@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import static org.apache.solr.metrics.SolrMetricProducer.RESULT_ATTR;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableLongMeasurement;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.solr.metrics.SolrMetricsContext;
+import org.apache.solr.metrics.otel.OtelUnit;
+
+/**
+ * Values computed per index segment, keyed by (key, segment reader cache key), on the heap. This is
+ * the persistence object of the caches that keep per-segment data across searchers ({@link
+ * SegmentFilterCache}, {@link SegmentQueryResultCache}, {@link SegmentDocumentCache}), so it must
+ * not reference any cache or searcher.
+ *
+ * <p>Entries of a segment reader are purged once it is closed; otherwise entries are evicted by
+ * weight, which is the {@link Accountable#ramBytesUsed()} of the values.
+ *
+ * @param <K> the key of a value within a segment
+ * @param <V> the values
+ */
+final class SegmentStore<K, V extends Accountable> implements Accountable {
+
+  static final String SEGMENT_MAX_RAM_MB_PARAM = "segmentMaxRamMB";
+
+  private final long maxRamBytes;
+  private final Cache<SegmentKey<K>, V> cache;
+  private final Set<IndexReader.CacheKey> registeredReaders = ConcurrentHashMap.newKeySet();
+  private final IndexReader.ClosedListener purgeReader = this::purgeByCacheKey;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  SegmentStore(long maxRamBytes) {
+    this.maxRamBytes = maxRamBytes;
+    this.cache =
+        Caffeine.newBuilder()
+            .executor(Runnable::run)
+            .maximumWeight(maxRamBytes)
+            .<SegmentKey<K>, V>weigher(
+                (k, v) -> (int) Math.min(Integer.MAX_VALUE, v.ramBytesUsed()))
+            .build();
+  }
+
+  /**
+   * Creates the store of a cache from its <code>segmentMaxRamMB</code> parameter, unless the cache
+   * was given one by the cache it replaces.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V extends Accountable> SegmentStore<K, V> fromPersistence(
+      Map<String, String> args, Object persistence, int defaultMaxRamMB) {
+    if (persistence != null) {
+      return (SegmentStore<K, V>) persistence;
+    }
+    String str = args.get(SEGMENT_MAX_RAM_MB_PARAM);
+    long maxRamMB = str == null ? defaultMaxRamMB : Double.valueOf(str).longValue();
+    return new SegmentStore<>(maxRamMB * 1024L * 1024L);
+  }
+
+  /**
+   * Returns the value of <code>key</code> on the segment of <code>cacheHelper</code>, computing it
+   * with <code>loader</code> if it isn't stored yet or if the stored value is not <code>reusable
+   * </code>.
+   */
+  V get(
+      K key,
+      IndexReader.CacheHelper cacheHelper,
+      Predicate<? super V> reusable,
+      IOSupplier<? extends V> loader)
+      throws IOException {
+    final IndexReader.CacheKey readerKey = cacheHelper.getKey();
+    final SegmentKey<K> segmentKey = new SegmentKey<>(key, readerKey);
+    V value = cache.getIfPresent(segmentKey);
+    if (value != null && reusable.test(value)) {
+      hits.increment();
+      return value;
+    }
+    if (registeredReaders.add(readerKey)) {
+      cacheHelper.addClosedListener(purgeReader);
+    }
+    try {
+      return cache
+          .asMap()
+          .compute(
+              segmentKey,
+              (k, current) -> {
+                if (current != null && reusable.test(current)) {
+                  // computed concurrently
+                  hits.increment();
+                  return current;
+                }
+                try {
+                  V computed = loader.get();
+                  misses.increment();
+                  return computed;
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Remove all entries of this segment reader, if present. */
+  void purgeByCacheKey(IndexReader.CacheKey readerKey) {
+    registeredReaders.remove(readerKey);
+    cache.asMap().keySet().removeIf(k -> k.readerKey == readerKey);
+  }
+
+  /** The heap used by the stored values, as weighed by the store's bound. */
+  @Override
+  public long ramBytesUsed() {
+    return cache.policy().eviction().orElseThrow().weightedSize().orElse(0L);
+  }
+
+  long size() {
+    return cache.estimatedSize();
+  }
+
+  long hits() {
+    return hits.sum();
+  }
+
+  long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * Registers the size, heap and lookup gauges of this store as <code>metricName</code> followed by
+   * <code>.segment_ram_used</code>, <code>.segment_size</code> and <code>.segment_lookups</code>.
+   *
+   * @param description what the stored values are, e.g. "per-segment filter bitsets"
+   */
+  void initializeMetrics(
+      SolrMetricsContext solrMetricsContext,
+      Attributes cacheAttributes,
+      String metricName,
+      String description) {
+    ObservableLongMeasurement segmentRamMetric =
+        solrMetricsContext.longGaugeMeasurement(
+            metricName + ".segment_ram_used", "Heap bytes used by " + description, OtelUnit.BYTES);
+
+    ObservableLongMeasurement segmentSizeMetric =
+        solrMetricsContext.longGaugeMeasurement(
+            metricName + ".segment_size", "Current number of " + description);
+
+    ObservableLongMeasurement segmentLookupsMetric =
+        solrMetricsContext.longCounterMeasurement(
+            metricName + ".segment_lookups",
+            "Number of cumulative lookups of " + description + " (hits and misses)");
+
+    Attributes hitAttributes = cacheAttributes.toBuilder().put(RESULT_ATTR, "hit").build();
+    Attributes missAttributes = cacheAttributes.toBuilder().put(RESULT_ATTR, "miss").build();
+    solrMetricsContext.batchCallback(
+        () -> {
+          segmentRamMetric.record(ramBytesUsed(), cacheAttributes);
+          segmentSizeMetric.record(size(), cacheAttributes);
+          segmentLookupsMetric.record(hits(), hitAttributes);
+          segmentLookupsMetric.record(misses(), missAttributes);
+        },
+        segmentRamMetric,
+        segmentSizeMetric,
+        segmentLookupsMetric);
+  }
+
+  @Override
+  public String toString() {
+    return SEGMENT_MAX_RAM_MB_PARAM + "=" + (maxRamBytes / 1024L / 1024L);
+  }
+
+  private static final class SegmentKey<K> {
+    final K key;
+    final IndexReader.CacheKey readerKey;
+    private final int hash;
+
+    SegmentKey(K key, IndexReader.CacheKey readerKey) {
+      this.key = key;
+      this.readerKey = readerKey;
+      this.hash = 31 * key.hashCode() + System.identityHashCode(readerKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof SegmentKey<?> other
+          && readerKey == other.readerKey
+          && key.equals(other.key);
+    }
+  }
+}
@@ -288,7 +288,18 @@ public class SolrDocumentFetcher {
    */
   public Document doc(int i, Set<String> fields) throws IOException {
     Document d;
-    if (documentCache != null) {
+    if (documentCache instanceof SegmentDocumentCache segmentDocumentCache) {
+      final SegmentDocumentCache.StoredDocument stored =
+          segmentDocumentCache.getStoredDocument(searcher, i, storedFields, largeFields);
+      if (stored == null) {
+        return docNC(i, fields);
+      }
+      // only the requested fields are decoded
+      final SolrDocumentStoredFieldVisitor visitor =
+          new SolrDocumentStoredFieldVisitor(fields, searcher.getIndexReader(), i);
+      stored.visit(visitor, fieldInfo -> {});
+      return visitor.getDocument();
+    } else if (documentCache != null) {
       final Set<String> getFields = enableLazyFieldLoading ? fields : null;
       d = documentCache.computeIfAbsent(i, docId -> docNC(docId, getFields));
       if (d == null) {
@@ -341,6 +352,23 @@ public class SolrDocumentFetcher {
     return solrReturnFields.getFetchOptimizer(rfoSupplier).getSolrDoc(luceneDocId);
   }
 
+  /**
+   * Populates the SolrDocuments of a page of results at once, as {@link #solrDoc(int,
+   * SolrReturnFields)} would for each of them. The documents are read in doc id order, so the
+   * stored fields and docValues of each segment are read in a single forward pass instead of
+   * seeking back and forth in score order.
+   *
+   * @param luceneDocIds The Lucene doc IDs, in the order the documents should be returned
+   * @param solrReturnFields the structure holding the fields to be returned, see {@link
+   *     #solrDoc(int, SolrReturnFields)}
+   * @return The SolrDocuments, in the order of <code>luceneDocIds</code>
+   */
+  public SolrDocument[] solrDocs(int[] luceneDocIds, SolrReturnFields solrReturnFields) {
+    Supplier<RetrieveFieldsOptimizer> rfoSupplier =
+        () -> new RetrieveFieldsOptimizer(solrReturnFields);
+    return solrReturnFields.getFetchOptimizer(rfoSupplier).getSolrDocs(luceneDocIds);
+  }
+
   /**
    * {@link StoredFieldVisitor} which loads the specified fields eagerly (or all if null). If {@link
    * #enableLazyFieldLoading} then the rest get special lazy field entries. Designated "large"
@@ -400,7 +428,21 @@ public class SolrDocumentFetcher {
 
   /** Visit a document's fields using a {@link StoredFieldVisitor}. */
   public void doc(int docId, StoredFieldVisitor visitor) throws IOException {
-    if (documentCache != null) {
+    if (documentCache instanceof SegmentDocumentCache segmentDocumentCache) {
+      final SegmentDocumentCache.StoredDocument stored =
+          segmentDocumentCache.getStoredDocument(searcher, docId, storedFields, largeFields);
+      if (stored == null) {
+        storedFields.document(docId, visitor);
+      } else {
+        stored.visit(
+            visitor,
+            fieldInfo ->
+                visitor.stringField(
+                    fieldInfo,
+                    toStringUnwrapIfPossible(
+                        new LargeLazyField(fieldInfo.name, docId).readBytes())));
+      }
+    } else if (documentCache != null) {
       // get cached document or retrieve it including all fields (and cache it)
       Document cached = doc(docId);
       visitFromCached(cached, visitor);
@@ -926,5 +968,32 @@ public class SolrDocumentFetcher {
       }
       return sdoc;
     }
+
+    private SolrDocument[] getSolrDocs(int[] luceneDocIds) {
+      // sort by doc id, remembering the position of each doc in the page
+      final long[] docIdsAndPositions = new long[luceneDocIds.length];
+      for (int i = 0; i < luceneDocIds.length; i++) {
+        docIdsAndPositions[i] = ((long) luceneDocIds[i] << 32) | i;
+      }
+      Arrays.sort(docIdsAndPositions);
+
+      if (returnStoredFields() && documentCache == null) {
+        // let the stored fields reader fetch the blocks of the page ahead of decoding them
+        try {
+          for (long docIdAndPosition : docIdsAndPositions) {
+            SolrDocumentFetcher.this.storedFields.prefetch((int) (docIdAndPosition >>> 32));
+          }
+        } catch (IOException e) {
+          throw new SolrException(
+              SolrException.ErrorCode.SERVER_ERROR, "Error prefetching documents", e);
+        }
+      }
+
+      final SolrDocument[] sdocs = new SolrDocument[luceneDocIds.length];
+      for (long docIdAndPosition : docIdsAndPositions) {
+        sdocs[(int) docIdAndPosition] = getSolrDoc((int) (docIdAndPosition >>> 32));
+      }
+      return sdocs;
+    }
   }
 }
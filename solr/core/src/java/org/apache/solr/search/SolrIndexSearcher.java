@@ -42,6 +42,7 @@ import java.util.stream.StreamSupport;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
@@ -82,6 +83,7 @@ import org.apache.lucene.search.TotalHitCountCollector;
 import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.search.TotalHits.Relation;
 import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
@@ -102,6 +104,7 @@ import org.apache.solr.core.NodeConfig;
 import org.apache.solr.core.SolrConfig;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.index.OrdinalMapCache;
 import org.apache.solr.index.SlowCompositeReaderWrapper;
 import org.apache.solr.metrics.SolrMetricsContext;
 import org.apache.solr.metrics.otel.OtelUnit;
@@ -112,6 +115,7 @@ import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.facet.FacetResultCache;
 import org.apache.solr.search.facet.UnInvertedField;
 import org.apache.solr.search.stats.StatsCache;
 import org.apache.solr.search.stats.StatsSource;
@@ -153,6 +157,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
   private final long openNanoTime = System.nanoTime();
   private Date registerTime;
   private long warmupTime = 0;
+  private volatile CacheWarmer cacheWarmer; // only set while autowarming
   private final DirectoryReader reader;
   private final boolean closeReader;
 
@@ -165,6 +170,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
   private final SolrCache<QueryResultKey, DocList> queryResultCache;
   private final SolrCache<String, UnInvertedField> fieldValueCache;
   private final SolrCache<Integer, float[]> featureVectorCache;
+  private final SolrCache<FacetResultCache.Key, FacetResultCache.Entry> facetCache;
+  private final QueryPlanner queryPlanner = new QueryPlanner(this);
   private final LongAdder fullSortCount = new LongAdder();
   private final LongAdder skipSortCount = new LongAdder();
   private final LongAdder liveDocsNaiveCacheHitCount = new LongAdder();
@@ -453,6 +460,9 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
               ? null
               : solrConfig.featureVectorCacheConfig.newInstance();
       if (featureVectorCache != null) clist.add(featureVectorCache);
+      facetCache =
+          solrConfig.facetCacheConfig == null ? null : solrConfig.facetCacheConfig.newInstance();
+      if (facetCache != null) clist.add(facetCache);
       SolrCache<Integer, Document> documentCache = docFetcher.getDocumentCache();
       if (documentCache != null) clist.add(documentCache);
 
@@ -475,6 +485,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       this.queryResultCache = null;
       this.fieldValueCache = null;
       this.featureVectorCache = null;
+      this.facetCache = null;
       this.cacheMap = NO_GENERIC_CACHES;
       this.cacheList = NO_CACHES;
     }
@@ -583,6 +594,16 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return leafReader;
   }
 
+  /**
+   * The global ordinal maps of the doc values fields of this searcher, shared by all of their
+   * consumers, or null if the index has a single segment and needs none.
+   */
+  public OrdinalMapCache getOrdinalMapCache() {
+    return leafReader instanceof SlowCompositeReaderWrapper slow
+        ? slow.getOrdinalMapCache()
+        : null;
+  }
+
   /** Raw reader (no fieldcaches etc). Useful for operations like addIndexes */
   public final DirectoryReader getRawReader() {
     return rawReader;
@@ -696,10 +717,23 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return filterCache;
   }
 
+  public SolrCache<QueryResultKey, DocList> getQueryResultCache() {
+    return queryResultCache;
+  }
+
   public SolrCache<Integer, float[]> getFeatureVectorCache() {
     return featureVectorCache;
   }
 
+  public SolrCache<FacetResultCache.Key, FacetResultCache.Entry> getFacetCache() {
+    return facetCache;
+  }
+
+  /** Plans the queries run on this searcher; its estimates live as long as the searcher. */
+  public QueryPlanner getQueryPlanner() {
+    return queryPlanner;
+  }
+
   //
   // Set default regenerators on filter and query caches if they don't have any
   //
@@ -784,6 +818,25 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
             }
           });
     }
+
+    if (solrConfig.facetCacheConfig != null
+        && solrConfig.facetCacheConfig.getRegenerator() == null) {
+      solrConfig.facetCacheConfig.setRegenerator(
+          new CacheRegenerator() {
+            @Override
+            public <K, V> boolean regenerateItem(
+                SolrIndexSearcher newSearcher,
+                SolrCache<K, V> newCache,
+                SolrCache<K, V> oldCache,
+                K oldKey,
+                V oldVal)
+                throws IOException {
+              FacetResultCache.regenerate(
+                  newSearcher, (FacetResultCache.Key) oldKey, (FacetResultCache.Entry) oldVal);
+              return true;
+            }
+          });
+    }
   }
 
   /** Primary entrypoint for searching, using a {@link QueryCommand}. */
@@ -957,18 +1010,19 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       return (BitDocSet) answer;
     }
     FixedBitSet bs = new FixedBitSet(maxDoc());
-    DocIterator iter = answer.iterator();
-    while (iter.hasNext()) {
-      bs.set(iter.nextDoc());
-    }
-
+    answer.addAllTo(bs);
     return new BitDocSet(bs, answer.size());
   }
 
   public BitDocSet getDocSetBits(Query q) throws IOException {
     DocSet answer = getDocSet(q);
     BitDocSet answerBits = makeBitDocSet(answer);
-    if (answerBits != answer && filterCache != null) {
+    // a RoaringDocSet was cached because it is much smaller than the bits, and a SegmentDocSet to
+    // not hold the bits twice; keep it that way
+    if (answerBits != answer
+        && filterCache != null
+        && !(answer instanceof RoaringDocSet)
+        && !(answer instanceof SegmentDocSet)) {
       filterCache.put(q, answerBits);
     }
     return answerBits;
@@ -1029,17 +1083,35 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
       // Not found in the cache so compute and put in the cache
       if (answer == null) {
-        answer = getDocSetNC(query, null);
+        answer = computeFilterCacheDocSet(query);
         filterCache.put(query, answer);
       }
     } else {
-      answer = filterCache.computeIfAbsent(query, q -> getDocSetNC(q, null));
+      answer = filterCache.computeIfAbsent(query, this::computeFilterCacheDocSet);
     }
 
     assert !(answer instanceof MutableBitDocSet) : "should not be mutable";
     return answer;
   }
 
+  /**
+   * Computes the DocSet of a positive query that is about to be inserted into the filterCache. If
+   * the filterCache keeps per-segment sets ({@link SegmentFilterCache}), only segments it hasn't
+   * seen yet are searched, and the set is a {@link SegmentDocSet} viewing them. Sets that take much
+   * less memory as a {@link RoaringDocSet} are stored as one.
+   */
+  private DocSet computeFilterCacheDocSet(Query query) throws IOException {
+    DocSet answer = null;
+    if (filterCache instanceof SegmentFilterCache segmentFilterCache) {
+      answer = segmentFilterCache.getSegmentDocSet(this, query);
+    }
+    if (answer == null) {
+      answer = getDocSetNC(query, null);
+    }
+    // the set matching all docs is the shared liveDocs instance; leave it alone
+    return answer.size() == numDocs() ? answer : DocSetUtil.toCompactSet(answer);
+  }
+
   private static final MatchAllDocsQuery MATCH_ALL_DOCS_QUERY = new MatchAllDocsQuery();
 
   /** Used as a synchronization point to handle the lazy-init of {@link #liveDocs}. */
@@ -1198,6 +1270,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     public DocSet answer;
     public Query filter; // maybe null.  Scoring is irrelevant / unspecified.
     public DelegatingCollector postFilter; // maybe null
+    public List<PostFilter> postFilters; // the post filters of postFilter, by cost; maybe null
   }
 
   /**
@@ -1333,16 +1406,24 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     // Set pf.postFilter
     if (postFilters != null) {
       postFilters.sort(sortByCost);
-      for (int i = postFilters.size() - 1; i >= 0; i--) {
-        DelegatingCollector prev = pf.postFilter;
-        pf.postFilter = postFilters.get(i).getFilterCollector(this);
-        if (prev != null) pf.postFilter.setDelegate(prev);
-      }
+      pf.postFilters = postFilters;
+      pf.postFilter = buildPostFilterChain(postFilters);
     }
 
     return pf;
   }
 
+  /** Chains the collectors of the post filters, which should be sorted by cost. */
+  DelegatingCollector buildPostFilterChain(List<PostFilter> postFilters) {
+    DelegatingCollector postFilter = null;
+    for (int i = postFilters.size() - 1; i >= 0; i--) {
+      DelegatingCollector prev = postFilter;
+      postFilter = postFilters.get(i).getFilterCollector(this);
+      if (prev != null) postFilter.setDelegate(prev);
+    }
+    return postFilter;
+  }
+
   /**
    * @lucene.internal
    */
@@ -1575,14 +1656,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
           // OPT: possible future optimization - if the doclist contains all the matches,
           // use it to make the docset instead of rerunning the query.
           if (out.docSet == null && ((flags & GET_DOCSET) != 0)) {
-            if (cmd.getFilterList() == null) {
-              out.docSet = getDocSet(cmd.getQuery());
-            } else {
-              List<Query> newList = new ArrayList<>(cmd.getFilterList().size() + 1);
-              newList.add(cmd.getQuery());
-              newList.addAll(cmd.getFilterList());
-              out.docSet = getDocSet(newList);
-            }
+            out.docSet = getQueryAndFiltersDocSet(cmd);
           }
           return qr;
         }
@@ -1648,7 +1722,20 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       useFilterCache = useFilterCacheForDynamicScoreQuery(needSort, cmd);
     }
 
-    if (useFilterCache) {
+    // a per-segment queryResultCache may have the hits of all but the newest segments
+    DocList segmentDocList = null;
+    if (key != null
+        && cmd.getLen() > 0
+        && queryResultCache instanceof SegmentQueryResultCache segmentCache) {
+      segmentDocList = segmentCache.getSegmentDocList(this, cmd, key, supersetMaxDoc);
+    }
+
+    if (segmentDocList != null) {
+      out.docList = segmentDocList;
+      if ((flags & GET_DOCSET) != 0) {
+        out.docSet = getQueryAndFiltersDocSet(cmd);
+      }
+    } else if (useFilterCache) {
       // now actually use the filter cache.
       // for large filters that match few documents, this may be
       // slower than simply re-executing the query.
@@ -1724,6 +1811,17 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return qr;
   }
 
+  /** Returns the DocSet matching the command's query and all of its filters. */
+  private DocSet getQueryAndFiltersDocSet(QueryCommand cmd) throws IOException {
+    if (cmd.getFilterList() == null) {
+      return getDocSet(cmd.getQuery());
+    }
+    List<Query> newList = new ArrayList<>(cmd.getFilterList().size() + 1);
+    newList.add(cmd.getQuery());
+    newList.addAll(cmd.getFilterList());
+    return getDocSet(newList);
+  }
+
   private Relation populateScoresIfNeeded(
       QueryCommand cmd, boolean needScores, TopDocs topDocs, Query query, ScoreMode scoreModeUsed)
       throws IOException {
@@ -1876,7 +1974,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       }
       final TopDocs topDocs;
       final ScoreMode scoreModeUsed;
-      if (!MultiThreadedSearcher.allowMT(pf.postFilter, cmd, getTaskExecutor())) {
+      if (!MultiThreadedSearcher.allowMT(pf, cmd, getTaskExecutor())) {
         log.trace("SINGLE THREADED search, skipping collector manager in getDocListNC");
         final TopDocsCollector<?> topCollector = buildTopDocsCollector(len, cmd);
         MaxScoreCollector maxScoreCollector = null;
@@ -1899,7 +1997,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
         log.trace("MULTI-THREADED search, using CollectorManager int getDocListNC");
         final MultiThreadedSearcher.SearchResult searchResult =
             new MultiThreadedSearcher(this)
-                .searchCollectorManagers(len, cmd, query, true, needScores, false, qr);
+                .searchCollectorManagers(
+                    len, cmd, query, pf.postFilters, true, needScores, false, qr);
         scoreModeUsed = searchResult.scoreMode;
 
         MultiThreadedSearcher.TopDocsResult topDocsResult = searchResult.getTopDocsResult();
@@ -1987,7 +2086,7 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
       qr.setNextCursorMark(cmd.getCursorMark());
     } else {
       final TopDocs topDocs;
-      if (!MultiThreadedSearcher.allowMT(pf.postFilter, cmd, getTaskExecutor())) {
+      if (!MultiThreadedSearcher.allowMT(pf, cmd, getTaskExecutor())) {
         log.trace("SINGLE THREADED search, skipping collector manager in getDocListAndSetNC");
 
         @SuppressWarnings({"rawtypes"})
@@ -2020,7 +2119,8 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
 
         MultiThreadedSearcher.SearchResult searchResult =
             new MultiThreadedSearcher(this)
-                .searchCollectorManagers(len, cmd, query, true, needScores, true, qr);
+                .searchCollectorManagers(
+                    len, cmd, query, pf.postFilters, true, needScores, true, qr);
         MultiThreadedSearcher.TopDocsResult topDocsResult = searchResult.getTopDocsResult();
         totalHits = topDocsResult.totalHits;
         topDocs = topDocsResult.topDocs;
@@ -2225,33 +2325,48 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     // warm the caches in order...
     ModifiableSolrParams params = new ModifiableSolrParams();
     params.add("warming", "true");
-    for (int i = 0; i < cacheList.length; i++) {
-      if (log.isDebugEnabled()) {
-        log.debug("autowarming [{}] from [{}]\n\t{}", this, old, old.cacheList[i]);
-      }
+    final SolrConfig solrConfig = core.getSolrConfig();
+    // one time budget for all the caches
+    cacheWarmer = new CacheWarmer(solrConfig.autowarmTimeBudgetMs, core.getAutowarmExecutor());
+    try {
+      for (int i = 0; i < cacheList.length; i++) {
+        if (log.isDebugEnabled()) {
+          log.debug("autowarming [{}] from [{}]\n\t{}", this, old, old.cacheList[i]);
+        }
 
-      final SolrQueryRequest req = SolrQueryRequest.wrapSearcher(SolrIndexSearcher.this, params);
-      final SolrQueryResponse rsp = new SolrQueryResponse();
-      SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
-      try {
-        cacheList[i].warm(this, old.cacheList[i]);
-      } finally {
+        final SolrQueryRequest req = SolrQueryRequest.wrapSearcher(SolrIndexSearcher.this, params);
+        final SolrQueryResponse rsp = new SolrQueryResponse();
+        SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, rsp));
         try {
-          req.close();
+          cacheList[i].warm(this, old.cacheList[i]);
         } finally {
-          SolrRequestInfo.clearRequestInfo();
+          try {
+            req.close();
+          } finally {
+            SolrRequestInfo.clearRequestInfo();
+          }
         }
-      }
 
-      if (log.isDebugEnabled()) {
-        log.debug("autowarming result for [{}]\n\t{}", this, cacheList[i]);
+        if (log.isDebugEnabled()) {
+          log.debug("autowarming result for [{}]\n\t{}", this, cacheList[i]);
+        }
       }
+    } finally {
+      cacheWarmer = null;
     }
+    warmOrdinalMaps(old);
     this.warmupTime =
         TimeUnit.MILLISECONDS.convert(System.nanoTime() - warmingStartTime, TimeUnit.NANOSECONDS);
     if (warmupTimer != null) warmupTimer.record(warmupTime);
   }
 
+  /**
+   * The warmer to regenerate cache entries with while this searcher is being autowarmed, or null.
+   */
+  CacheWarmer getCacheWarmer() {
+    return cacheWarmer;
+  }
+
   /** return the named generic cache */
   @SuppressWarnings({"rawtypes"})
   public SolrCache getCache(String cacheName) {
@@ -2330,6 +2445,59 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
     return solrMetricsContext;
   }
 
+  /** How the global ordinal maps of a new searcher are built ahead of the first requests */
+  public enum OrdinalMapWarming {
+    /** each map is built by the first request that needs it */
+    NONE,
+    /** the maps the old searcher had are built after its caches, before it is registered */
+    WARM,
+    /** the maps the old searcher had are built by a core task, without delaying registration */
+    BACKGROUND
+  }
+
+  /**
+   * Builds the global ordinal maps of the fields whose maps were built for the old searcher, as
+   * configured by {@link SolrConfig#ordinalMapWarming}.
+   */
+  private void warmOrdinalMaps(SolrIndexSearcher old) {
+    final OrdinalMapWarming warming = core.getSolrConfig().ordinalMapWarming;
+    final OrdinalMapCache oldMaps = old.getOrdinalMapCache();
+    if (warming == OrdinalMapWarming.NONE
+        || getOrdinalMapCache() == null
+        || oldMaps == null
+        || oldMaps.size() == 0) {
+      return;
+    }
+    final List<String> fields = new ArrayList<>(oldMaps.fields());
+    if (warming == OrdinalMapWarming.WARM) {
+      buildOrdinalMaps(fields);
+    } else {
+      core.runAsync(() -> buildOrdinalMaps(fields));
+    }
+  }
+
+  private void buildOrdinalMaps(List<String> fields) {
+    final FieldInfos fieldInfos = leafReader.getFieldInfos();
+    for (String field : fields) {
+      final FieldInfo fieldInfo = fieldInfos.fieldInfo(field);
+      if (fieldInfo == null) {
+        continue;
+      }
+      try {
+        // the slow reader builds the map of the field and keeps it
+        switch (fieldInfo.getDocValuesType()) {
+          case SORTED -> leafReader.getSortedDocValues(field);
+          case SORTED_SET -> leafReader.getSortedSetDocValues(field);
+          default -> {}
+        }
+      } catch (AlreadyClosedException e) {
+        return; // the searcher was closed before the maps were all built
+      } catch (Exception e) {
+        log.warn("Error building the ordinal map of {} for {}", field, this, e);
+      }
+    }
+  }
+
   @Override
   public void initializeMetrics(SolrMetricsContext solrMetricsContext, Attributes attributes) {
     var baseAttributes =
@@ -2404,6 +2572,26 @@ public class SolrIndexSearcher extends IndexSearcher implements Closeable, SolrI
           }
         },
         OtelUnit.MEGABYTES);
+    // global ordinal maps of the doc values, shared by faceting, collapsing, export...
+    solrMetricsContext.observableLongGauge(
+        "solr.core.indexsearcher.ordinal_maps",
+        "Number of global ordinal maps built for the doc values fields",
+        obs -> {
+          final OrdinalMapCache ordinalMaps = getOrdinalMapCache();
+          if (ordinalMaps != null) {
+            obs.record(ordinalMaps.size(), baseAttributes);
+          }
+        });
+    solrMetricsContext.observableLongGauge(
+        "solr.core.indexsearcher.ordinal_maps.ram_used",
+        "Memory used by the global ordinal maps of the doc values fields",
+        obs -> {
+          final OrdinalMapCache ordinalMaps = getOrdinalMapCache();
+          if (ordinalMaps != null) {
+            obs.record(ordinalMaps.ramBytesUsed(), baseAttributes);
+          }
+        },
+        OtelUnit.BYTES);
   }
 
   public long getWarmupTime() {
@@ -1340,7 +1340,9 @@ public abstract class ValueSourceParser implements NamedListInitializedPlugin {
                   "expected percentile(valsource,percent1[,percent2]*)  EXAMPLE:percentile(myfield,50)");
             }
 
-            return new PercentileAgg(vs, percentiles);
+            PercentileAgg agg = new PercentileAgg(vs, percentiles);
+            agg.setOpts(fp);
+            return agg;
           }
         });
 
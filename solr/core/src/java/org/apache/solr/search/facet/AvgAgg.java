@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
@@ -49,6 +50,9 @@ public class AvgAgg extends SimpleAggValueSource {
       if (sf.multiValued() || sf.getType().multiValuedFieldCache()) {
         if (sf.hasDocValues()) {
           if (sf.getType().isPointField()) {
+            if (SlotAcc.isSparse(fcontext, numSlots)) {
+              return new SparseAvgAcc(fcontext, sf);
+            }
             return new AvgSortedNumericAcc(fcontext, sf, numSlots);
           }
           return new AvgSortedSetAcc(fcontext, sf, numSlots);
@@ -62,6 +66,9 @@ public class AvgAgg extends SimpleAggValueSource {
       }
       vs = sf.getType().getValueSource(sf, null);
     }
+    if (SlotAcc.isSparse(fcontext, numSlots)) {
+      return new SparseAvgAcc(fcontext, vs);
+    }
     return new SlotAcc.AvgSlotAcc(vs, fcontext, numSlots);
   }
 
@@ -89,6 +96,60 @@ public class AvgAgg extends SimpleAggValueSource {
     }
   }
 
+  static class SparseAvgAcc extends SparseNumericSlotAcc {
+    double[] result = new double[0];
+    int[] counts = new int[0];
+
+    public SparseAvgAcc(FacetContext fcontext, ValueSource vs) {
+      super(fcontext, vs);
+    }
+
+    public SparseAvgAcc(FacetContext fcontext, SchemaField sf) {
+      super(fcontext, sf);
+    }
+
+    @Override
+    protected void grow(int numEntries) {
+      result = ArrayUtil.grow(result, numEntries);
+      counts = ArrayUtil.grow(counts, numEntries);
+    }
+
+    @Override
+    protected void collectValue(int entry, double val) {
+      result[entry] += val;
+      counts[entry]++;
+    }
+
+    @Override
+    protected void clear(int numEntries) {
+      Arrays.fill(result, 0, numEntries, 0);
+      Arrays.fill(counts, 0, numEntries, 0);
+    }
+
+    private double avg(int slot) {
+      final int entry = slots.find(slot);
+      return entry < 0 ? AggUtil.avg(0, 0) : AggUtil.avg(result[entry], counts[entry]);
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return Double.compare(avg(slotA), avg(slotB));
+    }
+
+    @Override
+    public Object getValue(int slot) {
+      if (fcontext.isShard()) {
+        final int entry = slots.find(slot);
+        ArrayList<Number> lst = new ArrayList<>(2);
+        lst.add(entry < 0 ? 0 : counts[entry]);
+        lst.add(entry < 0 ? 0.0 : result[entry]);
+        return lst;
+      } else {
+        return avg(slot);
+      }
+    }
+  }
+
   static class AvgSortedNumericAcc extends DocValuesAcc.DoubleSortedNumericDVAcc {
     int[] counts;
 
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+
+/**
+ * A DDSketch (Masson et al.): values are counted in buckets whose bounds grow geometrically by
+ * <code>gamma = (1 + accuracy) / (1 - accuracy)</code>, so that any quantile is estimated within
+ * <code>accuracy</code> of the true value, relative to it. Merging two sketches of the same accuracy
+ * adds up their bucket counts and loses nothing.
+ *
+ * <p>At most <code>maxBuckets</code> buckets are kept for positive values, and as many for negative
+ * ones: past that, the buckets of the values closest to zero are collapsed, which only costs accuracy
+ * for those values.
+ */
+final class DDSketch implements PercentileSketch {
+  static final int DEFAULT_MAX_BUCKETS = 2048;
+
+  private final double accuracy;
+  private final double gamma;
+  private final double logGamma;
+  private final Store positives;
+  private final Store negatives; // by the index of the absolute value
+  private long zeroCount;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  DDSketch(double accuracy) {
+    this(accuracy, DEFAULT_MAX_BUCKETS);
+  }
+
+  DDSketch(double accuracy, int maxBuckets) {
+    if (!(accuracy > 0 && accuracy < 1)) {
+      throw new IllegalArgumentException("accuracy must be between 0 and 1 but got " + accuracy);
+    }
+    this.accuracy = accuracy;
+    this.gamma = (1 + accuracy) / (1 - accuracy);
+    this.logGamma = Math.log(gamma);
+    this.positives = new Store(maxBuckets);
+    this.negatives = new Store(maxBuckets);
+  }
+
+  double accuracy() {
+    return accuracy;
+  }
+
+  long count() {
+    return zeroCount + positives.total + negatives.total;
+  }
+
+  @Override
+  public void add(double value) {
+    add(value, 1);
+  }
+
+  private void add(double value, long count) {
+    if (value >= Double.MIN_NORMAL) {
+      positives.add(index(value), count);
+    } else if (value <= -Double.MIN_NORMAL) {
+      negatives.add(index(-value), count);
+    } else {
+      zeroCount += count;
+    }
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  private int index(double value) {
+    return (int) Math.ceil(Math.log(value) / logGamma);
+  }
+
+  /** The value that stands for the values counted in a bucket, within accuracy of all of them */
+  private double value(int index) {
+    return 2 * Math.pow(gamma, index) / (gamma + 1);
+  }
+
+  @Override
+  public double quantile(double q) {
+    final long count = count();
+    if (count == 0) {
+      return Double.NaN;
+    }
+    if (q <= 0) {
+      return min;
+    }
+    if (q >= 1) {
+      return max;
+    }
+
+    final long rank = (long) (q * (count - 1));
+    long seen = 0;
+    // from the most negative values to the most positive ones
+    for (int i = negatives.maxIndex; negatives.total > 0 && i >= negatives.minIndex; i--) {
+      seen += negatives.count(i);
+      if (seen > rank) {
+        return clamp(-value(i));
+      }
+    }
+    seen += zeroCount;
+    if (seen > rank) {
+      return 0;
+    }
+    for (int i = positives.minIndex; positives.total > 0 && i <= positives.maxIndex; i++) {
+      seen += positives.count(i);
+      if (seen > rank) {
+        return clamp(value(i));
+      }
+    }
+    return max;
+  }
+
+  private double clamp(double value) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  @Override
+  public void merge(PercentileSketch sketch) {
+    final DDSketch other = (DDSketch) sketch;
+    if (other.gamma != gamma) {
+      throw new IllegalArgumentException("Can't merge sketches of different accuracies");
+    }
+    positives.merge(other.positives);
+    negatives.merge(other.negatives);
+    zeroCount += other.zeroCount;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  @Override
+  public byte[] toBytes() {
+    final ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+    try {
+      out.writeLong(Double.doubleToLongBits(accuracy));
+      out.writeVInt(positives.maxBuckets);
+      out.writeLong(Double.doubleToLongBits(min));
+      out.writeLong(Double.doubleToLongBits(max));
+      out.writeVLong(zeroCount);
+      positives.write(out);
+      negatives.write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // can't happen: writing to memory
+    }
+    return out.toArrayCopy();
+  }
+
+  static DDSketch fromBytes(byte[] bytes) {
+    final ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+    try {
+      final DDSketch sketch = new DDSketch(Double.longBitsToDouble(in.readLong()), in.readVInt());
+      sketch.min = Double.longBitsToDouble(in.readLong());
+      sketch.max = Double.longBitsToDouble(in.readLong());
+      sketch.zeroCount = in.readVLong();
+      sketch.positives.read(in);
+      sketch.negatives.read(in);
+      return sketch;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // can't happen: reading from memory
+    }
+  }
+
+  /** The counts of the buckets of a contiguous range of indexes */
+  private static final class Store {
+    private static final int PAD = 32; // extra buckets allocated on each side
+
+    final int maxBuckets;
+    long[] counts; // counts[i] is the count of index offset + i
+    int offset;
+    int minIndex;
+    int maxIndex;
+    long total;
+
+    Store(int maxBuckets) {
+      this.maxBuckets = maxBuckets;
+    }
+
+    long count(int index) {
+      return counts[index - offset];
+    }
+
+    void add(int index, long count) {
+      if (total == 0) {
+        counts = new long[2 * PAD + 1];
+        offset = index - PAD;
+        minIndex = maxIndex = index;
+      } else if (index < minIndex || index > maxIndex) {
+        final int newMax = Math.max(index, maxIndex);
+        // collapse the lowest buckets if there are too many
+        final int newMin = Math.max(Math.min(index, minIndex), newMax - maxBuckets + 1);
+        setRange(newMin, newMax);
+        index = Math.max(index, newMin);
+      }
+      counts[index - offset] += count;
+      total += count;
+    }
+
+    private void setRange(int newMin, int newMax) {
+      long collapsed = 0;
+      for (int i = minIndex; i < newMin && i <= maxIndex; i++) {
+        collapsed += counts[i - offset];
+        counts[i - offset] = 0;
+      }
+      if (newMin < offset || newMax >= offset + counts.length) {
+        final long[] newCounts = new long[newMax - newMin + 1 + 2 * PAD];
+        final int newOffset = newMin - PAD;
+        final int from = Math.max(minIndex, newMin);
+        if (from <= maxIndex) {
+          System.arraycopy(counts, from - offset, newCounts, from - newOffset, maxIndex - from + 1);
+        }
+        counts = newCounts;
+        offset = newOffset;
+      }
+      counts[newMin - offset] += collapsed;
+      minIndex = newMin;
+      maxIndex = newMax;
+    }
+
+    void merge(Store other) {
+      if (other.total == 0) {
+        return;
+      }
+      for (int i = other.minIndex; i <= other.maxIndex; i++) {
+        final long count = other.count(i);
+        if (count != 0) {
+          add(i, count);
+        }
+      }
+    }
+
+    void write(ByteBuffersDataOutput out) throws IOException {
+      if (total == 0) {
+        out.writeVInt(0);
+        return;
+      }
+      out.writeVInt(maxIndex - minIndex + 1);
+      out.writeZInt(minIndex);
+      for (int i = minIndex; i <= maxIndex; i++) {
+        out.writeVLong(count(i));
+      }
+    }
+
+    void read(ByteArrayDataInput in) throws IOException {
+      final int numBuckets = in.readVInt();
+      if (numBuckets == 0) {
+        return;
+      }
+      final int first = in.readZInt();
+      for (int i = 0; i < numBuckets; i++) {
+        final long count = in.readVLong();
+        if (count != 0) {
+          add(first + i, count);
+        }
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.solr.search.facet;
 
+import java.util.List;
 import java.util.Map;
 import org.apache.lucene.search.Query;
 import org.apache.solr.request.SolrQueryRequest;
@@ -42,6 +43,7 @@ public class FacetContext {
   boolean cache = true;
   int flags;
   FacetDebugInfo debugInfo;
+  List<FacetRollup> rollups; // declared on the FacetModule
 
   public void setDebugInfo(FacetDebugInfo debugInfo) {
     this.debugInfo = debugInfo;
@@ -108,6 +110,7 @@ public class FacetContext {
     ctx.qcontext = qcontext;
     ctx.req = req;
     ctx.searcher = searcher;
+    ctx.rollups = rollups;
 
     return ctx;
   }
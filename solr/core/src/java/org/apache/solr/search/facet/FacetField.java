@@ -25,6 +25,7 @@ import org.apache.solr.schema.SchemaField;
 
 public class FacetField extends FacetRequestSorted {
   public static final int DEFAULT_FACET_LIMIT = 10;
+  public static final double DEFAULT_APPROX_ERROR = 0.001;
   String field;
   boolean missing;
   // show cumulative stats across all buckets (this can be different than non-bucketed stats across
@@ -34,6 +35,8 @@ public class FacetField extends FacetRequestSorted {
   String prefix;
   FacetMethod method;
   int cacheDf; // 0 means "default", -1 means "never cache"
+  // for method=approx, the error of a count as a fraction of the number of values counted
+  double approxError = DEFAULT_APPROX_ERROR;
 
   // experimental - force perSeg collection when using dv method, currently for testing purposes
   // only.
@@ -52,6 +55,7 @@ public class FacetField extends FacetRequestSorted {
     ENUM, // TermsEnum then intersect DocSet (stream-able)
     STREAM, // presently equivalent to ENUM
     SMART,
+    APPROX, // DocValues, count the heavy hitters of a SpaceSavingSketch (approximate counts)
     ;
 
     public static FacetMethod fromString(String method) {
@@ -69,6 +73,8 @@ public class FacetField extends FacetRequestSorted {
           return STREAM; // TODO replace with enum?
         case "smart":
           return SMART;
+        case "approx":
+          return APPROX;
         default:
           throw new SolrException(
               SolrException.ErrorCode.BAD_REQUEST, "Unknown FacetField method " + method);
@@ -111,6 +117,22 @@ public class FacetField extends FacetRequestSorted {
       }
     }
 
+    if (method == FacetMethod.APPROX) {
+      if (isNumber) {
+        throw new SolrException(
+            SolrException.ErrorCode.BAD_REQUEST,
+            "Numeric fields do not support facet method approx; try indexing as terms");
+      }
+      return new FacetFieldProcessorByApprox(fcontext, this, sf);
+    }
+
+    if (!isNumber) {
+      final FacetRollup rollup = FacetRollup.find(fcontext, this);
+      if (rollup != null) {
+        return new FacetFieldProcessorByRollup(fcontext, this, sf, rollup);
+      }
+    }
+
     // TODO auto-pick ENUM/STREAM SOLR-9351 when index asc and DocSet cardinality is *not* much
     // smaller than term cardinality
     if (method == FacetMethod.ENUM) { // at the moment these two are the same
@@ -175,6 +197,9 @@ public class FacetField extends FacetRequestSorted {
 
   @Override
   public FacetMerger createFacetMerger(Object prototype) {
+    if (method == FacetMethod.APPROX) {
+      return new FacetFieldApproxMerger(this);
+    }
     return new FacetFieldMerger(this);
   }
 
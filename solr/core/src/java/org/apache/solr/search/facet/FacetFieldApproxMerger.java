@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Merges the {@link SpaceSavingSketch} keys returned by each shard for a <code>method:approx</code>
+ * facet, without refinement. A value missing from the keys of a shard may still occur up to the
+ * <code>errorBound</code> of that shard, which is therefore added to both its count and its error.
+ */
+class FacetFieldApproxMerger extends FacetMerger {
+  private final FacetField freq;
+  private final Map<Object, Counter> counters = new HashMap<>();
+  private long errorBound; // sum of the error bounds of the shards
+
+  private static class Counter {
+    @SuppressWarnings("rawtypes")
+    final Comparable val;
+
+    long count;
+    long error;
+    long boundsCovered; // the error bounds of the shards that returned this value
+
+    @SuppressWarnings("rawtypes")
+    Counter(Comparable val) {
+      this.val = val;
+    }
+  }
+
+  FacetFieldApproxMerger(FacetField freq) {
+    this.freq = freq;
+  }
+
+  @Override
+  public void merge(Object facetResult, Context mcontext) {
+    final SimpleOrderedMap<?> result = (SimpleOrderedMap<?>) facetResult;
+    final long shardBound = getLong(result, "errorBound");
+    errorBound += shardBound;
+
+    @SuppressWarnings("unchecked")
+    final List<SimpleOrderedMap<?>> bucketList = (List<SimpleOrderedMap<?>>) result.get("buckets");
+    for (SimpleOrderedMap<?> bucket : bucketList) {
+      @SuppressWarnings("rawtypes")
+      final Comparable val = (Comparable) bucket.get("val");
+      final Counter counter = counters.computeIfAbsent(val, Counter::new);
+      counter.count += getLong(bucket, "count");
+      counter.error += getLong(bucket, "error");
+      counter.boundsCovered += shardBound;
+    }
+  }
+
+  private static long getLong(SimpleOrderedMap<?> map, String key) {
+    final Number number = (Number) map.get(key);
+    return number == null ? 0 : number.longValue();
+  }
+
+  @Override
+  public void finish(Context mcontext) {
+    // nothing to refine
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object getMergedResult() {
+    final List<Counter> sorted = new ArrayList<>(counters.size());
+    for (Counter counter : counters.values()) {
+      final long missing = errorBound - counter.boundsCovered;
+      counter.count += missing;
+      counter.error += missing;
+      counter.boundsCovered = errorBound;
+      sorted.add(counter);
+    }
+    sorted.sort(
+        (a, b) -> {
+          final int c = Long.compare(b.count, a.count);
+          return c == 0 ? a.val.compareTo(b.val) : c;
+        });
+
+    long off = freq.offset;
+    final List<SimpleOrderedMap<Object>> buckets = new ArrayList<>();
+    for (Counter counter : sorted) {
+      if (counter.count < freq.mincount || buckets.size() >= freq.limit) {
+        break;
+      }
+      if (off > 0) {
+        --off;
+        continue;
+      }
+      final SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+      bucket.add("val", counter.val);
+      bucket.add("count", counter.count);
+      bucket.add("error", counter.error);
+      buckets.add(bucket);
+    }
+
+    final SimpleOrderedMap<Object> result = new SimpleOrderedMap<>();
+    result.add("buckets", buckets);
+    result.add("errorBound", errorBound);
+    return result;
+  }
+}
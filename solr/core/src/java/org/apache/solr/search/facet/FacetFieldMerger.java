@@ -19,8 +19,11 @@ package org.apache.solr.search.facet;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import org.apache.solr.common.util.CollectionUtil;
 import org.apache.solr.common.util.SimpleOrderedMap;
 
@@ -37,6 +40,9 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
   // the number of buckets in the bucket lists returned from all of the shards
   int numReturnedBuckets;
 
+  // when streaming (see isStreaming), the bucket list of each shard, merged as they are written
+  List<ShardBuckets> shardBuckets;
+
   public FacetFieldMerger(FacetField freq) {
     super(freq);
   }
@@ -75,7 +81,16 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     List<SimpleOrderedMap<?>> bucketList = (List<SimpleOrderedMap<?>>) facetResult.get("buckets");
     numReturnedPerShard[mcontext.shardNum] = bucketList.size();
     numReturnedBuckets += bucketList.size();
-    mergeBucketList(bucketList, mcontext);
+    if (isStreaming(mcontext)) {
+      if (shardBuckets == null) {
+        shardBuckets = new ArrayList<>(mcontext.numShards);
+      }
+      if (!bucketList.isEmpty()) {
+        shardBuckets.add(new ShardBuckets(mcontext.shardNum, bucketList));
+      }
+    } else {
+      mergeBucketList(bucketList, mcontext);
+    }
 
     if (freq.numBuckets) {
       Object nb = facetResult.get("numBuckets");
@@ -88,8 +103,31 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     }
   }
 
+  /**
+   * Whether the buckets of all of the shards are wanted in index order, and can be merged as they
+   * are written out instead of up front: see {@link FacetField.FacetMethod#STREAM}. The shards
+   * return their buckets in index order, so a bucket is complete once every shard has returned a
+   * later value. The first <code>offset</code> merged buckets are skipped as they are merged.
+   */
+  private boolean isStreaming(Context mcontext) {
+    return (freq.method == FacetField.FacetMethod.STREAM
+            || freq.method == FacetField.FacetMethod.ENUM)
+        && freq.limit == -1
+        && freq.prelim_sort == null
+        && FacetRequest.FacetSort.INDEX_ASC.equals(freq.sort)
+        && !(freq.missing || freq.allBuckets || freq.numBuckets)
+        && !freq.doRefine()
+        && mcontext.getSubsWithRefinement(freq).isEmpty();
+  }
+
   @Override
   public Object getMergedResult() {
+    if (shardBuckets != null) {
+      SimpleOrderedMap<Object> result = new SimpleOrderedMap<>();
+      result.add("buckets", new BucketStream(shardBuckets, mcontext.numShards));
+      return result;
+    }
+
     SimpleOrderedMap<Object> result = new SimpleOrderedMap<>();
 
     if (numBuckets != null) {
@@ -190,4 +228,137 @@ public class FacetFieldMerger extends FacetRequestSortedMerger<FacetField> {
     }
     return refinement;
   }
+
+  /** The buckets returned by a shard, in index order */
+  private static class ShardBuckets {
+    final int shardNum;
+    final List<SimpleOrderedMap<?>> buckets;
+
+    ShardBuckets(int shardNum, List<SimpleOrderedMap<?>> buckets) {
+      this.shardNum = shardNum;
+      this.buckets = buckets;
+    }
+  }
+
+  /** The position of one iteration in the buckets of a shard */
+  private static class ShardCursor {
+    final ShardBuckets shard;
+    int pos;
+
+    ShardCursor(ShardBuckets shard) {
+      this.shard = shard;
+    }
+
+    @SuppressWarnings("rawtypes")
+    Comparable val() {
+      return (Comparable) shard.buckets.get(pos).get("val");
+    }
+
+    /** Returns the current bucket and moves to the next one */
+    SimpleOrderedMap<?> next() {
+      return shard.buckets.get(pos++);
+    }
+
+    boolean exhausted() {
+      return pos >= shard.buckets.size();
+    }
+  }
+
+  /**
+   * Merges the buckets of the shards with the same value as they are iterated, by a k-way merge of
+   * the shard bucket lists. Only the buckets of one value are merged at a time, so the merged
+   * buckets are never all in memory. Each iterator starts a new merge, so the buckets may be read
+   * before the response is written.
+   */
+  private class BucketStream implements Iterable<SimpleOrderedMap<Object>> {
+    private final List<ShardBuckets> shardBuckets;
+    private final int numShards;
+
+    BucketStream(List<ShardBuckets> shardBuckets, int numShards) {
+      this.shardBuckets = shardBuckets;
+      this.numShards = numShards;
+    }
+
+    @Override
+    public Iterator<SimpleOrderedMap<Object>> iterator() {
+      return new BucketIterator(shardBuckets, numShards);
+    }
+  }
+
+  private class BucketIterator implements Iterator<SimpleOrderedMap<Object>> {
+    private final PriorityQueue<ShardCursor> queue;
+    private final Context bucketContext; // reset for each value: buckets are never refined
+    private long toSkip = freq.offset;
+    private SimpleOrderedMap<Object> next;
+
+    BucketIterator(List<ShardBuckets> shardBuckets, int numShards) {
+      queue =
+          new PriorityQueue<>(
+              Math.max(1, shardBuckets.size()), (a, b) -> compareVals(a.val(), b.val()));
+      for (ShardBuckets shard : shardBuckets) {
+        queue.add(new ShardCursor(shard));
+      }
+      bucketContext = new Context(numShards);
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && !queue.isEmpty()) {
+        bucketContext.resetBuckets();
+        @SuppressWarnings("rawtypes")
+        final Comparable val = queue.peek().val();
+        final FacetBucket bucket = newBucket(val, bucketContext);
+        while (!queue.isEmpty() && compareVals(queue.peek().val(), val) == 0) {
+          final ShardCursor cursor = queue.poll();
+          bucketContext.shardNum = cursor.shard.shardNum;
+          bucket.mergeBucket(cursor.next(), bucketContext);
+          if (!cursor.exhausted()) {
+            queue.add(cursor);
+          }
+        }
+        if (bucket.getCount() < freq.mincount) {
+          continue;
+        }
+        if (toSkip > 0) {
+          --toSkip;
+          continue;
+        }
+        next = bucket.getMergedBucket();
+      }
+      return next != null;
+    }
+
+    @Override
+    public SimpleOrderedMap<Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final SimpleOrderedMap<Object> bucket = next;
+      next = null;
+      return bucket;
+    }
+  }
+
+  /**
+   * Compares bucket values in index order: strings are compared by code point, as the UTF-8 terms
+   * they come from.
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  static int compareVals(Comparable a, Comparable b) {
+    if (a instanceof String sa && b instanceof String sb) {
+      int i = 0;
+      int j = 0;
+      while (i < sa.length() && j < sb.length()) {
+        final int ca = sa.codePointAt(i);
+        final int cb = sb.codePointAt(j);
+        if (ca != cb) {
+          return Integer.compare(ca, cb);
+        }
+        i += Character.charCount(ca);
+        j += Character.charCount(cb);
+      }
+      return Integer.compare(sa.length() - i, sb.length() - j);
+    }
+    return a.compareTo(b);
+  }
 }
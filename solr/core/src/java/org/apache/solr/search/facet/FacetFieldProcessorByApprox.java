@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.schema.SchemaField;
+
+/**
+ * Counts the values of a string field with a {@link SpaceSavingSketch} on global ordinals for
+ * <code>method:approx</code>, instead of an array with a slot for every ordinal. Each bucket
+ * reports its estimated <code>count</code> and the <code>error</code> it may be over by, and the
+ * facet reports an <code>errorBound</code> on the count of any value.
+ *
+ * <p>A shard returns every key of its sketch, which {@link FacetFieldApproxMerger} merges in a
+ * single phase.
+ */
+class FacetFieldProcessorByApprox extends FacetFieldProcessor {
+  /** Upper bound on the number of keys a sketch monitors, whatever the requested error */
+  static final int MAX_CAPACITY = 1 << 20;
+
+  private SortedSetDocValues si;
+  private OrdinalMap ordinalMap;
+  private int startTermIndex;
+  private int endTermIndex;
+
+  FacetFieldProcessorByApprox(FacetContext fcontext, FacetField freq, SchemaField sf) {
+    super(fcontext, freq, sf);
+  }
+
+  /** The number of keys monitored for the requested error and page of buckets */
+  static int capacity(FacetField freq) {
+    final long capacity =
+        Math.max((long) Math.ceil(1.0 / freq.approxError), freq.offset + freq.limit);
+    return (int) Math.min(capacity, MAX_CAPACITY);
+  }
+
+  @Override
+  public void process() throws IOException {
+    super.process();
+
+    findStartAndEndOrds();
+    final SpaceSavingSketch sketch = new SpaceSavingSketch(capacity(freq));
+    if (endTermIndex > startTermIndex) {
+      collectDocs(sketch);
+    }
+
+    FacetDebugInfo debugInfo = fcontext.getDebugInfo();
+    if (debugInfo != null) {
+      debugInfo.putInfoItem("approxCapacity", (long) capacity(freq));
+      debugInfo.putInfoItem("approxTotal", sketch.total());
+    }
+
+    final Integer[] order = new Integer[sketch.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    // count desc, then index order
+    Arrays.sort(
+        order,
+        Comparator.<Integer>comparingLong(i -> -sketch.count(i))
+            .thenComparingInt(i -> sketch.key(i)));
+
+    // a shard returns the whole sketch: counts are only upper bounds until merged
+    final boolean isShard = fcontext.isShard();
+    long off = isShard ? 0 : freq.offset;
+    final long lim = isShard || freq.limit < 0 ? Long.MAX_VALUE : freq.limit;
+    final List<SimpleOrderedMap<Object>> buckets = new ArrayList<>();
+    for (Integer i : order) {
+      if (buckets.size() >= lim) {
+        break;
+      }
+      if (sketch.count(i) < effectiveMincount) {
+        break;
+      }
+      if (off > 0) {
+        --off;
+        continue;
+      }
+      final SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+      bucket.add("val", sf.getType().toObject(sf, si.lookupOrd(sketch.key(i))));
+      bucket.add("count", sketch.count(i));
+      bucket.add("error", sketch.error(i));
+      buckets.add(bucket);
+    }
+
+    response = new SimpleOrderedMap<>();
+    response.add("buckets", buckets);
+    response.add("errorBound", sketch.errorBound());
+  }
+
+  private void findStartAndEndOrds() throws IOException {
+    if (sf.multiValued() || sf.getType().multiValuedFieldCache()) {
+      si = FieldUtil.getSortedSetDocValues(fcontext.qcontext, sf, null);
+      if (si instanceof MultiDocValues.MultiSortedSetDocValues) {
+        ordinalMap = ((MultiDocValues.MultiSortedSetDocValues) si).mapping;
+      }
+    } else {
+      SortedDocValues single = FieldUtil.getSortedDocValues(fcontext.qcontext, sf, null);
+      si = DocValues.singleton(single);
+      if (single instanceof MultiDocValues.MultiSortedDocValues) {
+        ordinalMap = ((MultiDocValues.MultiSortedDocValues) single).mapping;
+      }
+    }
+
+    if (si.getValueCount() >= Integer.MAX_VALUE) {
+      throw new SolrException(
+          SolrException.ErrorCode.BAD_REQUEST,
+          "Field has too many unique values. field=" + sf + " nterms= " + si.getValueCount());
+    }
+
+    if (freq.prefix != null && !freq.prefix.isEmpty()) {
+      BytesRefBuilder prefixRef = new BytesRefBuilder();
+      prefixRef.copyChars(freq.prefix);
+      startTermIndex = (int) si.lookupTerm(prefixRef.get());
+      if (startTermIndex < 0) startTermIndex = -startTermIndex - 1;
+      prefixRef.append(UnicodeUtil.BIG_TERM);
+      endTermIndex = (int) si.lookupTerm(prefixRef.get());
+      assert endTermIndex < 0;
+      endTermIndex = -endTermIndex - 1;
+    } else {
+      startTermIndex = 0;
+      endTermIndex = (int) si.getValueCount();
+    }
+  }
+
+  private void collectDocs(SpaceSavingSketch sketch) throws IOException {
+    final boolean multiValued = sf.multiValued() || sf.getType().multiValuedFieldCache();
+    for (LeafReaderContext leaf : fcontext.searcher.getIndexReader().leaves()) {
+      final DocIdSetIterator disi = fcontext.base.iterator(leaf);
+      if (disi == null) {
+        continue;
+      }
+      final LongValues toGlobal = ordinalMap == null ? null : ordinalMap.getGlobalOrds(leaf.ord);
+
+      SortedDocValues singleDv = null;
+      SortedSetDocValues multiDv = null;
+      if (multiValued) {
+        multiDv = leaf.reader().getSortedSetDocValues(sf.getName());
+        if (multiDv == null) {
+          continue;
+        }
+        singleDv = DocValues.unwrapSingleton(multiDv);
+      } else {
+        singleDv = leaf.reader().getSortedDocValues(sf.getName());
+        if (singleDv == null) {
+          continue;
+        }
+      }
+
+      int doc;
+      while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (singleDv != null) {
+          if (singleDv.advanceExact(doc)) {
+            add(sketch, toGlobal, singleDv.ordValue());
+          }
+        } else if (multiDv.advanceExact(doc)) {
+          for (int o = 0; o < multiDv.docValueCount(); o++) {
+            add(sketch, toGlobal, multiDv.nextOrd());
+          }
+        }
+      }
+    }
+  }
+
+  private void add(SpaceSavingSketch sketch, LongValues toGlobal, long segOrd) {
+    final int ord = (int) (toGlobal == null ? segOrd : toGlobal.get(segOrd));
+    if (ord >= startTermIndex && ord < endTermIndex) {
+      sketch.add(ord);
+    }
+  }
+}
@@ -31,6 +31,8 @@ import org.apache.lucene.util.LongValues;
 import org.apache.lucene.util.UnicodeUtil;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.MultiThreadedSearcher;
 import org.apache.solr.search.facet.SlotAcc.CountSlotAcc;
 import org.apache.solr.search.facet.SlotAcc.SweepCountAccStruct;
 import org.apache.solr.search.facet.SlotAcc.SweepingCountSlotAcc;
@@ -130,6 +132,29 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
     if (freq.perSeg != null)
       accumSeg = canDoPerSeg && freq.perSeg; // internal - override perSeg heuristic
 
+    final int maxThreads =
+        fcontext.req == null ? 1 : MultiThreadedSearcher.getMaxThreads(fcontext.req.getParams());
+    if (canDoPerSeg
+        && others.isEmpty()
+        && maxThreads != 1
+        && si.getValueCount() <= MultiThreadedSearcher.MAX_SLICE_COUNT_ORDS) {
+      // count each slice of segments on its own thread, then merge the counts
+      final boolean perSeg = accumSeg;
+      final List<int[]> sliceCounts =
+          MultiThreadedSearcher.searchPerSlice(
+              fcontext.searcher, maxThreads, leaves -> countSlice(leaves, base.docSet, perSeg));
+      if (sliceCounts != null) {
+        for (int[] sliceCount : sliceCounts) {
+          for (int ord = 0; ord < sliceCount.length; ord++) {
+            if (sliceCount[ord] != 0) {
+              base.countAcc.incrementCount(ord, sliceCount[ord]);
+            }
+          }
+        }
+        return;
+      }
+    }
+
     final int maxSize = others.size() + 1; // others + base
     final List<LeafReaderContext> leaves = fcontext.searcher.getIndexReader().leaves();
     final DocIdSetIterator[] subIterators = new DocIdSetIterator[maxSize];
@@ -205,6 +230,74 @@ class FacetFieldProcessorByArrayDV extends FacetFieldProcessorByArray {
     Arrays.fill(reuse, null); // better GC
   }
 
+  /**
+   * Counts the docs of the given leaves by global ord into an array of its own; safe to call
+   * concurrently for distinct leaves. Only for counting the full range of ords.
+   */
+  private int[] countSlice(List<LeafReaderContext> leaves, DocSet docs, boolean perSeg)
+      throws IOException {
+    final int[] counts = new int[(int) si.getValueCount()];
+    for (LeafReaderContext subCtx : leaves) {
+      final DocIdSetIterator disi = docs.iterator(subCtx);
+      if (disi == null) {
+        continue;
+      }
+      final LongValues toGlobal = ordinalMap == null ? null : ordinalMap.getGlobalOrds(subCtx.ord);
+
+      SortedDocValues singleDv = null;
+      SortedSetDocValues multiDv = null;
+      if (multiValuedField) {
+        multiDv = subCtx.reader().getSortedSetDocValues(sf.getName());
+        if (multiDv == null) {
+          continue;
+        }
+        if (unwrap_singleValued_multiDv) {
+          singleDv = DocValues.unwrapSingleton(multiDv);
+        }
+      } else {
+        singleDv = subCtx.reader().getSortedDocValues(sf.getName());
+        if (singleDv == null) {
+          continue;
+        }
+      }
+
+      // with many hits per bucket, count by segment ord and map to global ords at the end
+      final int segMax =
+          (int) (singleDv != null ? singleDv.getValueCount() : multiDv.getValueCount());
+      final int[] segCounts = perSeg && toGlobal != null ? new int[segMax] : null;
+      int doc;
+      while ((doc = disi.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (singleDv != null) {
+          if (singleDv.advanceExact(doc)) {
+            final int segOrd = singleDv.ordValue();
+            if (segCounts != null) {
+              segCounts[segOrd]++;
+            } else {
+              counts[toGlobal == null ? segOrd : (int) toGlobal.get(segOrd)]++;
+            }
+          }
+        } else if (multiDv.advanceExact(doc)) {
+          for (int o = 0; o < multiDv.docValueCount(); o++) {
+            final int segOrd = (int) multiDv.nextOrd();
+            if (segCounts != null) {
+              segCounts[segOrd]++;
+            } else {
+              counts[toGlobal == null ? segOrd : (int) toGlobal.get(segOrd)]++;
+            }
+          }
+        }
+      }
+      if (segCounts != null) {
+        for (int segOrd = 0; segOrd < segMax; segOrd++) {
+          if (segCounts[segOrd] != 0) {
+            counts[(int) toGlobal.get(segOrd)] += segCounts[segOrd];
+          }
+        }
+      }
+    }
+    return counts;
+  }
+
   @Override
   protected BytesRef lookupOrd(int ord) throws IOException {
     return si.lookupOrd(ord);
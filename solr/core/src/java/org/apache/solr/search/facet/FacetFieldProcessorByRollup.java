@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.LongValues;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.facet.SlotAcc.CountSlotAcc;
+import org.apache.solr.search.function.FieldNameValueSource;
+
+/**
+ * Answers a <code>terms</code> facet from the per-segment {@link FacetRollup}s instead of the
+ * documents of the domain: the counts and metric sums of each segment ordinal are added to the slot
+ * of its global ordinal. Term lookups and ordinal mapping are those of {@link
+ * FacetFieldProcessorByArrayDV}.
+ */
+class FacetFieldProcessorByRollup extends FacetFieldProcessorByArrayDV {
+  private final FacetRollup rollup;
+
+  FacetFieldProcessorByRollup(
+      FacetContext fcontext, FacetField freq, SchemaField sf, FacetRollup rollup) {
+    super(fcontext, freq, sf);
+    this.rollup = rollup;
+  }
+
+  @Override
+  void createCollectAcc(int numDocs, int numSlots) throws IOException {
+    accMap = new LinkedHashMap<>();
+    // everything is computed from the rollups, nothing is left for a second phase
+    deferredAggs.clear();
+    countAcc = new SlotAcc.CountSlotArrAcc(fcontext, numSlots);
+
+    accs = new SlotAcc[freq.getFacetStats().size()];
+    int accIdx = 0;
+    for (Map.Entry<String, AggValueSource> entry : freq.getFacetStats().entrySet()) {
+      final AggValueSource agg = entry.getValue();
+      final String metric =
+          ((FieldNameValueSource) ((SimpleAggValueSource) agg).getArg()).getFieldName();
+      final RollupSlotAcc acc =
+          new RollupSlotAcc(fcontext, rollup.metricIndex(metric), agg instanceof AvgAgg, numSlots);
+      acc.key = entry.getKey();
+      accMap.put(acc.key, acc);
+      accs[accIdx++] = acc;
+    }
+    if (accs.length == 0) {
+      collectAcc = null;
+    } else if (accs.length == 1) {
+      collectAcc = accs[0];
+    } else {
+      collectAcc = new MultiAcc(fcontext, accs);
+    }
+
+    if ("count".equals(sort.sortVariable)) {
+      sortAcc = countAcc;
+    } else if ("index".equals(sort.sortVariable)) {
+      indexOrderAcc = new SlotAcc.SortSlotAcc(fcontext);
+      sortAcc = indexOrderAcc;
+    } else {
+      sortAcc = accMap.get(sort.sortVariable);
+    }
+    assert sortAcc != null;
+  }
+
+  @Override
+  protected void collectDocs() throws IOException {
+    if (nTerms <= 0) {
+      return;
+    }
+    FacetDebugInfo debugInfo = fcontext.getDebugInfo();
+    if (debugInfo != null) {
+      debugInfo.putInfoItem("rollup", rollup.getName());
+    }
+
+    final Query filterQuery = rollup.getFilterQuery(fcontext);
+    final List<RollupSlotAcc> rollupAccs = new ArrayList<>(accs.length);
+    for (SlotAcc acc : accs) {
+      rollupAccs.add((RollupSlotAcc) acc);
+    }
+    final CountSlotAcc counts = countAcc;
+
+    for (LeafReaderContext leaf : fcontext.searcher.getIndexReader().leaves()) {
+      if (leaf.reader().getSortedSetDocValues(sf.getName()) == null
+          && leaf.reader().getSortedDocValues(sf.getName()) == null) {
+        continue;
+      }
+      final FacetRollup.SegmentRollup segmentRollup =
+          rollup.getSegmentRollup(fcontext, leaf, filterQuery);
+      final LongValues toGlobal = ordinalMap == null ? null : ordinalMap.getGlobalOrds(leaf.ord);
+      for (int segOrd = 0; segOrd < segmentRollup.counts.length; segOrd++) {
+        final int count = segmentRollup.counts[segOrd];
+        if (count == 0) {
+          continue;
+        }
+        final int slot = (int) (toGlobal == null ? segOrd : toGlobal.get(segOrd)) - startTermIndex;
+        counts.incrementCount(slot, count);
+        for (RollupSlotAcc acc : rollupAccs) {
+          acc.add(
+              slot,
+              segmentRollup.sums[acc.metric][segOrd],
+              segmentRollup.valueCounts[acc.metric][segOrd]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Accumulates the sum (and number) of the values of a metric, formatted as {@link SumAgg} or
+   * {@link AvgAgg} would.
+   */
+  static final class RollupSlotAcc extends SlotAcc {
+    final int metric;
+    private final boolean avg;
+    private double[] sums;
+    private long[] counts;
+
+    RollupSlotAcc(FacetContext fcontext, int metric, boolean avg, int numSlots) {
+      super(fcontext);
+      this.metric = metric;
+      this.avg = avg;
+      this.sums = new double[numSlots];
+      this.counts = new long[numSlots];
+    }
+
+    void add(int slot, double sum, long count) {
+      sums[slot] += sum;
+      counts[slot] += count;
+    }
+
+    private double value(int slot) {
+      return avg ? AggUtil.avg(sums[slot], counts[slot]) : sums[slot];
+    }
+
+    @Override
+    public void collect(int doc, int slot, IntFunction<SlotContext> slotContext) {
+      // no-op: values come from the rollups
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return Double.compare(value(slotA), value(slotB));
+    }
+
+    @Override
+    public Object getValue(int slot) {
+      if (avg && fcontext.isShard()) {
+        ArrayList<Number> lst = new ArrayList<>(2);
+        lst.add(counts[slot]);
+        lst.add(sums[slot]);
+        return lst;
+      }
+      return value(slot);
+    }
+
+    @Override
+    public void reset() {
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+    }
+
+    @Override
+    public void resize(Resizer resizer) {
+      sums = resizer.resize(sums, 0);
+      counts = resizer.resize(counts, 0);
+    }
+  }
+}
@@ -73,6 +73,15 @@ public abstract class FacetMerger {
       return maxBucket++;
     }
 
+    /**
+     * Forgets the buckets numbered so far and which shards they were seen from; for merging
+     * buckets that are never refined.
+     */
+    void resetBuckets() {
+      maxBucket = 0;
+      sawShard.clear();
+    }
+
     public void setShardFlag(int bucketNum) {
       // rely on normal bitset expansion (uses a doubling strategy)
       sawShard.set(bucketNum * numShards + shardNum);
@@ -39,6 +39,7 @@ import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
 import org.apache.solr.handler.component.ShardResponse;
 import org.apache.solr.search.QueryContext;
+import org.apache.solr.search.SolrCache;
 import org.noggit.CharArr;
 import org.noggit.JSONWriter;
 
@@ -57,6 +58,19 @@ public class FacetModule extends SearchComponent {
   private static final String FACET_INFO = "_facet_";
   private static final String FACET_REFINE = "refine";
 
+  private List<FacetRollup> rollups = List.of();
+
+  @Override
+  public void init(NamedList<?> args) {
+    super.init(args);
+    rollups = FacetRollup.parse((NamedList<?>) args.get("rollups"));
+  }
+
+  /** The facet rollups declared in the <code>rollups</code> init arg of this component. */
+  public List<FacetRollup> getRollups() {
+    return rollups;
+  }
+
   public FacetComponentState getFacetComponentState(ResponseBuilder rb) {
     // TODO: put a map on ResponseBuilder?
     // rb.componentInfo.get(FacetComponentState.class);
@@ -134,6 +148,7 @@ public class FacetModule extends SearchComponent {
     fcontext.searcher = rb.req.getSearcher();
     fcontext.qcontext = QueryContext.newContext(fcontext.searcher);
     fcontext.cache = cache;
+    fcontext.rollups = rollups;
     if (isShard) {
       fcontext.flags |= FacetContext.IS_SHARD;
       fcontext.facetInfo =
@@ -153,7 +168,18 @@ public class FacetModule extends SearchComponent {
       rb.req.getContext().put("FacetDebugInfo", fdebug);
     }
 
-    Object results = facetState.facetRequest.process(fcontext);
+    SolrCache<FacetResultCache.Key, FacetResultCache.Entry> facetCache =
+        fcontext.searcher.getFacetCache();
+    // with group.truncate, the base is the group heads rather than the matches of the queries
+    boolean truncated = rb.grouping() && rb.getGroupingSpec().isTruncateGroups();
+    Object results;
+    if (facetCache != null && cache && !isShard && !rb.isDebug() && !truncated) {
+      results =
+          new FacetResultCache(facetCache, rb, facetState.facetCommands, facetState.facetRequest)
+              .process(fcontext);
+    } else {
+      results = facetState.facetRequest.process(fcontext);
+    }
     // ExitableDirectory timeout causes absent "facets"
     rb.rsp.add("facets", results);
   }
@@ -562,6 +562,10 @@ abstract class FacetParser<T extends FacetRequest> {
         facet.allBuckets = getBoolean(m, "allBuckets", facet.allBuckets);
         facet.method = FacetField.FacetMethod.fromString(getString(m, "method", null));
         facet.cacheDf = (int) getLong(m, "cacheDf", facet.cacheDf);
+        Double approxError = getDoubleOrNull(m, "approxError", false);
+        if (approxError != null) {
+          facet.approxError = approxError;
+        }
 
         // TODO: pull up to higher level?
         facet.refine = FacetRequest.RefineMethod.fromObj(m.get("refine"));
@@ -587,10 +591,40 @@ abstract class FacetParser<T extends FacetRequest> {
       if (null == facet.sort) {
         facet.sort = FacetRequest.FacetSort.COUNT_DESC;
       }
+      if (facet.method == FacetField.FacetMethod.APPROX) {
+        validateApprox();
+      }
 
       return facet;
     }
 
+    /**
+     * <code>method:approx</code> only estimates the counts of the top buckets: it can't compute
+     * stats, sub-facets or special buckets, nor sort on anything else, and its shard responses are
+     * merged without refinement.
+     */
+    private void validateApprox() {
+      if (!(facet.approxError > 0 && facet.approxError < 1)) {
+        throw err("approxError must be between 0 and 1 but got " + facet.approxError);
+      }
+      if (facet.limit < 0) {
+        throw err("method approx requires a limit");
+      }
+      if (!FacetRequest.FacetSort.COUNT_DESC.equals(facet.sort) || facet.prelim_sort != null) {
+        throw err("method approx only supports sort 'count desc'");
+      }
+      if (!facet.getFacetStats().isEmpty() || !facet.getSubFacets().isEmpty()) {
+        throw err("method approx does not support stats or sub-facets");
+      }
+      if (facet.missing || facet.allBuckets || facet.numBuckets) {
+        throw err("method approx does not support missing, allBuckets or numBuckets");
+      }
+      if (facet.doRefine()) {
+        throw err("method approx does not support refinement");
+      }
+      facet.refine = FacetRequest.RefineMethod.NONE;
+    }
+
     /**
      * Parses, validates and returns the {@link FacetRequest.FacetSort} for given sortParam and
      * facet field
@@ -48,6 +48,10 @@ class FacetRangeParser extends FacetParser<FacetRange> {
     facet.gap = getVal(m, "gap", required);
     facet.hardend = getBoolean(m, "hardend", facet.hardend);
     facet.mincount = getLong(m, "mincount", 0);
+    String method = getString(m, "method", null);
+    if (method != null) {
+      facet.method = FacetParams.FacetRangeMethod.get(method);
+    }
 
     // TODO: refactor list-of-options code
 
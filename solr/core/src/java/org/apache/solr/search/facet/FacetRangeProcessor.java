@@ -26,6 +26,8 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.NumericUtils;
 import org.apache.solr.common.EnumFieldValue;
@@ -39,6 +41,7 @@ import org.apache.solr.schema.EnumFieldType;
 import org.apache.solr.schema.EnumFieldType.EnumMapping;
 import org.apache.solr.schema.ExchangeRateProvider;
 import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.NumberType;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.schema.TrieDateField;
 import org.apache.solr.schema.TrieField;
@@ -527,12 +530,16 @@ class FacetRangeProcessor extends FacetProcessor<FacetRange> {
 
     createAccs(fcontext.base.size(), slotCount);
 
-    for (int idx = 0; idx < rangeList.size(); idx++) {
-      rangeStats(rangeList.get(idx), idx, hasSubFacets);
-    }
+    if (!hasSubFacets && useDocValues()) {
+      rangeStatsByDocValues();
+    } else {
+      for (int idx = 0; idx < rangeList.size(); idx++) {
+        rangeStats(rangeList.get(idx), idx, hasSubFacets);
+      }
 
-    for (int idx = 0; idx < otherList.size(); idx++) {
-      rangeStats(otherList.get(idx), rangeList.size() + idx, hasSubFacets);
+      for (int idx = 0; idx < otherList.size(); idx++) {
+        rangeStats(otherList.get(idx), rangeList.size() + idx, hasSubFacets);
+      }
     }
 
     final SimpleOrderedMap res = new SimpleOrderedMap<>();
@@ -569,28 +576,7 @@ class FacetRangeProcessor extends FacetProcessor<FacetRange> {
   private DocSet[] intersections;
 
   private void rangeStats(Range range, int slot, boolean hasSubFacets) throws IOException {
-    final Query rangeQ;
-    {
-      final Query rangeQuery =
-          sf.getType()
-              .getRangeQuery(
-                  null,
-                  sf,
-                  range.low == null ? null : calc.formatValue(range.low),
-                  range.high == null ? null : calc.formatValue(range.high),
-                  range.includeLower,
-                  range.includeUpper);
-      if (fcontext.cache) {
-        rangeQ = rangeQuery;
-      } else if (rangeQuery instanceof ExtendedQuery) {
-        ((ExtendedQuery) rangeQuery).setCache(false);
-        rangeQ = rangeQuery;
-      } else {
-        final WrappedQuery wrappedQuery = new WrappedQuery(rangeQuery);
-        wrappedQuery.setCache(false);
-        rangeQ = wrappedQuery;
-      }
-    }
+    final Query rangeQ = rangeQuery(range);
     // TODO: specialize count only
     DocSet intersection = fcontext.searcher.getDocSet(rangeQ, fcontext.base);
     if (hasSubFacets) {
@@ -609,6 +595,130 @@ class FacetRangeProcessor extends FacetProcessor<FacetRange> {
     countAcc.incrementCount(slot, num); // TODO: roll this into collect()
   }
 
+  private Query rangeQuery(Range range) {
+    final Query rangeQuery =
+        sf.getType()
+            .getRangeQuery(
+                null,
+                sf,
+                range.low == null ? null : calc.formatValue(range.low),
+                range.high == null ? null : calc.formatValue(range.high),
+                range.includeLower,
+                range.includeUpper);
+    if (fcontext.cache) {
+      return rangeQuery;
+    } else if (rangeQuery instanceof ExtendedQuery) {
+      ((ExtendedQuery) rangeQuery).setCache(false);
+      return rangeQuery;
+    } else {
+      final WrappedQuery wrappedQuery = new WrappedQuery(rangeQuery);
+      wrappedQuery.setCache(false);
+      return wrappedQuery;
+    }
+  }
+
+  /**
+   * Whether the ranges can be counted in a single pass over the doc values of the field, instead of
+   * with a range query each: the field must be a single valued point field with doc values.
+   */
+  private boolean useDocValues() {
+    return freq.method != FacetParams.FacetRangeMethod.FILTER
+        && sf.hasDocValues()
+        && !sf.multiValued()
+        && sf.getType().isPointField()
+        && sf.getType().getNumberType() != null;
+  }
+
+  /** Computes the stats of all the ranges with a {@link NumericRangeCounter} */
+  private void rangeStatsByDocValues() throws IOException {
+    final NumberType type = sf.getType().getNumberType();
+    final List<Range> allRanges = new ArrayList<>(rangeList);
+    allRanges.addAll(otherList);
+    final int numSlots = allRanges.size();
+    final long[] lows = new long[numSlots];
+    final long[] highs = new long[numSlots];
+    for (int slot = 0; slot < numSlots; slot++) {
+      final Range range = allRanges.get(slot);
+      lows[slot] = toSortableLong(type, range.low, Long.MIN_VALUE);
+      highs[slot] = toSortableLong(type, range.high, Long.MAX_VALUE);
+      if (range.low != null && !range.includeLower) {
+        if (lows[slot] == Long.MAX_VALUE) {
+          highs[slot] = lows[slot] - 1; // matches nothing
+        } else {
+          lows[slot]++;
+        }
+      }
+      if (range.high != null && !range.includeUpper) {
+        if (highs[slot] == Long.MIN_VALUE) {
+          lows[slot] = highs[slot] + 1; // matches nothing
+        } else {
+          highs[slot]--;
+        }
+      }
+    }
+
+    // the range queries are only built if an accumulator asks for them
+    final Query[] slotQueries = new Query[numSlots];
+    final IntFunction<SlotAcc.SlotContext> slotContext =
+        slotNum -> {
+          if (slotQueries[slotNum] == null) {
+            slotQueries[slotNum] = rangeQuery(allRanges.get(slotNum));
+          }
+          return new SlotAcc.SlotContext(slotQueries[slotNum]);
+        };
+    final NumericRangeCounter.RangeCollector collector =
+        accs.length == 0
+            ? null
+            : new NumericRangeCounter.RangeCollector() {
+              @Override
+              public void setNextReader(LeafReaderContext ctx) throws IOException {
+                FacetRangeProcessor.this.setNextReader(ctx);
+              }
+
+              @Override
+              public void collect(int segDoc, int[] ranges) throws IOException {
+                for (int slot : ranges) {
+                  FacetRangeProcessor.this.collect(segDoc, slot, slotContext);
+                }
+              }
+            };
+    final long[] counts =
+        new NumericRangeCounter(lows, highs)
+            .count(fcontext.searcher, fcontext.base, sf.getName(), type, collector);
+    for (int slot = 0; slot < numSlots; slot++) {
+      if (counts[slot] == 0) {
+        // let the accumulators know about the empty bucket, as collect(DocSet...) does
+        for (SlotAcc acc : accs) {
+          acc.collect(DocSet.empty(), slot, slotContext);
+        }
+      }
+      countAcc.incrementCount(slot, counts[slot]);
+    }
+  }
+
+  /** The sortable form of a range endpoint, as the doc values of the type are compared */
+  @SuppressWarnings({"rawtypes"})
+  private static long toSortableLong(NumberType type, Comparable value, long unbounded) {
+    switch (type) {
+      case FLOAT:
+        final float f =
+            value == null
+                ? (unbounded < 0 ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY)
+                : ((Number) value).floatValue();
+        return NumericUtils.floatToSortableInt(f);
+      case DOUBLE:
+        final double d =
+            value == null
+                ? (unbounded < 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY)
+                : ((Number) value).doubleValue();
+        return NumericUtils.doubleToSortableLong(d);
+      case DATE:
+        return value == null ? unbounded : ((Date) value).getTime();
+      default:
+        return value == null ? unbounded : ((Number) value).longValue();
+    }
+  }
+
   @SuppressWarnings({"unchecked", "rawtypes"})
   private void doSubs(SimpleOrderedMap bucket, int slot) throws IOException {
     // handle sub-facets for this bucket
@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import static org.apache.solr.response.SolrQueryResponse.haveCompleteResults;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QueryContext;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Caches the buckets of the top level <code>terms</code> facets of a request in the searcher's
+ * <code>facetCache</code>, keyed by the main query and filters (which determine the base domain)
+ * and by the facet specification without its <code>offset</code>, <code>limit</code> and <code>
+ * sort</code>.
+ *
+ * <p>On a miss the facet is computed from offset 0 with twice the requested window of buckets, so
+ * that the following pages are served from the cache. A cached entry is used for any page within
+ * its window in the same sort, and, when it holds all the buckets of a facet on a non numeric
+ * field, for any page sorted by <code>count</code> or <code>index</code>. Facets that depend on
+ * other request parameters (<code>$param</code> references, <code>excludeTags</code>), on the time
+ * of the request (<code>NOW</code>), or that use a <code>prelim_sort</code> or the <code>approx
+ * </code> method are not cached.
+ *
+ * <p>The base domain must be the documents matching the main query and filters: requests whose base
+ * is reduced to the heads of groups (<code>group.truncate</code>) are not served from this cache.
+ * The keys and entries are {@link Accountable}, so the cache can be bounded by <code>maxRamMB
+ * </code> as well as by <code>size</code>.
+ */
+public final class FacetResultCache {
+  private static final String BUCKETS = "buckets";
+
+  /** The key of a cached facet: the queries of the base domain, and the facet specification. */
+  public static final class Key implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(Key.class);
+
+    final List<Query> queries;
+    final Map<String, Object> spec;
+    private final int hash;
+
+    Key(List<Query> queries, Map<String, Object> spec) {
+      this.queries = queries;
+      this.spec = spec;
+      this.hash = 31 * queries.hashCode() + spec.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key other
+          && hash == other.hash
+          && queries.equals(other.queries)
+          && spec.equals(other.spec);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return "FacetResultCache.Key{queries=" + queries + ", spec=" + spec + '}';
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return BASE_RAM_BYTES_USED
+          + RamUsageEstimator.sizeOfObject(queries)
+          + RamUsageEstimator.sizeOfObject(spec);
+    }
+  }
+
+  /** The buckets of a facet computed from offset 0 with a given sort and limit. */
+  public static final class Entry implements Accountable {
+    private static final long BASE_RAM_BYTES_USED =
+        RamUsageEstimator.shallowSizeOfInstance(Entry.class);
+
+    final SimpleOrderedMap<Object> result;
+    final Object sortSpec; // as requested, to compute the facet again when warming
+    final FacetRequest.FacetSort sort;
+    final long window; // the limit the facet was computed with, -1 for all the buckets
+    final boolean complete;
+    private final long ramBytesUsed;
+
+    Entry(
+        SimpleOrderedMap<Object> result,
+        Object sortSpec,
+        FacetRequest.FacetSort sort,
+        long window) {
+      this.result = result;
+      this.sortSpec = sortSpec;
+      this.sort = sort;
+      this.window = window;
+      this.complete = window < 0 || buckets(result).size() < window;
+      this.ramBytesUsed =
+          BASE_RAM_BYTES_USED + sizeOfResult(result) + RamUsageEstimator.sizeOfObject(sortSpec);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return ramBytesUsed;
+    }
+
+    /**
+     * The requested page of buckets, or null if it can't be served from this entry.
+     *
+     * @param resortable if the buckets can be sorted again by count or index, which is only the
+     *     case when the facet breaks ties in count by index order
+     */
+    SimpleOrderedMap<Object> page(FacetField freq, boolean resortable) {
+      List<Object> buckets = buckets(result);
+      if (!sort.equals(freq.sort)) {
+        if (!complete || !resortable) return null;
+        if ("count".equals(freq.sort.sortVariable)) {
+          buckets = resort(buckets, freq.sort, true);
+        } else if ("index".equals(freq.sort.sortVariable)) {
+          buckets = resort(buckets, freq.sort, false);
+        } else {
+          return null;
+        }
+      } else if (!complete && (freq.limit < 0 || freq.offset + freq.limit > window)) {
+        return null;
+      }
+
+      int from = (int) Math.min(freq.offset, buckets.size());
+      int to =
+          freq.limit < 0
+              ? buckets.size()
+              : (int) Math.min(freq.offset + freq.limit, buckets.size());
+      SimpleOrderedMap<Object> page = new SimpleOrderedMap<>(result.size());
+      for (Map.Entry<String, Object> e : result) {
+        page.add(
+            e.getKey(),
+            BUCKETS.equals(e.getKey()) ? new ArrayList<>(buckets.subList(from, to)) : e.getValue());
+      }
+      return page;
+    }
+  }
+
+  private static final long NAMED_LIST_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(SimpleOrderedMap.class)
+          + RamUsageEstimator.shallowSizeOfInstance(ArrayList.class)
+          + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+  private static final long LIST_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(ArrayList.class)
+          + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+  /**
+   * Estimates the heap used by a facet result: its named lists and lists, and their values. The
+   * names are not counted, as they are shared by all the buckets.
+   */
+  private static long sizeOfResult(Object o) {
+    if (o instanceof NamedList<?> list) {
+      long size =
+          NAMED_LIST_RAM_BYTES_USED + 2L * RamUsageEstimator.NUM_BYTES_OBJECT_REF * list.size();
+      for (int i = 0; i < list.size(); i++) {
+        size += sizeOfResult(list.getVal(i));
+      }
+      return size;
+    } else if (o instanceof List<?> list) {
+      long size = LIST_RAM_BYTES_USED + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * list.size();
+      for (Object value : list) {
+        size += sizeOfResult(value);
+      }
+      return size;
+    } else if (o instanceof String s) {
+      return RamUsageEstimator.sizeOf(s);
+    }
+    return o == null ? 0 : RamUsageEstimator.shallowSizeOf(o);
+  }
+
+  @SuppressWarnings({"unchecked"})
+  private static List<Object> buckets(SimpleOrderedMap<Object> result) {
+    List<Object> buckets = (List<Object>) result.get(BUCKETS);
+    return buckets == null ? List.of() : buckets;
+  }
+
+  /** Sorts like {@link FacetFieldProcessor}: ties in count are broken by ascending index order */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static List<Object> resort(
+      List<Object> buckets, FacetRequest.FacetSort sort, boolean byCount) {
+    Comparator<Object> byIndex =
+        (a, b) ->
+            ((Comparable) ((SimpleOrderedMap<Object>) a).get("val"))
+                .compareTo(((SimpleOrderedMap<Object>) b).get("val"));
+    List<Object> sorted = new ArrayList<>(buckets);
+    if (byCount) {
+      sorted.sort(byIndex);
+      Comparator<Object> byCountAsc =
+          Comparator.comparingLong(
+              b -> ((Number) ((SimpleOrderedMap<Object>) b).get("count")).longValue());
+      sorted.sort(
+          sort.sortDirection == FacetRequest.SortDirection.asc
+              ? byCountAsc
+              : byCountAsc.reversed());
+    } else {
+      sorted.sort(
+          sort.sortDirection == FacetRequest.SortDirection.asc ? byIndex : byIndex.reversed());
+    }
+    return sorted;
+  }
+
+  private final SolrCache<Key, Entry> cache;
+  private final ResponseBuilder rb;
+  private final Map<String, Object> facetCommands;
+  private final FacetRequest facetRequest;
+
+  FacetResultCache(
+      SolrCache<Key, Entry> cache,
+      ResponseBuilder rb,
+      Map<String, Object> facetCommands,
+      FacetRequest facetRequest) {
+    this.cache = cache;
+    this.rb = rb;
+    this.facetCommands = facetCommands;
+    this.facetRequest = facetRequest;
+  }
+
+  /**
+   * Computes the top level facets of the request, serving those it can from the cache, and caches
+   * the others that it can.
+   */
+  @SuppressWarnings({"unchecked"})
+  Object process(FacetContext fcontext) throws IOException {
+    if (fcontext.base.size() == 0) {
+      // cheap, and the empty domain may drop facets depending on processEmpty
+      return facetRequest.process(fcontext);
+    }
+
+    List<Query> queries = new ArrayList<>();
+    queries.add(rb.getQuery());
+    if (rb.getFilters() != null) {
+      queries.addAll(rb.getFilters());
+    }
+
+    Map<String, SimpleOrderedMap<Object>> hits = new HashMap<>();
+    Map<String, Key> misses = new HashMap<>();
+    Map<String, Object> remaining = new LinkedHashMap<>();
+    for (Map.Entry<String, Object> command : facetCommands.entrySet()) {
+      String name = command.getKey();
+      FacetRequest freq = facetRequest.getSubFacets().get(name);
+      Map<String, Object> args =
+          freq instanceof FacetField ? cacheableArgs(command.getValue()) : null;
+      if (args == null) {
+        remaining.put(name, command.getValue());
+        continue;
+      }
+      FacetField field = (FacetField) freq;
+      Key key = new Key(queries, specOf(args));
+      Entry entry = cache.get(key);
+      SimpleOrderedMap<Object> page =
+          entry == null ? null : entry.page(field, isResortable(fcontext, field));
+      if (page != null) {
+        hits.put(name, page);
+      } else {
+        misses.put(name, key);
+        remaining.put(name, widen(args, args.get("sort"), window(field)));
+      }
+    }
+
+    if (hits.isEmpty() && misses.isEmpty()) {
+      return facetRequest.process(fcontext);
+    }
+
+    SimpleOrderedMap<Object> processed =
+        (SimpleOrderedMap<Object>) FacetRequest.parse(rb.req, remaining).process(fcontext);
+    boolean complete = haveCompleteResults(rb.rsp.getResponseHeader());
+
+    // the count and the stats of the root bucket, followed by the facets in the requested order
+    Map<String, FacetRequest> subFacets = facetRequest.getSubFacets();
+    SimpleOrderedMap<Object> results = new SimpleOrderedMap<>();
+    for (Map.Entry<String, Object> e : processed) {
+      if (!subFacets.containsKey(e.getKey())) {
+        results.add(e.getKey(), e.getValue());
+      }
+    }
+    for (Map.Entry<String, FacetRequest> sub : subFacets.entrySet()) {
+      String name = sub.getKey();
+      Object result = hits.get(name);
+      if (result == null) {
+        result = processed.get(name);
+        Key key = misses.get(name);
+        if (key != null && result != null) {
+          FacetField freq = (FacetField) sub.getValue();
+          Entry entry =
+              new Entry(
+                  (SimpleOrderedMap<Object>) result,
+                  cacheableArgs(facetCommands.get(name)).get("sort"),
+                  freq.sort,
+                  window(freq));
+          if (complete) {
+            cache.put(key, entry);
+          }
+          result = entry.page(freq, false);
+        }
+      }
+      if (result != null) {
+        results.add(name, result);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Single valued numeric fields are counted in hash tables, where buckets of the same count are
+   * not in index order.
+   */
+  private static boolean isResortable(FacetContext fcontext, FacetField freq) {
+    SchemaField sf = fcontext.searcher.getSchema().getFieldOrNull(freq.field);
+    return sf != null && sf.getType().getNumberType() == null;
+  }
+
+  /** The number of buckets to compute for a request: twice its window, or all of them. */
+  private static long window(FacetField freq) {
+    if (freq.limit < 0) return -1;
+    long window = 2 * (freq.offset + freq.limit);
+    return window < 0 ? -1 : window; // overflow
+  }
+
+  /**
+   * The arguments of a <code>terms</code> facet that can be cached, or null if the facet is of
+   * another type or depends on something other than the base domain and its own specification.
+   */
+  @SuppressWarnings({"unchecked"})
+  static Map<String, Object> cacheableArgs(Object command) {
+    if (!(command instanceof Map)) return null;
+    Map<String, Object> m = (Map<String, Object>) command;
+    Object type;
+    Object args;
+    if (m.size() == 1) {
+      Map.Entry<String, Object> entry = m.entrySet().iterator().next();
+      type = entry.getKey();
+      args = entry.getValue();
+    } else {
+      type = m.get("type");
+      args = m;
+    }
+    if (!("terms".equals(type) || "field".equals(type)) || !(args instanceof Map)) return null;
+    Map<String, Object> argsMap = (Map<String, Object>) args;
+    if (argsMap.containsKey("prelim_sort")
+        || "approx".equals(argsMap.get("method"))
+        || !isDeterministic(argsMap)) {
+      return null;
+    }
+    return argsMap;
+  }
+
+  private static boolean isDeterministic(Object spec) {
+    if (spec instanceof String s) {
+      return s.indexOf('$') < 0 && !s.contains("NOW");
+    } else if (spec instanceof Map<?, ?> m) {
+      for (Map.Entry<?, ?> e : m.entrySet()) {
+        if ("excludeTags".equals(e.getKey()) || "param".equals(e.getKey())) return false;
+        if (!isDeterministic(e.getValue())) return false;
+      }
+    } else if (spec instanceof Collection<?> c) {
+      for (Object o : c) {
+        if (!isDeterministic(o)) return false;
+      }
+    }
+    return true;
+  }
+
+  private static Map<String, Object> specOf(Map<String, Object> args) {
+    Map<String, Object> spec = new HashMap<>(args);
+    spec.remove("type");
+    spec.remove("offset");
+    spec.remove("limit");
+    spec.remove("sort");
+    return spec;
+  }
+
+  private static Map<String, Object> widen(Map<String, Object> spec, Object sort, long window) {
+    Map<String, Object> widened = new LinkedHashMap<>(spec);
+    widened.put("type", "terms");
+    widened.put("offset", 0L);
+    widened.put("limit", window);
+    if (sort == null) {
+      widened.remove("sort");
+    } else {
+      widened.put("sort", sort);
+    }
+    return widened;
+  }
+
+  /**
+   * Computes a cached facet again on a new searcher, with the sort and limit it was computed with
+   * on the old one. Called by the regenerator of the <code>facetCache</code> while warming.
+   */
+  @SuppressWarnings({"unchecked"})
+  public static void regenerate(SolrIndexSearcher newSearcher, Key key, Entry entry)
+      throws IOException {
+    SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+    SolrCache<Key, Entry> cache = newSearcher.getFacetCache();
+    if (requestInfo == null || cache == null) return;
+    SolrQueryRequest req = requestInfo.getReq();
+
+    DocSet base = newSearcher.getDocSet(key.queries);
+    if (base.size() == 0) return;
+
+    String name = "facet";
+    FacetRequest freq =
+        FacetRequest.parse(req, Map.of(name, widen(key.spec, entry.sortSpec, entry.window)));
+    FacetContext fcontext = new FacetContext();
+    fcontext.base = base;
+    fcontext.req = req;
+    fcontext.searcher = newSearcher;
+    fcontext.qcontext = QueryContext.newContext(newSearcher);
+    fcontext.rollups = List.of();
+    SimpleOrderedMap<Object> results = (SimpleOrderedMap<Object>) freq.process(fcontext);
+    Object result = results.get(name);
+    if (result != null) {
+      cache.put(
+          key,
+          new Entry((SimpleOrderedMap<Object>) result, entry.sortSpec, entry.sort, entry.window));
+    }
+  }
+}
@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QueryUtils;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.search.function.FieldNameValueSource;
+
+/**
+ * A materialized <code>terms</code> facet: per-bucket document counts, and sums and value counts of
+ * some numeric fields, for the documents of each segment (optionally only those matching a filter).
+ * Rollups are declared on the {@link FacetModule}:
+ *
+ * <pre class="prettyprint">
+ * &lt;searchComponent name="facet_module" class="org.apache.solr.search.facet.FacetModule"&gt;
+ *   &lt;lst name="rollups"&gt;
+ *     &lt;lst name="byCategory"&gt;
+ *       &lt;str name="field"&gt;cat_s&lt;/str&gt;
+ *       &lt;arr name="metrics"&gt;&lt;str&gt;price_d&lt;/str&gt;&lt;/arr&gt;
+ *       &lt;str name="filter"&gt;inStock_b:true&lt;/str&gt;
+ *     &lt;/lst&gt;
+ *   &lt;/lst&gt;
+ * &lt;/searchComponent&gt;
+ * </pre>
+ *
+ * <p>The rollup of a segment is built the first time it is needed and reused by all the searchers
+ * over the same segment (with the same deletions), so that after a commit only new, merged, or
+ * modified segments are rolled up again. The filter is parsed for each request, and a segment is
+ * rolled up again when it parses to another query (e.g. with date math on <code>NOW</code>). A
+ * <code>terms</code> facet on the field is answered from the rollups (see {@link
+ * FacetFieldProcessorByRollup}) when its domain is exactly the documents the rollup covers (e.g.
+ * <code>q=*:*</code>, plus the rollup's filter if it has one and it is in the filterCache, as
+ * when it is also a filter query of the request), when it only
+ * computes <code>sum</code> and <code>avg</code> of the metric fields, and when it doesn't need
+ * anything else computed per document (sub-facets, <code>missing</code>, <code>allBuckets</code>,
+ * <code>prefix</code>, domain changes, refinement...). An explicit <code>method</code> other than
+ * <code>smart</code> disables rollups. Other facet requests are counted as usual.
+ */
+public class FacetRollup {
+
+  private final String name;
+  private final String field;
+  private final List<String> metrics;
+  private final String filter;
+
+  // by segment core: a segment keeps a single rollup, of its latest deletions and filter
+  private final Map<IndexReader.CacheKey, SegmentRollup> segments = new ConcurrentHashMap<>();
+  private final Set<IndexReader.CacheKey> registeredCores = ConcurrentHashMap.newKeySet();
+  private final IndexReader.ClosedListener purge = this::purge;
+
+  FacetRollup(String name, String field, List<String> metrics, String filter) {
+    this.name = name;
+    this.field = field;
+    this.metrics = metrics;
+    this.filter = filter;
+  }
+
+  /**
+   * Parses the rollups declared in the <code>rollups</code> init arg of the {@link FacetModule}.
+   */
+  static List<FacetRollup> parse(NamedList<?> rollupsArg) {
+    if (rollupsArg == null) {
+      return Collections.emptyList();
+    }
+    final List<FacetRollup> rollups = new ArrayList<>(rollupsArg.size());
+    for (Map.Entry<String, ?> entry : rollupsArg) {
+      if (!(entry.getValue() instanceof NamedList<?> args)) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "Facet rollup '" + entry.getKey() + "' must be a <lst>");
+      }
+      final Object field = args.get("field");
+      if (!(field instanceof String)) {
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "Facet rollup '" + entry.getKey() + "' requires a 'field'");
+      }
+      final List<String> metrics = new ArrayList<>();
+      for (Object metric : args.getAll("metrics")) {
+        if (metric instanceof List<?> list) {
+          list.forEach(m -> metrics.add(m.toString()));
+        } else {
+          metrics.add(metric.toString());
+        }
+      }
+      final Object filter = args.get("filter");
+      rollups.add(
+          new FacetRollup(
+              entry.getKey(),
+              (String) field,
+              Collections.unmodifiableList(metrics),
+              filter == null ? null : filter.toString()));
+    }
+    return Collections.unmodifiableList(rollups);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  String getField() {
+    return field;
+  }
+
+  /** Returns the index of the metric field, or -1 if it isn't rolled up. */
+  int metricIndex(String metricField) {
+    return metrics.indexOf(metricField);
+  }
+
+  /** Returns the rollup that can answer this facet request, or null. */
+  static FacetRollup find(FacetContext fcontext, FacetField freq) {
+    if (fcontext.rollups == null
+        || fcontext.rollups.isEmpty()
+        || !isRollupRequest(fcontext, freq)) {
+      return null;
+    }
+    for (FacetRollup rollup : fcontext.rollups) {
+      if (rollup.field.equals(freq.field)
+          && rollup.coversStats(freq)
+          && rollup.hasSupportedFields(fcontext.searcher.getSchema())
+          && rollup.coversDomain(fcontext, rollup.getFilterQuery(fcontext))) {
+        return rollup;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isRollupRequest(FacetContext fcontext, FacetField freq) {
+    return fcontext.facetInfo == null
+        && (fcontext.flags & FacetContext.IS_REFINEMENT) == 0
+        && (freq.method == null || freq.method == FacetField.FacetMethod.SMART)
+        && freq.domain == null
+        && freq.subFacets.isEmpty()
+        && freq.prelim_sort == null
+        && (freq.prefix == null || freq.prefix.isEmpty())
+        && !freq.missing
+        && !freq.allBuckets
+        && !(freq.numBuckets && fcontext.isShard());
+  }
+
+  private boolean coversStats(FacetField freq) {
+    for (AggValueSource agg : freq.getFacetStats().values()) {
+      if (!(agg instanceof SumAgg || agg instanceof AvgAgg)
+          || !(((SimpleAggValueSource) agg).getArg() instanceof FieldNameValueSource arg)
+          || metricIndex(arg.getFieldName()) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean hasSupportedFields(IndexSchema schema) {
+    final SchemaField sf = schema.getFieldOrNull(field);
+    if (sf == null || !(sf.hasDocValues() || sf.isUninvertible())) {
+      return false;
+    }
+    for (String metric : metrics) {
+      final SchemaField metricSf = schema.getFieldOrNull(metric);
+      if (metricSf == null
+          || metricSf.getType().getNumberType() == null
+          || (isMultiValued(metricSf)
+              && !(metricSf.hasDocValues() && metricSf.getType().isPointField()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether the domain of the facet is exactly the (live) documents rolled up. The domain is only
+   * compared with the filter's set if it is cached, since computing the set would cost about as
+   * much as counting the domain.
+   */
+  private boolean coversDomain(FacetContext fcontext, Query filterQuery) {
+    final DocSet base = fcontext.base;
+    if (filterQuery == null) {
+      return base.size() == fcontext.searcher.numDocs();
+    }
+    final SolrCache<Query, DocSet> filterCache = fcontext.searcher.getFilterCache();
+    final DocSet filterSet = filterCache == null ? null : filterCache.get(filterQuery);
+    if (filterSet == null) {
+      return false;
+    }
+    return base == filterSet
+        || (base.size() == filterSet.size() && base.intersectionSize(filterSet) == base.size());
+  }
+
+  Query getFilterQuery(FacetContext fcontext) {
+    if (filter == null) {
+      return null;
+    }
+    try {
+      return QParser.getParser(filter, fcontext.req).getQuery();
+    } catch (SyntaxError e) {
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR,
+          "Invalid filter of facet rollup '" + name + "': " + filter,
+          e);
+    }
+  }
+
+  /**
+   * Returns the rollup of this segment with its current deletions and the given filter, rolling it
+   * up if it wasn't yet.
+   */
+  SegmentRollup getSegmentRollup(FacetContext fcontext, LeafReaderContext leaf, Query filterQuery)
+      throws IOException {
+    final IndexReader.CacheHelper coreCacheHelper = leaf.reader().getCoreCacheHelper();
+    final IndexReader.CacheHelper readerCacheHelper = leaf.reader().getReaderCacheHelper();
+    if (coreCacheHelper == null || readerCacheHelper == null) {
+      return SegmentRollup.build(this, fcontext, leaf, null, filterQuery);
+    }
+    final IndexReader.CacheKey coreKey = coreCacheHelper.getKey();
+    final IndexReader.CacheKey readerKey = readerCacheHelper.getKey();
+    final SegmentRollup rollup = segments.get(coreKey);
+    if (rollup != null && rollup.isFor(readerKey, filterQuery)) {
+      return rollup;
+    }
+    if (registeredCores.add(coreKey)) {
+      coreCacheHelper.addClosedListener(purge);
+    }
+    try {
+      return segments.compute(
+          coreKey,
+          (k, current) -> {
+            if (current != null && current.isFor(readerKey, filterQuery)) {
+              return current;
+            }
+            try {
+              return SegmentRollup.build(this, fcontext, leaf, readerKey, filterQuery);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void purge(IndexReader.CacheKey coreKey) {
+    registeredCores.remove(coreKey);
+    segments.remove(coreKey);
+  }
+
+  /** Returns the number of segments currently rolled up. */
+  int numSegments() {
+    return segments.size();
+  }
+
+  private static boolean isMultiValued(SchemaField sf) {
+    return sf.multiValued() || sf.getType().multiValuedFieldCache();
+  }
+
+  /** The rollup of the live documents of a segment, by segment ordinal of the facet field. */
+  static final class SegmentRollup {
+    /** The key of the segment reader rolled up, which changes with its deletions. */
+    private final IndexReader.CacheKey readerKey;
+
+    /** The filter of the documents rolled up, or null. */
+    private final Query filterQuery;
+
+    /** Number of documents per ordinal. */
+    final int[] counts;
+
+    /** Sum of the values per metric and ordinal. */
+    final double[][] sums;
+
+    /** Number of values per metric and ordinal. */
+    final long[][] valueCounts;
+
+    private SegmentRollup(
+        IndexReader.CacheKey readerKey, Query filterQuery, int numOrds, int numMetrics) {
+      this.readerKey = readerKey;
+      this.filterQuery = filterQuery;
+      counts = new int[numOrds];
+      sums = new double[numMetrics][numOrds];
+      valueCounts = new long[numMetrics][numOrds];
+    }
+
+    boolean isFor(IndexReader.CacheKey readerKey, Query filterQuery) {
+      return this.readerKey == readerKey && Objects.equals(this.filterQuery, filterQuery);
+    }
+
+    static SegmentRollup build(
+        FacetRollup rollup,
+        FacetContext fcontext,
+        LeafReaderContext leaf,
+        IndexReader.CacheKey readerKey,
+        Query filterQuery)
+        throws IOException {
+      final SolrIndexSearcher searcher = fcontext.searcher;
+      final SortedSetDocValues ords = DocValues.getSortedSet(leaf.reader(), rollup.field);
+      final int numOrds = Math.toIntExact(ords.getValueCount());
+      final int numMetrics = rollup.metrics.size();
+      final SegmentRollup segmentRollup =
+          new SegmentRollup(readerKey, filterQuery, numOrds, numMetrics);
+      if (numOrds == 0) {
+        return segmentRollup;
+      }
+
+      final DocIdSetIterator docs;
+      if (filterQuery == null) {
+        docs = DocIdSetIterator.all(leaf.reader().maxDoc());
+      } else {
+        final Query rewritten = searcher.rewrite(QueryUtils.makeQueryable(filterQuery));
+        final Weight weight = searcher.createWeight(rewritten, ScoreMode.COMPLETE_NO_SCORES, 1f);
+        final Scorer scorer = weight.scorer(leaf);
+        if (scorer == null) {
+          return segmentRollup;
+        }
+        docs = scorer.iterator();
+      }
+
+      final MetricValues[] metricValues = new MetricValues[numMetrics];
+      for (int m = 0; m < numMetrics; m++) {
+        final SchemaField sf = searcher.getSchema().getField(rollup.metrics.get(m));
+        metricValues[m] = new MetricValues(sf, fcontext, leaf);
+      }
+
+      final Bits liveDocs = leaf.reader().getLiveDocs();
+      final int[] docOrds = new int[16];
+      for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+        if ((liveDocs != null && !liveDocs.get(doc)) || !ords.advanceExact(doc)) {
+          continue;
+        }
+        final int numDocOrds = ords.docValueCount();
+        int[] bucketOrds = numDocOrds <= docOrds.length ? docOrds : new int[numDocOrds];
+        for (int i = 0; i < numDocOrds; i++) {
+          bucketOrds[i] = (int) ords.nextOrd();
+          segmentRollup.counts[bucketOrds[i]]++;
+        }
+        for (int m = 0; m < numMetrics; m++) {
+          metricValues[m].collect(doc, bucketOrds, numDocOrds, segmentRollup, m);
+        }
+      }
+      return segmentRollup;
+    }
+  }
+
+  /**
+   * Reads the values of a metric field the way {@link SumAgg} and {@link AvgAgg} do: every value of
+   * multi-valued fields, and the value of single-valued fields if it exists or isn't zero.
+   */
+  private static final class MetricValues {
+    private final SchemaField sf;
+    private final FunctionValues singleValues;
+    private final SortedNumericDocValues multiValues;
+
+    MetricValues(SchemaField sf, FacetContext fcontext, LeafReaderContext leaf) throws IOException {
+      this.sf = sf;
+      if (isMultiValued(sf)) {
+        singleValues = null;
+        multiValues = DocValues.getSortedNumeric(leaf.reader(), sf.getName());
+      } else {
+        final ValueSource vs = sf.getType().getValueSource(sf, null);
+        singleValues = vs.getValues(fcontext.qcontext, leaf);
+        multiValues = null;
+      }
+    }
+
+    void collect(int doc, int[] ords, int numOrds, SegmentRollup rollup, int metric)
+        throws IOException {
+      double sum = 0;
+      long count = 0;
+      if (singleValues != null) {
+        final double val = singleValues.doubleVal(doc);
+        if (val != 0 || singleValues.exists(doc)) {
+          sum = val;
+          count = 1;
+        }
+      } else if (multiValues.advanceExact(doc)) {
+        count = multiValues.docValueCount();
+        for (int i = 0; i < count; i++) {
+          sum += toDouble(multiValues.nextValue());
+        }
+      }
+      if (count == 0) {
+        return;
+      }
+      for (int i = 0; i < numOrds; i++) {
+        rollup.sums[metric][ords[i]] += sum;
+        rollup.valueCounts[metric][ords[i]] += count;
+      }
+    }
+
+    private double toDouble(long val) {
+      switch (sf.getType().getNumberType()) {
+        case FLOAT:
+          return NumericUtils.sortableIntToFloat((int) val);
+        case DOUBLE:
+          return NumericUtils.sortableLongToDouble(val);
+        default:
+          return val;
+      }
+    }
+  }
+}
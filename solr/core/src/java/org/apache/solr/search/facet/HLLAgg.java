@@ -42,14 +42,12 @@ public class HLLAgg extends StrAggValueSource {
   public static class HLLFactory {
     int log2m = 13;
     int regwidth = 6;
+    // small sets go from explicit values to sparse registers before being promoted to all of the
+    // registers, which keeps the shard responses of low cardinality buckets small
+    boolean sparse = true;
 
     public HLL getHLL() {
-      return new HLL(
-          log2m,
-          regwidth,
-          -1 /* auto explict threshold */,
-          false /* no sparse representation */,
-          HLLType.EMPTY);
+      return new HLL(log2m, regwidth, -1 /* auto explict threshold */, sparse, HLLType.EMPTY);
     }
   }
 
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.lucene.document.DoublePoint;
+import org.apache.lucene.document.FloatPoint;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesSkipper;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.schema.NumberType;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Counts the documents of a {@link DocSet} whose single-valued numeric doc values fall in each of
+ * a list of ranges, in one pass over the doc values instead of one range query per range.
+ *
+ * <p>The ranges are given as inclusive bounds in the sortable <code>long</code> form of the values
+ * (see {@link NumericUtils#floatToSortableInt} and {@link NumericUtils#doubleToSortableLong}), and
+ * may overlap. They are cut into the elementary intervals between their distinct bounds: the
+ * values of the documents are read in blocks, their intervals are found without branching on the
+ * values, by a division when the bounds are evenly spaced (like the ranges of a date histogram) or
+ * else by a binary search of fixed length, and the count of a range is the sum of the counts of
+ * its intervals. Segments whose values all fall in a single interval, as told by their points or
+ * doc values skipper, are counted without reading their values.
+ */
+public final class NumericRangeCounter {
+  private static final int BLOCK_SIZE = 1024;
+
+  /** Receives the documents falling in at least one range, for the stats of the ranges */
+  public interface RangeCollector {
+    void setNextReader(LeafReaderContext ctx) throws IOException;
+
+    /**
+     * @param ranges the ranges the value of the document falls in, in ascending order
+     */
+    void collect(int segDoc, int[] ranges) throws IOException;
+  }
+
+  private final int numRanges;
+  // the distinct bounds: interval i holds the values from cuts[i - 1] up to cuts[i] excluded
+  private final long[] cuts;
+  // the width of the intervals between the first and last cut when they are evenly spaced, or 0
+  private final long width;
+  // the ranges covering each interval
+  private final int[][] intervalRanges;
+  // the first and last interval of each range, or -1 for an empty range
+  private final int[] firstInterval;
+  private final int[] lastInterval;
+
+  /**
+   * @param lows the lowest value of each range, in sortable form
+   * @param highs the highest value of each range, in sortable form: a range whose high is lower
+   *     than its low is empty
+   */
+  public NumericRangeCounter(long[] lows, long[] highs) {
+    assert lows.length == highs.length;
+    numRanges = lows.length;
+
+    long[] bounds = new long[2 * numRanges];
+    int numBounds = 0;
+    for (int i = 0; i < numRanges; i++) {
+      if (lows[i] > highs[i]) {
+        continue;
+      }
+      bounds[numBounds++] = lows[i];
+      if (highs[i] != Long.MAX_VALUE) {
+        bounds[numBounds++] = highs[i] + 1;
+      }
+    }
+    Arrays.sort(bounds, 0, numBounds);
+    int numCuts = 0;
+    for (int i = 0; i < numBounds; i++) {
+      if (numCuts == 0 || bounds[i] != bounds[numCuts - 1]) {
+        bounds[numCuts++] = bounds[i];
+      }
+    }
+    cuts = Arrays.copyOf(bounds, numCuts);
+    width = evenWidth(cuts);
+
+    firstInterval = new int[numRanges];
+    lastInterval = new int[numRanges];
+    final int[] numIntervalRanges = new int[numCuts + 1];
+    for (int i = 0; i < numRanges; i++) {
+      if (lows[i] > highs[i]) {
+        firstInterval[i] = lastInterval[i] = -1;
+        continue;
+      }
+      firstInterval[i] = interval(lows[i]);
+      lastInterval[i] = interval(highs[i]);
+      for (int j = firstInterval[i]; j <= lastInterval[i]; j++) {
+        numIntervalRanges[j]++;
+      }
+    }
+    intervalRanges = new int[numCuts + 1][];
+    for (int j = 0; j <= numCuts; j++) {
+      intervalRanges[j] = new int[numIntervalRanges[j]];
+      numIntervalRanges[j] = 0;
+    }
+    for (int i = 0; i < numRanges; i++) {
+      for (int j = firstInterval[i]; j >= 0 && j <= lastInterval[i]; j++) {
+        intervalRanges[j][numIntervalRanges[j]++] = i;
+      }
+    }
+  }
+
+  /** The width of the intervals between the cuts if they are all equal and don't overflow, or 0 */
+  private static long evenWidth(long[] cuts) {
+    if (cuts.length < 3) {
+      return 0;
+    }
+    try {
+      final long width = Math.subtractExact(cuts[1], cuts[0]);
+      for (int i = 2; i < cuts.length; i++) {
+        if (Math.subtractExact(cuts[i], cuts[i - 1]) != width) {
+          return 0;
+        }
+      }
+      // the offset of any value below the last cut must not overflow either
+      Math.subtractExact(cuts[cuts.length - 1], cuts[0]);
+      return width;
+    } catch (ArithmeticException e) {
+      return 0;
+    }
+  }
+
+  /** The elementary interval of a value in sortable form */
+  int interval(long value) {
+    final long[] cuts = this.cuts;
+    if (cuts.length == 0) {
+      return 0;
+    }
+    if (width != 0) {
+      if (value < cuts[0]) {
+        return 0;
+      }
+      if (value >= cuts[cuts.length - 1]) {
+        return cuts.length;
+      }
+      return 1 + (int) ((value - cuts[0]) / width);
+    }
+    // the number of cuts lower or equal to the value: the loop always runs log2(cuts.length)
+    // times, and the JIT turns the selection of the half into a conditional move
+    int base = 0;
+    int n = cuts.length;
+    while (n > 1) {
+      final int half = n >>> 1;
+      base = cuts[base + half] <= value ? base + half : base;
+      n -= half;
+    }
+    return base + (cuts[base] <= value ? 1 : 0);
+  }
+
+  /**
+   * Counts the documents of the set in each range.
+   *
+   * @param collector receives the documents falling in a range, or null if only counts are wanted
+   * @return the counts of the documents of each range
+   */
+  public long[] count(
+      SolrIndexSearcher searcher,
+      DocSet docs,
+      String field,
+      NumberType type,
+      RangeCollector collector)
+      throws IOException {
+    final long[] intervalCounts = new long[cuts.length + 1];
+    final int[] docBuffer = new int[BLOCK_SIZE];
+    final long[] valueBuffer = new long[BLOCK_SIZE];
+    final int[] intervalBuffer = new int[BLOCK_SIZE];
+
+    for (LeafReaderContext ctx : searcher.getTopReaderContext().leaves()) {
+      // solr docsets already exclude any deleted docs
+      final DocIdSetIterator disi = docs.iterator(ctx);
+      if (disi == null) {
+        continue;
+      }
+      final LeafReader reader = ctx.reader();
+      final int segmentInterval = segmentInterval(reader, field, type);
+      if (segmentInterval >= 0 && intervalRanges[segmentInterval].length == 0) {
+        continue; // none of the values of the segment is in a range
+      }
+      if (collector != null) {
+        collector.setNextReader(ctx);
+      }
+      if (segmentInterval >= 0 && collector == null && isDense(reader, field, type)) {
+        // every document has a value, in the same interval
+        long count = 0;
+        while (disi.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+          count++;
+        }
+        intervalCounts[segmentInterval] += count;
+        continue;
+      }
+
+      final NumericDocValues values = DocValues.getNumeric(reader, field);
+      int doc = disi.nextDoc();
+      while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+        int n = 0;
+        for (; n < BLOCK_SIZE && doc != DocIdSetIterator.NO_MORE_DOCS; doc = disi.nextDoc()) {
+          if (values.advanceExact(doc)) {
+            docBuffer[n] = doc;
+            valueBuffer[n++] = values.longValue();
+          }
+        }
+        toSortable(type, valueBuffer, n);
+        for (int i = 0; i < n; i++) {
+          intervalBuffer[i] = interval(valueBuffer[i]);
+        }
+        for (int i = 0; i < n; i++) {
+          intervalCounts[intervalBuffer[i]]++;
+        }
+        if (collector != null) {
+          for (int i = 0; i < n; i++) {
+            final int[] ranges = intervalRanges[intervalBuffer[i]];
+            if (ranges.length > 0) {
+              collector.collect(docBuffer[i], ranges);
+            }
+          }
+        }
+      }
+    }
+
+    final long[] counts = new long[numRanges];
+    for (int i = 0; i < numRanges; i++) {
+      for (int j = firstInterval[i]; j >= 0 && j <= lastInterval[i]; j++) {
+        counts[i] += intervalCounts[j];
+      }
+    }
+    return counts;
+  }
+
+  /** Converts the raw doc values of the type to their sortable form */
+  private static void toSortable(NumberType type, long[] values, int n) {
+    switch (type) {
+      case FLOAT:
+        for (int i = 0; i < n; i++) {
+          values[i] = NumericUtils.sortableFloatBits((int) values[i]);
+        }
+        break;
+      case DOUBLE:
+        for (int i = 0; i < n; i++) {
+          values[i] = NumericUtils.sortableDoubleBits(values[i]);
+        }
+        break;
+      default:
+        // integers, longs and dates are stored as they sort
+    }
+  }
+
+  /**
+   * The interval holding all of the values of the segment, or -1 if they may be in several or if
+   * their bounds are not known.
+   */
+  private int segmentInterval(LeafReader reader, String field, NumberType type)
+      throws IOException {
+    final DocValuesSkipper skipper = reader.getDocValuesSkipper(field);
+    if (skipper != null && type != NumberType.FLOAT && type != NumberType.DOUBLE) {
+      // the skipper bounds the raw values, which only sort as the values for integral types
+      final int interval = interval(skipper.minValue());
+      return interval == interval(skipper.maxValue()) ? interval : -1;
+    }
+    final PointValues points = reader.getPointValues(field);
+    if (points == null
+        || points.getNumDimensions() != 1
+        || points.getBytesPerDimension() != bytesPerDimension(type)) {
+      return -1;
+    }
+    final int interval = interval(decodeSortable(type, points.getMinPackedValue()));
+    return interval == interval(decodeSortable(type, points.getMaxPackedValue())) ? interval : -1;
+  }
+
+  /** Whether every document of the segment has a value, as told by its skipper or points */
+  private static boolean isDense(LeafReader reader, String field, NumberType type)
+      throws IOException {
+    final DocValuesSkipper skipper = reader.getDocValuesSkipper(field);
+    if (skipper != null) {
+      return skipper.docCount() == reader.maxDoc();
+    }
+    final PointValues points = reader.getPointValues(field);
+    // a document having a point of a single valued field has its doc value too
+    return points != null
+        && points.getBytesPerDimension() == bytesPerDimension(type)
+        && points.getDocCount() == reader.maxDoc();
+  }
+
+  private static int bytesPerDimension(NumberType type) {
+    return type == NumberType.INTEGER || type == NumberType.FLOAT ? Integer.BYTES : Long.BYTES;
+  }
+
+  private static long decodeSortable(NumberType type, byte[] packed) {
+    switch (type) {
+      case INTEGER:
+        return IntPoint.decodeDimension(packed, 0);
+      case FLOAT:
+        return NumericUtils.floatToSortableInt(FloatPoint.decodeDimension(packed, 0));
+      case DOUBLE:
+        return NumericUtils.doubleToSortableLong(DoublePoint.decodeDimension(packed, 0));
+      default:
+        return LongPoint.decodeDimension(packed, 0);
+    }
+  }
+}
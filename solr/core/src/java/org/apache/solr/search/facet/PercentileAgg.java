@@ -16,10 +16,8 @@
  */
 package org.apache.solr.search.facet;
 
-import com.tdunning.math.stats.AVLTreeDigest;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -30,23 +28,60 @@ import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.QParser;
 import org.apache.solr.search.SyntaxError;
 import org.apache.solr.search.ValueSourceParser;
 import org.apache.solr.search.function.FieldNameValueSource;
 
 public class PercentileAgg extends SimpleAggValueSource {
+  public static final double DEFAULT_COMPRESSION = 100;
+  public static final double DEFAULT_ACCURACY = 0.01;
+
   List<Double> percentiles;
+  PercentileSketch.Type sketchType = PercentileSketch.Type.AVL;
+  // the compression of a t-digest, or the relative accuracy of a DDSketch
+  double accuracy = DEFAULT_COMPRESSION;
 
   public PercentileAgg(ValueSource vs, List<Double> percentiles) {
     super("percentile", vs);
     this.percentiles = percentiles;
   }
 
+  /**
+   * Reads the sketch to use from the local params: <code>sketch</code> (avl, merging or ddsketch),
+   * with the <code>compression</code> of a t-digest or the relative <code>accuracy</code> of a
+   * DDSketch.
+   */
+  public void setOpts(QParser parser) {
+    SolrParams opts = parser.getLocalParams();
+    if (null == opts) {
+      return;
+    }
+    sketchType = PercentileSketch.Type.fromString(opts.get("sketch"));
+    if (sketchType == PercentileSketch.Type.DDSKETCH) {
+      accuracy = opts.getDouble("accuracy", DEFAULT_ACCURACY);
+      if (!(accuracy > 0 && accuracy < 1)) {
+        throw new SolrException(
+            SolrException.ErrorCode.BAD_REQUEST,
+            "percentile accuracy must be between 0 and 1 but got " + accuracy);
+      }
+    } else {
+      accuracy = opts.getDouble("compression", DEFAULT_COMPRESSION);
+      if (!(accuracy >= 1)) {
+        throw new SolrException(
+            SolrException.ErrorCode.BAD_REQUEST,
+            "percentile compression must be at least 1 but got " + accuracy);
+      }
+    }
+  }
+
   @Override
   public SlotAcc createSlotAcc(FacetContext fcontext, long numDocs, int numSlots)
       throws IOException {
@@ -87,12 +122,15 @@ public class PercentileAgg extends SimpleAggValueSource {
   @Override
   public boolean equals(Object o) {
     if (!(o instanceof PercentileAgg other)) return false;
-    return this.arg.equals(other.arg) && this.percentiles.equals(other.percentiles);
+    return this.arg.equals(other.arg)
+        && this.percentiles.equals(other.percentiles)
+        && this.sketchType == other.sketchType
+        && this.accuracy == other.accuracy;
   }
 
   @Override
   public int hashCode() {
-    return super.hashCode() * 31 + percentiles.hashCode();
+    return (super.hashCode() * 31 + percentiles.hashCode()) * 31 + sketchType.hashCode();
   }
 
   public static class Parser extends ValueSourceParser {
@@ -113,11 +151,13 @@ public class PercentileAgg extends SimpleAggValueSource {
             "expected percentile(valsource,percent1[,percent2]*)  EXAMPLE:percentile(myfield,50)");
       }
 
-      return new PercentileAgg(vs, percentiles);
+      PercentileAgg agg = new PercentileAgg(vs, percentiles);
+      agg.setOpts(fp);
+      return agg;
     }
   }
 
-  protected Object getValueFromDigest(AVLTreeDigest digest) {
+  protected Object getValueFromDigest(PercentileSketch digest) {
     if (digest == null) {
       return null;
     }
@@ -134,43 +174,72 @@ public class PercentileAgg extends SimpleAggValueSource {
     return lst;
   }
 
-  class Acc extends SlotAcc.FuncSlotAcc {
-    protected AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    protected double[] sortvals;
+  /**
+   * The digests of the slots of an acc, created when a slot is first collected: in an array over
+   * all the slots, or only for the collected slots if the acc is sparse (see {@link
+   * SlotAcc#isSparse}).
+   */
+  class Digests {
+    private final FacetContext fcontext;
+    private final SparseSlots sparseSlots; // null unless sparse
+    private PercentileSketch[] digests; // by slot, or by entry of sparseSlots
+    private double[] sortvals; // indexed as digests
+
+    Digests(FacetContext fcontext, int numSlots) {
+      this.fcontext = fcontext;
+      if (SlotAcc.isSparse(fcontext, numSlots)) {
+        sparseSlots = new SparseSlots();
+        digests = new PercentileSketch[0];
+      } else {
+        sparseSlots = null;
+        digests = new PercentileSketch[numSlots];
+      }
+    }
 
-    public Acc(ValueSource values, FacetContext fcontext, int numSlots) {
-      super(values, fcontext, numSlots);
-      digests = new AVLTreeDigest[numSlots];
+    /** Returns the index of the slot in digests and sortvals, or -1 if it wasn't collected */
+    private int index(int slot) {
+      return sparseSlots == null ? slot : sparseSlots.find(slot);
     }
 
-    @Override
-    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
-        throws IOException {
-      if (!values.exists(doc)) return;
-      double val = values.doubleVal(doc);
+    /** Returns the digest of the slot, or null if it has no values */
+    PercentileSketch get(int slot) {
+      final int index = index(slot);
+      return index < 0 ? null : digests[index];
+    }
 
-      AVLTreeDigest digest = digests[slotNum];
+    /** Returns the digest of the slot to add values to, created if needed */
+    PercentileSketch collect(int slot) {
+      int index = slot;
+      if (sparseSlots != null) {
+        index = sparseSlots.add(slot);
+        if (index >= digests.length) {
+          digests = ArrayUtil.grow(digests, index + 1);
+        }
+      }
+      PercentileSketch digest = digests[index];
       if (digest == null) {
-        digests[slotNum] = digest = new AVLTreeDigest(100); // TODO: make compression configurable
+        digests[index] = digest = sketchType.create(accuracy);
       }
-
-      digest.add(val);
+      return digest;
     }
 
-    @Override
-    public int compare(int slotA, int slotB) {
+    int compare(int slotA, int slotB) {
       if (sortvals == null) {
         fillSortVals();
       }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
+      return Double.compare(sortval(slotA), sortval(slotB));
+    }
+
+    private double sortval(int slot) {
+      final int index = index(slot);
+      return index < 0 ? Double.NEGATIVE_INFINITY : sortvals[index];
     }
 
     private void fillSortVals() {
       sortvals = new double[digests.length];
       double sortp = percentiles.get(0) * 0.01;
       for (int i = 0; i < digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
+        PercentileSketch digest = digests[i];
         if (digest == null) {
           sortvals[i] = Double.NEGATIVE_INFINITY;
         } else {
@@ -179,115 +248,111 @@ public class PercentileAgg extends SimpleAggValueSource {
       }
     }
 
-    @Override
-    public Object getValue(int slotNum) throws IOException {
+    Object getValue(int slotNum) {
       if (fcontext.isShard()) {
         return getShardValue(slotNum);
       }
+      PercentileSketch digest = get(slotNum);
       if (sortvals != null && percentiles.size() == 1) {
         // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
+        return digest != null ? sortval(slotNum) : null;
       }
-      return getValueFromDigest(digests[slotNum]);
+      return getValueFromDigest(digest);
     }
 
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
+    private Object getShardValue(int slot) {
+      PercentileSketch digest = get(slot);
       if (digest == null) return null; // no values for this slot
+      return digest.toBytes();
+    }
+
+    void reset() {
+      if (sparseSlots != null) {
+        sparseSlots.clear();
+        Arrays.fill(digests, null);
+      } else {
+        digests = new PercentileSketch[digests.length];
+      }
+      sortvals = null;
+    }
 
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz + (sz >> 1)); // oversize by 50%
+    void resize(SlotAcc.Resizer resizer) {
+      if (sparseSlots != null) {
+        // digests and sortvals are by entry, which don't change
+        sparseSlots.resize(resizer);
       } else {
-        buf.clear();
+        digests = resizer.resize(digests, null);
       }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+    }
+  }
+
+  class Acc extends SlotAcc.FuncSlotAcc {
+    protected final Digests digests;
+
+    public Acc(ValueSource values, FacetContext fcontext, int numSlots) {
+      super(values, fcontext, numSlots);
+      digests = new Digests(fcontext, numSlots);
+    }
+
+    @Override
+    public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
+        throws IOException {
+      if (!values.exists(doc)) return;
+      double val = values.doubleVal(doc);
+
+      PercentileSketch digest = digests.collect(slotNum);
+
+      digest.add(val);
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return digests.compare(slotA, slotB);
+    }
+
+    @Override
+    public Object getValue(int slotNum) throws IOException {
+      return digests.getValue(slotNum);
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      digests.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      digests.resize(resizer);
     }
   }
 
   abstract class BasePercentileDVAcc extends DocValuesAcc {
-    AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    double[] sortvals;
+    final Digests digests;
 
     public BasePercentileDVAcc(FacetContext fcontext, SchemaField sf, int numSlots)
         throws IOException {
       super(fcontext, sf);
-      digests = new AVLTreeDigest[numSlots];
+      digests = new Digests(fcontext, numSlots);
     }
 
     @Override
     public int compare(int slotA, int slotB) {
-      if (sortvals == null) {
-        fillSortVals();
-      }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
-    }
-
-    private void fillSortVals() {
-      sortvals = new double[digests.length];
-      double sortp = percentiles.get(0) * 0.01;
-      for (int i = 0; i < digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
-          sortvals[i] = Double.NEGATIVE_INFINITY;
-        } else {
-          sortvals[i] = digest.quantile(sortp);
-        }
-      }
+      return digests.compare(slotA, slotB);
     }
 
     @Override
     public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
-      }
-      if (sortvals != null && percentiles.size() == 1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
-      }
-      return getValueFromDigest(digests[slotNum]);
-    }
-
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null; // no values for this slot
-
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz + (sz >> 1)); // oversize by 50%
-      } else {
-        buf.clear();
-      }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+      return digests.getValue(slotNum);
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      digests.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      digests.resize(resizer);
     }
   }
 
@@ -301,10 +366,7 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     protected void collectValues(int doc, int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) {
-        digests[slot] = digest = new AVLTreeDigest(100);
-      }
+      PercentileSketch digest = digests.collect(slot);
       for (int i = 0, count = values.docValueCount(); i < count; i++) {
         double val = getDouble(values.nextValue());
         digest.add(val);
@@ -350,10 +412,7 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     protected void collectValues(int doc, int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) {
-        digests[slot] = digest = new AVLTreeDigest(100);
-      }
+      PercentileSketch digest = digests.collect(slot);
       long ord;
       for (int o = 0; o < values.docValueCount(); o++) {
         ord = values.nextOrd();
@@ -377,15 +436,13 @@ public class PercentileAgg extends SimpleAggValueSource {
   }
 
   class PercentileUnInvertedFieldAcc extends UnInvertedFieldAcc {
-    protected AVLTreeDigest[] digests;
-    protected ByteBuffer buf;
-    protected double[] sortvals;
+    protected final Digests digests;
     private int currentSlot;
 
     public PercentileUnInvertedFieldAcc(FacetContext fcontext, SchemaField sf, int numSlots)
         throws IOException {
       super(fcontext, sf, numSlots);
-      digests = new AVLTreeDigest[numSlots];
+      digests = new Digests(fcontext, numSlots);
     }
 
     @Override
@@ -398,70 +455,27 @@ public class PercentileAgg extends SimpleAggValueSource {
 
     @Override
     public int compare(int slotA, int slotB) {
-      if (sortvals == null) {
-        fillSortVals();
-      }
-      return Double.compare(sortvals[slotA], sortvals[slotB]);
-    }
-
-    private void fillSortVals() {
-      sortvals = new double[digests.length];
-      double sortp = percentiles.get(0) * 0.01;
-      for (int i = 0; i < digests.length; i++) {
-        AVLTreeDigest digest = digests[i];
-        if (digest == null) {
-          sortvals[i] = Double.NEGATIVE_INFINITY;
-        } else {
-          sortvals[i] = digest.quantile(sortp);
-        }
-      }
+      return digests.compare(slotA, slotB);
     }
 
     @Override
     public Object getValue(int slotNum) throws IOException {
-      if (fcontext.isShard()) {
-        return getShardValue(slotNum);
-      }
-      if (sortvals != null && percentiles.size() == 1) {
-        // we've already calculated everything we need
-        return digests[slotNum] != null ? sortvals[slotNum] : null;
-      }
-      return getValueFromDigest(digests[slotNum]);
-    }
-
-    public Object getShardValue(int slot) throws IOException {
-      AVLTreeDigest digest = digests[slot];
-      if (digest == null) return null;
-
-      digest.compress();
-      int sz = digest.byteSize();
-      if (buf == null || buf.capacity() < sz) {
-        buf = ByteBuffer.allocate(sz + (sz >> 1)); // oversize by 50%
-      } else {
-        buf.clear();
-      }
-      digest.asSmallBytes(buf);
-      byte[] arr = Arrays.copyOf(buf.array(), buf.position());
-      return arr;
+      return digests.getValue(slotNum);
     }
 
     @Override
     public void reset() {
-      digests = new AVLTreeDigest[digests.length];
-      sortvals = null;
+      digests.reset();
     }
 
     @Override
     public void resize(Resizer resizer) {
-      digests = resizer.resize(digests, null);
+      digests.resize(resizer);
     }
 
     @Override
     public void call(int ord) {
-      AVLTreeDigest digest = digests[currentSlot];
-      if (digest == null) {
-        digests[currentSlot] = digest = new AVLTreeDigest(100);
-      }
+      PercentileSketch digest = digests.collect(currentSlot);
       try {
         BytesRef term = docToTerm.lookupOrd(ord);
         Object obj = sf.getType().toObject(sf, term);
@@ -474,18 +488,18 @@ public class PercentileAgg extends SimpleAggValueSource {
   }
 
   class Merger extends FacetModule.FacetSortableMerger {
-    protected AVLTreeDigest digest;
+    protected PercentileSketch digest;
     protected Double sortVal;
 
     @Override
     public void merge(Object facetResult, Context mcontext) {
       byte[] arr = (byte[]) facetResult;
       if (arr == null) return; // an explicit null can mean no values in the field
-      AVLTreeDigest subDigest = AVLTreeDigest.fromBytes(ByteBuffer.wrap(arr));
+      PercentileSketch subDigest = sketchType.fromBytes(arr);
       if (digest == null) {
         digest = subDigest;
       } else {
-        digest.add(subDigest);
+        digest.merge(subDigest);
       }
     }
 
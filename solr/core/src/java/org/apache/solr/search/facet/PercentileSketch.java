@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import com.tdunning.math.stats.AVLTreeDigest;
+import com.tdunning.math.stats.MergingDigest;
+import com.tdunning.math.stats.TDigest;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import org.apache.solr.common.SolrException;
+
+/**
+ * A mergeable summary of numeric values that estimates their quantiles, for {@link PercentileAgg}.
+ * Shards send their sketches to be merged in the binary form of {@link #toBytes}, which {@link
+ * Type#fromBytes} reads back.
+ */
+public interface PercentileSketch {
+
+  void add(double value);
+
+  /** Estimates the value at the quantile <code>q</code>, between 0 and 1 */
+  double quantile(double q);
+
+  /** Adds the values of a sketch created by the same {@link Type} and accuracy */
+  void merge(PercentileSketch other);
+
+  byte[] toBytes();
+
+  /** The families of sketches */
+  enum Type {
+    /** t-digest kept in a tree of centroids, the default */
+    AVL,
+    /** t-digest merging buffered values into sorted centroids, faster to fill and merge */
+    MERGING,
+    /** {@link DDSketch}, with an error relative to the value of the quantile */
+    DDSKETCH,
+    ;
+
+    public static Type fromString(String type) {
+      if (type == null) {
+        return AVL;
+      }
+      try {
+        return valueOf(type.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new SolrException(
+            SolrException.ErrorCode.BAD_REQUEST, "Unknown percentile sketch " + type);
+      }
+    }
+
+    /**
+     * @param accuracy the compression of a t-digest, or the relative accuracy of a DDSketch
+     */
+    PercentileSketch create(double accuracy) {
+      switch (this) {
+        case AVL:
+          return new TDigestSketch(new AVLTreeDigest(accuracy));
+        case MERGING:
+          return new TDigestSketch(new MergingDigest(accuracy));
+        default:
+          return new DDSketch(accuracy);
+      }
+    }
+
+    PercentileSketch fromBytes(byte[] bytes) {
+      switch (this) {
+        case AVL:
+          return new TDigestSketch(AVLTreeDigest.fromBytes(ByteBuffer.wrap(bytes)));
+        case MERGING:
+          return new TDigestSketch(MergingDigest.fromBytes(ByteBuffer.wrap(bytes)));
+        default:
+          return DDSketch.fromBytes(bytes);
+      }
+    }
+  }
+
+  /** A t-digest */
+  final class TDigestSketch implements PercentileSketch {
+    private final TDigest digest;
+
+    TDigestSketch(TDigest digest) {
+      this.digest = digest;
+    }
+
+    @Override
+    public void add(double value) {
+      digest.add(value);
+    }
+
+    @Override
+    public double quantile(double q) {
+      return digest.quantile(q);
+    }
+
+    @Override
+    public void merge(PercentileSketch other) {
+      digest.add(((TDigestSketch) other).digest);
+    }
+
+    @Override
+    public byte[] toBytes() {
+      digest.compress();
+      ByteBuffer buf = ByteBuffer.allocate(digest.byteSize());
+      digest.asSmallBytes(buf);
+      return Arrays.copyOf(buf.array(), buf.position());
+    }
+  }
+}
@@ -51,6 +51,28 @@ public abstract class SlotAcc implements Closeable {
     this.fcontext = fcontext;
   }
 
+  /** Minimum number of slots for an acc to be sparse. */
+  static final int SPARSE_MIN_SLOTS = 1 << 16;
+
+  static Boolean forceSparse = null; // only set for test coverage
+
+  /**
+   * Whether an acc over <code>numSlots</code> slots should keep values only for the slots it
+   * collects (see {@link SparseSlots}), rather than in arrays over all the slots: when there are
+   * many slots (e.g. the ordinals of a high-cardinality field) but few documents in the domain,
+   * most slots are never collected.
+   */
+  static boolean isSparse(FacetContext fcontext, int numSlots) {
+    if (forceSparse != null) {
+      return forceSparse;
+    }
+    // a sparse entry takes 2-3 times the memory of a dense slot, and documents of a multi-valued
+    // field are collected in several slots
+    return numSlots >= SPARSE_MIN_SLOTS
+        && fcontext.base != null
+        && fcontext.base.size() * 4L < numSlots;
+  }
+
   @Override
   public String toString() {
     return key;
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+
+/**
+ * The Space-Saving heavy hitters summary (Metwally et al.) over int keys, such as global
+ * ordinals. At most <code>capacity</code> keys are monitored; a key that is not monitored takes the
+ * place of the monitored key with the lowest count, inheriting that count as its error.
+ *
+ * <p>For every monitored key, <code>count - error &lt;= true count &lt;= count</code>. Once the
+ * sketch is full, no key that is not monitored occurs more than {@link #errorBound()} times, which
+ * is at most <code>total / capacity</code>.
+ */
+final class SpaceSavingSketch {
+  private final int capacity;
+  // a min-heap on counts
+  private final int[] keys;
+  private final long[] counts;
+  private final long[] errors;
+  private final IntIntHashMap positions; // key -> index in the heap
+  private int size;
+  private long total;
+
+  SpaceSavingSketch(int capacity) {
+    assert capacity > 0;
+    this.capacity = capacity;
+    this.keys = new int[capacity];
+    this.counts = new long[capacity];
+    this.errors = new long[capacity];
+    this.positions = new IntIntHashMap(capacity);
+  }
+
+  void add(int key) {
+    total++;
+    final int index = positions.indexOf(key);
+    if (positions.indexExists(index)) {
+      final int pos = positions.indexGet(index);
+      counts[pos]++;
+      siftDown(pos);
+    } else if (size < capacity) {
+      final int pos = size++;
+      keys[pos] = key;
+      counts[pos] = 1;
+      errors[pos] = 0;
+      positions.indexInsert(index, key, pos);
+      siftUp(pos);
+    } else {
+      // replace the key with the smallest count
+      positions.remove(keys[0]);
+      keys[0] = key;
+      errors[0] = counts[0];
+      counts[0]++;
+      positions.put(key, 0);
+      siftDown(0);
+    }
+  }
+
+  /** The number of monitored keys */
+  int size() {
+    return size;
+  }
+
+  /** The number of keys added */
+  long total() {
+    return total;
+  }
+
+  /** The largest count of a key that is not monitored, and the largest error of one that is */
+  long errorBound() {
+    return size < capacity ? 0 : counts[0];
+  }
+
+  int key(int i) {
+    return keys[i];
+  }
+
+  long count(int i) {
+    return counts[i];
+  }
+
+  long error(int i) {
+    return errors[i];
+  }
+
+  private void siftUp(int pos) {
+    while (pos > 0) {
+      final int parent = (pos - 1) >>> 1;
+      if (counts[parent] <= counts[pos]) {
+        break;
+      }
+      swap(pos, parent);
+      pos = parent;
+    }
+  }
+
+  private void siftDown(int pos) {
+    while (true) {
+      final int left = 2 * pos + 1;
+      if (left >= size) {
+        break;
+      }
+      final int right = left + 1;
+      final int smallest = right < size && counts[right] < counts[left] ? right : left;
+      if (counts[pos] <= counts[smallest]) {
+        break;
+      }
+      swap(pos, smallest);
+      pos = smallest;
+    }
+  }
+
+  private void swap(int a, int b) {
+    final int key = keys[a];
+    final long count = counts[a];
+    final long error = errors[a];
+    keys[a] = keys[b];
+    counts[a] = counts[b];
+    errors[a] = errors[b];
+    keys[b] = key;
+    counts[b] = count;
+    errors[b] = error;
+    positions.put(keys[a], a);
+    positions.put(keys[b], b);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.schema.SchemaField;
+
+/**
+ * Base class for sparse accumulators of numeric values (see {@link SlotAcc#isSparse}): values are
+ * kept by {@link SparseSlots} entry, in arrays that subclasses grow as slots are collected. Values
+ * are read either from a {@link ValueSource} (single-valued fields and functions) or from the
+ * {@link SortedNumericDocValues} of a multi-valued point field.
+ */
+abstract class SparseNumericSlotAcc extends SlotAcc {
+  protected final SparseSlots slots = new SparseSlots();
+  private final ValueSource valueSource;
+  private final SchemaField sf;
+  private FunctionValues values;
+  private SortedNumericDocValues multiValues;
+
+  /** Accumulates the values of a single-valued field or function. */
+  SparseNumericSlotAcc(FacetContext fcontext, ValueSource valueSource) {
+    super(fcontext);
+    this.valueSource = valueSource;
+    this.sf = null;
+  }
+
+  /** Accumulates all the values of a multi-valued point field with docValues. */
+  SparseNumericSlotAcc(FacetContext fcontext, SchemaField sf) {
+    super(fcontext);
+    this.valueSource = null;
+    this.sf = sf;
+  }
+
+  /** Grows the per-entry arrays to hold at least <code>numEntries</code> entries. */
+  protected abstract void grow(int numEntries);
+
+  /** Accumulates a value of a document into the entry of its slot. */
+  protected abstract void collectValue(int entry, double val);
+
+  /** Clears the per-entry arrays, up to the current number of entries. */
+  protected abstract void clear(int numEntries);
+
+  @Override
+  public void setNextReader(LeafReaderContext readerContext) throws IOException {
+    super.setNextReader(readerContext);
+    if (sf == null) {
+      values = valueSource.getValues(fcontext.qcontext, readerContext);
+    } else {
+      multiValues = DocValues.getSortedNumeric(readerContext.reader(), sf.getName());
+    }
+  }
+
+  @Override
+  public void collect(int doc, int slot, IntFunction<SlotContext> slotContext) throws IOException {
+    final int numEntries = slots.size();
+    final int entry = slots.add(slot);
+    if (entry == numEntries) {
+      grow(numEntries + 1);
+    }
+    if (sf == null) {
+      final double val = values.doubleVal(doc);
+      if (val != 0 || values.exists(doc)) {
+        collectValue(entry, val);
+      }
+    } else if (multiValues.advanceExact(doc)) {
+      for (int i = 0, count = multiValues.docValueCount(); i < count; i++) {
+        collectValue(entry, getDouble(multiValues.nextValue()));
+      }
+    }
+  }
+
+  /** converts given long value to double based on field type */
+  private double getDouble(long val) {
+    switch (sf.getType().getNumberType()) {
+      case FLOAT:
+        return NumericUtils.sortableIntToFloat((int) val);
+      case DOUBLE:
+        return NumericUtils.sortableLongToDouble(val);
+      default:
+        return val;
+    }
+  }
+
+  @Override
+  public void reset() throws IOException {
+    clear(slots.size());
+    slots.clear();
+  }
+
+  @Override
+  public void resize(Resizer resizer) {
+    slots.resize(resizer);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.Arrays;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * The slots collected by a sparse {@link SlotAcc}, numbered in the order they were first collected.
+ * A sparse acc keeps its per-slot values in arrays indexed by this <em>entry</em> number, which
+ * only grow with the number of slots actually collected, instead of with the number of slots.
+ *
+ * <p>This is an open-addressing hash of primitive ints, with linear probing.
+ *
+ * @see SlotAcc#isSparse(FacetContext, int)
+ */
+final class SparseSlots {
+  private static final int EMPTY = -1;
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The entry of the slot hashed at each position, or {@link #EMPTY} */
+  private int[] table;
+
+  /** The slot of each entry, or -1 if it was dropped by a resize */
+  private int[] slots;
+
+  private int size;
+  private int mask;
+
+  SparseSlots() {
+    table = new int[INITIAL_CAPACITY * 2];
+    Arrays.fill(table, EMPTY);
+    mask = table.length - 1;
+    slots = new int[INITIAL_CAPACITY];
+  }
+
+  /** Returns the number of entries, i.e. the length the per-entry arrays need. */
+  int size() {
+    return size;
+  }
+
+  /** Returns the entry of the slot, or -1 if it wasn't collected. */
+  int find(int slot) {
+    for (int pos = hash(slot) & mask; ; pos = (pos + 1) & mask) {
+      final int entry = table[pos];
+      if (entry == EMPTY) {
+        return -1;
+      }
+      if (slots[entry] == slot) {
+        return entry;
+      }
+    }
+  }
+
+  /**
+   * Returns the entry of the slot, adding a new entry (numbered {@link #size()} before the call) if
+   * it wasn't collected yet.
+   */
+  int add(int slot) {
+    int pos = hash(slot) & mask;
+    for (; ; pos = (pos + 1) & mask) {
+      final int entry = table[pos];
+      if (entry == EMPTY) {
+        break;
+      }
+      if (slots[entry] == slot) {
+        return entry;
+      }
+    }
+    final int entry = size++;
+    if (entry == slots.length) {
+      slots = ArrayUtil.grow(slots, size);
+    }
+    slots[entry] = slot;
+    table[pos] = entry;
+    if (size * 2 > table.length) {
+      rehash(table.length * 2);
+    }
+    return entry;
+  }
+
+  /** Removes all the entries. */
+  void clear() {
+    Arrays.fill(table, EMPTY);
+    size = 0;
+  }
+
+  /**
+   * Moves the entries to their new slots. Entries keep their number, so the per-entry arrays don't
+   * change; entries whose slot is dropped can't be found anymore.
+   */
+  void resize(SlotAcc.Resizer resizer) {
+    for (int entry = 0; entry < size; entry++) {
+      if (slots[entry] >= 0) {
+        slots[entry] = resizer.getNewSlot(slots[entry]);
+      }
+    }
+    rehash(table.length);
+  }
+
+  private void rehash(int capacity) {
+    table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+    mask = capacity - 1;
+    for (int entry = 0; entry < size; entry++) {
+      final int slot = slots[entry];
+      if (slot < 0) {
+        continue;
+      }
+      int pos = hash(slot) & mask;
+      while (table[pos] != EMPTY) {
+        pos = (pos + 1) & mask;
+      }
+      table[pos] = entry;
+    }
+  }
+
+  private static int hash(int slot) {
+    final int h = slot * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
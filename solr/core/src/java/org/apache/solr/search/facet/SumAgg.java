@@ -18,8 +18,10 @@ package org.apache.solr.search.facet;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.Date;
 import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.schema.SchemaField;
@@ -47,6 +49,9 @@ public class SumAgg extends SimpleAggValueSource {
       if (sf.multiValued() || sf.getType().multiValuedFieldCache()) {
         if (sf.hasDocValues()) {
           if (sf.getType().isPointField()) {
+            if (SlotAcc.isSparse(fcontext, numSlots)) {
+              return new SparseSumAcc(fcontext, sf);
+            }
             return new SumSortedNumericAcc(fcontext, sf, numSlots);
           }
           return new SumSortedSetAcc(fcontext, sf, numSlots);
@@ -60,6 +65,9 @@ public class SumAgg extends SimpleAggValueSource {
       }
       vs = sf.getType().getValueSource(sf, null);
     }
+    if (SlotAcc.isSparse(fcontext, numSlots)) {
+      return new SparseSumAcc(fcontext, vs);
+    }
     return new SlotAcc.SumSlotAcc(vs, fcontext, numSlots);
   }
 
@@ -82,6 +90,48 @@ public class SumAgg extends SimpleAggValueSource {
     }
   }
 
+  static class SparseSumAcc extends SparseNumericSlotAcc {
+    double[] result = new double[0];
+
+    public SparseSumAcc(FacetContext fcontext, ValueSource vs) {
+      super(fcontext, vs);
+    }
+
+    public SparseSumAcc(FacetContext fcontext, SchemaField sf) {
+      super(fcontext, sf);
+    }
+
+    @Override
+    protected void grow(int numEntries) {
+      result = ArrayUtil.grow(result, numEntries);
+    }
+
+    @Override
+    protected void collectValue(int entry, double val) {
+      result[entry] += val;
+    }
+
+    @Override
+    protected void clear(int numEntries) {
+      Arrays.fill(result, 0, numEntries, 0);
+    }
+
+    private double sum(int slot) {
+      final int entry = slots.find(slot);
+      return entry < 0 ? 0 : result[entry];
+    }
+
+    @Override
+    public int compare(int slotA, int slotB) {
+      return Double.compare(sum(slotA), sum(slotB));
+    }
+
+    @Override
+    public Object getValue(int slot) {
+      return sum(slot);
+    }
+  }
+
   static class SumSortedNumericAcc extends DocValuesAcc.DoubleSortedNumericDVAcc {
 
     public SumSortedNumericAcc(FacetContext fcontext, SchemaField sf, int numSlots)
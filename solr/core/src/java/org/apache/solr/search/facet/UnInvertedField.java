@@ -16,6 +16,7 @@
  */
 package org.apache.solr.search.facet;
 
+import com.carrotsearch.hppc.IntArrayList;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
@@ -23,22 +24,30 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BitSetIterator;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CharsRefBuilder;
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.packed.PackedInts;
 import org.apache.solr.common.SolrException;
-import org.apache.solr.index.SlowCompositeReaderWrapper;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.TrieField;
 import org.apache.solr.search.BitDocSet;
 import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SegmentFieldValueCache;
 import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.facet.SlotAcc.CountSlotAcc;
@@ -56,31 +65,45 @@ import org.slf4j.LoggerFactory;
  * Final form of the un-inverted field: Each document points to a list of term numbers that are
  * contained in that document.
  *
- * <p>Term numbers are in sorted order, and are encoded as variable-length deltas from the previous
- * term number. Real term numbers start at 2 since 0 and 1 are reserved. A term number of 0 signals
- * the end of the termNumber list.
+ * <p>The field is un-inverted one segment at a time (see {@link Segment}), and the un-inverted
+ * segments are kept by segment core in the segment store of the {@link SegmentFieldValueCache}:
+ * when a new searcher is opened, only its new segments are un-inverted, and the others are shared
+ * with the previous searchers. Deletions are not taken into account when un-inverting, so that a
+ * segment is reused even when only its deletions changed. The term numbers of the segments are
+ * mapped to the term numbers of the whole index, in sorted order, with an {@link OrdinalMap} that
+ * is built for each searcher.
  *
- * <p>There is a single int[maxDoc()] which either contains a pointer into a byte[] for the
- * termNumber lists, or directly contains the termNumber list if it fits in the 4 bytes of an
+ * <p>Within a segment, term numbers are in sorted order, and are encoded as variable-length deltas
+ * from the previous term number. Real term numbers start at 2 since 0 and 1 are reserved. A term
+ * number of 0 signals the end of the termNumber list.
+ *
+ * <p>There is a single int[maxDoc()] per segment which either contains a pointer into a byte[] for
+ * the termNumber lists, or directly contains the termNumber list if it fits in the 4 bytes of an
  * integer. If the first byte in the integer is 1, the next 3 bytes are a pointer into a byte[]
  * where the termNumber list starts.
  *
  * <p>There are actually 256 byte arrays, to compensate for the fact that the pointers into the byte
  * arrays are only 3 bytes long. The correct byte array for a document is a function of its id.
  *
- * <p>To save space and speed up faceting, any term that matches enough documents will not be
- * un-inverted... it will be skipped while building the un-inverted field structure, and will use a
- * set intersection method during faceting.
+ * <p>To save space and speed up faceting, any term that matches enough documents of a segment will
+ * not be un-inverted... it will be skipped while building the un-inverted segment, and will use a
+ * set intersection method during faceting, in all of the segments.
  *
  * <p>To further save memory, the terms (the actual string values) are not all stored in memory, but
  * a TermIndex is used to convert term numbers to term values only for the terms needed after
- * faceting has completed. Only every 128th term value is stored, along with its corresponding term
- * number, and this is used as an index to find the closest term and iterate until the desired
- * number is hit (very much like Lucene's own internal term index).
+ * faceting has completed. Only every 128th term value of each segment is stored, along with its
+ * corresponding term number, and this is used as an index to find the closest term and iterate
+ * until the desired number is hit (very much like Lucene's own internal term index).
  */
-public class UnInvertedField extends DocTermOrds {
+public class UnInvertedField {
   private static int TNUM_OFFSET = 2;
 
+  /**
+   * The least number of documents of a segment that a term must be in to not be un-inverted, so
+   * that the small segments of a near real-time index don't make many big terms.
+   */
+  static final int MIN_BIG_TERM_DOC_FREQ = 32;
+
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   static class TopTerm {
@@ -99,81 +122,64 @@ public class UnInvertedField extends DocTermOrds {
     }
   }
 
+  final String field;
+  private final SolrIndexSearcher searcher;
+
+  /** The un-inverted segments, by leaf of the searcher. */
+  private final Leaf[] leaves;
+
+  private final int[] docStarts;
+
+  /** Maps the term numbers of the segments to the term numbers of the whole index. */
+  private final OrdinalMap ordinalMap;
+
+  int numTermsInField;
+  long termInstances;
+  int numUninvertedSegments; // the number of segments that were not un-inverted yet
+  int total_time; // in ms
+
   long memsz;
   final AtomicLong use = new AtomicLong(); // number of uses
 
-  /* The number of documents holding the term {@code maxDocs = maxTermCounts[termNum]}. */
-  int[] maxTermCounts = new int[1024];
+  /*
+   * The number of documents holding the term {@code maxDocs = maxTermCounts[termNum]}, including
+   * deleted ones.
+   */
+  int[] maxTermCounts;
+
+  /* The term numbers of the big terms. */
+  private final FixedBitSet bigTermNums;
 
   /* termNum -> docIDs for big terms. */
   final Map<Integer, TopTerm> bigTerms = new LinkedHashMap<>();
 
-  private SolrIndexSearcher.DocsEnumState deState;
-  private final SolrIndexSearcher searcher;
-
   private static final UnInvertedField uifPlaceholder = new UnInvertedField();
 
   private UnInvertedField() { // Dummy for synchronization.
-    super("fake", 0, 0); // cheapest initialization I can find.
+    field = "fake";
     searcher = null;
+    leaves = new Leaf[0];
+    docStarts = new int[1];
+    ordinalMap = null;
+    maxTermCounts = new int[0];
+    bigTermNums = new FixedBitSet(0);
   }
 
   /**
-   * Called for each term in the field being uninverted. Collects {@link #maxTermCounts} for all
-   * bigTerms as well as storing them in {@link #bigTerms}.
-   *
-   * @param te positioned at the current term.
-   * @param termNum the ID/pointer/ordinal of the current term. Monotonically increasing between
-   *     calls.
+   * The heap used by this searcher's view of the field. The segments kept in the segment store of a
+   * {@link SegmentFieldValueCache} are shared with other searchers, and are accounted by the store.
    */
-  @Override
-  protected void visitTerm(TermsEnum te, int termNum) throws IOException {
-
-    if (termNum >= maxTermCounts.length) {
-      // resize by doubling - for very large number of unique terms, expanding
-      // by 4K and resultant GC will dominate uninvert times.  Resize at end if material
-      int[] newMaxTermCounts = new int[Math.min(Integer.MAX_VALUE - 16, maxTermCounts.length * 2)];
-      System.arraycopy(maxTermCounts, 0, newMaxTermCounts, 0, termNum);
-      maxTermCounts = newMaxTermCounts;
-    }
-
-    final BytesRef term = te.term();
-
-    if (te.docFreq() > maxTermDocFreq) {
-      Term t = new Term(field, term); // this makes a deep copy of the term bytes
-      TopTerm topTerm = new TopTerm();
-      topTerm.term = t.bytes();
-      topTerm.termNum = termNum;
-      topTerm.termQuery = new TermQuery(t);
-
-      bigTerms.put(topTerm.termNum, topTerm);
-
-      if (deState == null) {
-        deState = new SolrIndexSearcher.DocsEnumState();
-        deState.fieldName = field;
-        deState.liveDocs = searcher.getLiveDocsBits();
-        // TODO: check for MultiTermsEnum in SolrIndexSearcher could now fail?
-        deState.termsEnum = te;
-        deState.postingsEnum = postingsEnum;
-        deState.minSetSizeCached = maxTermDocFreq;
-      }
-
-      postingsEnum = deState.postingsEnum;
-      DocSet set = searcher.getDocSet(deState);
-      maxTermCounts[termNum] = set.size();
-    }
-  }
-
-  @Override
-  protected void setActualDocFreq(int termNum, int docFreq) {
-    maxTermCounts[termNum] = docFreq;
-  }
-
   public long memSize() {
     // can cache the mem size since it shouldn't change
     if (memsz != 0) return memsz;
-    long sz = super.ramBytesUsed();
-    sz += 8 * 8 + 32; // local fields
+    long sz = 8 * 8 + 32; // local fields
+    for (Leaf leaf : leaves) {
+      sz += 32;
+      if (!leaf.shared) sz += leaf.segment.ramBytesUsed();
+      if (leaf.bigTermOrds != null) sz += leaf.bigTermOrds.ramBytesUsed();
+    }
+    sz += bigTermNums.ramBytesUsed();
+    if (ordinalMap != null) sz += ordinalMap.ramBytesUsed();
     sz += bigTerms.size() * 64L;
     for (TopTerm tt : bigTerms.values()) {
       sz += tt.memSize();
@@ -184,59 +190,335 @@ public class UnInvertedField extends DocTermOrds {
   }
 
   public UnInvertedField(String field, SolrIndexSearcher searcher) throws IOException {
-    super(
-        field,
-        // threshold, over which we use set intersections instead of counting
-        // to (1) save memory, and (2) speed up faceting.
-        // Add 2 for testing purposes so that there will always be some terms under
-        // the threshold even when the index is very
-        // small.
-        searcher.maxDoc() / 20 + 2,
-        DEFAULT_INDEX_INTERVAL_BITS);
+    this.field = field;
+    this.searcher = searcher;
 
     assert TestInjection.injectUIFOutOfMemoryError();
 
+    final long startTime = System.nanoTime();
     final String prefix = TrieField.getMainValuePrefix(searcher.getSchema().getFieldType(field));
-    this.searcher = searcher;
+    // DocTermOrds will throw an exception if it thinks the field has doc values (which is faked by
+    // UnInvertingReader), so un-invert the segments of the raw reader
+    final List<LeafReaderContext> leafContexts = searcher.getRawReader().leaves();
+    final int numLeaves = leafContexts.size();
+    final Segment[] segments = new Segment[numLeaves];
+    final boolean[] shared = new boolean[numLeaves];
+    final SegmentFieldValueCache segmentCache =
+        searcher.getFieldValueCache() instanceof SegmentFieldValueCache c ? c : null;
+    docStarts = new int[numLeaves + 1];
     try {
-      // TODO: it's wasteful to create one of these each time
-      // but DocTermOrds will throw an exception if it thinks the field has doc values (which is
-      // faked by UnInvertingReader)
-      LeafReader r = SlowCompositeReaderWrapper.wrap(searcher.getRawReader());
-      uninvert(r, r.getLiveDocs(), prefix == null ? null : new BytesRef(prefix));
+      for (int i = 0; i < numLeaves; i++) {
+        final LeafReader reader = leafContexts.get(i).reader();
+        final IndexReader.CacheHelper cacheHelper = reader.getCoreCacheHelper();
+        shared[i] = segmentCache != null && cacheHelper != null;
+        segments[i] =
+            shared[i]
+                ? getSegment(segmentCache, cacheHelper, reader, field, prefix)
+                : uninvert(reader, field, prefix);
+        docStarts[i] = leafContexts.get(i).docBase;
+      }
     } catch (IllegalStateException ise) {
       throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, ise);
     }
-    if (tnums != null) {
-      for (byte[] target : tnums) {
-        if (target != null && target.length > (1 << 24) * .9) {
-          log.warn(
-              "Approaching too many values for UnInvertedField faceting on field '{}' : bucket size={}",
-              field,
-              target.length);
+    docStarts[numLeaves] = searcher.maxDoc();
+
+    final TermsEnum[] termsEnums = new TermsEnum[numLeaves];
+    final long[] weights = new long[numLeaves];
+    for (int i = 0; i < numLeaves; i++) {
+      final TermsEnum te = segments[i].getOrdTermsEnum(leafContexts.get(i).reader());
+      termsEnums[i] = te == null ? TermsEnum.EMPTY : te;
+      weights[i] = segments[i].numTerms();
+      termInstances += segments[i].termInstances();
+    }
+    final IndexReader.CacheHelper cacheHelper = searcher.getRawReader().getReaderCacheHelper();
+    ordinalMap =
+        OrdinalMap.build(
+            cacheHelper == null ? null : cacheHelper.getKey(),
+            termsEnums,
+            weights,
+            PackedInts.DEFAULT);
+    numTermsInField = Math.toIntExact(ordinalMap.getValueCount());
+
+    // a term that is big in any of the segments is counted with set intersections in all of them
+    bigTermNums = new FixedBitSet(numTermsInField);
+    for (int i = 0; i < numLeaves; i++) {
+      final LongValues termNums = ordinalMap.getGlobalOrds(i);
+      for (int ord : segments[i].bigOrds) {
+        bigTermNums.set((int) termNums.get(ord));
+      }
+    }
+
+    maxTermCounts = new int[numTermsInField];
+    leaves = new Leaf[numLeaves];
+    for (int i = 0; i < numLeaves; i++) {
+      final Segment segment = segments[i];
+      final LongValues termNums = ordinalMap.getGlobalOrds(i);
+      FixedBitSet bigTermOrds = null;
+      for (int ord = 0; ord < segment.numTerms(); ord++) {
+        final int termNum = (int) termNums.get(ord);
+        final int docFreq = segment.docFreqs[ord];
+        if (!bigTermNums.get(termNum)) {
+          maxTermCounts[termNum] += docFreq;
+        } else if (docFreq != Segment.BIG_TERM) {
+          // un-inverted in this segment, but counted with set intersections
+          if (bigTermOrds == null) {
+            bigTermOrds = new FixedBitSet(segment.numTerms());
+          }
+          bigTermOrds.set(ord);
         }
       }
+      leaves[i] =
+          new Leaf(
+              segment,
+              leafContexts.get(i).reader(),
+              docStarts[i],
+              docStarts[i + 1] - docStarts[i],
+              termNums,
+              bigTermOrds,
+              shared[i]);
     }
 
-    // free space if outrageously wasteful (tradeoff memory/cpu)
-    if ((maxTermCounts.length - numTermsInField) > 1024) { // too much waste!
-      int[] newMaxTermCounts = new int[numTermsInField];
-      System.arraycopy(maxTermCounts, 0, newMaxTermCounts, 0, numTermsInField);
-      maxTermCounts = newMaxTermCounts;
+    if (bigTermNums.cardinality() > 0) {
+      final TermLookup lookup = new TermLookup();
+      final BitSetIterator it = new BitSetIterator(bigTermNums, 0);
+      for (int termNum = it.nextDoc();
+          termNum != DocIdSetIterator.NO_MORE_DOCS;
+          termNum = it.nextDoc()) {
+        Term t = new Term(field, BytesRef.deepCopyOf(lookup.lookupSegmentTerm(termNum)));
+        TopTerm topTerm = new TopTerm();
+        topTerm.term = t.bytes();
+        topTerm.termNum = termNum;
+        topTerm.termQuery = new TermQuery(t);
+        bigTerms.put(topTerm.termNum, topTerm);
+        // including deleted documents, as for the other terms
+        maxTermCounts[termNum] = searcher.getRawReader().docFreq(t);
+      }
     }
 
+    total_time = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
     log.info("UnInverted multi-valued field {}", this);
-    // System.out.println("CREATED: " + toString() + " ti.index=" + ti.index);
+  }
+
+  /**
+   * Returns the un-inverted segment from the segment store of the fieldValueCache, un-inverting it
+   * if no searcher did already.
+   */
+  private Segment getSegment(
+      SegmentFieldValueCache segmentCache,
+      IndexReader.CacheHelper cacheHelper,
+      LeafReader reader,
+      String field,
+      String prefix)
+      throws IOException {
+    final String key = prefix == null ? field : field + '\u0000' + prefix;
+    return (Segment)
+        segmentCache.getSegment(key, cacheHelper, () -> uninvert(reader, field, prefix));
+  }
+
+  private Segment uninvert(LeafReader reader, String field, String prefix) throws IOException {
+    numUninvertedSegments++;
+    return new Segment(reader, field, prefix);
   }
 
   public int getNumTerms() {
     return numTermsInField;
   }
 
+  /** Returns the number of terms in this field */
+  public int numTerms() {
+    return numTermsInField;
+  }
+
+  /**
+   * The un-inverted form of the field for the documents of a segment, including the deleted ones,
+   * and with the term numbers of the segment.
+   */
+  static final class Segment extends DocTermOrds {
+    /** The document frequency of the terms that are not un-inverted */
+    static final int BIG_TERM = -1;
+
+    /** The number of documents holding each term, including deleted ones, or {@link #BIG_TERM} */
+    int[] docFreqs = new int[1024];
+
+    /** The ordinals of the terms that are not un-inverted */
+    int[] bigOrds;
+
+    private IntArrayList bigOrdsList = new IntArrayList();
+
+    Segment(LeafReader reader, String field, String prefix) throws IOException {
+      super(
+          field,
+          // threshold, over which we use set intersections instead of counting
+          // to (1) save memory, and (2) speed up faceting.
+          Math.max(reader.maxDoc() / 20, MIN_BIG_TERM_DOC_FREQ) + 2,
+          DEFAULT_INDEX_INTERVAL_BITS);
+      uninvert(reader, null, prefix == null ? null : new BytesRef(prefix));
+
+      if (tnums != null) {
+        for (byte[] target : tnums) {
+          if (target != null && target.length > (1 << 24) * .9) {
+            log.warn(
+                "Approaching too many values for UnInvertedField faceting on field '{}' : bucket size={}",
+                field,
+                target.length);
+          }
+        }
+      }
+
+      if (docFreqs.length != numTermsInField) {
+        int[] newDocFreqs = new int[numTermsInField];
+        System.arraycopy(docFreqs, 0, newDocFreqs, 0, numTermsInField);
+        docFreqs = newDocFreqs;
+      }
+      bigOrds = bigOrdsList.toArray();
+      bigOrdsList = null;
+    }
+
+    @Override
+    protected void visitTerm(TermsEnum te, int termNum) throws IOException {
+      if (termNum >= docFreqs.length) {
+        // resize by doubling - for very large number of unique terms, expanding
+        // by 4K and resultant GC will dominate uninvert times.  Resize at end if material
+        int[] newDocFreqs = new int[Math.min(Integer.MAX_VALUE - 16, docFreqs.length * 2)];
+        System.arraycopy(docFreqs, 0, newDocFreqs, 0, termNum);
+        docFreqs = newDocFreqs;
+      }
+      if (te.docFreq() > maxTermDocFreq) {
+        docFreqs[termNum] = BIG_TERM;
+        bigOrdsList.add(termNum);
+      }
+    }
+
+    @Override
+    protected void setActualDocFreq(int termNum, int docFreq) {
+      docFreqs[termNum] = docFreq;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+      return super.ramBytesUsed() + docFreqs.length * 4L + bigOrds.length * 4L;
+    }
+
+    int[] docIndex() {
+      return index;
+    }
+
+    byte[][] docTermNums() {
+      return tnums;
+    }
+
+    long termInstances() {
+      return termInstances;
+    }
+
+    long termIndexSize() {
+      return indexedTermsArray == null
+          ? 0
+          : (8
+              + 8
+              + 8
+              + 8
+              + (indexedTermsArray.length << 3)
+              + sizeOfIndexedStrings); // assume 8 byte references?
+    }
+  }
+
+  /** An un-inverted segment, as a leaf of the searcher. */
+  private static final class Leaf {
+    final Segment segment;
+    final LeafReader reader;
+    final int docBase;
+    final int maxDoc;
+
+    /** Maps the term numbers of the segment to the term numbers of the field */
+    final LongValues termNums;
+
+    /** The terms un-inverted in this segment but not in another one, or null if none */
+    final FixedBitSet bigTermOrds;
+
+    /** Whether the segment is kept in the segment store, and shared with other searchers */
+    final boolean shared;
+
+    Leaf(
+        Segment segment,
+        LeafReader reader,
+        int docBase,
+        int maxDoc,
+        LongValues termNums,
+        FixedBitSet bigTermOrds,
+        boolean shared) {
+      this.segment = segment;
+      this.reader = reader;
+      this.docBase = docBase;
+      this.maxDoc = maxDoc;
+      this.termNums = termNums;
+      this.bigTermOrds = bigTermOrds;
+      this.shared = shared;
+    }
+
+    /** Returns the term number of a term of the segment, or -1 if it is one of the big terms */
+    int termNum(int ord) {
+      if (bigTermOrds != null && bigTermOrds.get(ord)) {
+        return -1;
+      }
+      return (int) termNums.get(ord);
+    }
+  }
+
+  private Leaf leafOf(int doc) {
+    return leaves[ReaderUtil.subIndex(doc, docStarts)];
+  }
+
+  /** Looks up the values of the terms by term number, and the term numbers by value. */
+  public class TermLookup {
+    private final TermsEnum[] termsEnums = new TermsEnum[leaves.length];
+
+    private TermsEnum termsEnum(int leafIndex) throws IOException {
+      TermsEnum te = termsEnums[leafIndex];
+      if (te == null) {
+        final Leaf leaf = leaves[leafIndex];
+        // "te" can be null
+        te = termsEnums[leafIndex] = leaf.segment.getOrdTermsEnum(leaf.reader);
+      }
+      return te;
+    }
+
+    /** may return a reused BytesRef */
+    public BytesRef lookupOrd(int termNum) throws IOException {
+      if (bigTerms.size() > 0) {
+        // see if the term is one of our big terms.
+        TopTerm tt = bigTerms.get(termNum);
+        if (tt != null) {
+          return tt.term;
+        }
+      }
+      return lookupSegmentTerm(termNum);
+    }
+
+    BytesRef lookupSegmentTerm(int termNum) throws IOException {
+      final int leafIndex = ordinalMap.getFirstSegmentNumber(termNum);
+      final int ord = (int) ordinalMap.getFirstSegmentOrd(termNum);
+      return leaves[leafIndex].segment.lookupTerm(termsEnum(leafIndex), ord);
+    }
+
+    /** Returns the number of the first term that is greater than or equal to the target */
+    public int seekCeil(BytesRef target) throws IOException {
+      int ceil = numTermsInField;
+      for (int i = 0; i < leaves.length; i++) {
+        final TermsEnum te = termsEnum(i);
+        if (te != null && te.seekCeil(target) != TermsEnum.SeekStatus.END) {
+          ceil = Math.min(ceil, (int) leaves[i].termNums.get(te.ord()));
+        }
+      }
+      return ceil;
+    }
+  }
+
   public class DocToTerm implements Closeable {
     private final DocSet[] bigTermSets;
     private final int[] bigTermNums;
-    private TermsEnum te;
+    private final TermLookup lookup = new TermLookup();
+    private Leaf leaf; // the leaf of the last document
 
     public DocToTerm() throws IOException {
       bigTermSets = new DocSet[bigTerms.size()];
@@ -250,14 +532,7 @@ public class UnInvertedField extends DocTermOrds {
     }
 
     public BytesRef lookupOrd(int ord) throws IOException {
-      return getTermValue(getTermsEnum(), ord);
-    }
-
-    public TermsEnum getTermsEnum() throws IOException {
-      if (te == null) {
-        te = getOrdTermsEnum(searcher.getSlowAtomicReader());
-      }
-      return te;
+      return lookup.lookupOrd(ord);
     }
 
     public void getBigTerms(int doc, Callback target) throws IOException {
@@ -272,12 +547,21 @@ public class UnInvertedField extends DocTermOrds {
 
     public void getSmallTerms(int doc, Callback target) {
       if (termInstances > 0) {
-        int code = index[doc];
+        Leaf leaf = this.leaf;
+        if (leaf == null || doc < leaf.docBase || doc >= leaf.docBase + leaf.maxDoc) {
+          leaf = this.leaf = leafOf(doc);
+        }
+        final int[] index = leaf.segment.docIndex();
+        if (index == null) {
+          return;
+        }
+        final int segDoc = doc - leaf.docBase;
+        int code = index[segDoc];
 
         if ((code & 0x80000000) != 0) {
           int pos = code & 0x7fffffff;
-          int whichArray = (doc >>> 16) & 0xff;
-          byte[] arr = tnums[whichArray];
+          int whichArray = (segDoc >>> 16) & 0xff;
+          byte[] arr = leaf.segment.docTermNums()[whichArray];
           int tnum = 0;
           for (; ; ) {
             int delta = 0;
@@ -288,7 +572,10 @@ public class UnInvertedField extends DocTermOrds {
             }
             if (delta == 0) break;
             tnum += delta - TNUM_OFFSET;
-            target.call(tnum);
+            int termNum = leaf.termNum(tnum);
+            if (termNum >= 0) {
+              target.call(termNum);
+            }
           }
         } else {
           int tnum = 0;
@@ -298,7 +585,10 @@ public class UnInvertedField extends DocTermOrds {
             if ((code & 0x80) == 0) {
               if (delta == 0) break;
               tnum += delta - TNUM_OFFSET;
-              target.call(tnum);
+              int termNum = leaf.termNum(tnum);
+              if (termNum >= 0) {
+                target.call(termNum);
+              }
               delta = 0;
             }
             code >>>= 8;
@@ -332,14 +622,15 @@ public class UnInvertedField extends DocTermOrds {
     SweepCountAccStruct baseCountAccStruct = SweepingCountSlotAcc.baseStructOf(processor);
     final List<SweepCountAccStruct> others = SweepingCountSlotAcc.otherStructsOf(processor);
 
-    final int[] index = this.index;
-
     boolean doNegative =
         baseSize > maxDoc >> 1
             && termInstances > 0
             && docs instanceof BitDocSet
             && baseCountAccStruct != null;
 
+    // the big terms are counted on the base set even when the other terms are counted on its
+    // complement, which holds the deleted documents that maxTermCounts counts
+    final SweepCountAccStruct bigTermsBase = baseCountAccStruct;
     if (doNegative) {
       FixedBitSet bs = ((BitDocSet) docs).getBits().clone();
       bs.flip(0, maxDoc);
@@ -347,7 +638,7 @@ public class UnInvertedField extends DocTermOrds {
       // instead of creating a new bitset and inverting.
       docs = new BitDocSet(bs, maxDoc - baseSize);
       // simply negating will mean that we have deleted docs in the set.
-      // that should be OK, as their entries in our table should be empty.
+      // that should be OK, as maxTermCounts counts them as well for the small terms.
       baseCountAccStruct = new SweepCountAccStruct(baseCountAccStruct, docs);
     }
 
@@ -356,8 +647,7 @@ public class UnInvertedField extends DocTermOrds {
       // TODO: counts could be deferred if sorting by index order
       final int termOrd = tt.termNum;
       Iterator<SweepCountAccStruct> othersIter = others.iterator();
-      SweepCountAccStruct entry =
-          baseCountAccStruct != null ? baseCountAccStruct : othersIter.next();
+      SweepCountAccStruct entry = bigTermsBase != null ? bigTermsBase : othersIter.next();
       for (; ; ) {
         entry.countAcc.incrementCount(termOrd, searcher.numDocs(tt.termQuery, entry.docSet));
         if (!othersIter.hasNext()) {
@@ -375,14 +665,30 @@ public class UnInvertedField extends DocTermOrds {
           SweepDocIterator.newInstance(baseCountAccStruct, others);
       final SweepDocIterator iter = iterAndCounts.iter;
       final SegCountGlobal counts = new SegCountGlobal(iterAndCounts.countAccs);
+      Leaf leaf = null;
+      int[] index = null;
+      byte[][] tnums = null;
+      int segBase = 0;
+      int segEnd = 0;
       while (iter.hasNext()) {
         int doc = iter.nextDoc();
         int maxIdx = iter.registerCounts(counts);
-        int code = index[doc];
+        if (doc >= segEnd) {
+          leaf = leafOf(doc);
+          index = leaf.segment.docIndex();
+          tnums = leaf.segment.docTermNums();
+          segBase = leaf.docBase;
+          segEnd = segBase + leaf.maxDoc;
+        }
+        if (index == null) {
+          continue; // nothing un-inverted in this segment
+        }
+        int segDoc = doc - segBase;
+        int code = index[segDoc];
 
         if ((code & 0x80000000) != 0) {
           int pos = code & 0x7fffffff;
-          int whichArray = (doc >>> 16) & 0xff;
+          int whichArray = (segDoc >>> 16) & 0xff;
           byte[] arr = tnums[whichArray];
           int tnum = 0;
           for (; ; ) {
@@ -394,7 +700,10 @@ public class UnInvertedField extends DocTermOrds {
             }
             if (delta == 0) break;
             tnum += delta - TNUM_OFFSET;
-            counts.incrementCount(tnum, 1, maxIdx);
+            int termNum = leaf.termNum(tnum);
+            if (termNum >= 0) {
+              counts.incrementCount(termNum, 1, maxIdx);
+            }
           }
         } else {
           int tnum = 0;
@@ -404,7 +713,10 @@ public class UnInvertedField extends DocTermOrds {
             if ((code & 0x80) == 0) {
               if (delta == 0) break;
               tnum += delta - TNUM_OFFSET;
-              counts.incrementCount(tnum, 1, maxIdx);
+              int termNum = leaf.termNum(tnum);
+              if (termNum >= 0) {
+                counts.incrementCount(termNum, 1, maxIdx);
+              }
               delta = 0;
             }
             code >>>= 8;
@@ -416,6 +728,9 @@ public class UnInvertedField extends DocTermOrds {
     if (doNegative) {
       final CountSlotAcc baseCounts = processor.countAcc;
       for (int i = 0; i < numTermsInField; i++) {
+        if (bigTermNums.get(i)) {
+          continue;
+        }
         //       counts[i] = maxTermCounts[i] - counts[i];
         baseCounts.incrementCount(i, maxTermCounts[i] - (int) baseCounts.getCount(i) * 2);
       }
@@ -483,9 +798,12 @@ public class UnInvertedField extends DocTermOrds {
 
     if (termInstances > 0) {
 
-      final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
-      final Iterator<LeafReaderContext> ctxIt = leaves.iterator();
+      final List<LeafReaderContext> leafContexts = searcher.getIndexReader().leaves();
+      final Iterator<LeafReaderContext> ctxIt = leafContexts.iterator();
       LeafReaderContext ctx = null;
+      Leaf leaf = null;
+      int[] index = null;
+      byte[][] tnums = null;
       int segBase = 0;
       int segMax;
       int adjustedMax = 0;
@@ -515,14 +833,20 @@ public class UnInvertedField extends DocTermOrds {
           } while (doc >= adjustedMax);
           assert doc >= ctx.docBase;
           processor.setNextReaderFirstPhase(ctx);
+          leaf = leaves[ctx.ord];
+          index = leaf.segment.docIndex();
+          tnums = leaf.segment.docTermNums();
+        }
+        if (index == null) {
+          continue; // nothing un-inverted in this segment
         }
         int segDoc = doc - segBase;
 
-        int code = index[doc];
+        int code = index[segDoc];
 
         if ((code & 0x80000000) != 0) {
           int pos = code & 0x7fffffff;
-          int whichArray = (doc >>> 16) & 0xff;
+          int whichArray = (segDoc >>> 16) & 0xff;
           byte[] arr = tnums[whichArray];
           int tnum = 0;
           for (; ; ) {
@@ -534,7 +858,9 @@ public class UnInvertedField extends DocTermOrds {
             }
             if (delta == 0) break;
             tnum += delta - TNUM_OFFSET;
-            int arrIdx = tnum - startTermIndex;
+            int termNum = leaf.termNum(tnum);
+            if (termNum < 0) continue;
+            int arrIdx = termNum - startTermIndex;
             if (arrIdx < 0) continue;
             if (arrIdx >= nTerms) break;
             counts.incrementCount(arrIdx, 1, maxIdx);
@@ -550,8 +876,9 @@ public class UnInvertedField extends DocTermOrds {
             if ((code & 0x80) == 0) {
               if (delta == 0) break;
               tnum += delta - TNUM_OFFSET;
-              int arrIdx = tnum - startTermIndex;
-              if (arrIdx >= 0) {
+              int termNum = leaf.termNum(tnum);
+              int arrIdx = termNum - startTermIndex;
+              if (termNum >= 0 && arrIdx >= 0) {
                 if (arrIdx >= nTerms) break;
                 counts.incrementCount(arrIdx, 1, maxIdx);
                 if (collectBase) {
@@ -571,33 +898,12 @@ public class UnInvertedField extends DocTermOrds {
     return ft.indexedToReadable(termval, charsRef).toString();
   }
 
-  /** may return a reused BytesRef */
-  BytesRef getTermValue(TermsEnum te, int termNum) throws IOException {
-    // System.out.println("getTermValue termNum=" + termNum + " this=" + this + " numTerms=" +
-    // numTermsInField);
-    if (bigTerms.size() > 0) {
-      // see if the term is one of our big terms.
-      TopTerm tt = bigTerms.get(termNum);
-      if (tt != null) {
-        // System.out.println("  return big " + tt.term);
-        return tt.term;
-      }
-    }
-
-    return lookupTerm(te, termNum);
-  }
-
   @Override
   public String toString() {
-    final long indexSize =
-        indexedTermsArray == null
-            ? 0
-            : (8
-                + 8
-                + 8
-                + 8
-                + (indexedTermsArray.length << 3)
-                + sizeOfIndexedStrings); // assume 8 byte references?
+    long indexSize = 0;
+    for (Leaf leaf : leaves) {
+      indexSize += leaf.segment.termIndexSize();
+    }
     return "{field="
         + field
         + ",memSize="
@@ -606,8 +912,10 @@ public class UnInvertedField extends DocTermOrds {
         + indexSize
         + ",time="
         + total_time
-        + ",phase1="
-        + phase1_time
+        + ",segments="
+        + leaves.length
+        + ",uninvertedSegments="
+        + numUninvertedSegments
         + ",nTerms="
         + numTermsInField
         + ",bigTerms="
@@ -79,11 +79,7 @@ class UniqueMultiDvSlotAcc extends UniqueSlotAcc {
       int segOrd = (int) subDv.nextOrd();
       assert segOrd >= 0;
 
-      FixedBitSet bits = arr[slotNum];
-      if (bits == null) {
-        bits = new FixedBitSet(nTerms);
-        arr[slotNum] = bits;
-      }
+      FixedBitSet bits = collectBits(slotNum);
 
       for (int o = 0; o < subDv.docValueCount(); o++) {
         int ord = toGlobal == null ? segOrd : (int) toGlobal.get(segOrd);
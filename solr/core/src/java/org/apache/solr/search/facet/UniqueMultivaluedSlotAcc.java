@@ -55,11 +55,7 @@ class UniqueMultivaluedSlotAcc extends UniqueSlotAcc implements UnInvertedField.
   @Override
   public void collect(int doc, int slotNum, IntFunction<SlotContext> slotContext)
       throws IOException {
-    bits = arr[slotNum];
-    if (bits == null) {
-      bits = new FixedBitSet(nTerms);
-      arr[slotNum] = bits;
-    }
+    bits = collectBits(slotNum);
     // this will call back to our Callback.call(int termNum)
     docToTerm.getBigTerms(doc + currentDocBase, this);
     docToTerm.getSmallTerms(doc + currentDocBase, this);
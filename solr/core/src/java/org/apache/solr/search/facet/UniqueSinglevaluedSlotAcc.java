@@ -86,11 +86,7 @@ class UniqueSinglevaluedSlotAcc extends UniqueSlotAcc {
   }
 
   protected void collectOrdToSlot(int slotNum, int ord) {
-    FixedBitSet bits = arr[slotNum];
-    if (bits == null) {
-      bits = new FixedBitSet(nTerms);
-      arr[slotNum] = bits;
-    }
+    FixedBitSet bits = collectBits(slotNum);
     bits.set(ord);
   }
 }
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.FixedBitSet;
 import org.apache.solr.common.util.Hash;
@@ -30,19 +31,53 @@ import org.apache.solr.util.hll.HLL;
 abstract class UniqueSlotAcc extends SlotAcc {
   HLLAgg.HLLFactory factory;
   SchemaField field;
-  FixedBitSet[] arr;
-  int[] counts; // populated with the cardinality once
+  FixedBitSet[] arr; // by slot, or by entry of sparseSlots
+  int[] counts; // populated with the cardinality once, indexed as arr
   int nTerms;
+  SparseSlots sparseSlots; // only if sparse, see SlotAcc.isSparse
 
   public UniqueSlotAcc(
       FacetContext fcontext, SchemaField field, int numSlots, HLLAgg.HLLFactory factory)
       throws IOException {
     super(fcontext);
     this.factory = factory;
-    arr = new FixedBitSet[numSlots];
+    if (isSparse(fcontext, numSlots)) {
+      sparseSlots = new SparseSlots();
+      arr = new FixedBitSet[0];
+    } else {
+      arr = new FixedBitSet[numSlots];
+    }
     this.field = field;
   }
 
+  /** Returns the index of the slot in arr and counts, or -1 if the slot wasn't collected */
+  private int index(int slot) {
+    return sparseSlots == null ? slot : sparseSlots.find(slot);
+  }
+
+  /** Returns the term ords collected for the slot, or null */
+  FixedBitSet getBits(int slot) {
+    final int index = index(slot);
+    return index < 0 ? null : arr[index];
+  }
+
+  /** Returns the term ords of the slot to collect into, created if needed */
+  FixedBitSet collectBits(int slot) {
+    int index = slot;
+    if (sparseSlots != null) {
+      index = sparseSlots.add(slot);
+      if (index >= arr.length) {
+        arr = ArrayUtil.grow(arr, index + 1);
+      }
+    }
+    FixedBitSet bits = arr[index];
+    if (bits == null) {
+      bits = new FixedBitSet(nTerms);
+      arr[index] = bits;
+    }
+    return bits;
+  }
+
   @Override
   public void reset() throws IOException {
     counts = null;
@@ -50,6 +85,10 @@ abstract class UniqueSlotAcc extends SlotAcc {
       if (bits == null) continue;
       bits.clear(0, bits.length());
     }
+    if (sparseSlots != null) {
+      // keep the cleared bits for reuse by the next slots
+      sparseSlots.clear();
+    }
   }
 
   @Override
@@ -63,17 +102,20 @@ abstract class UniqueSlotAcc extends SlotAcc {
   /** Returns the current slot value as long This is used to get non-sharded value */
   public long getNonShardValue(int slot) {
     long res;
-    if (counts != null) { // will only be pre-populated if this was used for sorting.
-      res = counts[slot];
+    final int index = index(slot);
+    if (index < 0) {
+      res = 0;
+    } else if (counts != null) { // will only be pre-populated if this was used for sorting.
+      res = counts[index];
     } else {
-      FixedBitSet bs = arr[slot];
+      FixedBitSet bs = arr[index];
       res = bs == null ? 0 : bs.cardinality();
     }
     return res;
   }
 
   private Object getShardHLL(int slot) throws IOException {
-    FixedBitSet ords = arr[slot];
+    FixedBitSet ords = getBits(slot);
     if (ords == null) return HLLAgg.NO_VALUES;
 
     HLL hll = factory.getHLL();
@@ -97,10 +139,10 @@ abstract class UniqueSlotAcc extends SlotAcc {
 
   private Object getShardValue(int slot) throws IOException {
     if (factory != null) return getShardHLL(slot);
-    FixedBitSet ords = arr[slot];
+    FixedBitSet ords = getBits(slot);
     int unique;
-    if (counts != null) {
-      unique = counts[slot];
+    if (counts != null && ords != null) {
+      unique = counts[index(slot)];
     } else {
       unique = ords == null ? 0 : ords.cardinality();
     }
@@ -150,11 +192,18 @@ abstract class UniqueSlotAcc extends SlotAcc {
     if (counts == null) { // TODO: a more efficient way to do this?  prepareSort?
       calcCounts();
     }
-    return counts[slotA] - counts[slotB];
+    final int indexA = index(slotA);
+    final int indexB = index(slotB);
+    return (indexA < 0 ? 0 : counts[indexA]) - (indexB < 0 ? 0 : counts[indexB]);
   }
 
   @Override
   public void resize(Resizer resizer) {
+    if (sparseSlots != null) {
+      // arr and counts are by entry, which don't change
+      sparseSlots.resize(resizer);
+      return;
+    }
     arr = resizer.resize(arr, null);
     if (counts != null) {
       counts = resizer.resize(counts, 0);
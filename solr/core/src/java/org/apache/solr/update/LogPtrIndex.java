@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.update.UpdateLog.LogPtr;
+
+/**
+ * The {@link LogPtr} of the latest update of each document id in a transaction log, without an
+ * object per entry: the ids are kept in the byte blocks of a {@link BytesRefHash}, and the pointer,
+ * version and previous pointer of the update of the n-th id at <code>3n</code>, <code>3n+1</code>
+ * and <code>3n+2</code> in a <code>long[]</code>. {@link LogPtr} instances are only created by
+ * lookups.
+ *
+ * <p>Not thread safe: {@link UpdateLog} accesses it while synchronized.
+ *
+ * @lucene.internal
+ */
+public final class LogPtrIndex implements Accountable {
+  private static final long BASE_RAM_BYTES_USED =
+      RamUsageEstimator.shallowSizeOfInstance(LogPtrIndex.class);
+  private static final int INITIAL_SIZE = 16;
+
+  private final BytesRefHash ids = new BytesRefHash();
+  private long[] entries = new long[3 * INITIAL_SIZE];
+
+  /** Sets the entry of an id, replacing any previous entry. The id's bytes are copied. */
+  public void put(BytesRef indexedId, LogPtr ptr) {
+    int id = ids.add(indexedId);
+    if (id < 0) {
+      id = -id - 1;
+    } else if (3 * id + 3 > entries.length) {
+      entries = ArrayUtil.grow(entries, 3 * id + 3);
+    }
+    entries[3 * id] = ptr.pointer;
+    entries[3 * id + 1] = ptr.version;
+    entries[3 * id + 2] = ptr.previousPointer;
+  }
+
+  /** The entry of an id, or null if there is none. */
+  public LogPtr get(BytesRef indexedId) {
+    int id = ids.find(indexedId);
+    if (id < 0) {
+      return null;
+    }
+    return new LogPtr(entries[3 * id], entries[3 * id + 1], entries[3 * id + 2]);
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  public void clear() {
+    ids.clear();
+    entries = new long[3 * INITIAL_SIZE];
+  }
+
+  @Override
+  public long ramBytesUsed() {
+    return BASE_RAM_BYTES_USED + ids.ramBytesUsed() + RamUsageEstimator.sizeOf(entries);
+  }
+
+  @Override
+  public String toString() {
+    return "LogPtrIndex(size=" + size() + ")";
+  }
+}
@@ -35,6 +35,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.IOUtils;
@@ -47,6 +48,8 @@ import org.apache.solr.common.util.FastInputStream;
 import org.apache.solr.common.util.FastOutputStream;
 import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.ObjectReleaseTracker;
+import org.apache.solr.metrics.otel.instruments.AttributedLongTimer;
+import org.apache.solr.metrics.otel.instruments.AttributedLongTimer.MetricTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -89,6 +92,13 @@ public class TransactionLog implements Closeable {
   protected Map<String, Integer> globalStringMap = new HashMap<>();
   protected List<String> globalStringList = new ArrayList<>();
 
+  // group fsync, see finishGroup
+  private final Object syncLock = new Object();
+  private long syncedPosition; // guarded by syncLock: everything before it has been fsynced
+  private boolean syncing; // guarded by syncLock: a caller of finishGroup is fsyncing
+  private long groupCallers; // guarded by this: the number of calls to finishGroup
+  private long syncedCallers; // guarded by this: groupCallers when the last fsync started
+
   // write a BytesRef as a byte array
   protected static final JavaBinCodec.ObjectResolver resolver =
       new JavaBinCodec.ObjectResolver() {
@@ -306,6 +316,78 @@ public class TransactionLog implements Closeable {
     return true;
   }
 
+  /**
+   * Truncates the log after its last complete record if it ends with an incomplete one, which a
+   * log that was being written when the process died may. Records that follow an incomplete record
+   * would neither be read by {@link LogReader} nor by {@link ReverseReader}, which relies on the
+   * size written after each record.
+   *
+   * <p>Checking a complete log only reads the size after each record, from the end of the log. An
+   * incomplete log is read from the start to find its last complete record. If not even the first
+   * record is complete, the log is left with its header only.
+   *
+   * @return the number of bytes truncated
+   */
+  public long truncateIncompleteRecord() throws IOException {
+    long size;
+    synchronized (this) {
+      fos.flush();
+      size = fos.size();
+    }
+    if (size == 0 || endsWithCompleteRecord(size)) {
+      return 0;
+    }
+
+    long end = 0;
+    LogReader reader = getReader(0);
+    try {
+      while (reader.next() != null) {
+        end = reader.currentPos();
+      }
+    } catch (IOException | RuntimeException e) {
+      // the incomplete record
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SolrException(ErrorCode.SERVER_ERROR, e);
+    } finally {
+      reader.close();
+    }
+
+    synchronized (this) {
+      fos.flush();
+      channel.truncate(end);
+      channel.position(end);
+      fos.setWritten(end);
+      if (end == 0) {
+        // The header, written with the first record, was read when the log was opened but no record
+        // follows it. Write it again rather than leaving an empty log behind.
+        writeLogHeader(new LogCodec(resolver));
+        fos.flush();
+        end = fos.size();
+      }
+    }
+    log.warn(
+        "Truncated {} bytes of an incomplete record at position {} in {}", size - end, end, tlog);
+    return size - end;
+  }
+
+  /** If the sizes after each record, read from the end of the log, lead to its start. */
+  private boolean endsWithCompleteRecord(long size) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(4);
+    long end = size;
+    while (end > 0) {
+      if (end < 4) return false;
+      buf.clear();
+      while (buf.hasRemaining()) {
+        if (channel.read(buf, end - 4 + buf.position()) < 0) return false;
+      }
+      int length = buf.getInt(0);
+      if (length <= 0 || length > end - 4) return false;
+      end -= length + 4L;
+    }
+    return end == 0;
+  }
+
   public long writeData(Object o) {
     @SuppressWarnings("resource")
     final LogCodec codec = new LogCodec(resolver);
@@ -632,6 +714,76 @@ public class TransactionLog implements Closeable {
     }
   }
 
+  /**
+   * Flushes and fsyncs the log like {@link #finish} with {@link UpdateLog.SyncLevel#FSYNC}, but
+   * concurrent callers share the fsyncs (group commit). A caller whose updates are not fsynced yet
+   * waits while another caller is fsyncing. Then the first caller to find no fsync in progress
+   * fsyncs everything flushed so far, and so the updates of all the callers that waited meanwhile.
+   *
+   * @param fsyncTime records the duration of the fsync of this caller, if not null
+   * @return the number of callers whose updates were covered by the fsync of this caller,
+   *     including itself, or 0 if another caller fsynced its updates
+   */
+  public int finishGroup(AttributedLongTimer fsyncTime) {
+    try {
+      long end;
+      synchronized (this) {
+        fos.flush();
+        end = fos.size();
+        groupCallers++;
+      }
+
+      synchronized (syncLock) {
+        while (syncedPosition < end) {
+          if (!syncing) {
+            syncing = true;
+            break;
+          }
+          syncLock.wait();
+        }
+        if (syncedPosition >= end) {
+          return 0;
+        }
+      }
+
+      long synced = -1;
+      try {
+        long position;
+        int callers;
+        synchronized (this) {
+          fos.flush();
+          position = fos.size();
+          callers = (int) (groupCallers - syncedCallers);
+          syncedCallers = groupCallers;
+        }
+        MetricTimer timer = fsyncTime == null ? null : fsyncTime.start(TimeUnit.MICROSECONDS);
+        channel.force(true);
+        if (timer != null) {
+          timer.stop();
+        }
+        synced = position;
+        return callers;
+      } finally {
+        // on failure, syncedPosition stays behind and the next waiter fsyncs again
+        synchronized (syncLock) {
+          syncing = false;
+          if (synced > syncedPosition) {
+            syncedPosition = synced;
+          }
+          syncLock.notifyAll();
+        }
+      }
+    } catch (IOException e) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SolrException(
+          SolrException.ErrorCode.SERVER_ERROR,
+          "Interrupted while waiting for the transaction log to be synced",
+          e);
+    }
+  }
+
   @Override
   public void close() {
     try {
@@ -757,7 +909,11 @@ public class TransactionLog implements Closeable {
 
       // skip over record size
       int size = fis.readInt();
-      assert size == fis.position() - pos - 4;
+      if (size != fis.position() - pos - 4) {
+        throw new SolrException(
+            ErrorCode.SERVER_ERROR,
+            "Corrupt transaction log record at position " + pos + " in " + tlog);
+      }
 
       return o;
     }
@@ -80,6 +80,9 @@ import org.apache.solr.metrics.SolrMetricProducer;
 import org.apache.solr.metrics.SolrMetricsContext;
 import org.apache.solr.metrics.otel.OtelUnit;
 import org.apache.solr.metrics.otel.instruments.AttributedLongCounter;
+import org.apache.solr.metrics.otel.instruments.AttributedLongHistogram;
+import org.apache.solr.metrics.otel.instruments.AttributedLongTimer;
+import org.apache.solr.metrics.otel.instruments.AttributedLongTimer.MetricTimer;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequestBase;
 import org.apache.solr.request.SolrRequestInfo;
@@ -213,9 +216,9 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected Deque<TransactionLog> newestLogsOnStartup = new ArrayDeque<>();
   protected int numOldRecords; // number of records in the recent logs
 
-  protected Map<BytesRef, LogPtr> map = new HashMap<>();
-  protected Map<BytesRef, LogPtr> prevMap; // used while committing/reopening is happening
-  protected Map<BytesRef, LogPtr> prevMap2; // used while committing/reopening is happening
+  protected LogPtrIndex map = new LogPtrIndex();
+  protected LogPtrIndex prevMap; // used while committing/reopening is happening
+  protected LogPtrIndex prevMap2; // used while committing/reopening is happening
   // the transaction log used to look up entries found in prevMap
   protected TransactionLog prevMapLog;
   // the transaction log used to look up entries found in prevMap2
@@ -258,6 +261,8 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected VersionInfo versionInfo;
 
   protected SyncLevel defaultSyncLevel = SyncLevel.FLUSH;
+  // concurrent FSYNC finishes share fsyncs, see TransactionLog.finishGroup
+  protected boolean groupFsync;
 
   protected volatile UpdateHandler uhandler; // a core reload can change this reference!
   protected volatile boolean cancelApplyBufferUpdate;
@@ -267,6 +272,9 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   protected AttributedLongCounter applyingBufferedOpsCounter;
   protected AttributedLongCounter replayOpsCounter;
   protected AttributedLongCounter copyOverOldUpdatesCounter;
+  protected AttributedLongHistogram fsyncBatchSize;
+  protected AttributedLongTimer fsyncTime;
+  protected AttributedLongTimer fsyncWaitTime;
   protected SolrMetricsContext solrMetricsContext;
 
   public static class LogPtr {
@@ -327,6 +335,22 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     }
   }
 
+  /** The number of ids whose latest update is looked up in the tlogs, across the current maps */
+  public synchronized long getNumIndexedIds() {
+    long numIds = map.size();
+    if (prevMap != null) numIds += prevMap.size();
+    if (prevMap2 != null) numIds += prevMap2.size();
+    return numIds;
+  }
+
+  /** The heap used by the maps of ids to the position of their latest update in the tlogs */
+  public synchronized long getIdsRamBytesUsed() {
+    long bytes = map.ramBytesUsed();
+    if (prevMap != null) bytes += prevMap.ramBytesUsed();
+    if (prevMap2 != null) bytes += prevMap2.ramBytesUsed();
+    return bytes;
+  }
+
   public VersionInfo getVersionInfo() {
     return versionInfo;
   }
@@ -379,6 +403,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
   public void init(PluginInfo info) {
     dataDir = (String) info.initArgs.get("dir");
     defaultSyncLevel = SyncLevel.getSyncLevel((String) info.initArgs.get("syncLevel"));
+    groupFsync = Boolean.TRUE.equals(info.initArgs.getBooleanArg("groupFsync"));
 
     numRecordsToKeep = objToInt(info.initArgs.get("numRecordsToKeep"), 100);
     maxNumLogsToKeep = objToInt(info.initArgs.get("maxNumLogsToKeep"), 10);
@@ -397,9 +422,10 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     updateLocks = new UpdateLocks(timeoutMs);
 
     log.info(
-        "Initializing UpdateLog: dataDir={} defaultSyncLevel={} numRecordsToKeep={} maxNumLogsToKeep={}",
+        "Initializing UpdateLog: dataDir={} defaultSyncLevel={} groupFsync={} numRecordsToKeep={} maxNumLogsToKeep={}",
         dataDir,
         defaultSyncLevel,
+        groupFsync,
         numRecordsToKeep,
         maxNumLogsToKeep);
   }
@@ -624,6 +650,16 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       newestLogsOnStartup.addFirst(ll);
       if (newestLogsOnStartup.size() >= 2) break;
     }
+
+    // Logs that were being written at an abnormal close may end with an incomplete record.
+    // Cut it off before the logs are read, by replay or for the recent versions, or appended to.
+    for (TransactionLog ll : newestLogsOnStartup) {
+      try {
+        ll.truncateIncompleteRecord();
+      } catch (IOException | RuntimeException e) {
+        log.error("Could not check the end of tlog {}", ll, e);
+      }
+    }
   }
 
   @Override
@@ -655,6 +691,19 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
         }),
         OtelUnit.BYTES);
 
+    solrMetricsContext.observableLongGauge(
+        "solr.core.update_log.ids",
+        "The current number of ids whose latest update is looked up in the tlogs",
+        (observableLongMeasurement ->
+            observableLongMeasurement.record(getNumIndexedIds(), baseAttributes)));
+
+    solrMetricsContext.observableLongGauge(
+        "solr.core.update_log.ids.ram_used",
+        "The heap used to look up the latest update of ids in the tlogs",
+        (observableLongMeasurement ->
+            observableLongMeasurement.record(getIdsRamBytesUsed(), baseAttributes)),
+        OtelUnit.BYTES);
+
     solrMetricsContext.observableLongGauge(
         "solr.core.update_log.state",
         "The current state of the update log. Replaying (0), buffering (1), applying buffered (2), active (3)",
@@ -681,6 +730,25 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
                 "solr.core.update_log.old_updates_copied",
                 "Total number of updates copied from previous tlog or last tlog to a new tlog"),
             baseAttributes);
+
+    fsyncBatchSize =
+        new AttributedLongHistogram(
+            solrMetricsContext.longHistogram(
+                "solr.core.update_log.fsync.batch_size",
+                "Number of update requests made durable by each grouped fsync of the tlog"),
+            baseAttributes);
+
+    var fsyncTimer =
+        solrMetricsContext.longHistogram(
+            "solr.core.update_log.fsync.time",
+            "Time spent fsyncing the tlog (fsync), and waiting for the tlog to be fsynced (wait)",
+            OtelUnit.MICROSECONDS);
+    fsyncTime =
+        new AttributedLongTimer(
+            fsyncTimer, baseAttributes.toBuilder().put(TYPE_ATTR, "fsync").build());
+    fsyncWaitTime =
+        new AttributedLongTimer(
+            fsyncTimer, baseAttributes.toBuilder().put(TYPE_ATTR, "wait").build());
   }
 
   @Override
@@ -859,7 +927,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     // note: sync required to ensure maps aren't changed out form under us
     if (cmd.isInPlaceUpdate()) {
       BytesRef indexedId = cmd.getIndexedId();
-      for (Map<BytesRef, LogPtr> currentMap : Arrays.asList(map, prevMap, prevMap2)) {
+      for (LogPtrIndex currentMap : Arrays.asList(map, prevMap, prevMap2)) {
         if (currentMap != null) {
           LogPtr prevEntry = currentMap.get(indexedId);
           if (null != prevEntry) {
@@ -1030,7 +1098,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     prevMap = map;
     prevMapLog = tlog;
 
-    map = new HashMap<>();
+    map = new LogPtrIndex();
   }
 
   private void clearOldMaps() {
@@ -1109,7 +1177,7 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
       // any added documents will make it into this commit or not.
       // But we do know that any updates already added will definitely
       // show up in the latest reader after the commit succeeds.
-      map = new HashMap<>();
+      map = new LogPtrIndex();
 
       if (debug) {
         log.debug(
@@ -1392,12 +1460,29 @@ public class UpdateLog implements PluginInfoInitialized, SolrMetricProducer {
     }
 
     try {
-      currLog.finish(syncLevel);
+      if (syncLevel == SyncLevel.FSYNC && groupFsync) {
+        finishGroup(currLog);
+      } else {
+        currLog.finish(syncLevel);
+      }
     } finally {
       currLog.decref();
     }
   }
 
+  private void finishGroup(TransactionLog currLog) {
+    if (fsyncWaitTime == null) {
+      currLog.finishGroup(null);
+      return;
+    }
+    MetricTimer waitTimer = fsyncWaitTime.start(TimeUnit.MICROSECONDS);
+    int callers = currLog.finishGroup(fsyncTime);
+    waitTimer.stop();
+    if (callers > 0) {
+      fsyncBatchSize.record((long) callers);
+    }
+  }
+
   public Future<RecoveryInfo> recoverFromLog() {
     recoveryInfo = new RecoveryInfo();
 
@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update.processor;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.cloud.CloudDescriptor;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.servlet.HttpSolrCall;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.update.DeleteUpdateCommand;
+import org.apache.solr.update.MergeIndexesCommand;
+import org.apache.solr.update.RollbackUpdateCommand;
+import org.apache.solr.util.OrderedExecutor;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the adds and deletes by id of a request with the processors that follow it in a pool
+ * of threads, so that a single large request is analyzed and indexed by more than one thread.
+ * Updates of the same document are processed one after the other, in the order of the request,
+ * like when an update log is replayed. Other commands, such as deletes by query and commits, are
+ * processed once all the updates before them are done.
+ *
+ * <p>Each thread processes the updates with its own instances of the processors that follow this
+ * one, which are finished before any other command and at the end of the request. They process the
+ * updates as the request being processed, with its user and its <code>NOW</code>. The factory
+ * should be placed after the {@link LogUpdateProcessorFactory} and any processor that sets or
+ * changes the uniqueKey of the documents, and before the {@link DistributedUpdateProcessorFactory},
+ * which then versions and distributes the updates of each thread. Requests that return the
+ * versions of their updates are processed serially.
+ *
+ * <p>When an update fails, the request fails with its error, but updates that follow it in the
+ * request may have been processed already, so this factory should not be combined with the {@link
+ * TolerantUpdateProcessorFactory}.
+ *
+ * <p><code>threads</code> is the number of threads, shared by all the requests that use the chain.
+ * It defaults to the number of available processors. An example configuration would be:
+ *
+ * <pre class="prettyprint">
+ * &lt;updateRequestProcessorChain name="parallel"&gt;
+ *   &lt;processor class="solr.LogUpdateProcessorFactory" /&gt;
+ *   &lt;processor class="solr.ParallelUpdateProcessorFactory"&gt;
+ *     &lt;int name="threads"&gt;8&lt;/int&gt;
+ *   &lt;/processor&gt;
+ *   &lt;processor class="solr.DistributedUpdateProcessorFactory" /&gt;
+ *   &lt;processor class="solr.RunUpdateProcessorFactory" /&gt;
+ * &lt;/updateRequestProcessorChain&gt;
+ * </pre>
+ *
+ * @since 11.0
+ */
+public class ParallelUpdateProcessorFactory extends UpdateRequestProcessorFactory
+    implements SolrCoreAware {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String THREADS_PARAM = "threads";
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private OrderedExecutor<BytesRef> executor;
+
+  @Override
+  public void init(NamedList<?> args) {
+    if (args != null) {
+      threads = args.toSolrParams().getInt(THREADS_PARAM, threads);
+    }
+    if (threads < 1) {
+      throw new SolrException(
+          ErrorCode.SERVER_ERROR, "'" + THREADS_PARAM + "' must be positive, got: " + threads);
+    }
+  }
+
+  @Override
+  public void inform(SolrCore core) {
+    executor =
+        new OrderedExecutor<>(
+            threads,
+            ExecutorUtil.newMDCAwareCachedThreadPool(
+                threads, // thread count
+                threads, // queue size
+                new SolrNamedThreadFactory("parallelUpdateExecutor")));
+    core.addCloseHook(
+        new CloseHook() {
+          @Override
+          public void postClose(SolrCore core) {
+            executor.shutdownAndAwaitTermination();
+          }
+        });
+  }
+
+  @Override
+  public UpdateRequestProcessor getInstance(
+      SolrQueryRequest req, SolrQueryResponse rsp, UpdateRequestProcessor next) {
+    if (next == null || req.getParams().getBool(UpdateParams.VERSIONS, false)) {
+      return next;
+    }
+    List<UpdateRequestProcessorFactory> factories =
+        req.getCore().getUpdateProcessorChain(req.getParams()).getProcessors();
+    int index = factories.indexOf(this);
+    if (index < 0) {
+      return next;
+    }
+    UpdateRequestProcessorChain tail =
+        new UpdateRequestProcessorChain(
+            factories.subList(index + 1, factories.size()), req.getCore());
+    return new ParallelUpdateProcessor(req, rsp, next, tail, executor);
+  }
+
+  static class ParallelUpdateProcessor extends UpdateRequestProcessor {
+    private final SolrQueryRequest req;
+    private final SolrQueryResponse rsp;
+    private final UpdateRequestProcessorChain tail;
+    private final OrderedExecutor<BytesRef> executor;
+    private final SolrParams threadParams;
+
+    /** The processors of each thread that processed updates since they were last finished. */
+    private final Map<Thread, ThreadProcessor> threadProcessors = new ConcurrentHashMap<>();
+
+    private final Object pendingLock = new Object();
+    private int pending; // guarded by pendingLock
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /** The lowest replication factor reported by the processors of the threads, if any. */
+    private Integer achievedRf;
+
+    ParallelUpdateProcessor(
+        SolrQueryRequest req,
+        SolrQueryResponse rsp,
+        UpdateRequestProcessor next,
+        UpdateRequestProcessorChain tail,
+        OrderedExecutor<BytesRef> executor) {
+      super(next);
+      this.req = req;
+      this.rsp = rsp;
+      this.tail = tail;
+      this.executor = executor;
+      this.threadParams = threadParams(req);
+    }
+
+    /** The processors of a thread, with their own request and response as these aren't shared. */
+    private class ThreadProcessor {
+      final SolrQueryRequest req;
+      final SolrQueryResponse rsp = new SolrQueryResponse();
+      UpdateRequestProcessor proc; // created by the thread, with its request info set
+
+      ThreadProcessor() {
+        req = new ThreadRequest(ParallelUpdateProcessor.this.req, threadParams);
+        rsp.addResponseHeader(new SimpleOrderedMap<>());
+      }
+    }
+
+    private interface Update {
+      void process(ThreadProcessor processor) throws IOException;
+    }
+
+    @Override
+    public void processAdd(AddUpdateCommand cmd) throws IOException {
+      // the command is reused by the loaders, and its request isn't shared with the threads
+      AddUpdateCommand update = copy(cmd, req);
+      submit(lockId(update), processor -> processor.proc.processAdd(copy(update, processor.req)));
+    }
+
+    @Override
+    public void processDelete(DeleteUpdateCommand cmd) throws IOException {
+      if (!cmd.isDeleteById()) {
+        finishThreads();
+        super.processDelete(cmd);
+        return;
+      }
+      DeleteUpdateCommand delete = copy(cmd, req);
+      submit(
+          delete.getIndexedId(),
+          processor -> processor.proc.processDelete(copy(delete, processor.req)));
+    }
+
+    @Override
+    public void processMergeIndexes(MergeIndexesCommand cmd) throws IOException {
+      finishThreads();
+      super.processMergeIndexes(cmd);
+    }
+
+    @Override
+    public void processCommit(CommitUpdateCommand cmd) throws IOException {
+      finishThreads();
+      super.processCommit(cmd);
+    }
+
+    @Override
+    public void processRollback(RollbackUpdateCommand cmd) throws IOException {
+      finishThreads();
+      super.processRollback(cmd);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      finishThreads();
+      super.finish();
+      if (achievedRf != null && rsp.getResponseHeader() != null) {
+        // the commands that weren't processed in parallel may have reported their own
+        Object rf = rsp.getResponseHeader().remove(UpdateRequest.REPFACT);
+        if (rf instanceof Integer) {
+          achievedRf = Math.min(achievedRf, (Integer) rf);
+        }
+        rsp.getResponseHeader().add(UpdateRequest.REPFACT, achievedRf);
+      }
+    }
+
+    @Override
+    protected void doClose() {
+      try {
+        waitForPending();
+      } catch (RuntimeException e) {
+        log.warn("Closing processors while updates may still be processed", e);
+      }
+      closeThreads();
+    }
+
+    /** The indexed id of the document, or null if it doesn't have exactly one. */
+    private BytesRef lockId(AddUpdateCommand cmd) {
+      IndexSchema schema = req.getSchema();
+      SchemaField uniqueKey = schema.getUniqueKeyField();
+      if (uniqueKey == null || cmd.solrDoc == null) {
+        return null;
+      }
+      SolrInputField field = cmd.solrDoc.getField(uniqueKey.getName());
+      if (field == null || field.getValueCount() != 1) {
+        // left to the processors to reject
+        return null;
+      }
+      // like AddUpdateCommand.getIndexedId(), without keeping it as the id may yet change
+      Object root = cmd.solrDoc.getFieldValue(IndexSchema.ROOT_FIELD_NAME);
+      return schema.indexableUniqueKey(
+          root != null ? root.toString() : field.getFirstValue().toString());
+    }
+
+    private void submit(BytesRef lockId, Update update) throws IOException {
+      throwIfFailed();
+      synchronized (pendingLock) {
+        pending++;
+      }
+      try {
+        executor.execute(
+            lockId,
+            () -> {
+              try {
+                // fail fast
+                if (failure.get() != null) return;
+                process(update);
+              } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                if (t instanceof Error) throw (Error) t;
+              } finally {
+                synchronized (pendingLock) {
+                  if (--pending == 0) {
+                    pendingLock.notifyAll();
+                  }
+                }
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        synchronized (pendingLock) {
+          pending--;
+        }
+        throw new SolrException(ErrorCode.SERVICE_UNAVAILABLE, "Core is closing", e);
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        throw new SolrException(ErrorCode.SERVER_ERROR, "Interrupted while submitting update");
+      }
+    }
+
+    /** Processes the update on the current thread, as the request being processed. */
+    private void process(Update update) throws IOException {
+      ThreadProcessor processor =
+          threadProcessors.computeIfAbsent(Thread.currentThread(), t -> new ThreadProcessor());
+      SolrRequestInfo.setRequestInfo(new SolrRequestInfo(processor.req, processor.rsp));
+      try {
+        if (processor.proc == null) {
+          processor.proc = tail.createProcessor(processor.req, processor.rsp, false, null);
+        }
+        update.process(processor);
+      } finally {
+        SolrRequestInfo.clearRequestInfo();
+      }
+    }
+
+    private void waitForPending() {
+      synchronized (pendingLock) {
+        while (pending > 0) {
+          try {
+            pendingLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrException(
+                ErrorCode.SERVER_ERROR, "Interrupted while waiting for updates", e);
+          }
+        }
+      }
+    }
+
+    private void throwIfFailed() throws IOException {
+      Throwable t = failure.get();
+      if (t == null) return;
+      if (t instanceof IOException) throw (IOException) t;
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      throw new SolrException(ErrorCode.SERVER_ERROR, t);
+    }
+
+    /**
+     * Waits for the submitted updates, and finishes the processors of the threads, so that their
+     * updates are done before the next command. The replication factor they report is tracked to
+     * be added to the response once, in {@link #finish()}.
+     */
+    private void finishThreads() throws IOException {
+      waitForPending();
+      try {
+        throwIfFailed();
+        for (ThreadProcessor processor : threadProcessors.values()) {
+          if (processor.proc == null) continue;
+          processor.proc.finish();
+          Object rf = processor.rsp.getResponseHeader().get(UpdateRequest.REPFACT);
+          if (rf instanceof Integer && (achievedRf == null || (Integer) rf < achievedRf)) {
+            achievedRf = (Integer) rf;
+          }
+        }
+      } finally {
+        closeThreads();
+      }
+    }
+
+    private void closeThreads() {
+      for (ThreadProcessor processor : threadProcessors.values()) {
+        try {
+          if (processor.proc != null) {
+            processor.proc.close();
+          }
+        } catch (IOException e) {
+          log.error("Exception closing processor", e);
+        } finally {
+          processor.req.close();
+        }
+      }
+      threadProcessors.clear();
+    }
+
+    /** The parameters of the threads' requests, pinning NOW to the request's. */
+    private static SolrParams threadParams(SolrQueryRequest req) {
+      SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+      long now =
+          requestInfo != null && requestInfo.getReq() == req
+              ? requestInfo.getNOW().getTime()
+              : req.getParams().getLong(CommonParams.NOW, req.getStartTime());
+      return new ModifiableSolrParams(req.getParams()).set(CommonParams.NOW, Long.toString(now));
+    }
+
+    private static AddUpdateCommand copy(AddUpdateCommand cmd, SolrQueryRequest req) {
+      AddUpdateCommand copy = new AddUpdateCommand(req);
+      copy.solrDoc = cmd.solrDoc;
+      copy.overwrite = cmd.overwrite;
+      copy.commitWithin = cmd.commitWithin;
+      copy.updateTerm = cmd.updateTerm;
+      copy.prevVersion = cmd.prevVersion;
+      copy.isLastDocInBatch = cmd.isLastDocInBatch;
+      copy.setVersion(cmd.getVersion());
+      copy.setRoute(cmd.getRoute());
+      copy.setFlags(cmd.getFlags());
+      return copy;
+    }
+
+    private static DeleteUpdateCommand copy(DeleteUpdateCommand cmd, SolrQueryRequest req) {
+      DeleteUpdateCommand copy = new DeleteUpdateCommand(req);
+      copy.id = cmd.id;
+      copy.indexedId = cmd.indexedId;
+      copy.commitWithin = cmd.commitWithin;
+      copy.setVersion(cmd.getVersion());
+      copy.setRoute(cmd.getRoute());
+      copy.setFlags(cmd.getFlags());
+      return copy;
+    }
+  }
+
+  /**
+   * The request of a thread, with its own context and searcher as these aren't thread safe, that is
+   * otherwise the request being processed: the same user, HTTP call, schema and NOW.
+   */
+  private static class ThreadRequest extends SolrQueryRequestBase {
+    private final SolrQueryRequest parent;
+
+    ThreadRequest(SolrQueryRequest parent, SolrParams params) {
+      super(parent.getCore(), params);
+      this.parent = parent;
+      this.schema = parent.getSchema();
+      getContext().putAll(parent.getContext());
+    }
+
+    @Override
+    public long getStartTime() {
+      return parent.getStartTime();
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+      return parent.getUserPrincipal();
+    }
+
+    @Override
+    public HttpSolrCall getHttpSolrCall() {
+      return parent.getHttpSolrCall();
+    }
+
+    @Override
+    public CloudDescriptor getCloudDescriptor() {
+      return parent.getCloudDescriptor();
+    }
+  }
+}
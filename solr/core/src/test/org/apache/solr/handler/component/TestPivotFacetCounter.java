@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** The single pass counting of pivots must give the same trees as faceting on subsets */
+public class TestPivotFacetCounter extends SolrTestCaseJ4 {
+  private static final String[] FIELDS = {"a_s_dv", "b_s_dv", "cat_docValues"};
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema11.xml");
+    int id = 0;
+    for (int segment = 0; segment < 3; segment++) {
+      for (int i = 0; i < 40; i++, id++) {
+        final List<String> doc = new ArrayList<>();
+        doc.add("id");
+        doc.add(Integer.toString(id));
+        if (random().nextInt(8) != 0) {
+          doc.add("a_s_dv");
+          doc.add("a" + random().nextInt(5));
+        }
+        if (random().nextInt(5) != 0) {
+          doc.add("b_s_dv");
+          doc.add("b" + random().nextInt(7));
+        }
+        for (int c = random().nextInt(3); c > 0; c--) {
+          doc.add("cat_docValues");
+          doc.add("c" + random().nextInt(4));
+        }
+        assertU(adoc(doc.toArray(new String[0])));
+      }
+      assertU(commit());
+    }
+  }
+
+  private static String pivots(ModifiableSolrParams params, String method) throws Exception {
+    final ModifiableSolrParams p = new ModifiableSolrParams(params);
+    p.set(FacetParams.FACET_PIVOT_METHOD, method);
+    return h.query(req(p));
+  }
+
+  private static void assertSamePivots(ModifiableSolrParams params) throws Exception {
+    assertEquals(
+        params.toString(),
+        pivots(params, FacetParams.FACET_PIVOT_METHOD_subset),
+        pivots(params, FacetParams.FACET_PIVOT_METHOD_count));
+  }
+
+  private static ModifiableSolrParams params(String pivot) {
+    final ModifiableSolrParams params = new ModifiableSolrParams();
+    params.set("q", "*:*");
+    params.set("rows", "0");
+    params.set("omitHeader", "true");
+    params.set("wt", "json");
+    params.set(FacetParams.FACET, "true");
+    params.set(FacetParams.FACET_PIVOT, pivot);
+    return params;
+  }
+
+  @Test
+  public void testDefaults() throws Exception {
+    assertSamePivots(params("a_s_dv,b_s_dv"));
+    assertSamePivots(params("a_s_dv,cat_docValues,b_s_dv"));
+    assertSamePivots(params("cat_docValues,cat_docValues"));
+    final ModifiableSolrParams params = params("b_s_dv,a_s_dv");
+    params.set("fq", "a_s_dv:a1 OR b_s_dv:b2");
+    assertSamePivots(params);
+  }
+
+  @Test
+  public void testRandomParams() throws Exception {
+    for (int iter = 0; iter < atLeast(20); iter++) {
+      final StringBuilder pivot = new StringBuilder();
+      final int numLevels = 1 + random().nextInt(3);
+      for (int level = 0; level < numLevels; level++) {
+        if (level > 0) {
+          pivot.append(',');
+        }
+        pivot.append(FIELDS[random().nextInt(FIELDS.length)]);
+      }
+      final ModifiableSolrParams params = params(pivot.toString());
+      for (String field : FIELDS) {
+        final String prefix = random().nextBoolean() ? "f." + field + "." : "";
+        if (random().nextBoolean()) {
+          params.set(prefix + FacetParams.FACET_LIMIT, random().nextInt(5) - 1);
+        }
+        if (random().nextBoolean()) {
+          params.set(prefix + FacetParams.FACET_OFFSET, random().nextInt(3));
+        }
+        if (random().nextBoolean()) {
+          params.set(
+              prefix + FacetParams.FACET_SORT,
+              random().nextBoolean() ? FacetParams.FACET_SORT_COUNT : FacetParams.FACET_SORT_INDEX);
+        }
+        if (random().nextBoolean()) {
+          params.set(prefix + FacetParams.FACET_PIVOT_MINCOUNT, 1 + random().nextInt(4));
+        }
+        if (random().nextBoolean()) {
+          params.set(prefix + FacetParams.FACET_MISSING, random().nextBoolean());
+        }
+      }
+      assertSamePivots(params);
+    }
+  }
+}
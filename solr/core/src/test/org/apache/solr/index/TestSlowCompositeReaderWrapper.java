@@ -19,6 +19,7 @@ package org.apache.solr.index;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.SortedDocValuesField;
@@ -122,6 +123,16 @@ public class TestSlowCompositeReaderWrapper extends SolrTestCase {
     assertEquals(
         MultiSortedSetDocValues.class, slowWrapper.getSortedSetDocValues("sorted_set").getClass());
     assertEquals(2, slowWrapper.cachedOrdMaps.size());
+    OrdinalMapCache ordinalMaps = slowWrapper.getOrdinalMapCache();
+    assertEquals(Set.of("sorted", "sorted_set"), ordinalMaps.fields());
+    assertTrue(ordinalMaps.ramBytesUsed() > 0);
+    // the maps are built once and shared by all of the consumers
+    assertSame(
+        ordinalMaps.get("sorted"),
+        ((MultiSortedDocValues) slowWrapper.getSortedDocValues("sorted")).mapping);
+    assertSame(
+        ordinalMaps.get("sorted_set"),
+        ((MultiSortedSetDocValues) slowWrapper.getSortedSetDocValues("sorted_set")).mapping);
     reader.close();
     w.close();
     dir.close();
@@ -226,6 +226,36 @@ public class TestRetrieveFieldsOptimizer extends SolrTestCaseJ4 {
     }
   }
 
+  @Test
+  public void testSolrDocsInPageOrder() throws Exception {
+    String flAll =
+        fieldsHolder.allFields.stream()
+            .map(RetrieveField::getName)
+            .collect(Collectors.joining(","));
+    SolrQueryRequest req = lrf.makeRequest("q", "*:*", CommonParams.FL, flAll);
+    try {
+      SolrIndexSearcher searcher = req.getSearcher();
+      List<Integer> page = new ArrayList<>();
+      for (int docId = 0; docId < searcher.maxDoc(); docId++) {
+        page.add(docId);
+      }
+      Collections.shuffle(page, random());
+      int[] luceneDocIds = page.stream().mapToInt(Integer::intValue).toArray();
+
+      SolrDocument[] sdocs =
+          searcher.getDocFetcher().solrDocs(luceneDocIds, new SolrReturnFields(req));
+      assertEquals(luceneDocIds.length, sdocs.length);
+      SolrReturnFields returnFields = new SolrReturnFields(req);
+      for (int i = 0; i < luceneDocIds.length; i++) {
+        assertEquals(
+            searcher.getDocFetcher().solrDoc(luceneDocIds[i], returnFields).toString(),
+            sdocs[i].toString());
+      }
+    } finally {
+      req.close();
+    }
+  }
+
   @SuppressWarnings({"unchecked", "rawtypes"})
   private void checkFetchSources(SolrReturnFields.FIELD_SOURCES source) throws Exception {
     String flAll =
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.solr.SolrTestCase;
+import org.junit.Test;
+
+/** Test for {@link CacheStatsRegistry}. */
+public class TestCacheStatsRegistry extends SolrTestCase {
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    final CacheStatsRegistry registry = new CacheStatsRegistry(4);
+    final int[] slots = new int[100];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = registry.register();
+    }
+    final int numThreads = 8;
+    final int numUpdates = 10_000;
+    final List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      final Thread thread =
+          new Thread(
+              () -> {
+                for (int i = 0; i < numUpdates; i++) {
+                  final int slot = slots[i % slots.length];
+                  registry.increment(slot, CacheStatsRegistry.LOOKUPS);
+                  if ((i / slots.length) % 2 == 0) {
+                    registry.increment(slot, CacheStatsRegistry.HITS);
+                  }
+                }
+              });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    final long perSlot = (long) numThreads * numUpdates / slots.length;
+    for (int slot : slots) {
+      assertEquals(perSlot, registry.get(slot, CacheStatsRegistry.LOOKUPS));
+      assertEquals(perSlot / 2, registry.get(slot, CacheStatsRegistry.HITS));
+      assertEquals(0, registry.get(slot, CacheStatsRegistry.INSERTS));
+    }
+  }
+
+  @Test
+  public void testReleasedSlotIsReset() {
+    final CacheStatsRegistry registry = new CacheStatsRegistry(2);
+    final int slot = registry.register();
+    registry.add(slot, CacheStatsRegistry.HITS, 42);
+    registry.release(slot);
+    assertEquals(slot, registry.register());
+    assertEquals(0, registry.get(slot, CacheStatsRegistry.HITS));
+  }
+}
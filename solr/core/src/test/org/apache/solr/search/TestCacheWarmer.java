@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.SolrNamedThreadFactory;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Test for {@link CacheWarmer}. */
+public class TestCacheWarmer extends SolrTestCaseJ4 {
+
+  private static ExecutorService executor;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema.xml");
+    executor =
+        ExecutorUtil.newMDCAwareFixedThreadPool(4, new SolrNamedThreadFactory("testCacheWarmer"));
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    if (executor != null) {
+      ExecutorUtil.shutdownAndAwaitTermination(executor);
+      executor = null;
+    }
+  }
+
+  private static Map<Integer, String> entries(int n) {
+    Map<Integer, String> entries = new LinkedHashMap<>();
+    for (int i = 0; i < n; i++) {
+      entries.put(i, Integer.toString(i));
+    }
+    return entries;
+  }
+
+  /** Copies entries to the new cache, remembering the order they were regenerated in. */
+  private static class RecordingRegenerator implements CacheRegenerator {
+    final List<Object> keys = new CopyOnWriteArrayList<>();
+    final int stopAfter;
+
+    RecordingRegenerator(int stopAfter) {
+      this.stopAfter = stopAfter;
+    }
+
+    @Override
+    public <K, V> boolean regenerateItem(
+        SolrIndexSearcher newSearcher,
+        SolrCache<K, V> newCache,
+        SolrCache<K, V> oldCache,
+        K oldKey,
+        V oldVal) {
+      keys.add(oldKey);
+      newCache.put(oldKey, oldVal);
+      return keys.size() < stopAfter;
+    }
+  }
+
+  private static CaffeineCache<Integer, String> newCache() {
+    CaffeineCache<Integer, String> cache = new CaffeineCache<>();
+    cache.init(Map.of("size", "100"), null, null);
+    return cache;
+  }
+
+  @Test
+  public void testWarmInOrderOnCallingThread() {
+    CaffeineCache<Integer, String> cache = newCache();
+    RecordingRegenerator regenerator = new RecordingRegenerator(Integer.MAX_VALUE);
+    CacheWarmer warmer = new CacheWarmer(-1, null);
+    assertFalse(warmer.isExpired());
+    assertEquals(10, warmer.warm(null, cache, null, regenerator, entries(10)));
+    assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), regenerator.keys);
+    assertEquals(10, cache.size());
+  }
+
+  @Test
+  public void testWarmConcurrently() {
+    CaffeineCache<Integer, String> cache = newCache();
+    RecordingRegenerator regenerator = new RecordingRegenerator(Integer.MAX_VALUE);
+    CacheWarmer warmer = new CacheWarmer(-1, executor);
+    assertEquals(50, warmer.warm(null, cache, null, regenerator, entries(50)));
+    assertEquals(50, regenerator.keys.size());
+    assertEquals(50, cache.size());
+    assertEquals("7", cache.get(7));
+  }
+
+  @Test
+  public void testTimeBudget() {
+    CaffeineCache<Integer, String> cache = newCache();
+    RecordingRegenerator regenerator = new RecordingRegenerator(Integer.MAX_VALUE);
+    CacheWarmer warmer = new CacheWarmer(0, random().nextBoolean() ? null : executor);
+    assertTrue(warmer.isExpired());
+    assertEquals(0, warmer.warm(null, cache, null, regenerator, entries(10)));
+    assertTrue(regenerator.keys.isEmpty());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRegeneratorStops() {
+    CaffeineCache<Integer, String> cache = newCache();
+    RecordingRegenerator regenerator = new RecordingRegenerator(3);
+    CacheWarmer warmer = new CacheWarmer(60_000, null);
+    assertEquals(3, warmer.warm(null, cache, null, regenerator, entries(10)));
+    assertEquals(List.of(0, 1, 2), regenerator.keys);
+  }
+
+  @Test
+  public void testConcurrentTasksHaveTheirOwnRequest() throws Exception {
+    final Set<SolrQueryRequest> requests =
+        Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    final List<Long> nows = new CopyOnWriteArrayList<>();
+    CacheRegenerator regenerator =
+        new CacheRegenerator() {
+          @Override
+          public <K, V> boolean regenerateItem(
+              SolrIndexSearcher newSearcher,
+              SolrCache<K, V> newCache,
+              SolrCache<K, V> oldCache,
+              K oldKey,
+              V oldVal) {
+            SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+            assertSame(newSearcher, requestInfo.getReq().getSearcher());
+            requests.add(requestInfo.getReq());
+            nows.add(requestInfo.getNOW().getTime());
+            newCache.put(oldKey, oldVal);
+            return true;
+          }
+        };
+
+    CaffeineCache<Integer, String> cache = newCache();
+    SolrQueryRequest req = req(CommonParams.NOW, "1000");
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, new SolrQueryResponse()));
+    try {
+      CacheWarmer warmer = new CacheWarmer(-1, executor);
+      h.getCore()
+          .withSearcher(searcher -> warmer.warm(searcher, cache, null, regenerator, entries(20)));
+    } finally {
+      SolrRequestInfo.clearRequestInfo();
+      req.close();
+    }
+    assertEquals(20, cache.size());
+    assertEquals(20, requests.size());
+    assertFalse(requests.contains(req));
+    assertEquals(Collections.nCopies(20, 1000L), nows);
+  }
+}
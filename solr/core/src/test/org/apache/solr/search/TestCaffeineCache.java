@@ -390,6 +390,86 @@ public class TestCaffeineCache extends SolrTestCase {
     assertEquals(emptySize, cache.ramBytesUsed());
   }
 
+  @Test
+  public void testStatsHandedOverOnWarm() throws IOException {
+    SolrMetricsContext solrMetricsContext = new SolrMetricsContext(metricManager, registry);
+    String oldName = scope + "-old";
+    String newName = scope + "-new";
+    String otherName = scope + "-other";
+    Map<String, String> params = Map.of(SolrCache.SIZE_PARAM, "100", "autowarmCount", "10");
+
+    CaffeineCache<Integer, String> oldCache = newMeteredCache(solrMetricsContext, oldName, params);
+    for (int i = 0; i < 10; i++) {
+      oldCache.put(i, Integer.toString(i));
+    }
+    assertEquals("1", oldCache.get(1));
+    assertNull(oldCache.get(20));
+
+    CaffeineCache<Integer, String> newCache = newMeteredCache(solrMetricsContext, newName, params);
+    newCache.warm(null, oldCache);
+    assertEquals(10, newCache.size());
+
+    // the statistics start from the totals of the old cache, and include the inserts of warming
+    var prometheusReader = metricManager.getPrometheusMetricReader(registry);
+    assertEquals(1.0, getCacheLookup(prometheusReader, newName, "hit").getValue(), 0.001);
+    assertEquals(1.0, getCacheLookup(prometheusReader, newName, "miss").getValue(), 0.001);
+    assertEquals(20.0, getCacheOperation(prometheusReader, newName, "inserts").getValue(), 0.001);
+
+    // the old cache, still used by the old searcher, counts on its own
+    assertEquals("2", oldCache.get(2));
+    assertEquals("3", newCache.get(3));
+    assertEquals(2.0, getCacheLookup(prometheusReader, oldName, "hit").getValue(), 0.001);
+    assertEquals(2.0, getCacheLookup(prometheusReader, newName, "hit").getValue(), 0.001);
+
+    // the warmed cache is discarded while the old one keeps serving: the slot it released is
+    // reused by a new cache, which counts on its own, and the old cache's counts are unaffected
+    newCache.close();
+    CaffeineCache<Integer, String> otherCache =
+        newMeteredCache(solrMetricsContext, otherName, params);
+    assertEquals("4", oldCache.get(4));
+    assertNull(otherCache.get(3));
+    assertEquals(0.0, getCacheLookup(prometheusReader, otherName, "hit").getValue(), 0.001);
+    assertEquals(1.0, getCacheLookup(prometheusReader, otherName, "miss").getValue(), 0.001);
+    assertEquals(3.0, getCacheLookup(prometheusReader, oldName, "hit").getValue(), 0.001);
+    assertEquals(1.0, getCacheLookup(prometheusReader, oldName, "miss").getValue(), 0.001);
+
+    solrMetricsContext.close();
+  }
+
+  @Test
+  public void testEvictionsCounted() throws IOException {
+    SolrMetricsContext solrMetricsContext = new SolrMetricsContext(metricManager, registry);
+    String cacheName = scope + "-evictions";
+    Map<String, String> params =
+        Map.of(
+            SolrCache.SIZE_PARAM, "10",
+            SolrCache.INITIAL_SIZE_PARAM, "10",
+            SolrCache.ASYNC_PARAM, Boolean.FALSE.toString());
+    CaffeineCache<Integer, String> cache = newMeteredCache(solrMetricsContext, cacheName, params);
+    for (int i = 0; i < 25; i++) {
+      cache.put(i, Integer.toString(i));
+    }
+    // removals are not evictions
+    cache.remove(24);
+    cache.clear();
+
+    var prometheusReader = metricManager.getPrometheusMetricReader(registry);
+    assertEquals(
+        15.0, getCacheOperation(prometheusReader, cacheName, "evictions").getValue(), 0.001);
+    assertEquals(25.0, getCacheOperation(prometheusReader, cacheName, "inserts").getValue(), 0.001);
+
+    solrMetricsContext.close();
+  }
+
+  private static CaffeineCache<Integer, String> newMeteredCache(
+      SolrMetricsContext solrMetricsContext, String cacheName, Map<String, String> params) {
+    CaffeineCache<Integer, String> cache = new CaffeineCache<>();
+    solrMetricsContext.registerCloseable(cache);
+    cache.initializeMetrics(solrMetricsContext, Attributes.of(NAME_ATTR, cacheName), "solr_cache");
+    cache.init(params, null, new NoOpRegenerator());
+    return cache;
+  }
+
   private CounterSnapshot.CounterDataPointSnapshot getCacheOperation(
       FilterablePrometheusMetricReader prometheusReader, String cacheName, String operation) {
     return SolrMetricTestUtils.getCounterDatapoint(
@@ -107,6 +107,10 @@ public class TestDocSet extends SolrTestCase {
     return new BitDocSet(bs);
   }
 
+  public DocSet getRoaringDocSet(FixedBitSet bs) {
+    return RoaringDocSet.fromBitSet(bs);
+  }
+
   public DocSlice getDocSlice(FixedBitSet bs) {
     int len = bs.cardinality();
     int[] arr = new int[len + 5];
@@ -128,7 +132,7 @@ public class TestDocSet extends SolrTestCase {
   }
 
   public DocSet getDocSet(FixedBitSet bs) {
-    switch (rand.nextInt(9)) {
+    switch (rand.nextInt(11)) {
       case 0:
       case 1:
       case 2:
@@ -145,6 +149,10 @@ public class TestDocSet extends SolrTestCase {
         return getIntDocSet(bs);
       case 8:
         return getIntDocSet(bs);
+
+      case 9:
+      case 10:
+        return getRoaringDocSet(bs);
     }
     return null;
   }
@@ -224,6 +232,117 @@ public class TestDocSet extends SolrTestCase {
     // doMany(130, 1000000);
   }
 
+  /** A set spanning several 64K blocks, each one empty, sparse, dense or made of runs. */
+  private FixedBitSet getRandomBlockSet(int maxDoc) {
+    FixedBitSet bs = new FixedBitSet(maxDoc);
+    for (int start = 0; start < maxDoc; start += RoaringDocSet.BLOCK_SIZE) {
+      int end = Math.min(start + RoaringDocSet.BLOCK_SIZE, maxDoc);
+      switch (rand.nextInt(4)) {
+        case 0:
+          break;
+        case 1:
+          for (int i = rand.nextInt(5000); i > 0; i--) bs.set(start + rand.nextInt(end - start));
+          break;
+        case 2:
+          for (int doc = start; doc < end; doc++) if (rand.nextInt(3) != 0) bs.set(doc);
+          break;
+        default:
+          for (int doc = start + rand.nextInt(100); doc < end; doc += 1 + rand.nextInt(2000)) {
+            int runEnd = Math.min(end, doc + 1 + rand.nextInt(1000));
+            bs.set(doc, runEnd);
+            doc = runEnd;
+          }
+      }
+    }
+    return bs;
+  }
+
+  public void testRoaringDocSets() throws IOException {
+    for (int iter = 0; iter < 20; iter++) {
+      int maxDoc = 1 + rand.nextInt(RoaringDocSet.BLOCK_SIZE * 5);
+      FixedBitSet bs1 = getRandomBlockSet(maxDoc);
+      FixedBitSet bs2 = getRandomBlockSet(maxDoc);
+      DocSet r1 = getRoaringDocSet(bs1);
+      DocSet r2 = getRoaringDocSet(bs2);
+
+      checkEqual(bs1, r1);
+      iter(new BitDocSet(bs1), r1);
+      assertEquals(RoaringDocSet.estimateRamBytesUsed(bs1), r1.ramBytesUsed());
+
+      FixedBitSet a_and = bs1.clone();
+      a_and.and(bs2);
+      FixedBitSet a_or = bs1.clone();
+      a_or.or(bs2);
+      FixedBitSet a_andn = bs1.clone();
+      a_andn.andNot(bs2);
+
+      for (DocSet b2 : new DocSet[] {r2, new BitDocSet(bs2), getIntDocSet(bs2)}) {
+        iter(new BitDocSet(a_and), r1.intersection(b2));
+        iter(new BitDocSet(a_or), r1.union(b2));
+        iter(new BitDocSet(a_andn), r1.andNot(b2));
+        assertEquals(a_and.cardinality(), r1.intersectionSize(b2));
+        assertEquals(a_and.cardinality() > 0, r1.intersects(b2));
+        assertEquals(a_or.cardinality(), r1.unionSize(b2));
+        assertEquals(a_andn.cardinality(), r1.andNotSize(b2));
+
+        // and the other way around
+        iter(new BitDocSet(a_and), b2.intersection(r1));
+        assertEquals(a_and.cardinality(), b2.intersectionSize(r1));
+        assertEquals(a_and.cardinality() > 0, b2.intersects(r1));
+        FixedBitSet b_andn = bs2.clone();
+        b_andn.andNot(bs1);
+        iter(new BitDocSet(b_andn), b2.andNot(r1));
+      }
+
+      FixedBitSet all = new FixedBitSet(maxDoc);
+      r1.addAllTo(all);
+      assertEquals(bs1, all);
+
+      // advancing the per-segment iterators agrees with the bits
+      int base = rand.nextInt(maxDoc);
+      int segMaxDoc = 1 + rand.nextInt(maxDoc - base);
+      DocIdSetIterator disi =
+          r1.iterator(
+              new MultiReader(dummyIndexReader(base), dummyIndexReader(segMaxDoc)).leaves().get(1));
+      int first = bs1.nextSetBit(base);
+      if (first >= base + segMaxDoc) {
+        assertNull(disi);
+        continue;
+      }
+      assertNotNull(disi);
+      for (int target = 0; ; target = disi.docID() + 1 + rand.nextInt(3000)) {
+        int doc = disi.advance(target);
+        int next =
+            base + target < maxDoc ? bs1.nextSetBit(base + target) : DocIdSetIterator.NO_MORE_DOCS;
+        if (next >= base + segMaxDoc) {
+          assertEquals(DocIdSetIterator.NO_MORE_DOCS, doc);
+          break;
+        }
+        assertEquals(next - base, doc);
+      }
+    }
+  }
+
+  public void testToCompactSet() {
+    int maxDoc = RoaringDocSet.BLOCK_SIZE * 4;
+    // a few clustered runs: much smaller as a RoaringDocSet
+    FixedBitSet runs = new FixedBitSet(maxDoc);
+    runs.set(1000, 50000);
+    runs.set(200000, 210000);
+    DocSet compact = DocSetUtil.toCompactSet(new BitDocSet(runs));
+    assertTrue(compact instanceof RoaringDocSet);
+    assertTrue(compact.ramBytesUsed() * 2 <= new BitDocSet(runs).ramBytesUsed());
+    iter(new BitDocSet(runs), compact);
+
+    // random half of the docs: stays a bitset
+    FixedBitSet dense = getRandomSet(maxDoc, maxDoc / 2);
+    DocSet bitDocSet = new BitDocSet(dense);
+    assertSame(bitDocSet, DocSetUtil.toCompactSet(bitDocSet));
+
+    DocSet intDocSet = getIntDocSet(getRandomSet(maxDoc, 10));
+    assertSame(intDocSet, DocSetUtil.toCompactSet(intDocSet));
+  }
+
   public DocSet getRandomDocSet(int n, int maxDoc) {
     FixedBitSet obs = new FixedBitSet(maxDoc);
     int[] a = new int[n];
@@ -580,6 +699,7 @@ public class TestDocSet extends SolrTestCase {
     FixedBitSet bs = getRandomSet(reader.maxDoc(), rand.nextInt(reader.maxDoc() + 1));
     DocSet a = new BitDocSet(bs);
     DocSet b = getIntDocSet(bs);
+    DocSet c = getRoaringDocSet(bs);
 
     //    Query fa = a.makeQuery();
     //    Query fb = b.makeQuery();
@@ -599,7 +719,8 @@ public class TestDocSet extends SolrTestCase {
       doTestIteratorEqual(
           getExpectedBits(a, readerContext),
           () -> a.iterator(readerContext),
-          () -> b.iterator(readerContext));
+          () -> b.iterator(readerContext),
+          () -> c.iterator(readerContext));
     }
 
     int nReaders = leaves.size();
@@ -609,7 +730,8 @@ public class TestDocSet extends SolrTestCase {
       doTestIteratorEqual(
           getExpectedBits(a, readerContext),
           () -> a.iterator(readerContext),
-          () -> b.iterator(readerContext));
+          () -> b.iterator(readerContext),
+          () -> c.iterator(readerContext));
     }
   }
 
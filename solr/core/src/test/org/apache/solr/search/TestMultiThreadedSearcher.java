@@ -17,9 +17,16 @@
 package org.apache.solr.search;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.QueryVisitor;
 import org.apache.lucene.search.Rescorer;
@@ -68,9 +75,16 @@ public class TestMultiThreadedSearcher extends SolrTestCaseJ4 {
       for (int i = 0; i < 10; i++) {
         assertU(
             adoc(
-                "id", String.valueOf(20000 + seg * 100 + i),
-                "field1_s", "nomatchterm",
-                "field4_t", "nomatchterm"));
+                "id",
+                String.valueOf(20000 + seg * 100 + i),
+                "field1_s",
+                "nomatchterm",
+                "field4_t",
+                "nomatchterm",
+                "cat_s_dvo",
+                "cat" + (i % 3),
+                "val_idv",
+                String.valueOf(i)));
       }
       assertU(commit());
     }
@@ -79,9 +93,16 @@ public class TestMultiThreadedSearcher extends SolrTestCaseJ4 {
     for (int i = 0; i < 10; i++) {
       assertU(
           adoc(
-              "id", String.valueOf(10000 + i),
-              "field1_s", "xyzrareterm",
-              "field4_t", "xyzrareterm"));
+              "id",
+              String.valueOf(10000 + i),
+              "field1_s",
+              "xyzrareterm",
+              "field4_t",
+              "xyzrareterm",
+              "cat_s_dvo",
+              "cat" + (i % 4),
+              "val_idv",
+              String.valueOf(i)));
     }
     assertU(commit());
   }
@@ -154,6 +175,199 @@ public class TestMultiThreadedSearcher extends SolrTestCaseJ4 {
             });
   }
 
+  /** Post filters that can be partitioned by segment must not force single-threaded search. */
+  public void testPostFilterWithMultiThreadedSearch() throws Exception {
+    for (String mt : new String[] {"false", "true"}) {
+      assertQ(
+          req(
+              "q", "*:*",
+              "fq", "{!frange cache=false cost=200 l=3 u=5}val_idv",
+              "multiThreaded", mt,
+              "rows", "0"),
+          "//*[@numFound='24']");
+      assertQ(
+          req(
+              "q", "field1_s:xyzrareterm",
+              "fq", "{!frange cache=false cost=200 l=8}val_idv",
+              "multiThreaded", mt,
+              "sort", "id asc"),
+          "//*[@numFound='2']",
+          "//result/doc[1]/str[@name='id'][.='10008']",
+          "//result/doc[2]/str[@name='id'][.='10009']");
+    }
+  }
+
+  /** Each slice, up to the request's budget, gets a post filter collector of its own. */
+  public void testPostFilterCollectorPerSlice() throws Exception {
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              final int numSlices = searcher.getSlices().length;
+              assertTrue(numSlices > 1);
+              assertEquals(1, searchWithRecordingPostFilter(searcher, false, -1));
+              assertEquals(numSlices, searchWithRecordingPostFilter(searcher, true, -1));
+              // the slices are merged into the budget
+              assertEquals(1, searchWithRecordingPostFilter(searcher, true, 1));
+              return null;
+            });
+  }
+
+  /** Searches all docs through a recording post filter, returning how many collectors searched. */
+  private static int searchWithRecordingPostFilter(
+      SolrIndexSearcher searcher, boolean multiThreaded, int maxThreads) throws IOException {
+    final LeafRecordingPostFilter postFilter = new LeafRecordingPostFilter();
+    final QueryCommand cmd = new QueryCommand();
+    cmd.setQuery(new MatchAllDocsQuery());
+    cmd.setFilterList(postFilter);
+    cmd.setLen(10);
+    cmd.setFlags(SolrIndexSearcher.NO_CHECK_QCACHE);
+    cmd.setMultiThreaded(multiThreaded);
+    cmd.setMaxThreads(maxThreads);
+    final QueryResult qr = searcher.search(cmd);
+    assertEquals(searcher.numDocs(), qr.getDocList().matches());
+
+    final Set<Integer> leaves = new HashSet<>();
+    int collectors = 0;
+    for (Set<Integer> collectorLeaves : postFilter.leavesPerCollector) {
+      if (!collectorLeaves.isEmpty()) {
+        collectors++;
+        for (int leaf : collectorLeaves) {
+          assertTrue("leaf searched twice: " + leaf, leaves.add(leaf));
+        }
+      }
+    }
+    assertEquals(searcher.getTopReaderContext().leaves().size(), leaves.size());
+    return collectors;
+  }
+
+  public void testSearchPerSliceWithinBudget() throws Exception {
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              final int numLeaves = searcher.getTopReaderContext().leaves().size();
+              final int numSlices = searcher.getSlices().length;
+              List<List<LeafReaderContext>> slices =
+                  MultiThreadedSearcher.searchPerSlice(searcher, -1, leaves -> leaves);
+              assertNotNull(slices);
+              assertEquals(numSlices, slices.size());
+              assertEquals(numLeaves, slices.stream().mapToInt(List::size).sum());
+
+              // a budget of one thread: the caller counts on its own thread
+              assertNull(MultiThreadedSearcher.searchPerSlice(searcher, 1, leaves -> leaves));
+              return null;
+            });
+    assertEquals(1, MultiThreadedSearcher.getMaxThreads(params()));
+    assertEquals(1, MultiThreadedSearcher.getMaxThreads(params("multiThreaded.maxThreads", "3")));
+    assertEquals(-1, MultiThreadedSearcher.getMaxThreads(params("multiThreaded", "true")));
+    assertEquals(
+        3,
+        MultiThreadedSearcher.getMaxThreads(
+            params("multiThreaded", "true", "multiThreaded.maxThreads", "3")));
+  }
+
+  public void testFacetCountsWithMultiThreadedSearch() throws Exception {
+    for (String mt : new String[] {"false", "true"}) {
+      assertQ(
+          req(
+              "q", "*:*",
+              "facet", "true",
+              "facet.field", "cat_s_dvo",
+              "facet.method", "fc",
+              "multiThreaded", mt,
+              "rows", "0"),
+          "//lst[@name='cat_s_dvo']/int[@name='cat0'][.='31']",
+          "//lst[@name='cat_s_dvo']/int[@name='cat1'][.='24']",
+          "//lst[@name='cat_s_dvo']/int[@name='cat2'][.='23']",
+          "//lst[@name='cat_s_dvo']/int[@name='cat3'][.='2']");
+      assertJQ(
+          req(
+              "q", "field1_s:nomatchterm",
+              "json.facet", "{cats:{type:terms, field:cat_s_dvo, method:dv}}",
+              "multiThreaded", mt,
+              "rows", "0"),
+          "facets/cats/buckets==[{val:cat0,count:28},{val:cat1,count:21},{val:cat2,count:21}]");
+    }
+    assertQ(
+        req(
+            "q", "*:*",
+            "facet", "true",
+            "facet.field", "cat_s_dvo",
+            "facet.method", "fc",
+            "multiThreaded", "true",
+            "multiThreaded.maxThreads", "1",
+            "rows", "0"),
+        "//lst[@name='cat_s_dvo']/int[@name='cat0'][.='31']",
+        "//lst[@name='cat_s_dvo']/int[@name='cat3'][.='2']");
+  }
+
+  public void testLimitSlices() throws Exception {
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              IndexSearcher.LeafSlice[] slices =
+                  IndexSearcher.slices(searcher.getTopReaderContext().leaves(), 1, 1, false);
+              assertEquals(8, slices.length);
+              assertSame(slices, MultiThreadedSearcher.limitSlices(slices, -1));
+              assertSame(slices, MultiThreadedSearcher.limitSlices(slices, 8));
+
+              IndexSearcher.LeafSlice[] limited = MultiThreadedSearcher.limitSlices(slices, 3);
+              assertEquals(3, limited.length);
+              int leaves = 0;
+              int maxDocs = 0;
+              for (IndexSearcher.LeafSlice slice : limited) {
+                leaves += slice.partitions.length;
+                maxDocs += slice.getMaxDocs();
+              }
+              assertEquals(8, leaves);
+              assertEquals(searcher.maxDoc(), maxDocs);
+              return null;
+            });
+  }
+
+  /** A post filter that matches everything and records the leaves each of its collectors saw. */
+  private static final class LeafRecordingPostFilter extends ExtendedQueryBase
+      implements PostFilter {
+    final List<Set<Integer>> leavesPerCollector = new CopyOnWriteArrayList<>();
+
+    LeafRecordingPostFilter() {
+      setCache(false);
+      setCost(100);
+    }
+
+    @Override
+    public boolean isPartitionableBySegment() {
+      return true;
+    }
+
+    @Override
+    public DelegatingCollector getFilterCollector(IndexSearcher searcher) {
+      final Set<Integer> leaves = ConcurrentHashMap.newKeySet();
+      leavesPerCollector.add(leaves);
+      return new DelegatingCollector() {
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+          leaves.add(context.ord);
+          super.doSetNextReader(context);
+        }
+      };
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+      visitor.visitLeaf(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return this == obj;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+
   private static final class SimpleReRankQuery extends RankQuery {
 
     private Query q;
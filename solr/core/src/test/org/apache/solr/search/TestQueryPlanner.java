@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.util.List;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Test for {@link QueryPlanner}. */
+public class TestQueryPlanner extends SolrTestCaseJ4 {
+
+  private static final String PLAN = "//lst[@name='debug']/lst[@name='queryPlan']";
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema.xml");
+    for (int i = 0; i < 200; i++) {
+      assertU(
+          adoc(
+              "id",
+              Integer.toString(i),
+              "parity_s",
+              i % 2 == 0 ? "even" : "odd",
+              "mod5_s",
+              Integer.toString(i % 5),
+              "val_idv",
+              Integer.toString(i)));
+    }
+    assertU(commit());
+  }
+
+  private static long filterCacheSize() throws Exception {
+    return h.getCore().withSearcher(s -> (long) s.getFilterCache().size());
+  }
+
+  private static long queryResultCacheSize() throws Exception {
+    return h.getCore().withSearcher(s -> (long) s.getQueryResultCache().size());
+  }
+
+  private static boolean isFilterCached(String field, String value) throws Exception {
+    return h.getCore()
+        .withSearcher(
+            s -> {
+              DocSet cached = s.getFilterCache().get(new TermQuery(new Term(field, value)));
+              return cached != null;
+            });
+  }
+
+  @Test
+  public void testSelectiveQueryLeapfrogsFilter() throws Exception {
+    assertU(commit()); // new searcher, empty filterCache
+    assertQ(
+        req(
+            "q",
+            "id:(1 OR 6)",
+            "fq",
+            "mod5_s:1",
+            CommonParams.QUERY_PLANNER,
+            "true",
+            CommonParams.DEBUG,
+            CommonParams.TIMING),
+        "//*[@numFound='2']",
+        PLAN + "/long[@name='estimatedMatches'][.='2']",
+        PLAN + "/arr[@name='filters']/lst[1]/str[@name='strategy'][.='leapfrog']",
+        PLAN + "/arr[@name='filters']/lst[1]/long[@name='estimatedMatches'][.='40']",
+        "//lst[@name='timing']/lst[@name='process']/lst[@name='query']/lst[@name='plan']");
+    // the filter's set was not built
+    assertFalse(isFilterCached("mod5_s", "1"));
+  }
+
+  @Test
+  public void testCachedAndBroadFiltersAreIntersected() throws Exception {
+    assertU(commit());
+    assertQ(req("q", "*:*", "fq", "parity_s:even"), "//*[@numFound='100']");
+    assertTrue(isFilterCached("parity_s", "even"));
+
+    assertQ(
+        req(
+            "q",
+            "id:(2 OR 3 OR 4)",
+            "fq",
+            "parity_s:even",
+            CommonParams.QUERY_PLANNER,
+            "true",
+            CommonParams.DEBUG,
+            CommonParams.TIMING),
+        "//*[@numFound='2']",
+        PLAN + "/arr[@name='filters']/lst[1]/str[@name='strategy'][.='cached']",
+        PLAN + "/arr[@name='filters']/lst[1]/int[@name='cachedSize'][.='100']");
+
+    // the query isn't selective enough
+    assertQ(
+        req(
+            "q",
+            "*:*",
+            "fq",
+            "parity_s:odd",
+            CommonParams.QUERY_PLANNER,
+            "true",
+            CommonParams.DEBUG,
+            CommonParams.TIMING),
+        "//*[@numFound='100']",
+        PLAN + "/arr[@name='filters']/lst[1]/str[@name='strategy'][.='cached']");
+    assertTrue(isFilterCached("parity_s", "odd"));
+  }
+
+  @Test
+  public void testPostFilterAndHints() throws Exception {
+    assertU(commit());
+    final long cacheSize = filterCacheSize();
+    assertQ(
+        req(
+            "q",
+            "id:(1 OR 2 OR 150)",
+            "fq",
+            "{!frange l=0 u=99}val_idv",
+            "fq",
+            "{!cache=false}parity_s:even",
+            CommonParams.QUERY_PLANNER,
+            "true",
+            CommonParams.DEBUG,
+            CommonParams.TIMING),
+        "//*[@numFound='1']",
+        "//str[@name='id'][.='2']",
+        PLAN + "/arr[@name='filters']/lst[1]/str[@name='strategy'][.='post_filter']",
+        PLAN + "/arr[@name='filters']/lst[2]/str[@name='strategy'][.='hinted']");
+    assertEquals(cacheSize, filterCacheSize());
+
+    // no plan without the parameter
+    assertQ(
+        req(
+            "q",
+            "id:(1 OR 2 OR 150)",
+            "fq",
+            "{!frange l=0 u=99}val_idv",
+            CommonParams.DEBUG,
+            CommonParams.TIMING),
+        "//*[@numFound='2']",
+        "not(" + PLAN + ")");
+  }
+
+  @Test
+  public void testRequestFiltersNotModified() throws Exception {
+    try (SolrQueryRequest req = req()) {
+      final Query postFilter = QParser.getParser("{!frange l=0 u=99}val_idv", req).getQuery();
+      final Query filter = QParser.getParser("mod5_s:1", req).getQuery();
+      final int postFilterCost = ((ExtendedQuery) postFilter).getCost();
+      final QueryCommand cmd =
+          new QueryCommand()
+              .setQuery(QParser.getParser("id:(1 OR 2 OR 150)", req).getQuery())
+              .setFilterList(List.of(postFilter, filter))
+              .setLen(10);
+      req.getSearcher().getQueryPlanner().plan(cmd, false);
+
+      final Query plannedPostFilter = cmd.getFilterList().get(0);
+      assertTrue(plannedPostFilter instanceof PostFilter);
+      assertFalse(((ExtendedQuery) plannedPostFilter).getCache());
+      assertTrue(((ExtendedQuery) plannedPostFilter).getCost() >= QueryPlanner.POST_FILTER_COST);
+      assertSame(postFilter, QueryPlanner.unplanned(plannedPostFilter));
+      assertSame(filter, QueryPlanner.unplanned(cmd.getFilterList().get(1)));
+
+      assertTrue(((ExtendedQuery) postFilter).getCache());
+      assertEquals(postFilterCost, ((ExtendedQuery) postFilter).getCost());
+    }
+  }
+
+  @Test
+  public void testQueryResultCacheSharedByPlans() throws Exception {
+    assertU(commit());
+    final String[] request = {
+      "q", "id:(1 OR 6)", "fq", "mod5_s:1", "fq", "{!frange l=0 u=99}val_idv"
+    };
+    final String[] planned = {
+      CommonParams.QUERY_PLANNER, "true", CommonParams.DEBUG, CommonParams.TIMING
+    };
+    assertQ(
+        req(request, planned),
+        "//*[@numFound='2']",
+        PLAN + "/arr[@name='filters']/lst[1]/str[@name='strategy'][.='leapfrog']",
+        PLAN + "/arr[@name='filters']/lst[2]/str[@name='strategy'][.='post_filter']");
+    final long cacheSize = queryResultCacheSize();
+
+    // once the filters are cached, the request is planned differently but hits the same entry
+    assertQ(
+        req("q", "*:*", "fq", "mod5_s:1", "fq", "{!frange l=0 u=99}val_idv"),
+        "//*[@numFound='20']");
+    assertEquals(cacheSize + 1, queryResultCacheSize());
+    assertQ(
+        req(request, planned),
+        "//*[@numFound='2']",
+        PLAN + "/arr[@name='filters']/lst[1]/str[@name='strategy'][.='cached']",
+        PLAN + "/arr[@name='filters']/lst[2]/str[@name='strategy'][.='cached']");
+    assertQ(req(request), "//*[@numFound='2']");
+    assertEquals(cacheSize + 1, queryResultCacheSize());
+  }
+}
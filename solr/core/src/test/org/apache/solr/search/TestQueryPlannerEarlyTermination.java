@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Test of the early termination chosen by {@link QueryPlanner}, on an index sorted by merges. */
+public class TestQueryPlannerEarlyTermination extends SolrTestCaseJ4 {
+
+  private static final String TERMINATED_EARLY =
+      "//lst[@name='responseHeader']/bool[@name='segmentTerminatedEarly']";
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("mergePolicySort", "timestamp_i_dvo desc");
+    initCore("solrconfig-sortingmergepolicyfactory.xml", "schema.xml");
+    for (int i = 0; i < 100; i++) {
+      assertU(adoc("id", Integer.toString(i), "timestamp_i_dvo", Integer.toString(i)));
+    }
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("mergePolicySort");
+  }
+
+  @Test
+  public void testTerminatedEarlyWithApproximateCount() {
+    assertQ(
+        req(
+            "q",
+            "*:*",
+            "sort",
+            "timestamp_i_dvo desc",
+            "rows",
+            "5",
+            "fl",
+            "id",
+            CommonParams.MIN_EXACT_COUNT,
+            "5",
+            CommonParams.QUERY_PLANNER,
+            "true"),
+        TERMINATED_EARLY + "[.='true']",
+        "//result/doc[1]/str[@name='id'][.='99']",
+        "//result/doc[5]/str[@name='id'][.='95']");
+  }
+
+  @Test
+  public void testNotTerminatedEarly() {
+    // an exact count is needed
+    assertQ(
+        req(
+            "q",
+            "*:*",
+            "sort",
+            "timestamp_i_dvo desc",
+            "rows",
+            "5",
+            CommonParams.QUERY_PLANNER,
+            "true"),
+        "not(" + TERMINATED_EARLY + ")",
+        "//result[@numFound='100']");
+
+    // the sort is not the index sort
+    assertQ(
+        req(
+            "q",
+            "*:*",
+            "sort",
+            "timestamp_i_dvo asc",
+            "rows",
+            "5",
+            CommonParams.MIN_EXACT_COUNT,
+            "5",
+            CommonParams.QUERY_PLANNER,
+            "true"),
+        "not(" + TERMINATED_EARLY + ")",
+        "//result/doc[1]/str[@name='id'][.='0']");
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.solr.SolrTestCaseJ4;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests of the caches keeping per-segment data in a {@link SegmentStore}. */
+public class TestSegmentCaches extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.filterCache.class", SegmentFilterCache.class.getName());
+    System.setProperty("solr.queryResultCache.class", SegmentQueryResultCache.class.getName());
+    System.setProperty("solr.documentCache.class", SegmentDocumentCache.class.getName());
+    initCore("solrconfig.xml", "schema.xml");
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.filterCache.class");
+    System.clearProperty("solr.queryResultCache.class");
+    System.clearProperty("solr.documentCache.class");
+  }
+
+  private static SegmentStore<?, ?> getFilterStore() throws IOException {
+    return h.getCore()
+        .withSearcher(s -> ((SegmentFilterCache) s.getFilterCache()).getSegmentStore());
+  }
+
+  private static SegmentStore<?, ?> getQueryResultStore() throws IOException {
+    return h.getCore()
+        .withSearcher(s -> ((SegmentQueryResultCache) s.getQueryResultCache()).getSegmentStore());
+  }
+
+  private static SegmentStore<?, ?> getDocumentStore() throws IOException {
+    return h.getCore()
+        .withSearcher(
+            s -> ((SegmentDocumentCache) s.getDocFetcher().getDocumentCache()).getSegmentStore());
+  }
+
+  private static Set<IndexReader.CacheKey> getCoreKeys() throws IOException {
+    return h.getCore()
+        .withSearcher(
+            s ->
+                s.getTopReaderContext().leaves().stream()
+                    .map(leaf -> leaf.reader().getCoreCacheHelper().getKey())
+                    .collect(Collectors.toSet()));
+  }
+
+  private static Set<IndexReader.CacheKey> getReaderKeys() throws IOException {
+    return h.getCore()
+        .withSearcher(
+            s ->
+                s.getTopReaderContext().leaves().stream()
+                    .map(leaf -> leaf.reader().getReaderCacheHelper().getKey())
+                    .collect(Collectors.toSet()));
+  }
+
+  private static void addDoc(int i) {
+    assertU(
+        adoc(
+            "id", Integer.toString(i),
+            "val_idv", Integer.toString(i),
+            "parity_s", i % 2 == 0 ? "even" : "odd"));
+  }
+
+  @Test
+  public void testStoresReusedAcrossCommits() throws Exception {
+    clearIndex();
+    for (int i = 0; i < 20; i++) {
+      addDoc(i);
+      if (i == 9) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    final SegmentStore<?, ?> filterStore = getFilterStore();
+    final SegmentStore<?, ?> queryResultStore = getQueryResultStore();
+    Set<IndexReader.CacheKey> coreKeys = getCoreKeys();
+    Set<IndexReader.CacheKey> readerKeys = getReaderKeys();
+    long filterMisses = filterStore.misses();
+    long queryResultMisses = queryResultStore.misses();
+    assertQ(req("q", "*:*", "fq", "parity_s:even"), "//*[@numFound='10']");
+    assertQ(
+        req("q", "*:*", "fq", "parity_s:even", "sort", "val_idv desc", "rows", "3"),
+        "//*[@numFound='10']",
+        "//result/doc[1]/str[@name='id'][.='18']",
+        "//result/doc[2]/str[@name='id'][.='16']",
+        "//result/doc[3]/str[@name='id'][.='14']");
+    assertEquals(coreKeys.size(), filterStore.misses() - filterMisses);
+    assertEquals(readerKeys.size(), queryResultStore.misses() - queryResultMisses);
+    assertTrue(filterStore.ramBytesUsed() > 0);
+    assertTrue(queryResultStore.ramBytesUsed() > 0);
+
+    final SegmentStore<?, ?> documentStore = getDocumentStore();
+    long documentMisses = documentStore.misses();
+    assertQ(req("q", "id:3", "fl", "id,parity_s"), "//str[@name='parity_s'][.='odd']");
+    assertEquals(documentMisses + 1, documentStore.misses());
+
+    // the stores are handed over to the new searcher's caches, and the entries are autowarmed
+    // into them: only new segments (filterCache) or new or changed segments (queryResultCache)
+    // are searched, and stored documents of the old segments are still found
+    filterMisses = filterStore.misses();
+    queryResultMisses = queryResultStore.misses();
+    for (int i = 20; i < 30; i++) {
+      addDoc(i);
+    }
+    assertU(delI("28"));
+    assertU(delI("0"));
+    assertU(commit());
+    Set<IndexReader.CacheKey> newCoreKeys = new HashSet<>(getCoreKeys());
+    newCoreKeys.removeAll(coreKeys);
+    Set<IndexReader.CacheKey> newReaderKeys = new HashSet<>(getReaderKeys());
+    newReaderKeys.removeAll(readerKeys);
+    assertEquals(newCoreKeys.size(), filterStore.misses() - filterMisses);
+    assertEquals(newReaderKeys.size(), queryResultStore.misses() - queryResultMisses);
+    assertQ(req("q", "*:*", "fq", "parity_s:even"), "//*[@numFound='13']");
+    assertQ(req("q", "parity_s:*", "fq", "-parity_s:even"), "//*[@numFound='15']");
+    assertQ(
+        req("q", "*:*", "fq", "parity_s:even", "sort", "val_idv desc", "rows", "3"),
+        "//*[@numFound='13']",
+        "//result/doc[1]/str[@name='id'][.='26']",
+        "//result/doc[2]/str[@name='id'][.='24']",
+        "//result/doc[3]/str[@name='id'][.='22']");
+
+    // the document's segment core did not change
+    documentMisses = documentStore.misses();
+    long documentHits = documentStore.hits();
+    assertQ(req("q", "id:3", "fl", "id,parity_s"), "//str[@name='parity_s'][.='odd']");
+    assertEquals(documentMisses, documentStore.misses());
+    assertEquals(documentHits + 1, documentStore.hits());
+
+    // a deeper page than the stored top hits searches the segments again
+    assertQ(
+        req(
+            "q", "*:*",
+            "fq", "parity_s:even",
+            "sort", "val_idv asc",
+            "start", "10",
+            "rows", "10"),
+        "//*[@numFound='13']",
+        "count(//result/doc)=3",
+        "//result/doc[1]/str[@name='id'][.='22']",
+        "//result/doc[3]/str[@name='id'][.='26']");
+  }
+
+  @Test
+  public void testFilterCacheDocSetMatchesUncached() throws Exception {
+    for (int i = 0; i < 300; i++) {
+      assertU(adoc("id", Integer.toString(1000 + i), "bucket_s", Integer.toString(i % 3)));
+      if (i % 70 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(delI("1003"));
+    assertU(commit());
+
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              for (String bucket : new String[] {"0", "1", "2", "missing"}) {
+                TermQuery query = new TermQuery(new Term("bucket_s", bucket));
+                DocSet stitched =
+                    ((SegmentFilterCache) searcher.getFilterCache())
+                        .getSegmentDocSet(searcher, query);
+                assertNotNull(stitched);
+                DocSet expected = DocSetUtil.createDocSetGeneric(searcher, query);
+                assertEquals(expected.size(), stitched.size());
+                assertTrue(DocSetUtil.equals(expected, stitched));
+              }
+              DocSet all =
+                  ((SegmentFilterCache) searcher.getFilterCache())
+                      .getSegmentDocSet(searcher, new MatchAllDocsQuery());
+              assertEquals(searcher.numDocs(), all.size());
+              return null;
+            });
+  }
+
+  private static BitDocSet bitDocSet(SolrIndexSearcher searcher, Query query) throws IOException {
+    FixedBitSet bits = new FixedBitSet(searcher.maxDoc());
+    DocSetUtil.createDocSetGeneric(searcher, query).addAllTo(bits);
+    return new BitDocSet(bits);
+  }
+
+  private static List<Integer> docs(DocIdSetIterator iter) throws IOException {
+    List<Integer> docs = new ArrayList<>();
+    if (iter != null) {
+      for (int doc = iter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iter.nextDoc()) {
+        docs.add(doc);
+      }
+    }
+    return docs;
+  }
+
+  @Test
+  public void testSegmentDocSetOperations() throws Exception {
+    clearIndex();
+    for (int i = 0; i < 500; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(2000 + i),
+              "mod_s", Integer.toString(i % 3),
+              "half_s", i < 250 ? "low" : "high"));
+      if (i % 130 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(delI("2004"));
+    assertU(delI("2301"));
+    assertU(commit());
+
+    // the filterCache holds the view, not a top-level bitset
+    assertQ(req("q", "*:*", "fq", "mod_s:1"), "//*[@numFound='165']");
+    final Query modQuery = new TermQuery(new Term("mod_s", "1"));
+    final Query halfQuery = new TermQuery(new Term("half_s", "low"));
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              assertTrue(searcher.getFilterCache().get(modQuery) instanceof SegmentDocSet);
+
+              SegmentFilterCache filterCache = (SegmentFilterCache) searcher.getFilterCache();
+              DocSet mod = filterCache.getSegmentDocSet(searcher, modQuery);
+              DocSet half = filterCache.getSegmentDocSet(searcher, halfQuery);
+              assertTrue(mod instanceof SegmentDocSet);
+              assertTrue(half instanceof SegmentDocSet);
+              BitDocSet modBits = bitDocSet(searcher, modQuery);
+              BitDocSet halfBits = bitDocSet(searcher, halfQuery);
+              assertEquals(modBits.size(), mod.size());
+              assertTrue(DocSetUtil.equals(modBits, mod));
+              for (int doc = 0; doc < searcher.maxDoc(); doc++) {
+                assertEquals(modBits.exists(doc), mod.exists(doc));
+                assertEquals(modBits.exists(doc), mod.getBits().get(doc));
+              }
+              for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+                assertEquals(docs(modBits.iterator(leaf)), docs(mod.iterator(leaf)));
+              }
+
+              DocSet[] others = {
+                halfBits,
+                half,
+                RoaringDocSet.fromBitSet(halfBits.getBits()),
+                new SortedIntDocSet(new int[] {1, 7, 100, 301})
+              };
+              for (DocSet other : others) {
+                String msg = other.getClass().getSimpleName();
+                FixedBitSet bits = new FixedBitSet(searcher.maxDoc());
+                for (DocIterator iter = other.iterator(); iter.hasNext(); ) {
+                  bits.set(iter.nextDoc());
+                }
+                BitDocSet otherBits = new BitDocSet(bits);
+                DocSet expected = modBits.intersection(otherBits);
+                assertTrue(msg, DocSetUtil.equals(expected, mod.intersection(other)));
+                assertTrue(msg, DocSetUtil.equals(expected, other.intersection(mod)));
+                assertEquals(msg, expected.size(), mod.intersectionSize(other));
+                assertEquals(msg, expected.size(), other.intersectionSize(mod));
+                assertEquals(msg, expected.size() > 0, mod.intersects(other));
+                assertEquals(msg, expected.size() > 0, other.intersects(mod));
+                assertTrue(msg, DocSetUtil.equals(modBits.union(otherBits), mod.union(other)));
+                assertTrue(msg, DocSetUtil.equals(modBits.andNot(otherBits), mod.andNot(other)));
+              }
+              return null;
+            });
+  }
+
+  @Test
+  public void testScoredQueriesNotInQueryResultStore() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      assertU(adoc("id", Integer.toString(100 + i), "text", "term" + (i % 3)));
+    }
+    assertU(commit());
+
+    final SegmentStore<?, ?> store = getQueryResultStore();
+    long misses = store.misses();
+    long hits = store.hits();
+    assertQ(req("q", "text:term1", "fl", "id,score"), "//*[@numFound='3']");
+    assertQ(req("q", "text:term1", "sort", "id asc", "fl", "id,score"), "//*[@numFound='3']");
+    assertEquals(misses, store.misses());
+    assertEquals(hits, store.hits());
+  }
+
+  @Test
+  public void testDocumentCacheDecodesAllTypes() throws Exception {
+    clearIndex();
+    final String text = "the quick brown fox jumps over the lazy dog ".repeat(20);
+    for (int i = 0; i < 10; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "subject", text + i,
+              "tag_s", "a" + i,
+              "tag_s", "b" + i,
+              "n_i1", Integer.toString(i),
+              "n_l1", Long.toString(1L << 40 | i),
+              "n_f1", i + ".5",
+              "n_d1", i + ".25"));
+    }
+    assertU(commit());
+
+    final SegmentStore<?, ?> store = getDocumentStore();
+    final long sizeBefore = store.size();
+    final long ramBefore = store.ramBytesUsed();
+    assertQ(
+        req("q", "id:3", "fl", "id,tag_s,n_i1,n_l1,n_f1,n_d1"),
+        "//*[@numFound='1']",
+        "//str[@name='id'][.='3']",
+        "//arr[@name='tag_s']/str[1][.='a3']",
+        "//arr[@name='tag_s']/str[2][.='b3']",
+        "//int[@name='n_i1'][.='3']",
+        "//long[@name='n_l1'][.='" + (1L << 40 | 3) + "']",
+        "//float[@name='n_f1'][.='3.5']",
+        "//double[@name='n_d1'][.='3.25']");
+    assertQ(req("q", "id:3", "fl", "subject"), "//arr[@name='subject']/str[.='" + text + "3']");
+    assertEquals(sizeBefore + 1, store.size());
+    // the long text field makes the blob worth compressing
+    assertTrue(store.ramBytesUsed() - ramBefore < text.length());
+  }
+
+  @Test
+  public void testDocumentCacheDecodedFieldsMatchStoredFields() throws Exception {
+    clearIndex();
+    for (int i = 0; i < 20; i++) {
+      assertU(
+          adoc(
+              "id",
+              Integer.toString(i),
+              "title",
+              "title " + i,
+              "tag_s",
+              "x",
+              "tag_s",
+              "y" + i,
+              "n_i1",
+              Integer.toString(i * 7),
+              "n_d1",
+              Double.toString(i / 3.0)));
+      if (i == 9) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              final SolrDocumentFetcher fetcher = searcher.getDocFetcher();
+              for (int docId = 0; docId < searcher.maxDoc(); docId++) {
+                final Document expected = searcher.getIndexReader().storedFields().document(docId);
+
+                // twice: once read from the index and once decoded from the store
+                for (int i = 0; i < 2; i++) {
+                  final DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor();
+                  fetcher.doc(docId, visitor);
+                  assertEquals(toString(expected), toString(visitor.getDocument()));
+                }
+
+                final Document partial = fetcher.doc(docId, Set.of("id", "n_i1"));
+                assertEquals(expected.get("id"), partial.get("id"));
+                assertEquals(
+                    expected.getField("n_i1").numericValue(),
+                    partial.getField("n_i1").numericValue());
+              }
+              return null;
+            });
+  }
+
+  private static String toString(Document document) {
+    final StringBuilder sb = new StringBuilder();
+    for (IndexableField field : document) {
+      sb.append(field.name()).append('=');
+      sb.append(field.numericValue() != null ? field.numericValue() : field.stringValue());
+      sb.append(';');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Accountable;
+import org.apache.solr.SolrTestCase;
+import org.junit.After;
+import org.junit.Before;
+
+/** Test for {@link SegmentStore}. */
+public class TestSegmentStore extends SolrTestCase {
+
+  private Directory dir;
+  private DirectoryReader reader;
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = newDirectory();
+    try (IndexWriter writer =
+        new IndexWriter(dir, newIndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+      for (int i = 0; i < 2; i++) {
+        writer.addDocument(new Document());
+        writer.commit();
+      }
+    }
+    reader = DirectoryReader.open(dir);
+    assertEquals(2, reader.leaves().size());
+  }
+
+  @Override
+  @After
+  public void tearDown() throws Exception {
+    reader.close();
+    dir.close();
+    super.tearDown();
+  }
+
+  private RecordingCacheHelper segment(int ord) {
+    return new RecordingCacheHelper(reader.leaves().get(ord).reader().getCoreCacheHelper());
+  }
+
+  private Accountable load(long ramBytes) {
+    loads.incrementAndGet();
+    return () -> ramBytes;
+  }
+
+  public void testHitsAndMisses() throws IOException {
+    SegmentStore<String, Accountable> store = new SegmentStore<>(1024 * 1024);
+    RecordingCacheHelper segment0 = segment(0);
+    RecordingCacheHelper segment1 = segment(1);
+
+    Accountable value = store.get("q", segment0, v -> true, () -> load(100));
+    assertSame(value, store.get("q", segment0, v -> true, () -> load(100)));
+    assertEquals(1, loads.get());
+    assertEquals(1, store.hits());
+    assertEquals(1, store.misses());
+
+    // another segment, or another key on the same segment
+    assertNotSame(value, store.get("q", segment1, v -> true, () -> load(100)));
+    store.get("other", segment0, v -> true, () -> load(100));
+    assertEquals(3, loads.get());
+    assertEquals(3, store.misses());
+    assertEquals(3, store.size());
+    assertEquals(300, store.ramBytesUsed());
+
+    // a stored value that can't be reused is replaced
+    Accountable replaced = store.get("q", segment0, v -> v.ramBytesUsed() > 100, () -> load(200));
+    assertNotSame(value, replaced);
+    assertSame(replaced, store.get("q", segment0, v -> v.ramBytesUsed() > 100, () -> load(200)));
+    assertEquals(4, store.misses());
+    assertEquals(2, store.hits());
+    assertEquals(3, store.size());
+    assertEquals(400, store.ramBytesUsed());
+
+    // the closed listener is only registered once per segment
+    assertEquals(1, segment0.listeners.size());
+    assertEquals(1, segment1.listeners.size());
+  }
+
+  public void testPurgedWhenSegmentClosed() throws IOException {
+    SegmentStore<String, Accountable> store = new SegmentStore<>(1024 * 1024);
+    RecordingCacheHelper segment0 = segment(0);
+    RecordingCacheHelper segment1 = segment(1);
+    for (String key : new String[] {"a", "b", "c"}) {
+      store.get(key, segment0, v -> true, () -> load(10));
+      store.get(key, segment1, v -> true, () -> load(10));
+    }
+    assertEquals(6, store.size());
+
+    segment0.close();
+    assertEquals(3, store.size());
+    assertEquals(30, store.ramBytesUsed());
+
+    // the segment is registered again if it is seen after having been purged
+    store.get("a", segment0, v -> true, () -> load(10));
+    assertEquals(2, segment0.listeners.size());
+  }
+
+  public void testEvictedByWeight() throws IOException {
+    SegmentStore<Integer, Accountable> store = new SegmentStore<>(1000);
+    RecordingCacheHelper segment0 = segment(0);
+    for (int i = 0; i < 20; i++) {
+      store.get(i, segment0, v -> true, () -> load(300));
+      assertTrue(store.ramBytesUsed() <= 1000);
+    }
+    assertTrue(store.size() <= 3);
+    assertEquals(20, store.misses());
+  }
+
+  /** Records the closed listeners registered on a segment, so the test can close it. */
+  private static final class RecordingCacheHelper implements IndexReader.CacheHelper {
+    private final IndexReader.CacheKey key;
+    final List<IndexReader.ClosedListener> listeners = new ArrayList<>();
+
+    RecordingCacheHelper(IndexReader.CacheHelper delegate) {
+      this.key = delegate.getKey();
+    }
+
+    @Override
+    public IndexReader.CacheKey getKey() {
+      return key;
+    }
+
+    @Override
+    public void addClosedListener(IndexReader.ClosedListener listener) {
+      listeners.add(listener);
+    }
+
+    void close() throws IOException {
+      for (IndexReader.ClosedListener listener : listeners) {
+        listener.onClose(key);
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Test;
+
+public class TestFacetFieldMergerStreaming extends SolrTestCase {
+
+  private static FacetField streamingRequest(long mincount) {
+    final FacetField freq = new FacetField();
+    freq.method = FacetField.FacetMethod.STREAM;
+    freq.limit = -1;
+    freq.mincount = mincount;
+    freq.sort = FacetRequest.FacetSort.INDEX_ASC;
+    return freq;
+  }
+
+  private static SimpleOrderedMap<Object> shardResult(Map<String, Long> counts) {
+    final List<SimpleOrderedMap<Object>> buckets = new ArrayList<>();
+    for (Map.Entry<String, Long> e : counts.entrySet()) {
+      final SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+      bucket.add("val", e.getKey());
+      bucket.add("count", e.getValue());
+      buckets.add(bucket);
+    }
+    final SimpleOrderedMap<Object> result = new SimpleOrderedMap<>();
+    result.add("buckets", buckets);
+    return result;
+  }
+
+  @Test
+  public void testMergesInIndexOrder() {
+    final long mincount = 1 + random().nextInt(3);
+    final FacetFieldMerger merger = new FacetFieldMerger(streamingRequest(mincount));
+    final int numShards = 1 + random().nextInt(4);
+    final FacetMerger.Context mcontext = new FacetMerger.Context(numShards);
+
+    final TreeMap<String, Long> expected = new TreeMap<>();
+    for (int shard = 0; shard < numShards; shard++) {
+      final TreeMap<String, Long> counts = new TreeMap<>();
+      for (int i = random().nextInt(50); i > 0; i--) {
+        // all in the ASCII range, where String order is index order
+        counts.merge("v" + (char) ('a' + random().nextInt(26)), 1L, Long::sum);
+      }
+      counts.forEach((val, count) -> expected.merge(val, count, Long::sum));
+      mcontext.newShard("shard" + shard);
+      merger.merge(shardResult(counts), mcontext);
+    }
+    expected.values().removeIf(count -> count < mincount);
+
+    final SimpleOrderedMap<?> merged = (SimpleOrderedMap<?>) merger.getMergedResult();
+    final Object buckets = merged.get("buckets");
+    assertTrue(buckets instanceof Iterable);
+    @SuppressWarnings("unchecked")
+    final Iterable<SimpleOrderedMap<?>> iterable = (Iterable<SimpleOrderedMap<?>>) buckets;
+    // a reader of the response before the response writer doesn't consume the buckets
+    assertBuckets(expected, iterable.iterator());
+    assertBuckets(expected, iterable.iterator());
+  }
+
+  private static void assertBuckets(Map<String, Long> expected, Iterator<SimpleOrderedMap<?>> it) {
+    for (Map.Entry<String, Long> e : expected.entrySet()) {
+      assertTrue(it.hasNext());
+      final SimpleOrderedMap<?> bucket = it.next();
+      assertEquals(e.getKey(), bucket.get("val"));
+      assertEquals(e.getValue().longValue(), ((Number) bucket.get("count")).longValue());
+    }
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testOffsetSkipsMergedBuckets() {
+    final FacetField freq = streamingRequest(2);
+    freq.offset = 1;
+    final FacetFieldMerger merger = new FacetFieldMerger(freq);
+    final FacetMerger.Context mcontext = new FacetMerger.Context(2);
+    mcontext.newShard("shard0");
+    merger.merge(shardResult(new TreeMap<>(Map.of("a", 1L, "b", 2L, "c", 1L))), mcontext);
+    mcontext.newShard("shard1");
+    merger.merge(shardResult(new TreeMap<>(Map.of("a", 1L, "d", 5L))), mcontext);
+
+    // "c" is below mincount, so "a" is the only bucket skipped
+    final SimpleOrderedMap<?> merged = (SimpleOrderedMap<?>) merger.getMergedResult();
+    @SuppressWarnings("unchecked")
+    final Iterable<SimpleOrderedMap<?>> buckets =
+        (Iterable<SimpleOrderedMap<?>>) merged.get("buckets");
+    assertBuckets(new TreeMap<>(Map.of("b", 2L, "d", 5L)), buckets.iterator());
+  }
+
+  @Test
+  public void testComparesStringsByCodePoint() {
+    // U+FB01 sorts before U+1F600 as UTF-8, but not as UTF-16
+    assertTrue(FacetFieldMerger.compareVals("\uFB01", "\uD83D\uDE00") < 0);
+    assertTrue(FacetFieldMerger.compareVals("a", "ab") < 0);
+    assertEquals(0, FacetFieldMerger.compareVals(3L, 3L));
+  }
+
+  @Test
+  public void testLimitedRequestIsNotStreamed() {
+    final FacetField freq = streamingRequest(1);
+    freq.limit = 10;
+    final FacetFieldMerger merger = new FacetFieldMerger(freq);
+    final FacetMerger.Context mcontext = new FacetMerger.Context(1);
+    mcontext.newShard("shard0");
+    merger.merge(shardResult(new TreeMap<>(Map.of("a", 1L, "b", 2L))), mcontext);
+    final SimpleOrderedMap<?> merged = (SimpleOrderedMap<?>) merger.getMergedResult();
+    assertTrue(merged.get("buckets") instanceof List);
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.GroupParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Facets served from the facetCache must be the same as when computed */
+public class TestFacetResultCache extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr.facetCache.enabled", "true");
+    initCore("solrconfig.xml", "schema11.xml");
+    for (int id = 0; id < 200; id++) {
+      assertU(
+          adoc(
+              "id",
+              Integer.toString(id),
+              "a_s_dv",
+              "a" + random().nextInt(40),
+              "x_l_p",
+              Integer.toString(random().nextInt(1000))));
+      if (id % 50 == 0) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.facetCache.enabled");
+  }
+
+  private static String facets(String facet, String fq, boolean cache) throws Exception {
+    return h.query(
+        req(
+            "q", "*:*",
+            "fq", fq,
+            "rows", "0",
+            "omitHeader", "true",
+            CommonParams.CACHE, Boolean.toString(cache),
+            "json.facet", facet));
+  }
+
+  private static void assertSameFacets(String facet, String fq) throws Exception {
+    assertEquals(facet, facets(facet, fq, false), facets(facet, fq, true));
+  }
+
+  private static String termsFacet(String sort, int offset, int limit) {
+    return "{t:{type:terms, field:a_s_dv, sort:'"
+        + sort
+        + "', offset:"
+        + offset
+        + ", limit:"
+        + limit
+        + ", numBuckets:true, facet:{s:'sum(x_l_p)'}}, s:'sum(x_l_p)', n:{type:query, q:'*:*'}}";
+  }
+
+  @Test
+  public void testPagingAndSorting() throws Exception {
+    final String[] sorts = {"count desc", "count asc", "index asc", "index desc", "s desc"};
+    for (int iter = 0; iter < atLeast(30); iter++) {
+      final String sort = sorts[random().nextInt(sorts.length)];
+      final String fq = random().nextBoolean() ? "*:*" : "x_l_p:[0 TO 500]";
+      assertSameFacets(termsFacet(sort, random().nextInt(30), random().nextInt(12) - 1), fq);
+    }
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              assertTrue(searcher.getFacetCache().size() > 0);
+              return null;
+            });
+  }
+
+  @Test
+  public void testWarming() throws Exception {
+    final String facet = termsFacet("count desc", 0, -1);
+    assertSameFacets(facet, "*:*");
+    assertU(adoc("id", "1000", "a_s_dv", "a0", "x_l_p", "5"));
+    assertU(commit());
+    h.getCore()
+        .withSearcher(
+            searcher -> {
+              assertTrue(searcher.getFacetCache().size() > 0);
+              return null;
+            });
+    assertSameFacets(facet, "*:*");
+  }
+
+  private static String groupedFacets(boolean truncate, boolean cache) throws Exception {
+    return h.query(
+        req(
+            "q", "*:*",
+            "rows", "0",
+            "omitHeader", "true",
+            GroupParams.GROUP, "true",
+            GroupParams.GROUP_FIELD, "a_s_dv",
+            GroupParams.GROUP_TRUNCATE, Boolean.toString(truncate),
+            CommonParams.CACHE, Boolean.toString(cache),
+            "json.facet", "{t:{type:terms, field:a_s_dv, limit:5}}"));
+  }
+
+  @Test
+  public void testGroupTruncate() throws Exception {
+    // the facets of the group heads are not served from the facets of all the matches
+    final String truncated = groupedFacets(true, false);
+    assertEquals(groupedFacets(false, false), groupedFacets(false, true));
+    assertEquals(truncated, groupedFacets(true, true));
+    assertNotEquals(truncated, groupedFacets(false, true));
+  }
+
+  private static SimpleOrderedMap<Object> result(int numBuckets) {
+    final List<Object> buckets = new ArrayList<>();
+    for (int i = 0; i < numBuckets; i++) {
+      final SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+      bucket.add("val", "value" + i);
+      bucket.add("count", (long) numBuckets - i);
+      buckets.add(bucket);
+    }
+    final SimpleOrderedMap<Object> result = new SimpleOrderedMap<>();
+    result.add("buckets", buckets);
+    return result;
+  }
+
+  @Test
+  public void testEntriesAccounted() {
+    final FacetResultCache.Entry small =
+        new FacetResultCache.Entry(result(10), null, FacetRequest.FacetSort.COUNT_DESC, 20);
+    final FacetResultCache.Entry large =
+        new FacetResultCache.Entry(result(1000), null, FacetRequest.FacetSort.COUNT_DESC, 2000);
+    assertTrue(small.ramBytesUsed() > 0);
+    // each bucket is a named list with a String value and a Long count
+    assertTrue(large.ramBytesUsed() - small.ramBytesUsed() > 990 * 64);
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import org.apache.lucene.tests.util.TestUtil;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.Utils;
+import org.apache.solr.index.NoMergePolicyFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Tests that terms facets answered from {@link FacetRollup}s match those counted from docs. */
+public class TestFacetRollups extends SolrTestCaseJ4 {
+
+  private static final String[] CATS = {"A", "B", "C", "D", "E"};
+  private static final String[] TAGS = {"x", "y", "z"};
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // keep the segments apart, to check that only new ones are rolled up
+    systemSetPropertySolrTestsMergePolicyFactory(NoMergePolicyFactory.class.getName());
+    initCore("solrconfig-facet-rollups.xml", "schema_latest.xml");
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    clearIndex();
+    assertU(commit());
+  }
+
+  private static void indexSegments(int numSegments, int docsPerSegment) {
+    int id = 0;
+    for (int s = 0; s < numSegments; s++) {
+      for (int i = 0; i < docsPerSegment; i++) {
+        assertU(adoc(randomDoc(id++)));
+      }
+      assertU(commit());
+    }
+  }
+
+  private static SolrInputDocument randomDoc(int id) {
+    SolrInputDocument doc = sdoc("id", Integer.toString(id));
+    if (random().nextInt(10) > 0) {
+      doc.addField("cat_s", CATS[random().nextInt(CATS.length)]);
+    }
+    for (int i = random().nextInt(3); i > 0; i--) {
+      doc.addField("tags_ss", TAGS[random().nextInt(TAGS.length)]);
+    }
+    if (random().nextInt(5) > 0) {
+      // quarters sum up exactly, whatever the order
+      doc.addField("price_dp", random().nextInt(400) / 4.0);
+    }
+    if (random().nextBoolean()) {
+      doc.addField("qty_ip", random().nextInt(100) - 20);
+    }
+    for (int i = random().nextInt(3); i > 0; i--) {
+      doc.addField("vals_dps", random().nextInt(40) / 4.0 - 2);
+    }
+    doc.addField("inStock_b", random().nextBoolean());
+    return doc;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object facets(String... params) throws Exception {
+    String response = h.query(req(params(params), "wt", "json"));
+    return ((Map<String, Object>) Utils.fromJSONString(response)).get("facets");
+  }
+
+  private static String facetProcessor(String... params) throws Exception {
+    String response = h.query(req(params(params), "wt", "json"));
+    return response.contains("FacetFieldProcessorByRollup") ? "rollup" : "docs";
+  }
+
+  private static String[] concat(String[] params, String... moreParams) {
+    String[] all = Arrays.copyOf(params, params.length + moreParams.length);
+    System.arraycopy(moreParams, 0, all, params.length, moreParams.length);
+    return all;
+  }
+
+  /** Asserts that the facet is answered from a rollup and that it matches counting docs. */
+  private static void assertRollup(String q, String fq, String facet, String... moreParams)
+      throws Exception {
+    String fallback = facet.replaceFirst("\\{", "{method:dv, ");
+    String[] params = concat(moreParams, "q", q, "fq", fq, "rows", "0");
+    Object expected = facets(concat(params, "json.facet", "{f:" + fallback + "}"));
+    Object actual = facets(concat(params, "json.facet", "{f:" + facet + "}"));
+    assertEquals(facet, expected, actual);
+    assertEquals(
+        facet,
+        "rollup",
+        facetProcessor(concat(params, "debug", "true", "json.facet", "{f:" + facet + "}")));
+  }
+
+  private static void assertNoRollup(String q, String fq, String facet) throws Exception {
+    assertEquals(
+        facet,
+        "docs",
+        facetProcessor(
+            "q", q, "fq", fq, "rows", "0", "debug", "true", "json.facet", "{f:" + facet + "}"));
+  }
+
+  @Test
+  public void testMatchesCountingDocs() throws Exception {
+    indexSegments(TestUtil.nextInt(random(), 1, 4), TestUtil.nextInt(random(), 5, 50));
+
+    String q = "*:*";
+    String fq = "id:*";
+    assertRollup(q, fq, "{type:terms, field:cat_s}");
+    assertRollup(q, fq, "{type:terms, field:cat_s, limit:2, mincount:3}");
+    assertRollup(q, fq, "{type:terms, field:cat_s, limit:-1, sort:'index desc'}");
+    assertRollup(
+        q,
+        fq,
+        "{type:terms, field:cat_s, limit:3, sort:'s desc', facet:{s:'sum(price_dp)', a:'avg(qty_ip)'}}");
+    assertRollup(
+        q,
+        fq,
+        "{type:terms, field:cat_s, limit:-1, sort:'a asc', facet:{a:'avg(vals_dps)', s:'sum(vals_dps)'}}");
+    assertRollup(
+        q,
+        fq,
+        "{type:terms, field:tags_ss, limit:-1, facet:{s:'sum(price_dp)', a:'avg(price_dp)'}}");
+    // a filtered rollup
+    assertRollup(q, "inStock_b:true", "{type:terms, field:cat_s, facet:{a:'avg(price_dp)'}}");
+  }
+
+  @Test
+  public void testFallsBackToCountingDocs() throws Exception {
+    indexSegments(2, 20);
+
+    String q = "*:*";
+    String fq = "id:*";
+    // domain isn't what the rollups cover
+    assertNoRollup("cat_s:A", fq, "{type:terms, field:tags_ss}");
+    assertNoRollup(q, "inStock_b:false", "{type:terms, field:cat_s}");
+    assertNoRollup(q, fq, "{type:terms, field:cat_s, domain:{filter:'inStock_b:true'}}");
+    // stats or options the rollups don't have
+    assertNoRollup(q, fq, "{type:terms, field:cat_s, facet:{m:'max(price_dp)'}}");
+    assertNoRollup(
+        q, fq, "{type:terms, field:cat_s, facet:{s:'sum(price_dp)', n:'sum(other_dp)'}}");
+    assertNoRollup(q, "inStock_b:true", "{type:terms, field:cat_s, facet:{s:'sum(qty_ip)'}}");
+    assertNoRollup(q, fq, "{type:terms, field:cat_s, missing:true}");
+    assertNoRollup(q, fq, "{type:terms, field:cat_s, prefix:A}");
+    assertNoRollup(q, fq, "{type:terms, field:cat_s, facet:{t:{type:terms, field:tags_ss}}}");
+    assertNoRollup(q, fq, "{type:terms, field:cat_s, method:dv}");
+    assertNoRollup(q, fq, "{type:terms, field:id}");
+  }
+
+  @Test
+  public void testOnlyNewSegmentsAreRolledUp() throws Exception {
+    indexSegments(3, 10);
+    FacetRollup byTag = getRollup("byTag");
+    int before = byTag.numSegments();
+
+    assertRollup("*:*", "id:*", "{type:terms, field:tags_ss}");
+    int rolledUp = byTag.numSegments() - before;
+    assertTrue("expected some segments rolled up: " + rolledUp, rolledUp > 0);
+
+    // a new segment, the others are unchanged
+    assertU(adoc(randomDoc(1000)));
+    assertU(commit());
+    assertRollup("*:*", "id:*", "{type:terms, field:tags_ss}");
+    assertTrue(byTag.numSegments() - before <= rolledUp + 1);
+  }
+
+  @Test
+  public void testFilterParsedPerRequest() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      assertU(
+          adoc(
+              "id", Integer.toString(i),
+              "cat_s", CATS[i % CATS.length],
+              "price_dp", Integer.toString(i),
+              "day_dt", "2020-01-0" + (1 + i % 9) + "T12:00:00Z"));
+    }
+    assertU(commit());
+
+    // the filter of the rollup depends on NOW, which selects other days in each request
+    String fq = "day_dt:[NOW/DAY-3DAYS TO NOW/DAY]";
+    String facet = "{type:terms, field:cat_s, facet:{s:'sum(price_dp)'}}";
+    for (String day : new String[] {"2020-01-05", "2020-01-09", "2020-01-05"}) {
+      String now = Long.toString(Instant.parse(day + "T00:00:00Z").toEpochMilli());
+      assertRollup("*:*", fq, facet, CommonParams.NOW, now);
+    }
+    // a single rollup is kept per segment
+    int numSegments = h.getCore().withSearcher(s -> s.getIndexReader().leaves().size());
+    assertTrue(getRollup("recentByCat").numSegments() <= numSegments);
+  }
+
+  private static FacetRollup getRollup(String name) {
+    FacetModule facetModule = (FacetModule) h.getCore().getSearchComponent("facet_module");
+    for (FacetRollup rollup : facetModule.getRollups()) {
+      if (rollup.getName().equals(name)) {
+        return rollup;
+      }
+    }
+    throw new AssertionError("No rollup " + name);
+  }
+}
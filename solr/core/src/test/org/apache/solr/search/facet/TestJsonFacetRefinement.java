@@ -2012,6 +2012,9 @@ public class TestJsonFacetRefinement extends SolrTestCaseHS {
     client.commit();
 
     for (FacetField.FacetMethod m : FacetField.FacetMethod.values()) {
+      if (m == FacetField.FacetMethod.APPROX) {
+        continue; // never refined
+      }
       client.testJQ(
           params(
               "q",
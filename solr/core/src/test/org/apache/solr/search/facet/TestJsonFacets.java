@@ -37,6 +37,7 @@ import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.Utils;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.macro.MacroExpander;
 import org.apache.solr.util.hll.HLL;
@@ -73,6 +74,9 @@ public class TestJsonFacets extends SolrTestCaseHS {
     origTableSize = FacetFieldProcessorByHashDV.MAXIMUM_STARTING_TABLE_SIZE;
     FacetFieldProcessorByHashDV.MAXIMUM_STARTING_TABLE_SIZE = 2; // stress test resizing
 
+    // the test indexes are too small for sparse accs to be picked
+    SlotAcc.forceSparse = random().nextBoolean() ? Boolean.TRUE : null;
+
     origDefaultFacetMethod = FacetField.FacetMethod.DEFAULT_METHOD;
     // instead of the following, see the constructor
     // FacetField.FacetMethod.DEFAULT_METHOD = rand(FacetField.FacetMethod.values());
@@ -97,6 +101,7 @@ public class TestJsonFacets extends SolrTestCaseHS {
     systemClearPropertySolrEnableUrlAllowList();
     JSONTestUtil.failRepeatedKeys = false;
     FacetFieldProcessorByHashDV.MAXIMUM_STARTING_TABLE_SIZE = origTableSize;
+    SlotAcc.forceSparse = null;
     FacetField.FacetMethod.DEFAULT_METHOD = origDefaultFacetMethod;
     if (servers != null) {
       servers.stop();
@@ -117,10 +122,10 @@ public class TestJsonFacets extends SolrTestCaseHS {
     } else if (TEST_NIGHTLY) {
       // wrap each enum val in an Object[] and return as Iterable
       return () ->
-          Arrays.stream(FacetField.FacetMethod.values()).map(it -> new Object[] {it}).iterator();
+          Arrays.stream(exactFacetMethods()).map(it -> new Object[] {it}).iterator();
     } else {
       // pick a single random method and test it
-      FacetField.FacetMethod[] methods = FacetField.FacetMethod.values();
+      FacetField.FacetMethod[] methods = exactFacetMethods();
 
       // can't use LuceneTestCase.random() because we're not in the runner context yet
       String seed = System.getProperty("tests.seed", "");
@@ -128,6 +133,13 @@ public class TestJsonFacets extends SolrTestCaseHS {
     }
   }
 
+  /** approx only estimates counts, so it can't be the default method of these tests */
+  private static FacetField.FacetMethod[] exactFacetMethods() {
+    return Arrays.stream(FacetField.FacetMethod.values())
+        .filter(m -> m != FacetField.FacetMethod.APPROX)
+        .toArray(FacetField.FacetMethod[]::new);
+  }
+
   public TestJsonFacets(FacetField.FacetMethod defMethod) {
     FacetField.FacetMethod.DEFAULT_METHOD =
         defMethod; // note: the real default is restored in afterTests
@@ -4360,6 +4372,124 @@ public class TestJsonFacets extends SolrTestCaseHS {
             + "}");
   }
 
+  @Test
+  public void testStreamingMergeDistrib() throws Exception {
+    initServers();
+    Client client = servers.getClient(random().nextInt());
+    client.queryDefaults().set("shards", servers.getShards());
+
+    List<SolrClient> clients = client.getClientProvider().all();
+    assertTrue(clients.size() >= 3);
+
+    client.deleteByQuery("*:*");
+
+    clients.get(0).add(sdoc("id", "1", "cat_s", "A", "num_d", "1"));
+    clients.get(0).add(sdoc("id", "2", "cat_s", "B", "num_d", "2"));
+    clients.get(0).add(sdoc("id", "3", "cat_s", "D", "num_d", "3"));
+
+    clients.get(1).add(sdoc("id", "4", "cat_s", "B", "num_d", "4"));
+    clients.get(1).add(sdoc("id", "5", "cat_s", "C", "num_d", "5"));
+
+    clients.get(2).add(sdoc("id", "6", "cat_s", "A", "num_d", "6"));
+    clients.get(2).add(sdoc("id", "7", "cat_s", "D", "num_d", "7"));
+    clients.get(2).add(sdoc("id", "8", "cat_s", "E", "num_d", "8"));
+
+    client.commit();
+
+    // the buckets are merged as the coordinator's response is written
+    client.testJQ(
+        params(
+            "q",
+            "*:*",
+            "rows",
+            "0",
+            "json.facet",
+            "{"
+                + "all:{type:terms, field:cat_s, method:stream, limit:-1, sort:'index asc'"
+                + ", facet:{x:'sum(num_d)'}}"
+                + ",page:{type:terms, field:cat_s, method:stream, limit:-1, sort:'index asc'"
+                + ", mincount:2, offset:1}"
+                + "}"),
+        "facets=={ count:8"
+            + ", all:{ buckets:[ {val:A,count:2,x:7.0}, {val:B,count:2,x:6.0}"
+            + ", {val:C,count:1,x:5.0}, {val:D,count:2,x:10.0}, {val:E,count:1,x:8.0} ] }"
+            + ", page:{ buckets:[ {val:B,count:2}, {val:D,count:2} ] }"
+            + "}");
+  }
+
+  @Test
+  public void testApprox() throws Exception {
+    doApprox(Client.localClient());
+  }
+
+  @Test
+  public void testApproxDistrib() throws Exception {
+    initServers();
+    Client client = servers.getClient(random().nextInt());
+    client.queryDefaults().set("shards", servers.getShards());
+    doApprox(client);
+  }
+
+  /** Checks the counts of method:approx against the exact counts, within the reported errors. */
+  @SuppressWarnings("unchecked")
+  private void doApprox(Client client) throws Exception {
+    client.deleteByQuery("*:*");
+
+    // a skewed distribution of values, added in random order
+    final double approxError = 0.02;
+    final Map<String, Integer> exact = new HashMap<>();
+    final List<String> values = new ArrayList<>();
+    for (int v = 0; v < 100; v++) {
+      final int n = Math.max(1, 300 / (v + 1));
+      exact.put("v" + v, n);
+      values.addAll(Collections.nCopies(n, "v" + v));
+    }
+    Collections.shuffle(values, random());
+    for (int i = 0; i < values.size(); i++) {
+      client.add(sdoc("id", Integer.toString(i), "approx_s", values.get(i)), null);
+    }
+    client.commit();
+
+    ModifiableSolrParams p =
+        params(
+            "q",
+            "*:*",
+            "rows",
+            "0",
+            "json.facet",
+            "{f:{type:terms, field:approx_s, method:approx, limit:10, approxError:"
+                + approxError
+                + "}}");
+    SolrClient solrClient = null;
+    if (!client.local()) {
+      ModifiableSolrParams withDefaults = params(client.queryDefaults());
+      withDefaults.add(p);
+      p = withDefaults;
+      solrClient = client.getClientProvider().client(null, p);
+    }
+    final Map<String, Object> response =
+        (Map<String, Object>) Utils.fromJSONString(getJSON(solrClient, p));
+    final Map<String, Object> facet =
+        (Map<String, Object>) ((Map<String, Object>) response.get("facets")).get("f");
+
+    final long errorBound = ((Number) facet.get("errorBound")).longValue();
+    assertTrue(
+        "errorBound=" + errorBound, errorBound <= (long) Math.ceil(approxError * values.size()));
+    final List<Map<String, Object>> buckets = (List<Map<String, Object>>) facet.get("buckets");
+    assertEquals(10, buckets.size());
+    for (Map<String, Object> bucket : buckets) {
+      final long count = ((Number) bucket.get("count")).longValue();
+      final long error = ((Number) bucket.get("error")).longValue();
+      final int exactCount = exact.get((String) bucket.get("val"));
+      assertTrue(bucket + " exact=" + exactCount, count - error <= exactCount);
+      assertTrue(bucket + " exact=" + exactCount, exactCount <= count);
+      assertTrue(bucket.toString(), error <= errorBound);
+    }
+    // the most frequent values are further apart than the error bound
+    assertEquals("v0", buckets.get(0).get("val"));
+    assertEquals("v1", buckets.get(1).get("val"));
+  }
+
   @Test
   public void testBigger() throws Exception {
     ModifiableSolrParams p = params("rows", "0", "cat_s", "cat_ss", "where_s", "where_ss");
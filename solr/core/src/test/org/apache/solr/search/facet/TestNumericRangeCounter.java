@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.NumberType;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestNumericRangeCounter extends SolrTestCaseJ4 {
+  private static final Map<String, Long> longValues = new HashMap<>();
+  private static final Map<String, Double> doubleValues = new HashMap<>();
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema11.xml");
+    int id = 0;
+    for (int segment = 0; segment < 5; segment++) {
+      for (int i = 0; i < 50; i++, id++) {
+        final String docId = Integer.toString(id);
+        if (random().nextInt(10) == 0) {
+          assertU(adoc("id", docId)); // no value
+          continue;
+        }
+        // the values of a segment are close, so that some segments fall in a single range
+        final long l = segment * 100L + random().nextInt(100);
+        final double d = (random().nextDouble() - 0.5) * 1000;
+        longValues.put(docId, l);
+        doubleValues.put(docId, d);
+        assertU(adoc("id", docId, "x_l_p", Long.toString(l), "x_d_p", Double.toString(d)));
+      }
+      assertU(commit());
+    }
+    assertU(delI("3"));
+    assertU(commit());
+    longValues.remove("3");
+    doubleValues.remove("3");
+  }
+
+  private static long[] count(String field, NumberType type, long[] lows, long[] highs)
+      throws Exception {
+    try (SolrQueryRequest req = req()) {
+      final SolrIndexSearcher searcher = req.getSearcher();
+      return new NumericRangeCounter(lows, highs)
+          .count(searcher, searcher.getLiveDocSet(), field, type, null);
+    }
+  }
+
+  @Test
+  public void testOverlappingRanges() throws Exception {
+    final int numRanges = 1 + random().nextInt(20);
+    final long[] lows = new long[numRanges];
+    final long[] highs = new long[numRanges];
+    for (int i = 0; i < numRanges; i++) {
+      lows[i] = random().nextInt(600) - 50;
+      highs[i] = lows[i] + random().nextInt(200) - 10; // some are empty
+    }
+    final long[] counts = count("x_l_p", NumberType.LONG, lows, highs);
+    for (int i = 0; i < numRanges; i++) {
+      long expected = 0;
+      for (long value : longValues.values()) {
+        if (value >= lows[i] && value <= highs[i]) {
+          expected++;
+        }
+      }
+      assertEquals("[" + lows[i] + "," + highs[i] + "]", expected, counts[i]);
+    }
+  }
+
+  @Test
+  public void testEvenlySpacedRanges() throws Exception {
+    // a histogram whose buckets each hold whole segments, plus one bucket beyond the values
+    final long[] lows = {0, 100, 200, 300, 400, 500};
+    final long[] highs = {99, 199, 299, 399, 499, 599};
+    final long[] counts = count("x_l_p", NumberType.LONG, lows, highs);
+    for (int i = 0; i < lows.length; i++) {
+      long expected = 0;
+      for (long value : longValues.values()) {
+        if (value >= lows[i] && value <= highs[i]) {
+          expected++;
+        }
+      }
+      assertEquals(expected, counts[i]);
+    }
+    assertEquals(0, counts[5]);
+  }
+
+  @Test
+  public void testDoubleRanges() throws Exception {
+    final double[] bounds = {Double.NEGATIVE_INFINITY, -250.5, -0.0, 0.0, 10, 499.9};
+    final long[] lows = new long[bounds.length - 1];
+    final long[] highs = new long[bounds.length - 1];
+    for (int i = 0; i < lows.length; i++) {
+      lows[i] = NumericUtils.doubleToSortableLong(bounds[i]);
+      highs[i] = NumericUtils.doubleToSortableLong(bounds[i + 1]) - 1;
+    }
+    final long[] counts = count("x_d_p", NumberType.DOUBLE, lows, highs);
+    for (int i = 0; i < lows.length; i++) {
+      long expected = 0;
+      for (double value : doubleValues.values()) {
+        if (Double.compare(value, bounds[i]) >= 0 && Double.compare(value, bounds[i + 1]) < 0) {
+          expected++;
+        }
+      }
+      assertEquals("[" + bounds[i] + "," + bounds[i + 1] + ")", expected, counts[i]);
+    }
+  }
+
+  private static String facetResponse(String facet) throws Exception {
+    return h.query(req("q", "*:*", "rows", "0", "omitHeader", "true", "json.facet", facet));
+  }
+
+  @Test
+  public void testSameAsRangeQueries() throws Exception {
+    for (String field : new String[] {"x_l_p", "x_d_p"}) {
+      final String facet =
+          "{r:{type:range, field:"
+              + field
+              + ", start:-100, end:500, gap:50, other:all, include:[lower,edge],"
+              + " method:%s, facet:{s:'sum("
+              + field
+              + ")', u:'unique(id)'}}"
+              + ", q:{type:range, field:"
+              + field
+              + ", ranges:[{from:0, to:250}, {range:'(100,400]'}, {from:-50}], method:%s}}";
+      final String byDocValues = facetResponse(facet.replace("%s", "dv"));
+      final String byFilters = facetResponse(facet.replace("%s", "filter"));
+      assertEquals(byFilters, byDocValues);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.Arrays;
+import org.apache.solr.SolrTestCase;
+import org.junit.Test;
+
+public class TestPercentileSketch extends SolrTestCase {
+
+  private static double[] randomValues(int n) {
+    final double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      // spans a few orders of magnitude, with some zeros and negative values
+      switch (random().nextInt(10)) {
+        case 0:
+          values[i] = 0;
+          break;
+        case 1:
+          values[i] = -Math.exp(random().nextDouble() * 5);
+          break;
+        default:
+          values[i] = Math.exp(random().nextDouble() * 10);
+      }
+    }
+    return values;
+  }
+
+  private static double exactQuantile(double[] sorted, double q) {
+    return sorted[(int) (q * (sorted.length - 1))];
+  }
+
+  @Test
+  public void testDDSketchRelativeAccuracy() {
+    final double accuracy = 0.01;
+    final double[] values = randomValues(atLeast(2000));
+    final DDSketch sketch = new DDSketch(accuracy);
+    for (double value : values) {
+      sketch.add(value);
+    }
+    final double[] sorted = values.clone();
+    Arrays.sort(sorted);
+
+    assertEquals(sorted[0], sketch.quantile(0), 0);
+    assertEquals(sorted[sorted.length - 1], sketch.quantile(1), 0);
+    for (double q = 0.05; q < 1; q += 0.05) {
+      final double expected = exactQuantile(sorted, q);
+      assertEquals("q=" + q, expected, sketch.quantile(q), Math.abs(expected) * accuracy + 1e-9);
+    }
+  }
+
+  @Test
+  public void testDDSketchMergeIsLossless() {
+    final double[] values = randomValues(atLeast(1000));
+    final DDSketch all = new DDSketch(0.02);
+    final DDSketch merged = new DDSketch(0.02);
+    final int numShards = 1 + random().nextInt(5);
+    final DDSketch[] shards = new DDSketch[numShards];
+    for (int i = 0; i < numShards; i++) {
+      shards[i] = new DDSketch(0.02);
+    }
+    for (double value : values) {
+      all.add(value);
+      shards[random().nextInt(numShards)].add(value);
+    }
+    for (DDSketch shard : shards) {
+      // through the binary form sent by the shards
+      merged.merge(DDSketch.fromBytes(shard.toBytes()));
+    }
+
+    assertEquals(all.count(), merged.count());
+    for (double q = 0; q <= 1; q += 0.1) {
+      assertEquals(all.quantile(q), merged.quantile(q), 0);
+    }
+  }
+
+  @Test
+  public void testDDSketchCollapsesLowestBuckets() {
+    final DDSketch sketch = new DDSketch(0.01, 16);
+    for (int i = 0; i < 1000; i++) {
+      sketch.add(i + 1);
+    }
+    assertEquals(1000, sketch.count());
+    // the largest values keep their accuracy
+    assertEquals(1000, sketch.quantile(0.999), 1000 * 0.01);
+    final DDSketch copy = DDSketch.fromBytes(sketch.toBytes());
+    assertEquals(sketch.quantile(0.5), copy.quantile(0.5), 0);
+  }
+
+  @Test
+  public void testTDigestRoundTrip() {
+    for (PercentileSketch.Type type :
+        new PercentileSketch.Type[] {PercentileSketch.Type.AVL, PercentileSketch.Type.MERGING}) {
+      final double[] values = randomValues(atLeast(1000));
+      final PercentileSketch a = type.create(PercentileAgg.DEFAULT_COMPRESSION);
+      final PercentileSketch b = type.create(PercentileAgg.DEFAULT_COMPRESSION);
+      for (int i = 0; i < values.length; i++) {
+        (i % 2 == 0 ? a : b).add(values[i]);
+      }
+      final PercentileSketch merged = type.fromBytes(a.toBytes());
+      merged.merge(type.fromBytes(b.toBytes()));
+
+      final double[] sorted = values.clone();
+      Arrays.sort(sorted);
+      final double median = merged.quantile(0.5);
+      // within a few percent of the ranks
+      assertTrue(
+          type + " median " + median,
+          median >= exactQuantile(sorted, 0.45) && median <= exactQuantile(sorted, 0.55));
+    }
+  }
+}
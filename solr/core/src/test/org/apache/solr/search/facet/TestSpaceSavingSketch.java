@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Test;
+
+public class TestSpaceSavingSketch extends SolrTestCase {
+
+  /** a skewed key, so that there are heavy hitters */
+  private static int randomKey(int numKeys) {
+    return (int) Math.floor(Math.pow(random().nextDouble(), 3) * numKeys);
+  }
+
+  @Test
+  public void testBounds() {
+    final int capacity = atLeast(20);
+    final int numKeys = capacity * (random().nextBoolean() ? 1 : 10);
+    final SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+    final Map<Integer, Long> exact = new HashMap<>();
+    final int n = atLeast(5000);
+    for (int i = 0; i < n; i++) {
+      final int key = randomKey(numKeys);
+      sketch.add(key);
+      exact.merge(key, 1L, Long::sum);
+    }
+
+    assertEquals(n, sketch.total());
+    assertEquals(Math.min(capacity, exact.size()), sketch.size());
+    assertTrue(sketch.errorBound() <= n / capacity);
+    final Set<Integer> monitored = new HashSet<>();
+    for (int i = 0; i < sketch.size(); i++) {
+      final long trueCount = exact.get(sketch.key(i));
+      assertTrue(sketch.count(i) >= trueCount);
+      assertTrue(sketch.count(i) - sketch.error(i) <= trueCount);
+      assertTrue(sketch.error(i) <= sketch.errorBound());
+      monitored.add(sketch.key(i));
+    }
+    for (Map.Entry<Integer, Long> e : exact.entrySet()) {
+      if (!monitored.contains(e.getKey())) {
+        assertTrue(e.getValue() <= sketch.errorBound());
+      }
+    }
+  }
+
+  @Test
+  public void testExactWhenNotFull() {
+    final SpaceSavingSketch sketch = new SpaceSavingSketch(10);
+    for (int key = 0; key < 5; key++) {
+      for (int i = 0; i <= key; i++) {
+        sketch.add(key);
+      }
+    }
+    assertEquals(0, sketch.errorBound());
+    for (int i = 0; i < sketch.size(); i++) {
+      assertEquals(sketch.key(i) + 1, sketch.count(i));
+      assertEquals(0, sketch.error(i));
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    final FacetField freq = new FacetField();
+    freq.method = FacetField.FacetMethod.APPROX;
+    freq.limit = 5;
+    final FacetFieldApproxMerger merger = new FacetFieldApproxMerger(freq);
+    final FacetMerger.Context mcontext = new FacetMerger.Context(2);
+
+    final int capacity = 20;
+    final int numKeys = 200;
+    final Map<Integer, Long> exact = new HashMap<>();
+    for (int shard = 0; shard < 2; shard++) {
+      final SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+      for (int i = atLeast(2000); i > 0; i--) {
+        final int key = randomKey(numKeys);
+        sketch.add(key);
+        exact.merge(key, 1L, Long::sum);
+      }
+      final List<SimpleOrderedMap<Object>> buckets = new ArrayList<>();
+      for (int i = 0; i < sketch.size(); i++) {
+        final SimpleOrderedMap<Object> bucket = new SimpleOrderedMap<>();
+        bucket.add("val", "k" + sketch.key(i));
+        bucket.add("count", sketch.count(i));
+        bucket.add("error", sketch.error(i));
+        buckets.add(bucket);
+      }
+      final SimpleOrderedMap<Object> shardResult = new SimpleOrderedMap<>();
+      shardResult.add("buckets", buckets);
+      shardResult.add("errorBound", sketch.errorBound());
+      mcontext.newShard("shard" + shard);
+      merger.merge(shardResult, mcontext);
+    }
+
+    final SimpleOrderedMap<?> merged = (SimpleOrderedMap<?>) merger.getMergedResult();
+    final long errorBound = ((Number) merged.get("errorBound")).longValue();
+    @SuppressWarnings("unchecked")
+    final List<SimpleOrderedMap<?>> buckets = (List<SimpleOrderedMap<?>>) merged.get("buckets");
+    assertEquals(5, buckets.size());
+    long previous = Long.MAX_VALUE;
+    for (SimpleOrderedMap<?> bucket : buckets) {
+      final long count = ((Number) bucket.get("count")).longValue();
+      final long error = ((Number) bucket.get("error")).longValue();
+      final long trueCount =
+          exact.get(Integer.parseInt(((String) bucket.get("val")).substring(1)));
+      assertTrue(count <= previous);
+      assertTrue(count >= trueCount);
+      assertTrue(count - error <= trueCount);
+      assertTrue(error <= errorBound);
+      previous = count;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.solr.SolrTestCase;
+import org.junit.Test;
+
+public class TestSparseSlots extends SolrTestCase {
+
+  @Test
+  public void testAddAndFind() {
+    final SparseSlots slots = new SparseSlots();
+    final Map<Integer, Integer> expected = new HashMap<>();
+    final int maxSlot = random().nextBoolean() ? 100 : Integer.MAX_VALUE;
+    for (int i = 0; i < 5000; i++) {
+      final int slot = random().nextInt(maxSlot);
+      final int entry = slots.add(slot);
+      final Integer previous = expected.putIfAbsent(slot, entry);
+      if (previous == null) {
+        assertEquals(expected.size() - 1, entry);
+      } else {
+        assertEquals(previous.intValue(), entry);
+      }
+      assertEquals(expected.size(), slots.size());
+    }
+    for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+      assertEquals(e.getValue().intValue(), slots.find(e.getKey()));
+    }
+    for (int i = 0; i < 1000; i++) {
+      final int slot = random().nextInt(maxSlot);
+      assertEquals(expected.getOrDefault(slot, -1).intValue(), slots.find(slot));
+    }
+
+    slots.clear();
+    assertEquals(0, slots.size());
+    for (int slot : expected.keySet()) {
+      assertEquals(-1, slots.find(slot));
+    }
+    assertEquals(0, slots.add(7));
+  }
+
+  @Test
+  public void testResize() {
+    final SparseSlots slots = new SparseSlots();
+    for (int slot = 0; slot < 100; slot++) {
+      assertEquals(slot, slots.add(slot * 3));
+    }
+    // keep the even slots, moved down
+    slots.resize(
+        new SlotAcc.Resizer() {
+          @Override
+          public int getNewSize() {
+            return 150;
+          }
+
+          @Override
+          public int getNewSlot(int oldSlot) {
+            return oldSlot % 2 == 0 ? oldSlot / 2 : -1;
+          }
+        });
+    for (int entry = 0; entry < 100; entry++) {
+      final int oldSlot = entry * 3;
+      if (oldSlot % 2 == 0) {
+        assertEquals(entry, slots.find(oldSlot / 2));
+      }
+    }
+    // new entries keep being numbered after the old ones
+    assertEquals(100, slots.add(1000));
+    assertEquals(-1, slots.find(1));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.search.facet;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SegmentFieldValueCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestUnInvertedFieldSegments extends SolrTestCaseJ4 {
+  private static final String FIELD = "cat_ss";
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema11.xml");
+  }
+
+  private static Set<IndexReader.CacheKey> coreKeys(SolrIndexSearcher searcher) {
+    final Set<IndexReader.CacheKey> keys = new HashSet<>();
+    for (LeafReaderContext leaf : searcher.getRawReader().leaves()) {
+      keys.add(leaf.reader().getCoreCacheHelper().getKey());
+    }
+    return keys;
+  }
+
+  private static void addDocs(int first, int numDocs) {
+    for (int i = first; i < first + numDocs; i++) {
+      assertU(adoc("id", Integer.toString(i), FIELD, "v" + (i % 7), FIELD, "w" + (i % 3)));
+    }
+    assertU(commit());
+  }
+
+  @Test
+  public void testReusesUnchangedSegments() throws Exception {
+    clearIndex();
+    addDocs(0, 30);
+    addDocs(30, 30);
+
+    Set<IndexReader.CacheKey> previousKeys;
+    try (SolrQueryRequest req = req()) {
+      final SolrIndexSearcher searcher = req.getSearcher();
+      final UnInvertedField uif = new UnInvertedField(FIELD, searcher);
+      assertEquals(10, uif.numTerms());
+      previousKeys = coreKeys(searcher);
+      // the segments are kept in the segment store of the fieldValueCache
+      assertTrue(searcher.getFieldValueCache() instanceof SegmentFieldValueCache);
+      assertEquals(0, new UnInvertedField(FIELD, searcher).numUninvertedSegments);
+    }
+
+    addDocs(60, 30);
+    // only deletions: the segment is still reused
+    assertU(delI("1"));
+    assertU(commit());
+
+    try (SolrQueryRequest req = req()) {
+      final SolrIndexSearcher searcher = req.getSearcher();
+      final Set<IndexReader.CacheKey> newKeys = coreKeys(searcher);
+      newKeys.removeAll(previousKeys);
+      final UnInvertedField uif = new UnInvertedField(FIELD, searcher);
+      assertEquals(newKeys.size(), uif.numUninvertedSegments);
+      assertEquals(10, uif.numTerms());
+    }
+
+    // the counts of the reused segments leave out the deleted document
+    assertJQ(
+        req(
+            "q",
+            "*:*",
+            "rows",
+            "0",
+            "json.facet",
+            "{f:{type:terms, field:" + FIELD + ", method:uif, sort:'index asc', limit:-1}}"),
+        "facets=={count:89, f:{buckets:["
+            + "{val:v0,count:13},{val:v1,count:12},{val:v2,count:13},{val:v3,count:13},"
+            + "{val:v4,count:13},{val:v5,count:13},{val:v6,count:12},"
+            + "{val:w0,count:30},{val:w1,count:29},{val:w2,count:30}]}}");
+  }
+
+  @Test
+  public void testBigTermsWithDeletions() throws Exception {
+    clearIndex();
+    // "all" is in more documents of each segment than are un-inverted
+    for (int i = 0; i < 140; i++) {
+      assertU(adoc("id", Integer.toString(i), FIELD, "all", FIELD, "v" + (i % 7)));
+      if (i == 99) {
+        assertU(commit());
+      }
+    }
+    assertU(commit());
+    assertU(delI("0"));
+    assertU(delI("1"));
+    assertU(delI("2"));
+    assertU(commit());
+
+    try (SolrQueryRequest req = req()) {
+      final UnInvertedField uif = new UnInvertedField(FIELD, req.getSearcher());
+      assertEquals(1, uif.bigTerms.size());
+    }
+
+    // most of the documents match, so the small terms are counted on the other documents
+    assertJQ(
+        req(
+            "q",
+            "*:*",
+            "rows",
+            "0",
+            "json.facet",
+            "{f:{type:terms, field:" + FIELD + ", method:uif, sort:'index asc', limit:-1}}"),
+        "facets=={count:137, f:{buckets:["
+            + "{val:all,count:137},{val:v0,count:19},{val:v1,count:19},{val:v2,count:19},"
+            + "{val:v3,count:20},{val:v4,count:20},{val:v5,count:20},{val:v6,count:20}]}}");
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.SolrTestCase;
+import org.apache.solr.update.UpdateLog.LogPtr;
+import org.junit.Test;
+
+public class LogPtrIndexTest extends SolrTestCase {
+
+  @Test
+  public void testSameAsHashMap() {
+    LogPtrIndex index = new LogPtrIndex();
+    Map<BytesRef, LogPtr> expected = new HashMap<>();
+    for (int round = 0; round < 3; round++) {
+      int numUpdates = atLeast(1000);
+      for (int i = 0; i < numUpdates; i++) {
+        String id = "id" + random().nextInt(numUpdates / 2);
+        LogPtr ptr =
+            random().nextBoolean()
+                ? new LogPtr(random().nextLong(), random().nextLong())
+                : new LogPtr(random().nextLong(), random().nextLong(), random().nextLong());
+        BytesRef indexedId = new BytesRef(id);
+        index.put(indexedId, ptr);
+        expected.put(new BytesRef(id), ptr);
+        // the index copies the id
+        indexedId.bytes[indexedId.offset] = 'x';
+      }
+      assertEquals(expected.size(), index.size());
+      for (int i = 0; i < numUpdates; i++) {
+        BytesRef id = new BytesRef("id" + i);
+        LogPtr ptr = expected.get(id);
+        LogPtr actual = index.get(id);
+        if (ptr == null) {
+          assertNull(actual);
+        } else {
+          assertEquals(ptr.pointer, actual.pointer);
+          assertEquals(ptr.version, actual.version);
+          assertEquals(ptr.previousPointer, actual.previousPointer);
+        }
+      }
+      assertTrue(index.ramBytesUsed() > 0);
+      index.clear();
+      expected.clear();
+      assertEquals(0, index.size());
+      assertNull(index.get(new BytesRef("id0")));
+    }
+  }
+}
@@ -18,11 +18,16 @@
 package org.apache.solr.update;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.solr.SolrTestCase;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.update.TransactionLog.LogReader;
 import org.junit.Test;
@@ -71,4 +76,157 @@ public class TransactionLogTest extends SolrTestCase {
       assertEquals(uuid, (UUID) doc.getFieldValue("uuid"));
     }
   }
+
+  @Test
+  public void testFinishGroup() throws Exception {
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    final int numThreads = 4;
+    final int numUpdates = 50;
+    final AtomicLong covered = new AtomicLong();
+    try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+      tlog.deleteOnClose = false;
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final int thread = t;
+        threads[t] =
+            new Thread(
+                () -> {
+                  for (int i = 0; i < numUpdates; i++) {
+                    AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+                    updateCommand.solrDoc = new SolrInputDocument("id", thread + "_" + i);
+                    tlog.write(updateCommand);
+                    covered.addAndGet(tlog.finishGroup(null));
+                  }
+                });
+        threads[t].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      // the last caller to fsync covers any caller whose updates an earlier fsync covered
+      AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+      updateCommand.solrDoc = new SolrInputDocument("id", "last");
+      tlog.write(updateCommand);
+      covered.addAndGet(tlog.finishGroup(null));
+      assertEquals(numThreads * numUpdates + 1, covered.get());
+    }
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      LogReader reader = tlog.getReader(0);
+      int numRecords = 0;
+      while (reader.next() != null) {
+        numRecords++;
+      }
+      reader.close();
+      assertEquals(numThreads * numUpdates + 1, numRecords);
+    }
+  }
+
+  @Test
+  public void testTruncateIncompleteRecord() throws Exception {
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    int numUpdates = atLeast(10);
+    long lastRecord = 0;
+    try (TransactionLog tlog = new TransactionLog(logFile, null)) {
+      tlog.deleteOnClose = false;
+      for (int i = 0; i <= numUpdates; i++) {
+        AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+        updateCommand.solrDoc = new SolrInputDocument("id", Integer.toString(i));
+        lastRecord = tlog.write(updateCommand);
+      }
+    }
+    long size = Files.size(logFile);
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      tlog.deleteOnClose = false;
+      assertEquals(0, tlog.truncateIncompleteRecord());
+    }
+    assertEquals(size, Files.size(logFile));
+
+    // the last record cut off while it was written
+    long tornSize = lastRecord + 1 + random().nextInt((int) (size - lastRecord - 1));
+    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+      channel.truncate(tornSize);
+    }
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      assertEquals(tornSize - lastRecord, tlog.truncateIncompleteRecord());
+      assertEquals(lastRecord, tlog.getLogSize());
+      LogReader reader = tlog.getReader(0);
+      int numRead = 0;
+      while (reader.next() != null) {
+        numRead++;
+      }
+      reader.close();
+      assertEquals(numUpdates, numRead);
+    }
+  }
+
+  @Test
+  public void testTruncateIncompleteFirstRecord() throws Exception {
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    long headerEnd;
+    try (TransactionLog tlog = new TransactionLog(logFile, List.of("id"))) {
+      tlog.deleteOnClose = false;
+      AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+      updateCommand.solrDoc = new SolrInputDocument("id", "0");
+      headerEnd = tlog.write(updateCommand);
+    }
+    long size = Files.size(logFile);
+    assertTrue(headerEnd > 0);
+
+    // the first record cut off while it was written, right after the header
+    long tornSize = headerEnd + 1 + random().nextInt((int) (size - headerEnd - 1));
+    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+      channel.truncate(tornSize);
+    }
+
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      tlog.deleteOnClose = false;
+      assertEquals(tornSize - headerEnd, tlog.truncateIncompleteRecord());
+      assertEquals("the header is kept", headerEnd, tlog.getLogSize());
+      LogReader reader = tlog.getReader(0);
+      assertNull(reader.next());
+      reader.close();
+    }
+
+    // the log can be opened again and appended to
+    try (TransactionLog tlog = new TransactionLog(logFile, null, true)) {
+      assertEquals(0, tlog.truncateIncompleteRecord());
+      AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+      updateCommand.solrDoc = new SolrInputDocument("id", "1");
+      assertEquals(headerEnd, tlog.write(updateCommand));
+      LogReader reader = tlog.getReader(0);
+      assertNotNull(reader.next());
+      assertNull(reader.next());
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testTornHeader() throws Exception {
+    String tlogFileName =
+        String.format(Locale.ROOT, UpdateLog.LOG_FILENAME_PATTERN, UpdateLog.TLOG_NAME, 0L);
+    Path logFile = createTempDir().resolve(tlogFileName);
+    long headerEnd;
+    try (TransactionLog tlog = new TransactionLog(logFile, List.of("id"))) {
+      tlog.deleteOnClose = false;
+      AddUpdateCommand updateCommand = new AddUpdateCommand(null);
+      updateCommand.solrDoc = new SolrInputDocument("id", "0");
+      headerEnd = tlog.write(updateCommand);
+    }
+
+    // the header itself cut off: the log can't be opened, and UpdateLog deletes it
+    long tornSize = 1 + random().nextInt((int) headerEnd - 1);
+    try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+      channel.truncate(tornSize);
+    }
+    expectThrows(SolrException.class, () -> new TransactionLog(logFile, null, true));
+  }
 }
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.solr.update.processor;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.update.AddUpdateCommand;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelUpdateProcessorFactoryTest extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    initCore("solrconfig.xml", "schema.xml");
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    clearIndex();
+    assertU(commit());
+  }
+
+  @Test
+  public void testUpdatesOfSameIdInOrder() throws Exception {
+    int numIds = 50;
+    Map<String, Integer> expected = new HashMap<>();
+    StringBuilder json = new StringBuilder("{");
+    int numUpdates = atLeast(1000);
+    for (int i = 0; i < numUpdates; i++) {
+      String id = Integer.toString(random().nextInt(numIds));
+      if (i == numUpdates / 2) {
+        json.append("'delete':{'query':'val_i:[0 TO 99]'},");
+        expected.values().removeIf(val -> val < 100);
+      } else if (random().nextInt(10) == 0) {
+        json.append("'delete':{'id':'").append(id).append("'},");
+        expected.remove(id);
+      } else {
+        json.append("'add':{'doc':{'id':'").append(id).append("','val_i':").append(i).append("}},");
+        expected.put(id, i);
+      }
+    }
+    json.append("'commit':{}}");
+
+    updateJ(json(json.toString()), params("update.chain", "parallel"));
+
+    assertQ(req("q", "*:*"), "//result[@numFound='" + expected.size() + "']");
+    for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+      assertQ(
+          req("q", "id:" + entry.getKey()),
+          "//result[@numFound='1']",
+          "//int[@name='val_i'][.='" + entry.getValue() + "']");
+    }
+  }
+
+  @Test
+  public void testFailedUpdate() throws Exception {
+    String json = "{'add':{'doc':{'id':'1'}},'add':{'doc':{'id':'2','val_i':'NaN'}},'commit':{}}";
+    ignoreException("NaN");
+    try {
+      SolrException e =
+          expectThrows(
+              SolrException.class,
+              () -> updateJ(json(json), params("update.chain", "parallel")));
+      assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+    } finally {
+      unIgnoreException("NaN");
+    }
+    assertU(commit());
+    assertQ(req("q", "id:2"), "//result[@numFound='0']");
+  }
+
+  @Test
+  public void testProcessedAsTheRequest() throws Exception {
+    long now = 1000000000000L;
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 0; i < 100; i++) {
+      json.append("'add':{'doc':{'id':'").append(i).append("'}},");
+    }
+    json.append("'commit':{}}");
+
+    updateJ(
+        json(json.toString()),
+        params("update.chain", "parallel-timestamp", CommonParams.NOW, Long.toString(now)));
+
+    // the processors of each thread see the request's NOW
+    assertQ(
+        req("q", "added_dt:\"" + Instant.ofEpochMilli(now) + "\""), "//result[@numFound='100']");
+  }
+
+  @Test
+  public void testReplicationFactorAddedOnce() throws Exception {
+    String json =
+        "{'add':{'doc':{'id':'1','val_i':3}},'add':{'doc':{'id':'2','val_i':2}},'commit':{},"
+            + "'add':{'doc':{'id':'3','val_i':4}},'delete':{'query':'id:4'},"
+            + "'add':{'doc':{'id':'4','val_i':5}}}";
+    String response = updateJ(json(json), params("update.chain", "parallel-rf"));
+
+    Matcher rf = Pattern.compile("\"" + UpdateRequest.REPFACT + "\":(\\d+)").matcher(response);
+    assertTrue(response, rf.find());
+    assertEquals("the lowest replication factor", "2", rf.group(1));
+    assertFalse("more than one replication factor: " + response, rf.find());
+  }
+
+  /** Reports the lowest <code>val_i</code> of the added documents as the replication factor. */
+  public static class ReplicationFactorProcessorFactory extends UpdateRequestProcessorFactory {
+    @Override
+    public UpdateRequestProcessor getInstance(
+        SolrQueryRequest req, SolrQueryResponse rsp, UpdateRequestProcessor next) {
+      return new UpdateRequestProcessor(next) {
+        Integer rf;
+
+        @Override
+        public void processAdd(AddUpdateCommand cmd) throws IOException {
+          int val = Integer.parseInt(cmd.getSolrInputDocument().getFieldValue("val_i").toString());
+          rf = rf == null ? val : Math.min(rf, val);
+          super.processAdd(cmd);
+        }
+
+        @Override
+        public void finish() throws IOException {
+          if (rf != null) {
+            rsp.getResponseHeader().add(UpdateRequest.REPFACT, rf);
+          }
+          super.finish();
+        }
+      };
+    }
+  }
+}
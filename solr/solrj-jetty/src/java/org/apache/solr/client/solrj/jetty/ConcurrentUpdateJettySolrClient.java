@@ -17,9 +17,11 @@
 
 package org.apache.solr.client.solrj.jetty;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -45,6 +47,12 @@ import org.eclipse.jetty.http.HttpMethod;
 public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrClient {
   protected static final Charset FALLBACK_CHARSET = StandardCharsets.UTF_8;
 
+  /**
+   * Updates are written through a buffer of this size, and only flushed when the buffer is full or
+   * the queue is empty, so a busy stream sends many updates per write instead of one.
+   */
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
   private final HttpJettySolrClient client;
 
   public static class Builder extends ConcurrentUpdateBaseSolrClient.Builder {
@@ -90,10 +98,14 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
           break;
         }
         send(out, upd);
-        out.flush();
 
         notifyQueueAndRunnersIfEmptyQueue();
-        upd = queue.poll(pollQueueTimeMillis, TimeUnit.MILLISECONDS);
+        upd = queue.poll(0, TimeUnit.MILLISECONDS);
+        if (upd == null) {
+          // nothing to batch with, send the buffered updates before waiting for more
+          out.flush();
+          upd = queue.poll(pollQueueTimeMillis, TimeUnit.MILLISECONDS);
+        }
       }
     }
     return new SentStream(
@@ -105,7 +117,7 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
   private static class OutStream implements Closeable {
     private final String origCollection;
     private final SolrParams origParams;
-    private final OutputStreamRequestContent content;
+    private final OutputStream out;
     private final InputStreamResponseListener responseListener;
     private final boolean isXml;
     private final List<String> docIds = new ArrayList<>();
@@ -118,7 +130,7 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
         boolean isXml) {
       this.origCollection = origCollection;
       this.origParams = origParams;
-      this.content = content;
+      this.out = new BufferedOutputStream(content.getOutputStream(), STREAM_BUFFER_SIZE);
       this.responseListener = responseListener;
       this.isXml = isXml;
     }
@@ -133,11 +145,11 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
     }
 
     public void write(byte[] b) throws IOException {
-      this.content.getOutputStream().write(b);
+      this.out.write(b);
     }
 
     public void flush() throws IOException {
-      this.content.getOutputStream().flush();
+      this.out.flush();
     }
 
     @Override
@@ -145,7 +157,7 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
       if (isXml) {
         write("</stream>".getBytes(FALLBACK_CHARSET));
       }
-      this.content.getOutputStream().close();
+      this.out.close();
     }
 
     // TODO this class should be hidden
@@ -224,7 +236,7 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
     UpdateRequest req = update.request();
     assert outStream.belongToThisStream(req, update.collection());
     outStream.docIds.addAll(idsForErrorReporting(req));
-    client.getRequestWriter().write(req, outStream.content.getOutputStream());
+    client.getRequestWriter().write(req, outStream.out);
     if (outStream.isXml) {
       // check for commit or optimize
       SolrParams params = req.getParams();
@@ -245,6 +257,5 @@ public class ConcurrentUpdateJettySolrClient extends ConcurrentUpdateBaseSolrCli
         }
       }
     }
-    outStream.flush();
   }
 }
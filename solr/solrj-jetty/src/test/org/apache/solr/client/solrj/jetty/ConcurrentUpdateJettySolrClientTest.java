@@ -18,11 +18,19 @@
 package org.apache.solr.client.solrj.jetty;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.impl.ConcurrentUpdateBaseSolrClient;
 import org.apache.solr.client.solrj.impl.ConcurrentUpdateSolrClientTestBase;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.TimeSource;
+import org.apache.solr.util.TimeOut;
+import org.junit.Test;
 
 public class ConcurrentUpdateJettySolrClientTest extends ConcurrentUpdateSolrClientTestBase {
 
@@ -88,6 +96,68 @@ public class ConcurrentUpdateJettySolrClientTest extends ConcurrentUpdateSolrCli
     return builder.build();
   }
 
+  private static void sendDoc(SolrClient client, String id) throws Exception {
+    SolrInputDocument doc = new SolrInputDocument();
+    doc.setField("id", id);
+    UpdateRequest req = new UpdateRequest();
+    req.add(doc);
+    client.request(req);
+  }
+
+  /**
+   * Updates are buffered only while more are queued: each update of a trickle is sent once the
+   * queue is empty, while the stream stays open waiting for more.
+   */
+  @Test
+  public void testTrickleOfUpdatesFlushedPromptly() throws Exception {
+    TestServlet.clear();
+    String serverUrl = solrTestRule.getBaseUrl() + "/cuss/foo";
+    try (var httpClient = (HttpJettySolrClient) solrClient(null);
+        var concurrentClient =
+            new ConcurrentUpdateJettySolrClient.Builder(serverUrl, httpClient)
+                .withQueueSize(10)
+                .withThreadCount(1)
+                // much longer than the wait for each update below
+                .setPollQueueTime(60, TimeUnit.SECONDS)
+                .build()) {
+      for (int i = 1; i <= 3; i++) {
+        sendDoc(concurrentClient, "trickle_" + i);
+        final int numDocs = i;
+        new TimeOut(15, TimeUnit.SECONDS, TimeSource.NANO_TIME)
+            .waitFor(
+                "update " + i + " was not sent", () -> TestServlet.numDocsRcvd.get() == numDocs);
+      }
+      // all in the same stream
+      assertEquals(1, TestServlet.numReqsRcvd.get());
+      assertEquals(List.of("trickle_1", "trickle_2", "trickle_3"), TestServlet.docIdsRcvd);
+      concurrentClient.shutdownNow();
+    }
+  }
+
+  /** A burst of updates written through the buffer arrives complete and in order. */
+  @Test
+  public void testBurstOfUpdatesArrivesInOrder() throws Exception {
+    TestServlet.clear();
+    String serverUrl = solrTestRule.getBaseUrl() + "/cuss/foo";
+    List<String> ids = new ArrayList<>();
+    try (var httpClient = (HttpJettySolrClient) solrClient(null);
+        var concurrentClient =
+            new ConcurrentUpdateJettySolrClient.Builder(serverUrl, httpClient)
+                .withQueueSize(100)
+                .withThreadCount(1)
+                .setPollQueueTime(1, TimeUnit.SECONDS)
+                .build()) {
+      // many times the size of the buffer
+      for (int i = 0; i < 5000; i++) {
+        String id = "burst_" + i;
+        ids.add(id);
+        sendDoc(concurrentClient, id);
+      }
+      concurrentClient.blockUntilFinished();
+    }
+    assertEquals(ids, TestServlet.docIdsRcvd);
+  }
+
   public static class OutcomeCountingConcurrentUpdateJettySolrClient
       extends ConcurrentUpdateJettySolrClient {
     private final AtomicInteger successCounter;
@@ -141,6 +141,14 @@ public interface CommonParams {
 
   boolean SEGMENT_TERMINATE_EARLY_DEFAULT = false;
 
+  /**
+   * Whether the execution of the filters of a query (cached sets, leapfrogging, post filtering) and
+   * early termination are chosen from cost estimates instead of only from the query's hints.
+   */
+  String QUERY_PLANNER = "queryPlanner";
+
+  boolean QUERY_PLANNER_DEFAULT = false;
+
   /**
    * If true then allow returning partial results. If false and full results can't be produced
    * return no results / error.
@@ -153,6 +161,12 @@ public interface CommonParams {
   /** Whether the search may use the multi-threaded logic */
   String MULTI_THREADED = "multiThreaded";
 
+  /**
+   * The most threads a {@link #MULTI_THREADED multi-threaded} request may use. If not set, or the
+   * value is &lt;= 0, the request may use one thread per slice of segments.
+   */
+  String MULTI_THREADED_MAX_THREADS = "multiThreaded.maxThreads";
+
   /**
    * Maximum query CPU usage value in milliseconds. If not set, or the value is &lt; 0, there is no
    * timeout.
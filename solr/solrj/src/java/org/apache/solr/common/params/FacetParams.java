@@ -124,6 +124,19 @@ public interface FacetParams {
    */
   String FACET_PIVOT_MINCOUNT = FACET_PIVOT + ".mincount";
 
+  /**
+   * How pivots are computed: "count" counts all the levels of a pivot over string fields with
+   * docValues in a single pass over the documents, "subset" computes the counts of each level over
+   * the subset of documents of each value of the previous level.
+   *
+   * <p>default value is "count", for the pivots that support it
+   */
+  String FACET_PIVOT_METHOD = FACET_PIVOT + ".method";
+
+  String FACET_PIVOT_METHOD_count = "count";
+
+  String FACET_PIVOT_METHOD_subset = "subset";
+
   /**
    * String option: "count" causes facets to be sorted by the count, "index" results in index order.
    */
@@ -103,6 +103,7 @@ public abstract class ConcurrentUpdateSolrClientTestBase extends SolrTestCaseJ4
       errorCode = null;
       numReqsRcvd.set(0);
       numDocsRcvd.set(0);
+      docIdsRcvd.clear();
     }
 
     public static Integer errorCode = null;
@@ -111,6 +112,7 @@ public abstract class ConcurrentUpdateSolrClientTestBase extends SolrTestCaseJ4
     public static Map<String, String[]> parameters = null;
     public static AtomicInteger numReqsRcvd = new AtomicInteger(0);
     public static AtomicInteger numDocsRcvd = new AtomicInteger(0);
+    public static List<String> docIdsRcvd = new CopyOnWriteArrayList<>();
 
     public static void setErrorCode(Integer code) {
       errorCode = code;
@@ -159,6 +161,7 @@ public abstract class ConcurrentUpdateSolrClientTestBase extends SolrTestCaseJ4
     public void update(
         SolrInputDocument document, UpdateRequest req, Integer commitWithin, Boolean override) {
       numDocsRcvd.incrementAndGet();
+      docIdsRcvd.add((String) document.getFieldValue("id"));
     }
   } // end TestServlet
 